@@ -104,6 +104,18 @@ public class Configurator {
 		@Comment("Terrain setup done off the main render thread. Increases FPS when moving. May see occasional flashes of blank chunks")
 		boolean terrainSetupOffThread = true;
 
+		@Comment("Splits each step of terrain visibility search across chunk build threads. Faster at high render distance on CPUs with many cores.")
+		boolean parallelTerrainIteration = false;
+
+		@Comment("Draws terrain occluders on multiple threads. Faster on CPUs with many cores but may cull slightly less.")
+		boolean parallelOcclusionRaster = false;
+
+		@Comment("Tracks occluder depth so that occluders drawn out of order never hide nearer terrain. Uses a little more memory and time.")
+		boolean depthAwareOcclusion = false;
+
+		@Comment("Reuses the occluder raster from the last full redraw when the camera only turns, instead of redrawing every visible region. Turns on depth-aware occlusion.")
+		boolean occlusionReprojection = false;
+
 		@Comment("Use Vertex Array Objects if available. VAOs generally improve performance when they are supported.")
 		boolean enableVao = true;
 
@@ -138,6 +150,36 @@ public class Configurator {
 		@Comment("Uses slower and safer memory allocation method for GL buffers.  Use only if having problems. Requires restart.")
 		boolean safeNativeMemoryAllocation = false;
 
+		@Comment("Chunk builders write vertex data to pooled native memory that is uploaded without another copy. Requires restart.")
+		boolean offHeapVertexCollectors = false;
+
+		@Comment("Megabytes of released transfer buffers kept for reuse instead of freed. Larger render distances may benefit from more.")
+		int transferBufferPoolMB = 64;
+
+		@Comment("Uploads chunk data through a persistently mapped staging buffer. Needs OpenGL 4.4. Requires restart.")
+		boolean stagingRingUpload = false;
+
+		@Comment("Milliseconds per frame the render thread may spend uploading chunk data. At least one chunk is uploaded each frame. Zero means no limit.")
+		int maxUploadMillisPerFrame = 4;
+
+		@Comment("Solid terrain shares a few large vertex buffers instead of one buffer per region. Requires restart.")
+		boolean terrainArena = false;
+
+		@Comment("Draws solid terrain with one multi-draw call per material in each render cube. Needs batched chunk render.")
+		boolean terrainMultiDraw = false;
+
+		@Comment("Groups solid terrain quads by the face they point toward so faces pointing away from the camera are not drawn. Applies as regions are rebuilt.")
+		boolean terrainFaceCulling = false;
+
+		@Comment("Stores solid terrain vertex positions as 16-bit fixed point, making vertices 24 bytes instead of 32. Requires restart.")
+		boolean compactTerrainVertices = false;
+
+		@Comment("Region builders read block states and block entities from the world themselves instead of the main thread copying them first. Block entity render data is then read off the main thread.")
+		boolean offThreadWorldCapture = false;
+
+		@Comment("Regions farther than this many chunks leave out small plants and cobwebs and merge matching block faces into larger quads. Zero disables. Applies as regions are rebuilt.")
+		int lodDistance = 0;
+
 		@Comment("Output performance trace data to log. Will have significant performance impact. Requires restart.")
 		boolean enablePerformanceTrace = false;
 
@@ -182,6 +224,10 @@ public class Configurator {
 	public static boolean clampExteriorVertices = DEFAULTS.clampExteriorVertices;
 	public static boolean fixLuminousBlockShading = DEFAULTS.fixLuminousBlockShading;
 	public static boolean terrainSetupOffThread = DEFAULTS.terrainSetupOffThread;
+	public static boolean parallelTerrainIteration = DEFAULTS.parallelTerrainIteration;
+	public static boolean parallelOcclusionRaster = DEFAULTS.parallelOcclusionRaster;
+	public static boolean depthAwareOcclusion = DEFAULTS.depthAwareOcclusion;
+	public static boolean occlusionReprojection = DEFAULTS.occlusionReprojection;
 	private static boolean enableVao = DEFAULTS.enableVao;
 	public static boolean cullEntityRender = DEFAULTS.cullEntityRender;
 	public static boolean greedyRenderThread = DEFAULTS.greedyRenderThread;
@@ -194,6 +240,16 @@ public class Configurator {
 	public static boolean logGlStateChanges = DEFAULTS.logGlStateChanges;
 	public static boolean debugNativeMemoryAllocation = DEFAULTS.debugNativeMemoryAllocation;
 	public static boolean safeNativeMemoryAllocation = DEFAULTS.safeNativeMemoryAllocation;
+	public static boolean offHeapVertexCollectors = DEFAULTS.offHeapVertexCollectors;
+	public static int transferBufferPoolMB = DEFAULTS.transferBufferPoolMB;
+	public static boolean stagingRingUpload = DEFAULTS.stagingRingUpload;
+	public static int maxUploadMillisPerFrame = DEFAULTS.maxUploadMillisPerFrame;
+	public static boolean terrainArena = DEFAULTS.terrainArena;
+	public static boolean terrainMultiDraw = DEFAULTS.terrainMultiDraw;
+	public static boolean terrainFaceCulling = DEFAULTS.terrainFaceCulling;
+	public static boolean compactTerrainVertices = DEFAULTS.compactTerrainVertices;
+	public static boolean offThreadWorldCapture = DEFAULTS.offThreadWorldCapture;
+	public static int lodDistance = DEFAULTS.lodDistance;
 	public static boolean enablePerformanceTrace = DEFAULTS.enablePerformanceTrace;
 	public static boolean debugOcclusionRaster = DEFAULTS.debugOcclusionRaster;
 	public static boolean debugOcclusionBoxes = DEFAULTS.debugOcclusionBoxes;
@@ -258,7 +314,21 @@ public class Configurator {
 		clampExteriorVertices = config.clampExteriorVertices;
 		fixLuminousBlockShading = config.fixLuminousBlockShading;
 		terrainSetupOffThread = config.terrainSetupOffThread;
+		parallelTerrainIteration = config.parallelTerrainIteration;
+		parallelOcclusionRaster = config.parallelOcclusionRaster;
+		depthAwareOcclusion = config.depthAwareOcclusion;
+		occlusionReprojection = config.occlusionReprojection;
 		safeNativeMemoryAllocation = config.safeNativeMemoryAllocation;
+		offHeapVertexCollectors = config.offHeapVertexCollectors;
+		transferBufferPoolMB = config.transferBufferPoolMB;
+		stagingRingUpload = config.stagingRingUpload;
+		maxUploadMillisPerFrame = config.maxUploadMillisPerFrame;
+		terrainArena = config.terrainArena;
+		terrainMultiDraw = config.terrainMultiDraw;
+		terrainFaceCulling = config.terrainFaceCulling;
+		compactTerrainVertices = config.compactTerrainVertices;
+		offThreadWorldCapture = config.offThreadWorldCapture;
+		lodDistance = config.lodDistance;
 		enableVao = config.enableVao;
 		cullEntityRender = config.cullEntityRender;
 		greedyRenderThread = config.greedyRenderThread;
@@ -302,7 +372,21 @@ public class Configurator {
 		config.clampExteriorVertices = clampExteriorVertices;
 		config.fixLuminousBlockShading = fixLuminousBlockShading;
 		config.terrainSetupOffThread = terrainSetupOffThread;
+		config.parallelTerrainIteration = parallelTerrainIteration;
+		config.parallelOcclusionRaster = parallelOcclusionRaster;
+		config.depthAwareOcclusion = depthAwareOcclusion;
+		config.occlusionReprojection = occlusionReprojection;
 		config.safeNativeMemoryAllocation = safeNativeMemoryAllocation;
+		config.offHeapVertexCollectors = offHeapVertexCollectors;
+		config.transferBufferPoolMB = transferBufferPoolMB;
+		config.stagingRingUpload = stagingRingUpload;
+		config.maxUploadMillisPerFrame = maxUploadMillisPerFrame;
+		config.terrainArena = terrainArena;
+		config.terrainMultiDraw = terrainMultiDraw;
+		config.terrainFaceCulling = terrainFaceCulling;
+		config.compactTerrainVertices = compactTerrainVertices;
+		config.offThreadWorldCapture = offThreadWorldCapture;
+		config.lodDistance = lodDistance;
 		config.enableVao = enableVao;
 		config.cullEntityRender = cullEntityRender;
 		config.greedyRenderThread = greedyRenderThread;
@@ -547,6 +631,34 @@ public class Configurator {
 				.setSaveConsumer(b -> {reload |= terrainSetupOffThread != b; terrainSetupOffThread = b;})
 				.build());
 
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.parallel_terrain_iteration"), parallelTerrainIteration)
+				.setDefaultValue(DEFAULTS.parallelTerrainIteration)
+				.setTooltip(parse("config.canvas.help.parallel_terrain_iteration"))
+				.setSaveConsumer(b -> parallelTerrainIteration = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.parallel_occlusion_raster"), parallelOcclusionRaster)
+				.setDefaultValue(DEFAULTS.parallelOcclusionRaster)
+				.setTooltip(parse("config.canvas.help.parallel_occlusion_raster"))
+				.setSaveConsumer(b -> parallelOcclusionRaster = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.depth_aware_occlusion"), depthAwareOcclusion)
+				.setDefaultValue(DEFAULTS.depthAwareOcclusion)
+				.setTooltip(parse("config.canvas.help.depth_aware_occlusion"))
+				.setSaveConsumer(b -> depthAwareOcclusion = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.occlusion_reprojection"), occlusionReprojection)
+				.setDefaultValue(DEFAULTS.occlusionReprojection)
+				.setTooltip(parse("config.canvas.help.occlusion_reprojection"))
+				.setSaveConsumer(b -> occlusionReprojection = b)
+				.build());
+
 		tweaks.addEntry(ENTRY_BUILDER
 				.startBooleanToggle(new TranslatableText("config.canvas.value.safe_native_allocation"), safeNativeMemoryAllocation)
 				.setDefaultValue(DEFAULTS.safeNativeMemoryAllocation)
@@ -554,6 +666,76 @@ public class Configurator {
 				.setSaveConsumer(b -> safeNativeMemoryAllocation = b)
 				.build());
 
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.off_heap_vertex_collectors"), offHeapVertexCollectors)
+				.setDefaultValue(DEFAULTS.offHeapVertexCollectors)
+				.setTooltip(parse("config.canvas.help.off_heap_vertex_collectors"))
+				.setSaveConsumer(b -> offHeapVertexCollectors = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startIntSlider(new TranslatableText("config.canvas.value.transfer_buffer_pool_mb"), transferBufferPoolMB, 0, 512)
+				.setDefaultValue(DEFAULTS.transferBufferPoolMB)
+				.setTooltip(parse("config.canvas.help.transfer_buffer_pool_mb"))
+				.setSaveConsumer(b -> transferBufferPoolMB = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.staging_ring_upload"), stagingRingUpload)
+				.setDefaultValue(DEFAULTS.stagingRingUpload)
+				.setTooltip(parse("config.canvas.help.staging_ring_upload"))
+				.setSaveConsumer(b -> stagingRingUpload = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startIntSlider(new TranslatableText("config.canvas.value.max_upload_millis_per_frame"), maxUploadMillisPerFrame, 0, 20)
+				.setDefaultValue(DEFAULTS.maxUploadMillisPerFrame)
+				.setTooltip(parse("config.canvas.help.max_upload_millis_per_frame"))
+				.setSaveConsumer(b -> maxUploadMillisPerFrame = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.terrain_arena"), terrainArena)
+				.setDefaultValue(DEFAULTS.terrainArena)
+				.setTooltip(parse("config.canvas.help.terrain_arena"))
+				.setSaveConsumer(b -> terrainArena = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.terrain_multi_draw"), terrainMultiDraw)
+				.setDefaultValue(DEFAULTS.terrainMultiDraw)
+				.setTooltip(parse("config.canvas.help.terrain_multi_draw"))
+				.setSaveConsumer(b -> terrainMultiDraw = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.terrain_face_culling"), terrainFaceCulling)
+				.setDefaultValue(DEFAULTS.terrainFaceCulling)
+				.setTooltip(parse("config.canvas.help.terrain_face_culling"))
+				.setSaveConsumer(b -> terrainFaceCulling = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.compact_terrain_vertices"), compactTerrainVertices)
+				.setDefaultValue(DEFAULTS.compactTerrainVertices)
+				.setTooltip(parse("config.canvas.help.compact_terrain_vertices"))
+				.setSaveConsumer(b -> compactTerrainVertices = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startBooleanToggle(new TranslatableText("config.canvas.value.off_thread_world_capture"), offThreadWorldCapture)
+				.setDefaultValue(DEFAULTS.offThreadWorldCapture)
+				.setTooltip(parse("config.canvas.help.off_thread_world_capture"))
+				.setSaveConsumer(b -> offThreadWorldCapture = b)
+				.build());
+
+		tweaks.addEntry(ENTRY_BUILDER
+				.startIntSlider(new TranslatableText("config.canvas.value.lod_distance"), lodDistance, 0, 32)
+				.setDefaultValue(DEFAULTS.lodDistance)
+				.setTooltip(parse("config.canvas.help.lod_distance"))
+				.setSaveConsumer(b -> lodDistance = b)
+				.build());
+
 		tweaks.addEntry(ENTRY_BUILDER
 				.startBooleanToggle(new TranslatableText("config.canvas.value.enable_vao"), enableVao)
 				.setDefaultValue(DEFAULTS.enableVao)
@@ -40,10 +40,15 @@ import grondag.canvas.light.LightmapHd;
 import grondag.canvas.light.LightmapHdTexture;
 import grondag.canvas.material.MaterialState;
 import grondag.canvas.perf.ChunkRebuildCounters;
+import grondag.canvas.perf.OcclusionCounters;
+import grondag.canvas.perf.TerrainDrawCounters;
+import grondag.canvas.perf.TerrainIterationCounters;
+import grondag.canvas.perf.TranslucentSortCounters;
 import grondag.canvas.pipeline.ProcessShaders;
 import grondag.canvas.shader.EntityShader;
 import grondag.canvas.shader.GlShaderManager;
 import grondag.canvas.shader.MaterialShaderManager;
+import grondag.canvas.terrain.BlockStateFlags;
 import grondag.canvas.terrain.ChunkColorCache;
 import grondag.canvas.terrain.ProtoRenderRegion;
 import grondag.canvas.terrain.TerrainModelSpace;
@@ -95,10 +100,15 @@ public class Canvas implements Renderer {
 
 	public void reload() {
 		CanvasMod.LOG.info(I18n.translate("info.canvas.reloading"));
+		BlockStateFlags.reload();
 		ProtoRenderRegion.reload();
 		BlockRenderContext.reload();
 		ItemRenderContext.reload();
 		ChunkRebuildCounters.reset();
+		OcclusionCounters.reset();
+		TerrainDrawCounters.reset();
+		TerrainIterationCounters.reset();
+		TranslucentSortCounters.reset();
 		ChunkColorCache.invalidate();
 		AoVertexClampFunction.reload();
 		GlShaderManager.INSTANCE.reload();
@@ -7,7 +7,6 @@ import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.color.block.BlockColors;
-import net.minecraft.client.render.RenderLayers;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.BlockRenderView;
 
@@ -17,7 +16,7 @@ import net.fabricmc.fabric.api.renderer.v1.render.RenderContext;
 import grondag.canvas.apiimpl.mesh.MutableQuadViewImpl;
 import grondag.canvas.apiimpl.util.GeometryHelper;
 import grondag.canvas.buffer.encoding.VertexEncoder;
-import grondag.canvas.mixinterface.RenderLayerExt;
+import grondag.canvas.terrain.BlockStateFlags;
 import grondag.frex.api.material.MaterialMap;
 
 public abstract class AbstractBlockRenderContext<T extends BlockRenderView > extends AbstractRenderContext implements RenderContext {
@@ -81,7 +80,7 @@ public abstract class AbstractBlockRenderContext<T extends BlockRenderView > ext
 		fullCubeCache = 0;
 		this.seed = seed;
 		defaultAo = modelAO && MinecraftClient.isAmbientOcclusionEnabled() && blockState.getLuminance() == 0;
-		defaultBlendModeIndex = ((RenderLayerExt) RenderLayers.getBlockLayer(blockState)).canvas_blendModeIndex();
+		defaultBlendModeIndex = BlockStateFlags.blendModeIndex(BlockStateFlags.get(blockState));
 	}
 
 	@Override
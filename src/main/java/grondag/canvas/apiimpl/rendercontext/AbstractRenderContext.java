@@ -214,6 +214,7 @@ public abstract class AbstractRenderContext implements RenderContext {
 		if (transform(quad) && cullTest(quad)) {
 			final MeshMaterialLocator mat = quad.material().withDefaultBlendMode(defaultBlendModeIndex());
 			quad.material(mat);
+			collectors.prepareQuad(quad);
 			VertexEncoders.get(materialContext(), mat).encodeQuad(quad, this);
 		}
 	}
@@ -35,6 +35,7 @@ import grondag.canvas.apiimpl.material.MeshMaterialLayer;
 import grondag.canvas.light.AoCalculator;
 import grondag.canvas.material.EncodingContext;
 import grondag.canvas.mixinterface.Matrix3fExt;
+import grondag.canvas.terrain.BlockStateFlags;
 import grondag.fermion.sc.concurrency.SimpleConcurrentList;
 
 /**
@@ -113,7 +114,7 @@ public class BlockRenderContext extends AbstractBlockRenderContext<BlockRenderVi
 			final int z = (packedXyz5 >> 10) - 1+ pos.getZ();
 			internalSearchPos.set(x, y, z);
 			final BlockState state = blockView.getBlockState(internalSearchPos);
-			return state.isOpaqueFullCube(blockView, internalSearchPos);
+			return BlockStateFlags.isOpaqueFullCube(state, BlockStateFlags.get(state), blockView, internalSearchPos);
 		}
 	};
 
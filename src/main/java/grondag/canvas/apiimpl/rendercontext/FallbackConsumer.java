@@ -141,6 +141,7 @@ public class FallbackConsumer implements Consumer<BakedModel> {
 
 		final MeshMaterialLocator mat = editorQuad.material().withDefaultBlendMode(context.defaultBlendModeIndex());
 		editorQuad.material(mat);
+		context.collectors.prepareQuad(editorQuad);
 		VertexEncoders.get(context.materialContext(), mat).encodeQuad(editorQuad, context);
 	}
 }
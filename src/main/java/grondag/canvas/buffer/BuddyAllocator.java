@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2019 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.buffer;
+
+import java.util.BitSet;
+
+/**
+ * Buddy allocation of byte ranges within a fixed capacity, without any GL calls.
+ * Used by {@link TerrainArena} to place regions in a shared buffer.
+ *
+ * <p>Blocks are powers of two from the minimum block size up to the capacity.  Allocation takes
+ * the lowest free block of the smallest order that fits, splitting larger blocks as needed, so
+ * space is packed toward the start.  Freed blocks merge with their buddy when it is also free.
+ *
+ * <p>Not thread-safe.
+ */
+class BuddyAllocator {
+	private final int capacity;
+	private final int minBlockBits;
+	private final int maxOrder;
+
+	/** For each order, bit n is set if block n of that order is free */
+	private final BitSet[] free;
+
+	/** For each minimum block, one more than the order of an allocation starting there, or zero */
+	private final byte[] allocatedOrder;
+
+	/** For each minimum block, bytes requested for an allocation starting there */
+	private final int[] requested;
+
+	private int allocatedBytes = 0;
+	private int requestedBytes = 0;
+	private int allocationCount = 0;
+
+	/**
+	 * @param capacity bytes, a power of two
+	 * @param minBlockBytes smallest block, a power of two no larger than capacity
+	 */
+	BuddyAllocator(int capacity, int minBlockBytes) {
+		assert Integer.bitCount(capacity) == 1;
+		assert Integer.bitCount(minBlockBytes) == 1;
+		assert minBlockBytes <= capacity;
+
+		this.capacity = capacity;
+		minBlockBits = Integer.numberOfTrailingZeros(minBlockBytes);
+		maxOrder = Integer.numberOfTrailingZeros(capacity) - minBlockBits;
+		free = new BitSet[maxOrder + 1];
+
+		for (int i = 0; i <= maxOrder; ++i) {
+			free[i] = new BitSet(1 << (maxOrder - i));
+		}
+
+		free[maxOrder].set(0);
+
+		final int slotCount = capacity >> minBlockBits;
+		allocatedOrder = new byte[slotCount];
+		requested = new int[slotCount];
+	}
+
+	/**
+	 * @return offset of the allocated range, or -1 if no free block is large enough
+	 */
+	int allocate(int bytes) {
+		if (bytes <= 0 || bytes > capacity) {
+			return -1;
+		}
+
+		final int order = orderFor(bytes);
+		int o = order;
+
+		while (o <= maxOrder && free[o].isEmpty()) {
+			++o;
+		}
+
+		if (o > maxOrder) {
+			return -1;
+		}
+
+		int index = free[o].nextSetBit(0);
+		free[o].clear(index);
+
+		// keep the lower half, free the upper half
+		while (o > order) {
+			--o;
+			index <<= 1;
+			free[o].set(index + 1);
+		}
+
+		final int offset = index << (order + minBlockBits);
+		final int slot = offset >> minBlockBits;
+		allocatedOrder[slot] = (byte) (order + 1);
+		requested[slot] = bytes;
+		allocatedBytes += blockBytes(order);
+		requestedBytes += bytes;
+		++allocationCount;
+		return offset;
+	}
+
+	void free(int offset) {
+		final int slot = offset >> minBlockBits;
+		int order = allocatedOrder[slot] - 1;
+		assert order >= 0 : "Free of unallocated offset";
+
+		allocatedOrder[slot] = 0;
+		allocatedBytes -= blockBytes(order);
+		requestedBytes -= requested[slot];
+		--allocationCount;
+
+		int index = offset >> (order + minBlockBits);
+
+		while (order < maxOrder && free[order].get(index ^ 1)) {
+			free[order].clear(index ^ 1);
+			index >>= 1;
+			++order;
+		}
+
+		free[order].set(index);
+	}
+
+	private int orderFor(int bytes) {
+		final int blocks = (bytes + (1 << minBlockBits) - 1) >> minBlockBits;
+		return blocks == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(blocks - 1);
+	}
+
+	private int blockBytes(int order) {
+		return 1 << (order + minBlockBits);
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	int allocatedBytes() {
+		return allocatedBytes;
+	}
+
+	int requestedBytes() {
+		return requestedBytes;
+	}
+
+	int allocationCount() {
+		return allocationCount;
+	}
+
+	int freeBytes() {
+		return capacity - allocatedBytes;
+	}
+
+	int largestFreeBlock() {
+		for (int o = maxOrder; o >= 0; --o) {
+			if (!free[o].isEmpty()) {
+				return blockBytes(o);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Share of free space that is not in the largest free block. Zero when free space is contiguous.
+	 */
+	float externalFragmentation() {
+		final int freeBytes = freeBytes();
+		return freeBytes == 0 ? 0 : 1f - (float) largestFreeBlock() / freeBytes;
+	}
+
+	/**
+	 * Share of allocated space lost to rounding requests up to a block size.
+	 */
+	float internalFragmentation() {
+		return allocatedBytes == 0 ? 0 : 1f - (float) requestedBytes / allocatedBytes;
+	}
+}
@@ -19,6 +19,7 @@ package grondag.canvas.buffer;
 import java.nio.IntBuffer;
 
 import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.lwjgl.opengl.GL21;
 
 import net.minecraft.client.util.GlAllocationUtils;
@@ -30,6 +31,7 @@ import net.minecraft.client.util.GlAllocationUtils;
 public class GlBufferAllocator {
 	private static final IntArrayFIFOQueue queue = new IntArrayFIFOQueue(256);
 	private static final IntBuffer buff = GlAllocationUtils.allocateByteBuffer(256 * 4).asIntBuffer();
+	private static final IntArrayList releaseQueue = new IntArrayList();
 	private static int allocatedCount = 0;
 	private static int allocatedBytes = 0;
 
@@ -49,12 +51,36 @@ public class GlBufferAllocator {
 		return queue.dequeueInt();
 	}
 
+	/**
+	 * Buffer is deleted on the next call to {@link #flushReleases()}.
+	 */
 	public static void releaseBuffer(int buff, int expectedBytes) {
-		GL21.glDeleteBuffers(buff);
+		releaseQueue.add(buff);
 		--allocatedCount;
 		allocatedBytes -= expectedBytes;
 	}
 
+	/**
+	 * Deletes released buffers with one GL call per 256 buffers instead of one each.
+	 */
+	public static void flushReleases() {
+		final int size = releaseQueue.size();
+
+		for (int i = 0; i < size; ) {
+			final int limit = Math.min(size, i + 256);
+
+			while (i < limit) {
+				buff.put(releaseQueue.getInt(i++));
+			}
+
+			buff.flip();
+			GL21.glDeleteBuffers(buff);
+			buff.clear();
+		}
+
+		releaseQueue.clear();
+	}
+
 	public static String debugString() {
 		return String.format("Allocated draw buffers: %05d @ %05dMB", allocatedCount, allocatedBytes / 0x100000);
 	}
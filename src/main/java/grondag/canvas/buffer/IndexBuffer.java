@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2019 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.lwjgl.opengl.GL21;
+
+import grondag.canvas.perf.ChunkRebuildCounters;
+
+/**
+ * Element indices for a {@link VboBuffer}, four unsigned ints per quad.  Indices can be
+ * replaced without touching vertex data, so re-sorting translucent quads uploads only the
+ * new draw order.
+ */
+public class IndexBuffer {
+	ByteBuffer uploadBuffer;
+	private final int byteCount;
+	private int glBufferId = -1;
+	private boolean isClosed = false;
+
+	public IndexBuffer(int bytes) {
+		uploadBuffer = TransferBufferAllocator.claim(bytes);
+		byteCount = bytes;
+	}
+
+	public int byteCount() {
+		return byteCount;
+	}
+
+	public int indexCount() {
+		return byteCount / 4;
+	}
+
+	public IntBuffer intBuffer() {
+		return uploadBuffer.asIntBuffer();
+	}
+
+	public void upload() {
+		final ByteBuffer uploadBuffer = this.uploadBuffer;
+
+		if (uploadBuffer != null) {
+			this.uploadBuffer = null;
+			upload(uploadBuffer);
+		}
+	}
+
+	/**
+	 * Replaces all indices and releases the transfer buffer holding them.
+	 * Indices must have the same count as when this buffer was created.
+	 */
+	public void upload(ByteBuffer indices) {
+		assert RenderSystem.isOnRenderThread();
+
+		if (!isClosed) {
+			indices.position(0);
+			indices.limit(byteCount);
+
+			// Bound as an array buffer for upload so the element binding of any bound VAO is not changed.
+			// Data is replaced instead of updated to avoid waiting on draws still using the prior order.
+			BindStateManager.bind(glBufferId());
+
+			if (StagingRing.get() == null) {
+				GL21.glBufferData(GL21.GL_ARRAY_BUFFER, indices, GL21.GL_DYNAMIC_DRAW);
+			} else {
+				GL21.glBufferData(GL21.GL_ARRAY_BUFFER, byteCount, GL21.GL_DYNAMIC_DRAW);
+				StagingRing.upload(indices, byteCount, 0);
+			}
+
+			BindStateManager.unbind();
+
+			if (ChunkRebuildCounters.ENABLED) {
+				ChunkRebuildCounters.uploadIndexBytes(byteCount);
+			}
+		}
+
+		TransferBufferAllocator.release(indices);
+	}
+
+	private int glBufferId() {
+		int result = glBufferId;
+
+		if(result == -1) {
+			result = GlBufferAllocator.claimBuffer(byteCount);
+
+			assert result > 0;
+
+			glBufferId = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Call after the vertex buffer is bound, because binding a VAO changes the element binding.
+	 */
+	public void bind() {
+		assert RenderSystem.isOnRenderThread();
+		GL21.glBindBuffer(GL21.GL_ELEMENT_ARRAY_BUFFER, glBufferId());
+	}
+
+	public static void unbind() {
+		GL21.glBindBuffer(GL21.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	public void close() {
+		if (RenderSystem.isOnRenderThread()) {
+			onClose();
+		} else {
+			RenderSystem.recordRenderCall(this::onClose);
+		}
+	}
+
+	private void onClose() {
+		if (!isClosed) {
+			isClosed = true;
+
+			final int glBufferId = this.glBufferId;
+
+			if(glBufferId != -1) {
+				GlBufferAllocator.releaseBuffer(glBufferId, byteCount);
+				this.glBufferId = -1;
+			}
+
+			final ByteBuffer uploadBuffer = this.uploadBuffer;
+
+			if(uploadBuffer != null) {
+				TransferBufferAllocator.release(uploadBuffer);
+				this.uploadBuffer = null;
+			}
+		}
+	}
+}
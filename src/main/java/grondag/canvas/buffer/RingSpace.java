@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2019 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.buffer;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+
+/**
+ * Space accounting for {@link StagingRing}, without any GL calls.
+ *
+ * <p>Space is claimed in order from a write position that wraps to zero.  Space claimed since the
+ * last fence is assigned to the next fence, and is reused only after that fence and every fence
+ * before it has signaled.  Fences are opaque handles here.
+ */
+class RingSpace {
+	/** Claims are aligned to this many bytes */
+	static final int ALIGNMENT = 64;
+
+	private final int capacity;
+	private int head = 0;
+	private int used = 0;
+	private int unfencedBytes = 0;
+
+	private final LongArrayFIFOQueue fences = new LongArrayFIFOQueue();
+	private final IntArrayFIFOQueue fencedBytes = new IntArrayFIFOQueue();
+
+	RingSpace(int capacity) {
+		assert (capacity & (ALIGNMENT - 1)) == 0;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the offset of contiguous space of at least the given size,
+	 * or -1 if that much space is not free.
+	 */
+	int claim(int bytes) {
+		bytes = (bytes + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+		int offset = head;
+		int needed = bytes;
+
+		if (offset + bytes > capacity) {
+			// space at the end is too small and is skipped
+			needed += capacity - offset;
+			offset = 0;
+		}
+
+		if (needed > capacity - used) {
+			return -1;
+		}
+
+		used += needed;
+		unfencedBytes += needed;
+		head = offset + bytes;
+		return offset;
+	}
+
+	/**
+	 * Assigns space claimed since the last fence to the given fence.
+	 *
+	 * @return false if no space was claimed, in which case the fence is not retained
+	 */
+	boolean fence(long fence) {
+		if (unfencedBytes == 0) {
+			return false;
+		}
+
+		fences.enqueue(fence);
+		fencedBytes.enqueue(unfencedBytes);
+		unfencedBytes = 0;
+		return true;
+	}
+
+	/**
+	 * Frees space of fences that have signaled, oldest first, stopping at the first that has not.
+	 *
+	 * @param signaled true if a fence has signaled, after which the fence is no longer retained
+	 */
+	void retire(LongPredicate signaled) {
+		while (!fences.isEmpty() && signaled.test(fences.firstLong())) {
+			fences.dequeueLong();
+			used -= fencedBytes.dequeueInt();
+		}
+	}
+
+	/**
+	 * Forgets all fences, which are passed to the given consumer, and frees all space.
+	 */
+	void clear(LongConsumer release) {
+		while (!fences.isEmpty()) {
+			release.accept(fences.dequeueLong());
+		}
+
+		fencedBytes.clear();
+		head = 0;
+		used = 0;
+		unfencedBytes = 0;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	int usedBytes() {
+		return used;
+	}
+
+	int fenceCount() {
+		return fences.size();
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2019 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.buffer;
+
+import java.nio.ByteBuffer;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.system.MemoryUtil;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+import grondag.canvas.perf.ChunkRebuildCounters;
+import grondag.canvas.varia.CanvasGlHelper;
+
+/**
+ * Persistently mapped staging buffer that upload data is written into and then copied
+ * to its destination buffer by the GPU, instead of each upload handing the driver a
+ * new block of client memory.  A fence is placed after each frame's copies and space
+ * is reused once its fence signals.  When the ring is full, uploads fall back to
+ * {@code glBufferSubData} rather than wait.
+ *
+ * <p>Enabled by configuration and only when buffer storage (OpenGL 4.4) is available.
+ */
+public class StagingRing {
+	private static final int CAPACITY = 0x1000000;
+	private static final int FLAGS = GL44.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT | GL44.GL_MAP_COHERENT_BIT;
+	private static final boolean ENABLED = Configurator.stagingRingUpload;
+
+	private static StagingRing instance;
+	private static boolean isInitialized = false;
+
+	private final int glBufferId;
+	private final long mappedAddress;
+	private final RingSpace space = new RingSpace(CAPACITY);
+
+	private StagingRing() {
+		glBufferId = GL21.glGenBuffers();
+		GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, glBufferId);
+		GL44.glBufferStorage(GL31.GL_COPY_READ_BUFFER, CAPACITY, FLAGS);
+		final ByteBuffer mapped = GL30.glMapBufferRange(GL31.GL_COPY_READ_BUFFER, 0, CAPACITY, FLAGS);
+		GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+		mappedAddress = MemoryUtil.memAddress0(mapped);
+	}
+
+	/**
+	 * The staging ring, or null if not enabled or not supported.
+	 */
+	static StagingRing get() {
+		if (!isInitialized) {
+			assert RenderSystem.isOnRenderThread();
+			isInitialized = true;
+
+			if (ENABLED) {
+				if (CanvasGlHelper.useBufferStorage()) {
+					instance = new StagingRing();
+				} else {
+					CanvasMod.LOG.info("[Canvas] Staging ring upload disabled because buffer storage is not supported.");
+				}
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Writes bytes from the start of the source to the buffer bound as {@code GL_ARRAY_BUFFER},
+	 * which must already have storage, through the staging ring if enabled.
+	 */
+	static void upload(ByteBuffer source, int bytes, long writeOffset) {
+		final StagingRing ring = get();
+
+		if (ring == null || !ring.copy(source, bytes, writeOffset)) {
+			source.position(0);
+			source.limit(bytes);
+			GL21.glBufferSubData(GL21.GL_ARRAY_BUFFER, writeOffset, source);
+		}
+	}
+
+	private boolean copy(ByteBuffer source, int bytes, long writeOffset) {
+		final int offset = space.claim(bytes);
+
+		if (offset < 0) {
+			if (ChunkRebuildCounters.ENABLED) {
+				ChunkRebuildCounters.stagingRingFull();
+			}
+
+			return false;
+		}
+
+		MemoryUtil.memCopy(MemoryUtil.memAddress0(source), mappedAddress + offset, bytes);
+		GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, glBufferId);
+		GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL21.GL_ARRAY_BUFFER, offset, writeOffset, bytes);
+		GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+
+		if (ChunkRebuildCounters.ENABLED) {
+			ChunkRebuildCounters.stageBytes(bytes);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Fences copies made since the last call and frees space of completed copies.
+	 * Call once per frame after uploads.
+	 */
+	public static void endFrame() {
+		final StagingRing ring = instance;
+
+		if (ring != null) {
+			final long fence = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+			if (!ring.space.fence(fence)) {
+				GL32.glDeleteSync(fence);
+			}
+
+			ring.space.retire(StagingRing::isSignaled);
+		}
+	}
+
+	/**
+	 * Deletes pending fences and the buffer.  The ring is created again when next used.
+	 * Call on reload and when the world is unloaded.
+	 */
+	public static void shutdown() {
+		final StagingRing ring = instance;
+
+		if (ring != null) {
+			assert RenderSystem.isOnRenderThread();
+			ring.space.clear(GL32::glDeleteSync);
+			GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, ring.glBufferId);
+			GL21.glUnmapBuffer(GL31.GL_COPY_READ_BUFFER);
+			GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+			GL21.glDeleteBuffers(ring.glBufferId);
+			instance = null;
+			isInitialized = false;
+		}
+	}
+
+	private static boolean isSignaled(long fence) {
+		final int status = GL32.glClientWaitSync(fence, 0, 0);
+
+		if (status == GL32.GL_ALREADY_SIGNALED || status == GL32.GL_CONDITION_SATISFIED) {
+			GL32.glDeleteSync(fence);
+			return true;
+		} else {
+			return false;
+		}
+	}
+}
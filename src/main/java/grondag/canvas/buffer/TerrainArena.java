@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2019 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.buffer;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL31;
+
+import grondag.canvas.Configurator;
+import grondag.canvas.material.MaterialVertexFormat;
+import grondag.canvas.varia.CanvasGlHelper;
+
+/**
+ * Large vertex buffers shared by many regions, so that regions drawn one after
+ * another usually need no new buffer bind.  Each arena is one GL buffer divided by
+ * a {@link BuddyAllocator}.  Regions in an arena draw with a vertex offset.
+ *
+ * <p>New data goes in the first arena with room.  Once per frame, if the last arena
+ * of a vertex format is lightly used, some of its slices are copied on the GPU to
+ * earlier arenas so it can be emptied and deleted.
+ *
+ * <p>All methods must be called from the render thread.
+ */
+public class TerrainArena {
+	public static final boolean ENABLED = Configurator.terrainArena;
+
+	private static final int ARENA_BYTES = 0x2000000;
+	private static final int MIN_BLOCK_BYTES = 1024;
+
+	/** Last arena is emptied into others when less than this share of it is allocated */
+	private static final float EVACUATE_BELOW = 0.25f;
+	private static final int MOVE_BYTES_PER_FRAME = 0x100000;
+
+	private static final IdentityHashMap<MaterialVertexFormat, ObjectArrayList<Arena>> ARENAS = new IdentityHashMap<>();
+	private static long movedBytes = 0;
+
+	private static class Arena {
+		private final VboBuffer buffer;
+		private final BuddyAllocator allocator = new BuddyAllocator(ARENA_BYTES, MIN_BLOCK_BYTES);
+		private final ObjectArrayList<Slice> slices = new ObjectArrayList<>();
+
+		private Arena(MaterialVertexFormat format) {
+			buffer = new VboBuffer(ARENA_BYTES, format);
+			buffer.allocateStorage();
+		}
+
+		private void add(Slice slice) {
+			slice.arena = this;
+			slice.listIndex = slices.size();
+			slices.add(slice);
+		}
+
+		private void remove(Slice slice) {
+			allocator.free(slice.blockOffset);
+
+			final int last = slices.size() - 1;
+			final Slice moved = slices.get(last);
+			slices.set(slice.listIndex, moved);
+			moved.listIndex = slice.listIndex;
+			slices.remove(last);
+			slice.arena = null;
+		}
+	}
+
+	/**
+	 * Space in an arena holding the vertex data of one drawable.
+	 */
+	public static class Slice {
+		private Arena arena;
+		private int blockOffset;
+		private int firstVertex;
+		private int listIndex;
+		private final int allocatedBytes;
+		private final int byteCount;
+		private final IntConsumer onMove;
+
+		private Slice(int allocatedBytes, int byteCount, IntConsumer onMove) {
+			this.allocatedBytes = allocatedBytes;
+			this.byteCount = byteCount;
+			this.onMove = onMove;
+		}
+
+		private void place(int blockOffset, int vertexStrideBytes) {
+			this.blockOffset = blockOffset;
+			// first vertex boundary in the block
+			firstVertex = (blockOffset + vertexStrideBytes - 1) / vertexStrideBytes;
+		}
+
+		/** Index of the first vertex of this slice in its arena buffer */
+		public int firstVertex() {
+			return firstVertex;
+		}
+
+		/** Arena buffer, same for all slices that can draw with one bind */
+		public VboBuffer buffer() {
+			return arena.buffer;
+		}
+
+		public void bind() {
+			arena.buffer.bind();
+		}
+
+		public void release() {
+			assert RenderSystem.isOnRenderThread();
+
+			if (arena != null) {
+				arena.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * Places the pending data of a vertex buffer in an arena and uploads it there, instead
+	 * of {@link VboBuffer#upload()}.
+	 *
+	 * @param onMove receives the change in first vertex whenever the slice is moved to another arena
+	 * @return null if the data cannot fit in an arena, in which case nothing is uploaded
+	 */
+	public static Slice claim(VboBuffer source, IntConsumer onMove) {
+		assert RenderSystem.isOnRenderThread();
+
+		final MaterialVertexFormat format = source.format;
+		final int stride = format.vertexStrideBytes;
+
+		// room to start on a vertex boundary
+		final int bytes = source.byteCount() + stride - 1;
+
+		if (bytes > ARENA_BYTES) {
+			return null;
+		}
+
+		ObjectArrayList<Arena> arenas = ARENAS.get(format);
+
+		if (arenas == null) {
+			arenas = new ObjectArrayList<>();
+			ARENAS.put(format, arenas);
+		}
+
+		Arena arena = null;
+		int blockOffset = -1;
+		final int limit = arenas.size();
+
+		for (int i = 0; i < limit; ++i) {
+			blockOffset = arenas.get(i).allocator.allocate(bytes);
+
+			if (blockOffset >= 0) {
+				arena = arenas.get(i);
+				break;
+			}
+		}
+
+		if (arena == null) {
+			arena = new Arena(format);
+			arenas.add(arena);
+			blockOffset = arena.allocator.allocate(bytes);
+		}
+
+		final Slice slice = new Slice(bytes, source.byteCount(), onMove);
+		slice.place(blockOffset, stride);
+		arena.add(slice);
+
+		BindStateManager.bind(arena.buffer.glBufferId());
+		source.uploadTo((long) slice.firstVertex * stride);
+		BindStateManager.unbind();
+
+		return slice;
+	}
+
+	/**
+	 * Deletes an empty last arena or moves slices out of a lightly used one.
+	 * Call once per frame, outside of drawing.
+	 */
+	public static void endFrame() {
+		final Iterator<ObjectArrayList<Arena>> it = ARENAS.values().iterator();
+
+		while (it.hasNext()) {
+			final ObjectArrayList<Arena> arenas = it.next();
+			compact(arenas);
+
+			if (arenas.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	private static void compact(ObjectArrayList<Arena> arenas) {
+		final int last = arenas.size() - 1;
+
+		if (last < 0) {
+			return;
+		}
+
+		final Arena source = arenas.get(last);
+
+		if (source.slices.isEmpty()) {
+			arenas.remove(last);
+			source.buffer.close();
+			return;
+		}
+
+		if (last == 0 || !CanvasGlHelper.useCopyBuffer() || source.allocator.allocatedBytes() > ARENA_BYTES * EVACUATE_BELOW) {
+			return;
+		}
+
+		int budget = MOVE_BYTES_PER_FRAME;
+
+		while (budget > 0 && !source.slices.isEmpty()) {
+			final Slice slice = source.slices.get(source.slices.size() - 1);
+
+			if (!move(slice, arenas, last)) {
+				// other arenas are full
+				break;
+			}
+
+			budget -= slice.byteCount;
+		}
+	}
+
+	private static boolean move(Slice slice, ObjectArrayList<Arena> arenas, int sourceIndex) {
+		for (int i = 0; i < sourceIndex; ++i) {
+			final Arena target = arenas.get(i);
+			final int blockOffset = target.allocator.allocate(slice.allocatedBytes);
+
+			if (blockOffset >= 0) {
+				final Arena source = slice.arena;
+				final int stride = source.buffer.format.vertexStrideBytes;
+				final int oldFirstVertex = slice.firstVertex;
+				source.remove(slice);
+				slice.place(blockOffset, stride);
+				target.add(slice);
+
+				GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, source.buffer.glBufferId());
+				GL21.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, target.buffer.glBufferId());
+				GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, (long) oldFirstVertex * stride, (long) slice.firstVertex * stride, slice.byteCount);
+				GL21.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+				GL21.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+
+				movedBytes += slice.byteCount;
+				slice.onMove.accept(slice.firstVertex - oldFirstVertex);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public static String debugString() {
+		int count = 0;
+		long allocated = 0;
+		long requested = 0;
+		float external = 0;
+
+		for (final ObjectArrayList<Arena> arenas : ARENAS.values()) {
+			for (final Arena arena : arenas) {
+				++count;
+				allocated += arena.allocator.allocatedBytes();
+				requested += arena.allocator.requestedBytes();
+				external = Math.max(external, arena.allocator.externalFragmentation());
+			}
+		}
+
+		return String.format("Terrain arenas: %02d @ %03dMB, %02d%% used, frag %02d%% internal %02d%% external, moved %,dKB",
+				count, count * (ARENA_BYTES / 0x100000), count == 0 ? 0 : allocated * 100 / ((long) count * ARENA_BYTES),
+						allocated == 0 ? 0 : (allocated - requested) * 100 / allocated, (int) (external * 100), movedBytes / 1024);
+	}
+}
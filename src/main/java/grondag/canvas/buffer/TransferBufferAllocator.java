@@ -16,10 +16,16 @@
 
 package grondag.canvas.buffer;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.IdentityHashMap;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.IntFunction;
 
@@ -28,65 +34,341 @@ import org.lwjgl.system.MemoryUtil;
 
 import net.minecraft.util.math.MathHelper;
 
+import grondag.canvas.CanvasMod;
 import grondag.canvas.Configurator;
 
 /**
  * Tracks all allocations, ensures deallocation on render reload.
  * Implements configuration of allocation method.
+ *
+ * <p>Buffers come in power-of-two size classes. Released buffers are kept for reuse in a small
+ * magazine per thread and size class, which needs no shared lock, and magazines exchange buffers
+ * with a shared depot when they run empty or full.  Idle buffers are kept up to the configured
+ * pool size, beyond which released buffers are freed.  Magazines of threads that have ended
+ * are emptied into the depot when another thread creates its magazines and when pool
+ * statistics are read.
+ *
+ * <p>Buffers that become unreachable without being released are reported as leaks and,
+ * in fast mode, freed.
  */
 public class TransferBufferAllocator {
 	private static final IntFunction<ByteBuffer> SUPPLIER = Configurator.safeNativeMemoryAllocation ? BufferUtils::createByteBuffer : MemoryUtil::memAlloc;
 	private static final Consumer<ByteBuffer> CONSUMER = Configurator.safeNativeMemoryAllocation ? b -> {} : MemoryUtil::memFree;
-	private static final Set<ByteBuffer> OPEN = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
-	private static int allocatedBytes = 0;
 
-	public static synchronized  ByteBuffer claim(int bytes) {
+	private static final int MIN_SIZE_BITS = 12;
+	private static final int SIZE_CLASS_COUNT = 32 - MIN_SIZE_BITS;
+	private static final int MAGAZINE_SIZE = 8;
+
+	/** Open buffers by address. Not the buffers themselves, so that leaked buffers can be collected. */
+	private static final ConcurrentHashMap<Long, Tracker> OPEN = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<ByteBuffer> LEAKED = new ReferenceQueue<>();
+
+	/** Shared idle buffers by size class, guarded by itself */
+	@SuppressWarnings("unchecked")
+	private static final ArrayDeque<ByteBuffer>[] DEPOT = new ArrayDeque[SIZE_CLASS_COUNT];
+
+	private static final ConcurrentLinkedQueue<Magazines> ALL_MAGAZINES = new ConcurrentLinkedQueue<>();
+
+	private static final ThreadLocal<Magazines> MAGAZINES = ThreadLocal.withInitial(() -> {
+		sweepMagazines();
+		final Magazines result = new Magazines();
+		ALL_MAGAZINES.add(result);
+		return result;
+	});
+
+	static {
+		for (int i = 0; i < SIZE_CLASS_COUNT; ++i) {
+			DEPOT[i] = new ArrayDeque<>();
+		}
+	}
+
+	private static final AtomicLong allocatedBytes = new AtomicLong();
+	private static final AtomicLong requestedBytes = new AtomicLong();
+	private static final AtomicLong pooledBytes = new AtomicLong();
+	private static final AtomicLong peakBytes = new AtomicLong();
+	private static final AtomicInteger leakCount = new AtomicInteger();
+	private static final LongAdder claimCount = new LongAdder();
+	private static final LongAdder magazineHitCount = new LongAdder();
+	private static final LongAdder depotHitCount = new LongAdder();
+
+	private static class Tracker extends PhantomReference<ByteBuffer> {
+		private final long address;
+		private final int capacity;
+		private final int requested;
+
+		private Tracker(ByteBuffer buffer, int requested) {
+			super(buffer, LEAKED);
+			address = MemoryUtil.memAddress0(buffer);
+			capacity = buffer.capacity();
+			this.requested = requested;
+		}
+	}
+
+	/**
+	 * Idle buffers kept by one thread.  Only the owning thread uses these except
+	 * on reload, so the lock is uncontended.
+	 */
+	private static class Magazines {
+		private final ByteBuffer[][] buffers = new ByteBuffer[SIZE_CLASS_COUNT][MAGAZINE_SIZE];
+		private final int[] counts = new int[SIZE_CLASS_COUNT];
+		private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+		private boolean isOwnerAlive() {
+			final Thread thread = owner.get();
+			return thread != null && thread.isAlive();
+		}
+
+		private synchronized ByteBuffer take(int sizeClass) {
+			final ByteBuffer[] magazine = buffers[sizeClass];
+			int count = counts[sizeClass];
+
+			if (count > 0) {
+				magazineHitCount.increment();
+			} else {
+				// refill half a magazine so the next release does not immediately spill
+				final ArrayDeque<ByteBuffer> depot = DEPOT[sizeClass];
+
+				synchronized (depot) {
+					ByteBuffer b;
+
+					while (count < MAGAZINE_SIZE / 2 && (b = depot.poll()) != null) {
+						magazine[count++] = b;
+					}
+				}
+
+				if (count == 0) {
+					return null;
+				}
+
+				depotHitCount.increment();
+			}
+
+			final ByteBuffer result = magazine[--count];
+			magazine[count] = null;
+			counts[sizeClass] = count;
+			return result;
+		}
+
+		private synchronized void put(int sizeClass, ByteBuffer buffer) {
+			final ByteBuffer[] magazine = buffers[sizeClass];
+			int count = counts[sizeClass];
+
+			if (count == MAGAZINE_SIZE) {
+				final ArrayDeque<ByteBuffer> depot = DEPOT[sizeClass];
+
+				synchronized (depot) {
+					while (count > MAGAZINE_SIZE / 2) {
+						depot.push(magazine[--count]);
+						magazine[count] = null;
+					}
+				}
+			}
+
+			magazine[count++] = buffer;
+			counts[sizeClass] = count;
+		}
+
+		/** Moves all buffers to the depot, where they remain pooled */
+		private synchronized void drainToDepot() {
+			for (int sizeClass = 0; sizeClass < SIZE_CLASS_COUNT; ++sizeClass) {
+				final ByteBuffer[] magazine = buffers[sizeClass];
+				int count = counts[sizeClass];
+
+				if (count > 0) {
+					final ArrayDeque<ByteBuffer> depot = DEPOT[sizeClass];
+
+					synchronized (depot) {
+						while (count > 0) {
+							depot.push(magazine[--count]);
+							magazine[count] = null;
+						}
+					}
+
+					counts[sizeClass] = 0;
+				}
+			}
+		}
+
+		private synchronized void drain(Consumer<ByteBuffer> consumer) {
+			for (int sizeClass = 0; sizeClass < SIZE_CLASS_COUNT; ++sizeClass) {
+				final ByteBuffer[] magazine = buffers[sizeClass];
+
+				for (int i = 0; i < counts[sizeClass]; ++i) {
+					consumer.accept(magazine[i]);
+					magazine[i] = null;
+				}
+
+				counts[sizeClass] = 0;
+			}
+		}
+	}
+
+	public static ByteBuffer claim(int bytes) {
+		final int requested = bytes;
+
 		if(bytes < 4096) {
 			bytes = 4096;
 		}
 
 		bytes = MathHelper.smallestEncompassingPowerOfTwo(bytes);
-		allocatedBytes += bytes;
+		reclaimLeaks();
+		claimCount.increment();
+
+		ByteBuffer result = MAGAZINES.get().take(Integer.numberOfTrailingZeros(bytes) - MIN_SIZE_BITS);
+
+		if (result == null) {
+			result = SUPPLIER.apply(bytes);
+		} else {
+			pooledBytes.addAndGet(-bytes);
+			result.clear();
+		}
+
+		final Tracker tracker = new Tracker(result, requested);
+		OPEN.put(tracker.address, tracker);
+		requestedBytes.addAndGet(requested);
+		final long allocated = allocatedBytes.addAndGet(bytes);
+
+		if (allocated > peakBytes.get()) {
+			peakBytes.accumulateAndGet(allocated, Math::max);
+		}
 
-		final ByteBuffer result =SUPPLIER.apply(bytes);
-		OPEN.add(result);
 		return result;
 	}
 
-	public static synchronized void release(ByteBuffer uploadBuffer) {
-		if(OPEN.remove(uploadBuffer)) {
-			allocatedBytes -= uploadBuffer.capacity();
-			CONSUMER.accept(uploadBuffer);
+	public static void release(ByteBuffer uploadBuffer) {
+		final Tracker tracker = OPEN.remove(MemoryUtil.memAddress0(uploadBuffer));
+
+		if(tracker != null) {
+			tracker.clear();
+			final int capacity = tracker.capacity;
+			allocatedBytes.addAndGet(-capacity);
+			requestedBytes.addAndGet(-tracker.requested);
+
+			if (reservePooled(capacity)) {
+				MAGAZINES.get().put(Integer.numberOfTrailingZeros(capacity) - MIN_SIZE_BITS, uploadBuffer);
+			} else {
+				CONSUMER.accept(uploadBuffer);
+			}
+		}
+	}
+
+	/**
+	 * Adds to pooled bytes unless that would exceed the configured pool size.
+	 * Concurrent releases can't overshoot the limit.
+	 */
+	private static boolean reservePooled(int capacity) {
+		final long limit = Configurator.transferBufferPoolMB * 0x100000L;
+
+		while (true) {
+			final long pooled = pooledBytes.get();
+
+			if (pooled + capacity > limit) {
+				return false;
+			}
+
+			if (pooledBytes.compareAndSet(pooled, pooled + capacity)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Moves buffers held by threads that have ended to the depot so other threads can
+	 * reuse them, and stops tracking their magazines.
+	 */
+	private static void sweepMagazines() {
+		ALL_MAGAZINES.removeIf(m -> {
+			if (m.isOwnerAlive()) {
+				return false;
+			}
+
+			m.drainToDepot();
+			return true;
+		});
+	}
+
+	/**
+	 * Accounts for buffers that were collected without being released.
+	 * Native memory is freed here in fast mode; in safe mode the collector frees it.
+	 */
+	private static void reclaimLeaks() {
+		Tracker tracker;
+
+		while ((tracker = (Tracker) LEAKED.poll()) != null) {
+			// in safe mode the address may already belong to a new buffer
+			OPEN.remove(tracker.address, tracker);
+			allocatedBytes.addAndGet(-tracker.capacity);
+			requestedBytes.addAndGet(-tracker.requested);
+
+			if (!Configurator.safeNativeMemoryAllocation) {
+				MemoryUtil.nmemFree(tracker.address);
+			}
+
+			if (leakCount.getAndIncrement() == 0) {
+				CanvasMod.LOG.warn(String.format("[Canvas] Transfer buffer of %d bytes was not released before collection. Subsequent leaks will be counted but not logged.", tracker.capacity));
+			}
 		}
 	}
 
 	public static synchronized void forceReload() {
-		OPEN.forEach(CONSUMER);
+		OPEN.values().forEach(t -> {
+			t.clear();
+
+			if (!Configurator.safeNativeMemoryAllocation) {
+				MemoryUtil.nmemFree(t.address);
+			}
+		});
+
 		OPEN.clear();
-		allocatedBytes = 0;
+		sweepMagazines();
+		ALL_MAGAZINES.forEach(m -> m.drain(CONSUMER));
+
+		for (final ArrayDeque<ByteBuffer> depot : DEPOT) {
+			synchronized (depot) {
+				depot.forEach(CONSUMER);
+				depot.clear();
+			}
+		}
+
+		allocatedBytes.set(0);
+		requestedBytes.set(0);
+		pooledBytes.set(0);
 	}
 
-	private static int peakBytes = 0;
 	private static int peakSize = 0;
 	private static int zeroCount = 0;
 
 	public static String debugString() {
+		reclaimLeaks();
 		final int size = OPEN.size();
 
 		if (size == 0 && ++zeroCount >= 10) {
-			peakBytes = 0;
+			peakBytes.set(0);
 			peakSize = 0;
 			zeroCount = 0;
-		} else {
-			if (allocatedBytes > peakBytes) {
-				peakBytes = allocatedBytes;
-			}
-
-			if (size > peakSize) {
-				peakSize = size;
-			}
+		} else if (size > peakSize) {
+			peakSize = size;
 		}
-		return String.format("Peak transfer buffers: %03d @ %03dMB - %s mode", peakSize, peakBytes / 0x100000,
-				Configurator.safeNativeMemoryAllocation ? "safe" : "fast");
+
+		return String.format("Peak transfer buffers: %03d @ %03dMB - %s mode, leaks: %d", peakSize, peakBytes.get() / 0x100000,
+				Configurator.safeNativeMemoryAllocation ? "safe" : "fast", leakCount.get());
+	}
+
+	/**
+	 * Reuse rate of claims from thread magazines and the shared depot, idle pooled memory
+	 * against the configured limit, and the share of open buffer memory lost to rounding
+	 * requests up to a size class.
+	 */
+	public static String poolDebugString() {
+		sweepMagazines();
+		final long claims = Math.max(1, claimCount.sum());
+		final long magazineHits = magazineHitCount.sum();
+		final long depotHits = depotHitCount.sum();
+		final long allocated = allocatedBytes.get();
+		final long waste = allocated == 0 ? 0 : (allocated - requestedBytes.get()) * 100 / allocated;
+
+		return String.format("Transfer pool: %02d%% hit (%02d%% thread %02d%% depot) idle %03d/%03dMB frag %02d%%",
+				(magazineHits + depotHits) * 100 / claims, magazineHits * 100 / claims, depotHits * 100 / claims,
+				pooledBytes.get() / 0x100000, Configurator.transferBufferPoolMB, waste);
 	}
 }
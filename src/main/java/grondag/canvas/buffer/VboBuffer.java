@@ -21,18 +21,23 @@ import java.nio.IntBuffer;
 
 import com.mojang.blaze3d.platform.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL21;
 
-import net.minecraft.client.render.VertexFormatElement;
-
 import grondag.canvas.CanvasMod;
 import grondag.canvas.Configurator;
 import grondag.canvas.material.MaterialVertexFormat;
+import grondag.canvas.perf.ChunkRebuildCounters;
 import grondag.canvas.varia.CanvasGlHelper;
 
 public class VboBuffer {
+	/** Claimed on first call to {@link #intBuffer()} */
 	ByteBuffer uploadBuffer;
+	private IntBuffer intBuffer;
+
+	/** Vertex data detached from off-heap collectors, uploaded in order without copying */
+	private ObjectArrayList<ByteBuffer> segments;
 	private final int byteCount;
 	private int glBufferId = -1;
 	private boolean isClosed = false;
@@ -54,28 +59,113 @@ public class VboBuffer {
 	private static final int VAO_NONE = -1;
 
 	public VboBuffer(int bytes, MaterialVertexFormat format) {
-		uploadBuffer = TransferBufferAllocator.claim(bytes);
 		this.format = format;
 		byteCount = bytes;
 		vertexBinder = CanvasGlHelper.isVaoEnabled() ? this::bindVao : this::bindVbo;
 	}
 
+	/**
+	 * Appends a transfer buffer holding vertex data from position zero to its limit.
+	 * This buffer takes ownership and releases it after upload or on close.
+	 * Cannot be combined with {@link #intBuffer()}.
+	 */
+	public void addSegment(ByteBuffer segment) {
+		assert uploadBuffer == null;
+		ObjectArrayList<ByteBuffer> segments = this.segments;
+
+		if (segments == null) {
+			segments = new ObjectArrayList<>();
+			this.segments = segments;
+		}
+
+		segments.add(segment);
+	}
+
+	public int byteCount() {
+		return byteCount;
+	}
+
 	public void upload() {
 		assert RenderSystem.isOnRenderThread();
 
 		final ByteBuffer uploadBuffer = this.uploadBuffer;
 
-		if(uploadBuffer != null) {
+		if (segments == null && uploadBuffer == null) {
+			return;
+		}
+
+		BindStateManager.bind(glBufferId());
+
+		if (segments == null && StagingRing.get() == null) {
 			uploadBuffer.rewind();
-			BindStateManager.bind(glBufferId());
 			GL21.glBufferData(GL21.GL_ARRAY_BUFFER, uploadBuffer, GL21.GL_STATIC_DRAW);
-			BindStateManager.unbind();
+
+			if (ChunkRebuildCounters.ENABLED) {
+				ChunkRebuildCounters.uploadVertexBytes(uploadBuffer.limit());
+			}
+
 			TransferBufferAllocator.release(uploadBuffer);
 			this.uploadBuffer = null;
+			intBuffer = null;
+		} else {
+			GL21.glBufferData(GL21.GL_ARRAY_BUFFER, byteCount, GL21.GL_STATIC_DRAW);
+			writeData(0);
 		}
+
+		BindStateManager.unbind();
 	}
 
-	private int glBufferId() {
+	/**
+	 * Allocates GL storage without content, for a buffer that is filled
+	 * by {@link #uploadTo(long)} calls of other buffers.
+	 */
+	void allocateStorage() {
+		BindStateManager.bind(glBufferId());
+		GL21.glBufferData(GL21.GL_ARRAY_BUFFER, byteCount, GL21.GL_STATIC_DRAW);
+		BindStateManager.unbind();
+	}
+
+	/**
+	 * Writes pending vertex data at the given byte offset of the buffer bound as
+	 * {@code GL_ARRAY_BUFFER} and releases transfer buffers.  Used to place data in a
+	 * shared buffer, in which case this buffer never has GL storage of its own.
+	 */
+	void uploadTo(long offset) {
+		assert RenderSystem.isOnRenderThread();
+		writeData(offset);
+	}
+
+	private void writeData(long offset) {
+		final long start = offset;
+		final ObjectArrayList<ByteBuffer> segments = this.segments;
+
+		if (segments != null) {
+			this.segments = null;
+
+			for (final ByteBuffer segment : segments) {
+				final int bytes = segment.limit();
+
+				if (bytes > 0) {
+					StagingRing.upload(segment, bytes, offset);
+					offset += bytes;
+				}
+
+				TransferBufferAllocator.release(segment);
+			}
+		} else if (uploadBuffer != null) {
+			StagingRing.upload(uploadBuffer, byteCount, offset);
+			offset += byteCount;
+			TransferBufferAllocator.release(uploadBuffer);
+			uploadBuffer = null;
+			intBuffer = null;
+		}
+
+		if (ChunkRebuildCounters.ENABLED) {
+			ChunkRebuildCounters.uploadVertexBytes((int) (offset - start));
+		}
+	}
+
+	int glBufferId() {
 		int result = glBufferId;
 
 		if(result == -1) {
@@ -114,10 +204,10 @@ public class VboBuffer {
 			GlStateManager.enableClientState(GL11.GL_VERTEX_ARRAY);
 
 			if (Configurator.logGlStateChanges) {
-				CanvasMod.LOG.info(String.format("GlState: GlStateManager.vertexPointer(%d, %d, %d, %d)", 3, VertexFormatElement.Format.FLOAT.getGlId(), format.vertexStrideBytes, 0));
+				CanvasMod.LOG.info(String.format("GlState: GlStateManager.vertexPointer(%d, %d, %d, %d)", 3, format.positionGlType, format.vertexStrideBytes, 0));
 			}
 
-			GlStateManager.vertexPointer(3, VertexFormatElement.Format.FLOAT.getGlId(), format.vertexStrideBytes, 0);
+			GlStateManager.vertexPointer(3, format.positionGlType, format.vertexStrideBytes, 0);
 
 			CanvasGlHelper.enableAttributesVao(format.attributeCount);
 			format.bindAttributeLocations(0);
@@ -131,11 +221,11 @@ public class VboBuffer {
 		BindStateManager.bind(glBufferId());
 
 		if (Configurator.logGlStateChanges) {
-			CanvasMod.LOG.info(String.format("GlState: GlStateManager.vertexPointer(%d, %d, %d, %d)", 3, VertexFormatElement.Format.FLOAT.getGlId(), format.vertexStrideBytes, 0));
+			CanvasMod.LOG.info(String.format("GlState: GlStateManager.vertexPointer(%d, %d, %d, %d)", 3, format.positionGlType, format.vertexStrideBytes, 0));
 		}
 
 		GlStateManager.enableClientState(GL11.GL_VERTEX_ARRAY);
-		GlStateManager.vertexPointer(3, VertexFormatElement.Format.FLOAT.getGlId(), format.vertexStrideBytes, 0);
+		GlStateManager.vertexPointer(3, format.positionGlType, format.vertexStrideBytes, 0);
 		format.enableAndBindAttributes(0);
 	}
 
@@ -167,6 +257,14 @@ public class VboBuffer {
 			if(uploadBuffer != null) {
 				TransferBufferAllocator.release(uploadBuffer);
 				this.uploadBuffer = null;
+				intBuffer = null;
+			}
+
+			final ObjectArrayList<ByteBuffer> segments = this.segments;
+
+			if (segments != null) {
+				segments.forEach(TransferBufferAllocator::release);
+				this.segments = null;
 			}
 
 			if (vaoBufferId > 0) {
@@ -181,6 +279,15 @@ public class VboBuffer {
 	}
 
 	public IntBuffer intBuffer() {
-		return uploadBuffer.asIntBuffer();
+		IntBuffer result = intBuffer;
+
+		if (result == null) {
+			assert segments == null;
+			uploadBuffer = TransferBufferAllocator.claim(byteCount);
+			result = uploadBuffer.asIntBuffer();
+			intBuffer = result;
+		}
+
+		return result;
 	}
 }
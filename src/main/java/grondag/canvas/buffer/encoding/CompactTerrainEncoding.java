@@ -0,0 +1,78 @@
+package grondag.canvas.buffer.encoding;
+
+/**
+ * Repacks solid terrain vertices from the vanilla block layout to the compact terrain format.
+ * Position goes from three floats to three 16-bit fixed-point values and the sprite id
+ * moves into the spare short after them.  Color, UV, light and normal are already packed
+ * and are copied as-is, so each vertex goes from eight ints to six.
+ *
+ * <p>Positions are relative to the render cube, so fixed-point zero is the middle of the
+ * cube and the range covers models that extend past its edges.  Shaders reverse this with
+ * the same constants.
+ */
+public abstract class CompactTerrainEncoding {
+	/** Fixed-point steps per block */
+	public static final int POSITION_SCALE = 128;
+
+	/** Block coordinate stored as zero */
+	public static final int POSITION_OFFSET = 128;
+
+	/** Ints per vertex in the vanilla block layout: x, y, z, color, uv, light, normal/ao, sprite */
+	static final int SOURCE_STRIDE = 8;
+
+	/** Ints per vertex in the compact layout: x/y, z/sprite, color, uv, light, normal/ao */
+	static final int TARGET_STRIDE = 6;
+
+	/**
+	 * Repacks vertices in place.
+	 *
+	 * @param data vertices in the vanilla block layout
+	 * @param length ints of vertex data, a multiple of {@link #SOURCE_STRIDE}
+	 * @return ints of compact vertex data at the start of the array
+	 */
+	static int pack(int[] data, int length) {
+		assert length % SOURCE_STRIDE == 0;
+
+		int target = 0;
+
+		// Output for a vertex never reaches past its own input, so reading
+		// each vertex fully before writing is enough to work in place.
+		for (int source = 0; source < length; source += SOURCE_STRIDE) {
+			final int x = quantize(Float.intBitsToFloat(data[source]));
+			final int y = quantize(Float.intBitsToFloat(data[source + 1]));
+			final int z = quantize(Float.intBitsToFloat(data[source + 2]));
+			final int color = data[source + 3];
+			final int uv = data[source + 4];
+			final int light = data[source + 5];
+			final int normalAo = data[source + 6];
+			final int sprite = data[source + 7];
+
+			assert sprite <= 0xFFFF;
+
+			data[target++] = x | (y << 16);
+			data[target++] = z | (sprite << 16);
+			data[target++] = color;
+			data[target++] = uv;
+			data[target++] = light;
+			data[target++] = normalAo;
+		}
+
+		return target;
+	}
+
+	private static int quantize(float coordinate) {
+		final int result = Math.round((coordinate - POSITION_OFFSET) * POSITION_SCALE);
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, result)) & 0xFFFF;
+	}
+
+	/**
+	 * Position as the GPU will see it, for checks and debugging.
+	 *
+	 * @param packed the first or second int of a compact vertex
+	 * @param high true for the upper short
+	 */
+	static float position(int packed, boolean high) {
+		final short value = (short) (high ? packed >>> 16 : packed);
+		return (float) value / POSITION_SCALE + POSITION_OFFSET;
+	}
+}
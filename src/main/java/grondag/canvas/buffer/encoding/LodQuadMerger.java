@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.buffer.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Greedy merging of full block faces for regions far from the camera.  Quads that exactly
+ * cover one block face with uniform color, light and AO are held back as they are encoded.
+ * Neighbors on the same plane with the same sprite, UV mapping, color, light and normal
+ * are then joined into larger quads.  Other quads pass through unchanged.
+ *
+ * <p>Vertices of a merged quad keep the UVs of one face, so the sprite is stretched over
+ * the merged area instead of repeated.  Merges are limited to {@link #MAX_SPAN} blocks on a
+ * side so the stretch stays small next to the size of a block at those distances.
+ *
+ * <p>Works on the vanilla terrain layout of 8 ints per vertex, before compact repacking.
+ */
+class LodQuadMerger {
+	/** Most blocks a merged quad may cover along each side */
+	static final int MAX_SPAN = 4;
+
+	static final int VERTEX_STRIDE = 8;
+	static final int QUAD_STRIDE = VERTEX_STRIDE * 4;
+
+	// vertex layout: x, y, z, color, uv, light, normal/ao, sprite
+	private static final int COLOR = 3;
+	private static final int LIGHT = 5;
+	private static final int NORMAL_AO = 6;
+	private static final int SPRITE = 7;
+
+	// held quads are followed by their normal axis, plane, minimum in-plane
+	// coordinates and the corner of each vertex as two bits per vertex
+	private static final int AXIS = QUAD_STRIDE;
+	private static final int PLANE = QUAD_STRIDE + 1;
+	private static final int MIN_A = QUAD_STRIDE + 2;
+	private static final int MIN_B = QUAD_STRIDE + 3;
+	private static final int CORNERS = QUAD_STRIDE + 4;
+	private static final int RECORD_STRIDE = QUAD_STRIDE + 5;
+
+	/** Larger runs are not expected within one region and are passed through */
+	private static final int MAX_GRID_SIZE = 64 * 64;
+
+	private int[] records = new int[RECORD_STRIDE * 256];
+	private int count = 0;
+	private long[] sortKeys = new long[256];
+	private final int[] grid = new int[MAX_GRID_SIZE];
+	private final int[] quad = new int[QUAD_STRIDE];
+
+	interface QuadConsumer {
+		void accept(int[] data, int length);
+	}
+
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Holds back quads that can be merged and moves the rest to the start of the array.
+	 *
+	 * @param data whole quads in the vanilla layout
+	 * @return ints of quads not held, now at the start of data
+	 */
+	int offer(int[] data, int length) {
+		assert length % QUAD_STRIDE == 0;
+
+		int remaining = 0;
+
+		for (int q = 0; q < length; q += QUAD_STRIDE) {
+			if (!hold(data, q)) {
+				if (remaining != q) {
+					System.arraycopy(data, q, data, remaining, QUAD_STRIDE);
+				}
+
+				remaining += QUAD_STRIDE;
+			}
+		}
+
+		return remaining;
+	}
+
+	private boolean hold(int[] data, int q) {
+		for (int v = 1; v < 4; ++v) {
+			final int i = q + v * VERTEX_STRIDE;
+
+			if (data[i + COLOR] != data[q + COLOR] || data[i + LIGHT] != data[q + LIGHT]
+					|| data[i + NORMAL_AO] != data[q + NORMAL_AO] || data[i + SPRITE] != data[q + SPRITE]) {
+				return false;
+			}
+		}
+
+		int axis = -1;
+
+		for (int c = 0; c < 3; ++c) {
+			final int p = data[q + c];
+
+			if (data[q + VERTEX_STRIDE + c] == p && data[q + VERTEX_STRIDE * 2 + c] == p && data[q + VERTEX_STRIDE * 3 + c] == p) {
+				if (axis != -1) {
+					// degenerate
+					return false;
+				}
+
+				axis = c;
+			}
+		}
+
+		if (axis == -1) {
+			return false;
+		}
+
+		final float plane = Float.intBitsToFloat(data[q + axis]);
+
+		if (plane != (int) plane) {
+			return false;
+		}
+
+		final int axisA = axis == 0 ? 1 : 0;
+		final int axisB = axis == 2 ? 1 : 2;
+		float minA = Float.POSITIVE_INFINITY;
+		float minB = Float.POSITIVE_INFINITY;
+
+		for (int v = 0; v < 4; ++v) {
+			minA = Math.min(minA, Float.intBitsToFloat(data[q + v * VERTEX_STRIDE + axisA]));
+			minB = Math.min(minB, Float.intBitsToFloat(data[q + v * VERTEX_STRIDE + axisB]));
+		}
+
+		if (minA != (int) minA || minB != (int) minB) {
+			return false;
+		}
+
+		int corners = 0;
+		int seen = 0;
+
+		for (int v = 0; v < 4; ++v) {
+			final int cornerA = cornerOf(Float.intBitsToFloat(data[q + v * VERTEX_STRIDE + axisA]) - minA);
+			final int cornerB = cornerOf(Float.intBitsToFloat(data[q + v * VERTEX_STRIDE + axisB]) - minB);
+
+			if ((cornerA | cornerB) < 0) {
+				return false;
+			}
+
+			final int corner = cornerA | (cornerB << 1);
+			seen |= 1 << corner;
+			corners |= corner << (v * 2);
+		}
+
+		if (seen != 0xF) {
+			return false;
+		}
+
+		if ((count + 1) * RECORD_STRIDE > records.length) {
+			records = Arrays.copyOf(records, records.length * 2);
+		}
+
+		final int base = count * RECORD_STRIDE;
+		System.arraycopy(data, q, records, base, QUAD_STRIDE);
+		records[base + AXIS] = axis;
+		records[base + PLANE] = (int) plane;
+		records[base + MIN_A] = (int) minA;
+		records[base + MIN_B] = (int) minB;
+		records[base + CORNERS] = corners;
+		++count;
+		return true;
+	}
+
+	/** 0 or 1 for a vertex on the near or far edge of a one-block face, -1 otherwise */
+	private static int cornerOf(float offset) {
+		return offset == 0 ? 0 : offset == 1 ? 1 : -1;
+	}
+
+	/**
+	 * Merges and sends all held quads, then clears.
+	 *
+	 * @return number of held quads removed by merging
+	 */
+	int flush(QuadConsumer sink) {
+		final int count = this.count;
+
+		if (count == 0) {
+			return 0;
+		}
+
+		if (sortKeys.length < count) {
+			sortKeys = new long[Math.max(count, sortKeys.length * 2)];
+		}
+
+		final long[] sortKeys = this.sortKeys;
+
+		for (int r = 0; r < count; ++r) {
+			sortKeys[r] = ((long) groupHash(r) << 32) | r;
+		}
+
+		// quads that may merge are now adjacent
+		Arrays.sort(sortKeys, 0, count);
+
+		int emitted = 0;
+		int start = 0;
+
+		while (start < count) {
+			final int hash = (int) (sortKeys[start] >> 32);
+			int end = start + 1;
+
+			while (end < count && (int) (sortKeys[end] >> 32) == hash) {
+				++end;
+			}
+
+			emitted += mergeRun(start, end, sink);
+			start = end;
+		}
+
+		this.count = 0;
+		return count - emitted;
+	}
+
+	private int mergeRun(int start, int end, QuadConsumer sink) {
+		final int[] records = this.records;
+		final long[] sortKeys = this.sortKeys;
+		int minA = Integer.MAX_VALUE;
+		int minB = Integer.MAX_VALUE;
+		int maxA = Integer.MIN_VALUE;
+		int maxB = Integer.MIN_VALUE;
+
+		for (int k = start; k < end; ++k) {
+			final int base = (int) sortKeys[k] * RECORD_STRIDE;
+			minA = Math.min(minA, records[base + MIN_A]);
+			minB = Math.min(minB, records[base + MIN_B]);
+			maxA = Math.max(maxA, records[base + MIN_A]);
+			maxB = Math.max(maxB, records[base + MIN_B]);
+		}
+
+		final long width = (long) maxA - minA + 1;
+		final long height = (long) maxB - minB + 1;
+
+		if (end - start == 1 || width * height > MAX_GRID_SIZE) {
+			for (int k = start; k < end; ++k) {
+				emit((int) sortKeys[k], 1, 1, sink);
+			}
+
+			return end - start;
+		}
+
+		final int w = (int) width;
+		final int h = (int) height;
+		final int[] grid = this.grid;
+		Arrays.fill(grid, 0, w * h, -1);
+		int emitted = 0;
+
+		for (int k = start; k < end; ++k) {
+			final int r = (int) sortKeys[k];
+			final int base = r * RECORD_STRIDE;
+			final int cell = records[base + MIN_A] - minA + (records[base + MIN_B] - minB) * w;
+
+			if (grid[cell] == -1) {
+				grid[cell] = r;
+			} else {
+				// another face in the same place, as with overlapping models
+				emit(r, 1, 1, sink);
+				++emitted;
+			}
+		}
+
+		for (int b = 0; b < h; ++b) {
+			for (int a = 0; a < w; ++a) {
+				final int r = grid[a + b * w];
+
+				if (r == -1) {
+					continue;
+				}
+
+				int spanA = 1;
+
+				while (spanA < MAX_SPAN && a + spanA < w && sameGroup(r, grid[a + spanA + b * w])) {
+					++spanA;
+				}
+
+				int spanB = 1;
+
+				rows:
+				while (spanB < MAX_SPAN && b + spanB < h) {
+					final int row = (b + spanB) * w;
+
+					for (int i = 0; i < spanA; ++i) {
+						if (!sameGroup(r, grid[a + i + row])) {
+							break rows;
+						}
+					}
+
+					++spanB;
+				}
+
+				for (int j = 0; j < spanB; ++j) {
+					Arrays.fill(grid, a + (b + j) * w, a + spanA + (b + j) * w, -1);
+				}
+
+				emit(r, spanA, spanB, sink);
+				++emitted;
+			}
+		}
+
+		return emitted;
+	}
+
+	private int groupHash(int r) {
+		final int[] records = this.records;
+		final int base = r * RECORD_STRIDE;
+		int result = records[base + AXIS];
+		result = result * 31 + records[base + PLANE];
+		result = result * 31 + records[base + CORNERS];
+
+		for (int v = 0; v < 4; ++v) {
+			final int i = base + v * VERTEX_STRIDE;
+
+			for (int j = COLOR; j < VERTEX_STRIDE; ++j) {
+				result = result * 31 + records[i + j];
+			}
+		}
+
+		return result ^ (result >>> 16);
+	}
+
+	/** True if both held quads can be part of the same merged quad, ignoring where they are on the plane */
+	private boolean sameGroup(int r0, int r1) {
+		if (r1 == -1) {
+			return false;
+		}
+
+		final int[] records = this.records;
+		final int base0 = r0 * RECORD_STRIDE;
+		final int base1 = r1 * RECORD_STRIDE;
+
+		if (records[base0 + AXIS] != records[base1 + AXIS] || records[base0 + PLANE] != records[base1 + PLANE]
+				|| records[base0 + CORNERS] != records[base1 + CORNERS]) {
+			return false;
+		}
+
+		for (int v = 0; v < 4; ++v) {
+			final int i0 = base0 + v * VERTEX_STRIDE;
+			final int i1 = base1 + v * VERTEX_STRIDE;
+
+			for (int j = COLOR; j < VERTEX_STRIDE; ++j) {
+				if (records[i0 + j] != records[i1 + j]) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private void emit(int r, int spanA, int spanB, QuadConsumer sink) {
+		final int[] records = this.records;
+		final int[] quad = this.quad;
+		final int base = r * RECORD_STRIDE;
+		System.arraycopy(records, base, quad, 0, QUAD_STRIDE);
+
+		if (spanA > 1 || spanB > 1) {
+			final int axis = records[base + AXIS];
+			final int axisA = axis == 0 ? 1 : 0;
+			final int axisB = axis == 2 ? 1 : 2;
+			final int minA = records[base + MIN_A];
+			final int minB = records[base + MIN_B];
+			final int corners = records[base + CORNERS];
+
+			for (int v = 0; v < 4; ++v) {
+				final int corner = (corners >> (v * 2)) & 3;
+				quad[v * VERTEX_STRIDE + axisA] = Float.floatToRawIntBits((corner & 1) == 0 ? minA : minA + spanA);
+				quad[v * VERTEX_STRIDE + axisB] = Float.floatToRawIntBits((corner & 2) == 0 ? minB : minB + spanB);
+			}
+		}
+
+		sink.accept(quad, QUAD_STRIDE);
+	}
+}
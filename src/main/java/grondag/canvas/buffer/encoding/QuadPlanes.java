@@ -0,0 +1,148 @@
+package grondag.canvas.buffer.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Distinct planes of a set of quads, for checking whether a camera move crossed any of them.
+ * While the camera stays on the same side of every quad plane no quad can move in front of
+ * or behind another, so a translucent draw order is still valid.
+ *
+ * <p>Terrain quads are nearly all axis-aligned, and a water surface or glass pane shares one
+ * plane across many quads, so axis-aligned planes are kept as sorted distinct coordinates and
+ * checked by binary search. Other planes are checked one by one.
+ */
+public class QuadPlanes {
+	private final float[] xPlanes;
+	private final float[] yPlanes;
+	private final float[] zPlanes;
+
+	/** Normal x, y, z and distance of each plane that is not axis-aligned */
+	private final float[] otherPlanes;
+
+	private QuadPlanes(float[] xPlanes, float[] yPlanes, float[] zPlanes, float[] otherPlanes) {
+		this.xPlanes = xPlanes;
+		this.yPlanes = yPlanes;
+		this.zPlanes = zPlanes;
+		this.otherPlanes = otherPlanes;
+	}
+
+	/**
+	 * @param data vertex data, with position as three floats at the start of each vertex
+	 * @param vertexIntStride ints per vertex
+	 */
+	public static QuadPlanes of(int[] data, int vertexIntStride) {
+		final int quadIntStride = vertexIntStride * 4;
+		final int quadCount = data.length / quadIntStride;
+		final float[] x = new float[quadCount];
+		final float[] y = new float[quadCount];
+		final float[] z = new float[quadCount];
+		final float[] other = new float[quadCount * 4];
+		int xCount = 0, yCount = 0, zCount = 0, otherCount = 0;
+
+		for (int q = 0, i = 0; q < quadCount; ++q, i += quadIntStride) {
+			final int i1 = i + vertexIntStride;
+			final int i2 = i1 + vertexIntStride;
+			final int i3 = i2 + vertexIntStride;
+
+			final float x0 = Float.intBitsToFloat(data[i]);
+			final float y0 = Float.intBitsToFloat(data[i + 1]);
+			final float z0 = Float.intBitsToFloat(data[i + 2]);
+
+			// diagonals give a usable normal even when two vertices of a quad are the same
+			final float ax = Float.intBitsToFloat(data[i2]) - x0;
+			final float ay = Float.intBitsToFloat(data[i2 + 1]) - y0;
+			final float az = Float.intBitsToFloat(data[i2 + 2]) - z0;
+			final float bx = Float.intBitsToFloat(data[i3]) - Float.intBitsToFloat(data[i1]);
+			final float by = Float.intBitsToFloat(data[i3 + 1]) - Float.intBitsToFloat(data[i1 + 1]);
+			final float bz = Float.intBitsToFloat(data[i3 + 2]) - Float.intBitsToFloat(data[i1 + 2]);
+
+			final float nx = ay * bz - az * by;
+			final float ny = az * bx - ax * bz;
+			final float nz = ax * by - ay * bx;
+
+			if (ny == 0 && nz == 0) {
+				if (nx != 0) {
+					x[xCount++] = x0;
+				}
+			} else if (nx == 0 && nz == 0) {
+				y[yCount++] = y0;
+			} else if (nx == 0 && ny == 0) {
+				z[zCount++] = z0;
+			} else {
+				other[otherCount++] = nx;
+				other[otherCount++] = ny;
+				other[otherCount++] = nz;
+				other[otherCount++] = nx * x0 + ny * y0 + nz * z0;
+			}
+		}
+
+		return new QuadPlanes(distinct(x, xCount), distinct(y, yCount), distinct(z, zCount), Arrays.copyOf(other, otherCount));
+	}
+
+	private static float[] distinct(float[] values, int size) {
+		Arrays.sort(values, 0, size);
+		int count = 0;
+
+		for (int i = 0; i < size; ++i) {
+			if (i == 0 || values[i] != values[count - 1]) {
+				values[count++] = values[i];
+			}
+		}
+
+		return Arrays.copyOf(values, count);
+	}
+
+	/**
+	 * True if a point moving from the first position to the second changes sides of any plane.
+	 * A point on a plane counts as behind it.
+	 */
+	public boolean crossed(float x0, float y0, float z0, float x1, float y1, float z1) {
+		if (crossed(xPlanes, x0, x1) || crossed(yPlanes, y0, y1) || crossed(zPlanes, z0, z1)) {
+			return true;
+		}
+
+		final float[] other = otherPlanes;
+
+		for (int i = 0; i < other.length; i += 4) {
+			final float nx = other[i];
+			final float ny = other[i + 1];
+			final float nz = other[i + 2];
+			final float d = other[i + 3];
+
+			if ((nx * x0 + ny * y0 + nz * z0 > d) != (nx * x1 + ny * y1 + nz * z1 > d)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sides of plane c differ when exactly one of c < p0 and c < p1 holds, that is when
+	 * min(p0, p1) <= c < max(p0, p1).
+	 */
+	private static boolean crossed(float[] planes, float p0, float p1) {
+		if (p0 == p1 || planes.length == 0) {
+			return false;
+		}
+
+		final float lo = Math.min(p0, p1);
+		final float hi = Math.max(p0, p1);
+
+		// first plane at or above lo
+		int low = 0;
+		int high = planes.length;
+
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+
+			if (planes[mid] < lo) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low < planes.length && planes[low] < hi;
+	}
+}
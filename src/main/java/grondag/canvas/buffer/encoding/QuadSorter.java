@@ -0,0 +1,207 @@
+package grondag.canvas.buffer.encoding;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Sorts quads farthest first without moving vertex data.  Distance keys are computed once
+ * per quad and a permutation of quad indices is radix sorted on the keys, so callers can
+ * copy quads in sorted order with a single copy per quad or draw them through an element
+ * index buffer.
+ *
+ * <p>Not thread-safe. Each thread should use its own instance.
+ */
+class QuadSorter {
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX_SIZE = 1 << RADIX_BITS;
+	private static final int RADIX_MASK = RADIX_SIZE - 1;
+	private static final int PASS_COUNT = 32 / RADIX_BITS;
+
+	/** Insertion sort gives up after this many element moves per quad, on average */
+	private static final int INSERTION_MOVES_PER_QUAD = 4;
+
+	private int[] keys = new int[512];
+	private int[] swapKeys = new int[512];
+	private int[] order = new int[512];
+	private int[] swapOrder = new int[512];
+	private final int[] counts = new int[PASS_COUNT * RADIX_SIZE];
+
+	/** Keys in sorted order after {@link #sort(int[], int, int, float, float, float)} */
+	private int[] sortedKeys = keys;
+
+	/**
+	 * Sorts quads by squared distance from x, y, z, farthest first. Quads with
+	 * equal distance keep their original order.
+	 *
+	 * @param data vertex data, with position as three floats at the start of each vertex
+	 * @param quadCount number of quads in data
+	 * @param vertexIntStride ints per vertex
+	 * @return quad indices in sorted order, valid until the next call. Array may be larger than quadCount.
+	 */
+	int[] sort(int[] data, int quadCount, int vertexIntStride, float x, float y, float z) {
+		ensureCapacity(quadCount);
+		final int[] order = this.order;
+
+		for (int q = 0; q < quadCount; ++q) {
+			order[q] = q;
+		}
+
+		computeKeys(data, quadCount, vertexIntStride, x, y, z);
+		return radixSort(quadCount);
+	}
+
+	/**
+	 * Sorts quads starting from a prior order, farthest first.  When the camera has moved
+	 * only a little the prior order is nearly sorted and an insertion sort finishes in close
+	 * to linear time.  Falls back to a radix sort if too many quads are out of place.
+	 *
+	 * @param order on entry, quad indices in prior sorted order. On return, indices in new order.
+	 * @return true if the insertion sort was enough
+	 */
+	boolean resort(int[] data, int quadCount, int vertexIntStride, float x, float y, float z, int[] order) {
+		ensureCapacity(quadCount);
+		final int[] keys = this.keys;
+		final int[] sortOrder = this.order;
+		System.arraycopy(order, 0, sortOrder, 0, quadCount);
+		computeKeys(data, quadCount, vertexIntStride, x, y, z);
+
+		int moveLimit = quadCount * INSERTION_MOVES_PER_QUAD;
+
+		for (int i = 1; i < quadCount; ++i) {
+			final int key = keys[i];
+			int j = i;
+
+			if (keys[j - 1] > key) {
+				final int quad = sortOrder[i];
+
+				do {
+					keys[j] = keys[j - 1];
+					sortOrder[j] = sortOrder[j - 1];
+					--j;
+				} while (j > 0 && keys[j - 1] > key);
+
+				keys[j] = key;
+				sortOrder[j] = quad;
+				moveLimit -= i - j;
+
+				if (moveLimit < 0) {
+					// still a permutation of the same keys, so histograms are valid
+					System.arraycopy(radixSort(quadCount), 0, order, 0, quadCount);
+					return false;
+				}
+			}
+		}
+
+		sortedKeys = keys;
+		System.arraycopy(sortOrder, 0, order, 0, quadCount);
+		return true;
+	}
+
+	private void ensureCapacity(int quadCount) {
+		if (keys.length < quadCount) {
+			final int size = Integer.highestOneBit(quadCount - 1) << 1;
+			keys = new int[size];
+			swapKeys = new int[size];
+			order = new int[size];
+			swapOrder = new int[size];
+		}
+	}
+
+	/**
+	 * Computes distance keys for quads in the current order and digit histograms for radix sort.
+	 */
+	private void computeKeys(int[] data, int quadCount, int vertexIntStride, float x, float y, float z) {
+		final int[] keys = this.keys;
+		final int[] order = this.order;
+		final int[] counts = this.counts;
+		final int quadIntStride = vertexIntStride * 4;
+
+		Arrays.fill(counts, 0);
+
+		for (int q = 0; q < quadCount; ++q) {
+			final int i = order[q] * quadIntStride;
+			final int i1 = i + vertexIntStride;
+			final int i2 = i1 + vertexIntStride;
+			final int i3 = i2 + vertexIntStride;
+
+			final float dx = (Float.intBitsToFloat(data[i]) + Float.intBitsToFloat(data[i1]) + Float.intBitsToFloat(data[i2]) + Float.intBitsToFloat(data[i3])) * 0.25f - x;
+			final float dy = (Float.intBitsToFloat(data[i + 1]) + Float.intBitsToFloat(data[i1 + 1]) + Float.intBitsToFloat(data[i2 + 1]) + Float.intBitsToFloat(data[i3 + 1])) * 0.25f - y;
+			final float dz = (Float.intBitsToFloat(data[i + 2]) + Float.intBitsToFloat(data[i1 + 2]) + Float.intBitsToFloat(data[i2 + 2]) + Float.intBitsToFloat(data[i3 + 2])) * 0.25f - z;
+
+			// bits of non-negative floats sort the same as their values, inverted for farthest first
+			final int key = ~Float.floatToRawIntBits(dx * dx + dy * dy + dz * dz);
+			keys[q] = key;
+			++counts[key & RADIX_MASK];
+			++counts[RADIX_SIZE + ((key >>> 8) & RADIX_MASK)];
+			++counts[RADIX_SIZE * 2 + ((key >>> 16) & RADIX_MASK)];
+			++counts[RADIX_SIZE * 3 + (key >>> 24)];
+		}
+	}
+
+	/**
+	 * Radix sorts keys and order computed by {@link #computeKeys(int[], int, int, float, float, float)}.
+	 */
+	private int[] radixSort(int quadCount) {
+		int[] srcKeys = keys;
+		int[] srcOrder = order;
+		int[] dstKeys = swapKeys;
+		int[] dstOrder = swapOrder;
+		final int[] counts = this.counts;
+
+		for (int pass = 0; pass < PASS_COUNT && quadCount > 1; ++pass) {
+			final int base = pass * RADIX_SIZE;
+			final int shift = pass * RADIX_BITS;
+
+			// nothing to do if all keys have the same digit
+			if (counts[base + ((srcKeys[0] >>> shift) & RADIX_MASK)] == quadCount) {
+				continue;
+			}
+
+			int offset = 0;
+
+			for (int d = base; d < base + RADIX_SIZE; ++d) {
+				final int n = counts[d];
+				counts[d] = offset;
+				offset += n;
+			}
+
+			for (int j = 0; j < quadCount; ++j) {
+				final int key = srcKeys[j];
+				final int target = counts[base + ((key >>> shift) & RADIX_MASK)]++;
+				dstKeys[target] = key;
+				dstOrder[target] = srcOrder[j];
+			}
+
+			final int[] k = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = k;
+
+			final int[] o = srcOrder;
+			srcOrder = dstOrder;
+			dstOrder = o;
+		}
+
+		sortedKeys = srcKeys;
+		return srcOrder;
+	}
+
+	/**
+	 * Squared distance of the quad at the given position in the last sort.
+	 */
+	float sortedDistance(int sortedIndex) {
+		return Float.intBitsToFloat(~sortedKeys[sortedIndex]);
+	}
+
+	/**
+	 * Writes four element indices for each quad, in the given quad order.
+	 */
+	static void putIndices(int[] order, int quadCount, IntBuffer indexBuffer) {
+		for (int i = 0; i < quadCount; ++i) {
+			final int v = order[i] << 2;
+			indexBuffer.put(v);
+			indexBuffer.put(v + 1);
+			indexBuffer.put(v + 2);
+			indexBuffer.put(v + 3);
+		}
+	}
+}
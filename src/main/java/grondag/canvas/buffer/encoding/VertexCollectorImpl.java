@@ -1,14 +1,17 @@
 package grondag.canvas.buffer.encoding;
 
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
-import com.google.common.primitives.Doubles;
-import it.unimi.dsi.fastutil.Swapper;
-import it.unimi.dsi.fastutil.ints.IntComparator;
+import org.lwjgl.system.MemoryUtil;
 
 import net.minecraft.client.render.VertexConsumer;
-import net.minecraft.util.math.MathHelper;
 
+import net.fabricmc.fabric.api.renderer.v1.model.ModelHelper;
+
+import grondag.canvas.Configurator;
+import grondag.canvas.buffer.TransferBufferAllocator;
+import grondag.canvas.buffer.VboBuffer;
 import grondag.canvas.material.EncodingContext;
 import grondag.canvas.material.MaterialState;
 import grondag.canvas.material.MaterialVertexFormat;
@@ -17,9 +20,22 @@ import grondag.fermion.intstream.IntStreamProvider;
 import grondag.fermion.intstream.IntStreamProvider.IntStreamImpl;
 
 public class VertexCollectorImpl implements VertexCollector {
-	private final IntStreamImpl data = INT_STREAM_PROVIDER.claim();
+	/**
+	 * When true, vertex data is written to a pooled transfer buffer that is handed
+	 * to {@link VboBuffer} for upload without another copy.
+	 */
+	private static final boolean OFF_HEAP = Configurator.offHeapVertexCollectors;
+
+	/** On-heap storage, null when off-heap */
+	private final IntStreamImpl data = OFF_HEAP ? null : INT_STREAM_PROVIDER.claim();
 	private int integerSize = 0;
 
+	/** Off-heap storage, null until first write */
+	private ByteBuffer buffer;
+	private IntBuffer intView;
+	private long address;
+	private int capacityInts;
+
 	/**
 	 * Used for vanilla quads
 	 */
@@ -27,17 +43,36 @@ public class VertexCollectorImpl implements VertexCollector {
 
 	private MaterialState materialState;
 
+	private int faceId = ModelHelper.NULL_FACE_ID;
+
 	private MaterialVertexFormat format;
 
+	/** Created on first use and kept with the collector */
+	private LodQuadMerger lodMerger;
+
+	/** True between {@link #beginLodMerge()} and {@link #endLodMerge()} */
+	private boolean lodMergeActive = false;
+
 	/**
-	 * Holds per-quad distance after {@link #sortQuads(double, double, double)} is
+	 * Holds per-quad distance after {@link #sortQuads(int[], float, float, float)} is
 	 * called
 	 */
-	private double[] perQuadDistance;
+	private float[] perQuadDistance;
+
+	/**
+	 * Quad indices in draw order after {@link #sortQuads(int[], float, float, float)} is called.
+	 * Vertex data is not moved.
+	 */
+	private int[] sortedQuads;
+
+	/**
+	 * Saved state that quads were last sorted from, null if not sorted since cleared.
+	 */
+	private int[] sortSource;
 
 	/**
 	 * Pointer to next sorted quad in sort iteration methods.<br>
-	 * After {@link #sortQuads(float, float, float)} is called this will be zero.
+	 * After {@link #sortQuads(int[], float, float, float)} is called this will be zero.
 	 */
 	private int sortReadIndex = 0;
 
@@ -50,15 +85,91 @@ public class VertexCollectorImpl implements VertexCollector {
 	}
 
 	public VertexCollectorImpl prepare(EncodingContext context, MaterialState materialState) {
+		return prepare(context, materialState, ModelHelper.NULL_FACE_ID);
+	}
+
+	public VertexCollectorImpl prepare(EncodingContext context, MaterialState materialState, int faceId) {
 		defaultEncoder = VertexEncoders.getDefault(context, materialState);
 		this.materialState = materialState;
+		this.faceId = faceId;
 		format =  MaterialVertexFormats.get(context, materialState.isTranslucent);
 		return this;
 	}
 
 	public void clear() {
 		integerSize = 0;
-		data.reset();
+		sortSource = null;
+
+		if (lodMergeActive) {
+			lodMerger.clear();
+			lodMergeActive = false;
+		}
+
+		if (OFF_HEAP) {
+			if (buffer != null) {
+				TransferBufferAllocator.release(buffer);
+				buffer = null;
+				intView = null;
+				address = 0;
+				capacityInts = 0;
+			}
+		} else {
+			data.reset();
+		}
+	}
+
+	/**
+	 * Ensures off-heap storage can hold the given number of additional ints.
+	 * Returns the address of the next int to be written.
+	 */
+	private long reserve(int ints) {
+		final int newSize = integerSize + ints;
+
+		if (newSize > capacityInts) {
+			final ByteBuffer newBuffer = TransferBufferAllocator.claim(newSize * 8);
+
+			if (buffer != null) {
+				MemoryUtil.memCopy(address, MemoryUtil.memAddress0(newBuffer), (long) integerSize << 2);
+				TransferBufferAllocator.release(buffer);
+			}
+
+			buffer = newBuffer;
+			intView = newBuffer.asIntBuffer();
+			address = MemoryUtil.memAddress0(newBuffer);
+			capacityInts = newBuffer.capacity() >> 2;
+		}
+
+		return address + ((long) integerSize << 2);
+	}
+
+	/**
+	 * Hands off-heap vertex data to the caller, who becomes responsible for releasing it
+	 * to {@link TransferBufferAllocator}. Limit of the result is {@link #byteSize()}.
+	 * Leaves this collector empty.
+	 */
+	public ByteBuffer detachBuffer() {
+		assert OFF_HEAP;
+		final ByteBuffer result = buffer == null ? TransferBufferAllocator.claim(4) : buffer;
+		result.position(0);
+		result.limit(byteSize());
+		buffer = null;
+		intView = null;
+		address = 0;
+		capacityInts = 0;
+		clear();
+		return result;
+	}
+
+	/**
+	 * Moves vertex data to the given buffer for upload.  Off-heap data is handed over
+	 * without copying and this collector is left empty.
+	 */
+	public void toVbo(VboBuffer vboBuffer) {
+		if (OFF_HEAP) {
+			vboBuffer.addSegment(detachBuffer());
+		} else {
+			toBuffer(vboBuffer.intBuffer());
+		}
 	}
 
 	public int integerSize() {
@@ -77,6 +188,14 @@ public class VertexCollectorImpl implements VertexCollector {
 		return materialState;
 	}
 
+	/**
+	 * Face all quads in this collector point toward, or {@link ModelHelper#NULL_FACE_ID}
+	 * if quads were not partitioned by face.
+	 */
+	public int faceId() {
+		return faceId;
+	}
+
 	public int vertexCount() {
 		return integerSize / format.vertexStrideInts;
 	}
@@ -90,40 +209,85 @@ public class VertexCollectorImpl implements VertexCollector {
 		throw new UnsupportedOperationException();
 	}
 
-	public void sortQuads(double x, double y, double z) {
-		quadSorter.get().doSort(this, x, y, z);
+	/**
+	 * Computes the farthest-first order of quads for {@link #toIndexBuffer(IntBuffer)}
+	 * without moving vertex data.
+	 *
+	 * @param quadData current content of this collector, as returned by {@link #saveState(int[])}
+	 */
+	public void sortQuads(int[] quadData, float x, float y, float z) {
+		final QuadSorter sorter = quadSorter.get();
+		final int quadCount = quadCount();
+		final int[] order = sorter.sort(quadData, quadCount, format.vertexStrideInts, x, y, z);
+
+		if (sortedQuads == null || sortedQuads.length < quadCount) {
+			final int size = Math.max(512, Integer.highestOneBit(quadCount - 1) << 1);
+			sortedQuads = new int[size];
+			perQuadDistance = new float[size];
+		}
+
+		System.arraycopy(order, 0, sortedQuads, 0, quadCount);
+
+		for (int i = 0; i < quadCount; ++i) {
+			perQuadDistance[i] = sorter.sortedDistance(i);
+		}
+
+		sortSource = quadData;
 		sortReadIndex = 0;
-		sortMaxIndex = quadCount();
+		sortMaxIndex = quadCount;
 	}
 
-	private double getDistanceSq(double x, double y, double z, int integerStride, int vertexIndex) {
-		// unpack vertex coordinates
-		int i = vertexIndex * integerStride * 4;
-		final double x0 = Float.intBitsToFloat(data.get(i));
-		final double y0 = Float.intBitsToFloat(data.get(i + 1));
-		final double z0 = Float.intBitsToFloat(data.get(i + 2));
+	/**
+	 * Saved state that quads were last sorted from, or null if not sorted.  Identifies
+	 * the vertex data that later re-sorted indices must be drawn with.
+	 */
+	public int[] sortSource() {
+		return sortSource;
+	}
 
-		i += integerStride;
-		final double x1 = Float.intBitsToFloat(data.get(i));
-		final double y1 = Float.intBitsToFloat(data.get(i + 1));
-		final double z1 = Float.intBitsToFloat(data.get(i + 2));
+	/**
+	 * Writes four element indices per quad, in sorted order if quads have been sorted.
+	 */
+	public void toIndexBuffer(IntBuffer indexBuffer) {
+		final int quadCount = quadCount();
 
-		i += integerStride;
-		final double x2 = Float.intBitsToFloat(data.get(i));
-		final double y2 = Float.intBitsToFloat(data.get(i + 1));
-		final double z2 = Float.intBitsToFloat(data.get(i + 2));
+		if (sortSource == null) {
+			for (int i = 0; i < quadCount * 4; ++i) {
+				indexBuffer.put(i);
+			}
+		} else {
+			QuadSorter.putIndices(sortedQuads, quadCount, indexBuffer);
+		}
+	}
 
-		i += integerStride;
-		final double x3 = Float.intBitsToFloat(data.get(i));
-		final double y3 = Float.intBitsToFloat(data.get(i + 1));
-		final double z3 = Float.intBitsToFloat(data.get(i + 2));
+	/**
+	 * Copies quad order from the last sort, for use as the starting order of
+	 * {@link #resortIndices(int[], int, float, float, float, int[], IntBuffer)}.
+	 */
+	public int[] saveSortOrder(int[] priorOrder) {
+		final int quadCount = sortMaxIndex;
+		int[] result = priorOrder;
 
-		// compute average distance by component
-		final double dx = (x0 + x1 + x2 + x3) * 0.25 - x;
-		final double dy = (y0 + y1 + y2 + y3) * 0.25 - y;
-		final double dz = (z0 + z1 + z2 + z3) * 0.25 - z;
+		if (result == null || result.length != quadCount) {
+			result = new int[quadCount];
+		}
 
-		return dx * dx + dy * dy + dz * dz;
+		System.arraycopy(sortedQuads, 0, result, 0, quadCount);
+		return result;
+	}
+
+	/**
+	 * Writes element indices that draw quads in saved state farthest first from the
+	 * given position, four per quad, without loading or moving vertex data.  Starts
+	 * from the prior order, which is usually close, and updates it.
+	 *
+	 * @return true if the prior order only needed an incremental sort
+	 */
+	public static boolean resortIndices(int[] stateData, int vertexIntStride, float x, float y, float z, int[] order, IntBuffer indexBuffer) {
+		final int quadCount = order.length;
+		final boolean result = quadSorter.get().resort(stateData, quadCount, vertexIntStride, x, y, z, order);
+		QuadSorter.putIndices(order, quadCount, indexBuffer);
+		return result;
 	}
 
 	/**
@@ -179,7 +343,12 @@ public class VertexCollectorImpl implements VertexCollector {
 		}
 
 		if (integerSize > 0) {
-			data.copyTo(0, result, 0, integerSize);
+			if (OFF_HEAP) {
+				intView.position(0);
+				intView.get(result, 0, integerSize);
+			} else {
+				data.copyTo(0, result, 0, integerSize);
+			}
 		}
 
 		return result;
@@ -196,78 +365,37 @@ public class VertexCollectorImpl implements VertexCollector {
 		integerSize = 0;
 
 		if (newSize > 0) {
+			if (OFF_HEAP) {
+				reserve(newSize);
+				intView.position(0);
+				intView.put(stateData, 0, newSize);
+			} else {
+				data.copyFrom(0, stateData, 0, newSize);
+			}
+
 			integerSize = newSize;
-			data.copyFrom(0, stateData, 0, newSize);
 		}
 
 		return this;
 	}
 
 	public void toBuffer(IntBuffer intBuffer) {
-		data.copyTo(0, intBuffer, integerSize);
+		if (OFF_HEAP) {
+			if (integerSize > 0) {
+				final IntBuffer src = intView;
+				src.position(0);
+				src.limit(integerSize);
+				intBuffer.put(src);
+				src.clear();
+			}
+		} else {
+			data.copyTo(0, intBuffer, integerSize);
+		}
 	}
 
 	// TODO: make parameters dynamic based on system specs / config
 	private static IntStreamProvider INT_STREAM_PROVIDER = new IntStreamProvider(0x10000, 16, 4096);
 
-	private static class QuadSorter {
-		double[] perQuadDistance = new double[512];
-		int[] quadSwap = new int[128];
-
-		IntStreamImpl data;
-		int quadIntStride;
-
-		private final IntComparator comparator = new IntComparator() {
-			@Override
-			public int compare(int a, int b) {
-				return Doubles.compare(perQuadDistance[b], perQuadDistance[a]);
-			}
-		};
-
-		private final Swapper swapper = new Swapper() {
-			@Override
-			public void swap(int a, int b) {
-				final double distSwap = perQuadDistance[a];
-				perQuadDistance[a] = perQuadDistance[b];
-				perQuadDistance[b] = distSwap;
-
-				data.copyTo(a * quadIntStride, quadSwap, 0, quadIntStride);
-				data.copyFromDirect(a * quadIntStride, data, b * quadIntStride, quadIntStride);
-				data.copyFrom(b * quadIntStride, quadSwap, 0, quadIntStride);
-			}
-		};
-
-		private void doSort(VertexCollectorImpl caller, double x, double y, double z) {
-			data = caller.data;
-
-			// works because 4 bytes per int
-			quadIntStride = caller.format.vertexStrideBytes;
-			final int vertexIntStride = quadIntStride / 4;
-			final int quadCount = caller.vertexCount() / 4;
-
-			if (perQuadDistance.length < quadCount) {
-				perQuadDistance = new double[MathHelper.smallestEncompassingPowerOfTwo(quadCount)];
-			}
-
-			if (quadSwap.length < quadIntStride) {
-				quadSwap = new int[MathHelper.smallestEncompassingPowerOfTwo(quadIntStride)];
-			}
-
-			for (int j = 0; j < quadCount; ++j) {
-				perQuadDistance[j] = caller.getDistanceSq(x, y, z, vertexIntStride, j);
-			}
-
-			// sort the indexes by distance - farthest first
-			it.unimi.dsi.fastutil.Arrays.quickSort(0, quadCount, comparator, swapper);
-
-			if (caller.perQuadDistance == null || caller.perQuadDistance.length < quadCount) {
-				caller.perQuadDistance = new double[perQuadDistance.length];
-			}
-
-			System.arraycopy(perQuadDistance, 0, caller.perQuadDistance, 0, quadCount);
-		}
-	}
-
 	private static final ThreadLocal<QuadSorter> quadSorter = new ThreadLocal<QuadSorter>() {
 		@Override
 		protected QuadSorter initialValue() {
@@ -277,37 +405,105 @@ public class VertexCollectorImpl implements VertexCollector {
 
 	@Override
 	public final void addi(final int i) {
-		data.set(integerSize++, i);
+		if (OFF_HEAP) {
+			MemoryUtil.memPutInt(reserve(1), i);
+			++integerSize;
+		} else {
+			data.set(integerSize++, i);
+		}
 	}
 
 	@Override
 	public final void addf(final float f) {
-		data.set(integerSize++, Float.floatToRawIntBits(f));
+		addi(Float.floatToRawIntBits(f));
 	}
 
 	@Override
 	public final void addf(final float u, float v) {
-		data.set(integerSize++, Float.floatToRawIntBits(u));
-		data.set(integerSize++, Float.floatToRawIntBits(v));
+		if (OFF_HEAP) {
+			final long a = reserve(2);
+			MemoryUtil.memPutInt(a, Float.floatToRawIntBits(u));
+			MemoryUtil.memPutInt(a + 4, Float.floatToRawIntBits(v));
+			integerSize += 2;
+		} else {
+			data.set(integerSize++, Float.floatToRawIntBits(u));
+			data.set(integerSize++, Float.floatToRawIntBits(v));
+		}
 	}
 
 	@Override
 	public final void addf(final float x, float y, float z) {
-		data.set(integerSize++, Float.floatToRawIntBits(x));
-		data.set(integerSize++, Float.floatToRawIntBits(y));
-		data.set(integerSize++, Float.floatToRawIntBits(z));
+		if (OFF_HEAP) {
+			final long a = reserve(3);
+			MemoryUtil.memPutInt(a, Float.floatToRawIntBits(x));
+			MemoryUtil.memPutInt(a + 4, Float.floatToRawIntBits(y));
+			MemoryUtil.memPutInt(a + 8, Float.floatToRawIntBits(z));
+			integerSize += 3;
+		} else {
+			data.set(integerSize++, Float.floatToRawIntBits(x));
+			data.set(integerSize++, Float.floatToRawIntBits(y));
+			data.set(integerSize++, Float.floatToRawIntBits(z));
+		}
 	}
 
 	@Override
 	public final void addf(final float... fArray) {
 		for (final float f : fArray) {
-			data.set(integerSize++, Float.floatToRawIntBits(f));
+			addi(Float.floatToRawIntBits(f));
+		}
+	}
+
+	/**
+	 * Holds back full block faces until {@link #endLodMerge()} so they can be merged.
+	 * Ignored unless quads are written in the vanilla block layout.
+	 */
+	public void beginLodMerge() {
+		if (format == MaterialVertexFormats.VANILLA_BLOCKS_AND_ITEMS || format == MaterialVertexFormats.COMPACT_TERRAIN) {
+			if (lodMerger == null) {
+				lodMerger = new LodQuadMerger();
+			}
+
+			lodMergeActive = true;
+		}
+	}
+
+	/**
+	 * Writes faces held since {@link #beginLodMerge()}, merged where possible.
+	 *
+	 * @return number of quads removed by merging
+	 */
+	public int endLodMerge() {
+		if (!lodMergeActive) {
+			return 0;
 		}
+
+		lodMergeActive = false;
+		return lodMerger.flush(this::add);
 	}
 
 	@Override
 	public final void add(int[] appendData, int length) {
-		data.copyFrom(integerSize, appendData, 0, length);
+		if (lodMergeActive) {
+			length = lodMerger.offer(appendData, length);
+
+			if (length == 0) {
+				return;
+			}
+		}
+
+		if (format == MaterialVertexFormats.COMPACT_TERRAIN) {
+			// terrain encoders write the vanilla layout
+			length = CompactTerrainEncoding.pack(appendData, length);
+		}
+
+		if (OFF_HEAP) {
+			reserve(length);
+			intView.position(integerSize);
+			intView.put(appendData, 0, length);
+		} else {
+			data.copyFrom(integerSize, appendData, 0, length);
+		}
+
 		integerSize += length;
 	}
 
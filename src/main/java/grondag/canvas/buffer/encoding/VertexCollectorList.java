@@ -6,7 +6,12 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import net.minecraft.util.math.MathHelper;
 
+import net.fabricmc.fabric.api.renderer.v1.model.ModelHelper;
+
+import grondag.canvas.Configurator;
 import grondag.canvas.apiimpl.material.MeshMaterialLayer;
+import grondag.canvas.apiimpl.mesh.QuadViewImpl;
+import grondag.canvas.apiimpl.util.GeometryHelper;
 import grondag.canvas.material.EncodingContext;
 import grondag.canvas.material.MaterialState;
 import grondag.canvas.material.MaterialVertexFormats;
@@ -25,6 +30,18 @@ public class VertexCollectorList {
 
 	private EncodingContext context = null;
 
+	/** Solid collectors for quads facing each face, indexed by face then collector index */
+	private final VertexCollectorImpl[][] faceCollectors = new VertexCollectorImpl[ModelHelper.NULL_FACE_ID][];
+
+	/** True when solid terrain quads are partitioned by face, set at clear */
+	private boolean partitionFaces = false;
+
+	/** Face of the quad being encoded, or {@link ModelHelper#NULL_FACE_ID} to use the usual collectors */
+	private int faceId = ModelHelper.NULL_FACE_ID;
+
+	/** True while solid collectors hold back faces for merging */
+	private boolean lodMerge = false;
+
 	public VertexCollectorList() {
 		collectors[MaterialState.TRANSLUCENT_INDEX] = new VertexCollectorImpl();
 	}
@@ -50,6 +67,83 @@ public class VertexCollectorList {
 		solidCount = 0;
 
 		Arrays.fill(collectors, 1, collectors.length, null);
+
+		for (final VertexCollectorImpl[] c : faceCollectors) {
+			if (c != null) {
+				Arrays.fill(c, null);
+			}
+		}
+
+		partitionFaces = context == EncodingContext.TERRAIN && Configurator.terrainFaceCulling;
+		faceId = ModelHelper.NULL_FACE_ID;
+		lodMerge = false;
+	}
+
+	/**
+	 * Solid collectors, including any added later, hold back full block faces until
+	 * {@link #endLodMerge()} and then merge neighboring faces that look the same.
+	 * For regions far from the camera.  Translucent quads are not merged.
+	 */
+	public void beginLodMerge() {
+		lodMerge = true;
+
+		for (int i = 0; i < solidCount; i++) {
+			solidCollectors.get(i).beginLodMerge();
+		}
+	}
+
+	/**
+	 * @return number of quads removed by merging
+	 */
+	public int endLodMerge() {
+		lodMerge = false;
+		int result = 0;
+
+		for (int i = 0; i < solidCount; i++) {
+			result += solidCollectors.get(i).endLodMerge();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Quads in all collectors for the given pass.
+	 */
+	public int quadCount(boolean translucent) {
+		if (translucent) {
+			return collectors[MaterialState.TRANSLUCENT_INDEX].quadCount();
+		}
+
+		int result = 0;
+
+		for (int i = 0; i < solidCount; i++) {
+			result += solidCollectors.get(i).quadCount();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Call before each quad is encoded.  When partitioning by face, solid quads that are
+	 * axis-aligned with their plane inside the block go to collectors for their face, so
+	 * regions can skip faces that point away from the camera. Other quads, including
+	 * all translucent quads, use the usual collectors.
+	 */
+	public void prepareQuad(QuadViewImpl quad) {
+		if (partitionFaces) {
+			int faceId = ModelHelper.NULL_FACE_ID;
+
+			if ((quad.geometryFlags() & GeometryHelper.AXIS_ALIGNED_FLAG) != 0) {
+				final int lightFaceId = quad.lightFaceId();
+				final float plane = quad.posByIndex(0, ModelHelper.faceFromIndex(lightFaceId).getAxis().ordinal());
+
+				if (plane >= 0 && plane <= 1) {
+					faceId = lightFaceId;
+				}
+			}
+
+			this.faceId = faceId;
+		}
 	}
 
 	public final VertexCollectorImpl getIfExists(MaterialState materialState) {
@@ -57,6 +151,10 @@ public class VertexCollectorList {
 	}
 
 	public final VertexCollectorImpl get(MaterialState materialState) {
+		if (faceId != ModelHelper.NULL_FACE_ID && !materialState.isTranslucent) {
+			return getForFace(materialState);
+		}
+
 		final int index = materialState.collectorIndex;
 		VertexCollectorImpl[] collectors = this.collectors;
 
@@ -75,6 +173,41 @@ public class VertexCollectorList {
 		if(result == null) {
 			assert materialState.collectorIndex != MaterialState.TRANSLUCENT_INDEX;
 			result = emptySolidCollector().prepare(context, materialState);
+
+			if (lodMerge) {
+				result.beginLodMerge();
+			}
+
+			collectors[index] = result;
+		}
+
+		return result;
+	}
+
+	private VertexCollectorImpl getForFace(MaterialState materialState) {
+		final int index = materialState.collectorIndex;
+		VertexCollectorImpl[] collectors = faceCollectors[faceId];
+
+		if (collectors == null || index >= collectors.length) {
+			final VertexCollectorImpl[] newCollectors = new VertexCollectorImpl[MathHelper.smallestEncompassingPowerOfTwo(Math.max(index + 1, 64))];
+
+			if (collectors != null) {
+				System.arraycopy(collectors, 0, newCollectors, 0, collectors.length);
+			}
+
+			collectors = newCollectors;
+			faceCollectors[faceId] = collectors;
+		}
+
+		VertexCollectorImpl result = collectors[index];
+
+		if(result == null) {
+			result = emptySolidCollector().prepare(context, materialState, faceId);
+
+			if (lodMerge) {
+				result.beginLodMerge();
+			}
+
 			collectors[index] = result;
 		}
 
@@ -18,6 +18,7 @@ import net.minecraft.block.BlockState;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 
+import grondag.canvas.terrain.BlockStateFlags;
 import grondag.canvas.terrain.FastRenderRegion;
 
 
@@ -64,7 +65,7 @@ public class LightSmoother {
 					// don't use cache here because we are populating the cache
 					final int packedLight = region.directBrightness(smoothPos);
 
-					final boolean opaque = state.isOpaqueFullCube(region, smoothPos);
+					final boolean opaque = BlockStateFlags.isOpaqueFullCube(state, BlockStateFlags.get(state), region, smoothPos);
 
 					final int i = index(x, y , z);
 					if(opaque) {
@@ -33,6 +33,9 @@ public class MaterialVertexFormat {
 	public final int vertexStrideBytes;
 	public final int vertexStrideInts;
 
+	/** GL type of the position, always the first element and bound as the legacy vertex array */
+	public final int positionGlType;
+
 	private final MaterialVertextFormatElement[] elements;
 
 	public final int index = nextIndex++;
@@ -54,6 +57,7 @@ public class MaterialVertexFormat {
 		attributeCount = count;
 		vertexStrideBytes = bytes;
 		vertexStrideInts = bytes / 4;
+		positionGlType = elements[0].glConstant;
 	}
 
 	/**
@@ -5,9 +5,11 @@ import static grondag.canvas.material.MaterialVertextFormatElement.BASE_TEX_2F;
 import static grondag.canvas.material.MaterialVertextFormatElement.BASE_TEX_2US;
 import static grondag.canvas.material.MaterialVertextFormatElement.HD_LIGHTMAP_2US;
 import static grondag.canvas.material.MaterialVertextFormatElement.LIGHTMAPS_4UB;
+import static grondag.canvas.material.MaterialVertextFormatElement.MATERIAL_1US;
 import static grondag.canvas.material.MaterialVertextFormatElement.MATERIAL_2US;
 import static grondag.canvas.material.MaterialVertextFormatElement.NORMAL_AO_4B;
 import static grondag.canvas.material.MaterialVertextFormatElement.POSITION_3F;
+import static grondag.canvas.material.MaterialVertextFormatElement.POSITION_3S;
 import static grondag.canvas.material.MaterialVertextFormatElement.TEMP_LIGHTMAP;
 import static grondag.canvas.material.MaterialVertextFormatElement.TEMP_OVERLAY;
 
@@ -17,7 +19,6 @@ import grondag.canvas.Configurator;
 // encoding may be different and may depend on feature configuration
 
 public final class MaterialVertexFormats {
-	// PERF: try quantized vertex format
 	public static final MaterialVertexFormat VANILLA_BLOCKS_AND_ITEMS = new MaterialVertexFormat(
 			POSITION_3F,
 			BASE_RGBA_4UB,
@@ -26,6 +27,24 @@ public final class MaterialVertexFormats {
 			NORMAL_AO_4B,
 			MATERIAL_2US);
 
+	/**
+	 * Same content as {@link #VANILLA_BLOCKS_AND_ITEMS} in 24 bytes instead of 32, with
+	 * fixed-point position.  Solid terrain only - translucent sorting reads float positions.
+	 */
+	public static final MaterialVertexFormat COMPACT_TERRAIN = new MaterialVertexFormat(
+			POSITION_3S,
+			MATERIAL_1US,
+			BASE_RGBA_4UB,
+			BASE_TEX_2US,
+			LIGHTMAPS_4UB,
+			NORMAL_AO_4B);
+
+	/**
+	 * Format of non-HD solid terrain. Fixed at startup because built regions, draw handlers
+	 * and shaders must all agree.
+	 */
+	public static final MaterialVertexFormat TERRAIN_SOLID = Configurator.compactTerrainVertices ? COMPACT_TERRAIN : VANILLA_BLOCKS_AND_ITEMS;
+
 	public static final MaterialVertexFormat TEMPORARY_ENTITY_FORMAT = new MaterialVertexFormat(
 			POSITION_3F,
 			BASE_RGBA_4UB,
@@ -53,6 +72,10 @@ public final class MaterialVertexFormats {
 	public static final int MAX_QUAD_INT_STRIDE = 128;
 
 	public static MaterialVertexFormat get(EncodingContext context, boolean translucent) {
-		return context == EncodingContext.TERRAIN && Configurator.hdLightmaps() ? HD_TERRAIN : VANILLA_BLOCKS_AND_ITEMS;
+		if (context == EncodingContext.TERRAIN) {
+			return Configurator.hdLightmaps() ? HD_TERRAIN : translucent ? VANILLA_BLOCKS_AND_ITEMS : TERRAIN_SOLID;
+		}
+
+		return VANILLA_BLOCKS_AND_ITEMS;
 	}
 }
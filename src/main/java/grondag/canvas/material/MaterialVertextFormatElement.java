@@ -24,6 +24,10 @@ public class MaterialVertextFormatElement {
 	// slows to a crawl otherwise
 	public static final MaterialVertextFormatElement POSITION_3F = new MaterialVertextFormatElement(
 			VertexFormatElement.Format.FLOAT, 3, null);
+	/** Fixed-point position, see {@link grondag.canvas.buffer.encoding.CompactTerrainEncoding} */
+	public static final MaterialVertextFormatElement POSITION_3S = new MaterialVertextFormatElement(
+			VertexFormatElement.Format.SHORT, 3, null, false);
+
 	public static final MaterialVertextFormatElement BASE_RGBA_4UB = new MaterialVertextFormatElement(
 			VertexFormatElement.Format.UBYTE, 4, "in_color");
 	public static final MaterialVertextFormatElement BASE_TEX_2F = new MaterialVertextFormatElement(
@@ -54,6 +58,10 @@ public class MaterialVertextFormatElement {
 	public static final MaterialVertextFormatElement MATERIAL_2US = new MaterialVertextFormatElement(
 			VertexFormatElement.Format.USHORT, 2, "in_material", false);
 
+	/** Sprite id only, fills the short after {@link #POSITION_3S} */
+	public static final MaterialVertextFormatElement MATERIAL_1US = new MaterialVertextFormatElement(
+			VertexFormatElement.Format.USHORT, 1, "in_material", false);
+
 	public final String attributeName;
 	public final int elementCount;
 	public final int glConstant;
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.mixin;
+
+import org.spongepowered.asm.mixin.Mixin;
+
+import net.minecraft.block.AbstractBlock;
+
+import grondag.canvas.mixinterface.BlockStateExt;
+
+@Mixin(AbstractBlock.AbstractBlockState.class)
+public abstract class MixinAbstractBlockState implements BlockStateExt {
+	private int canvas_rawId = -1;
+
+	@Override
+	public int canvas_rawId() {
+		return canvas_rawId;
+	}
+
+	@Override
+	public void canvas_rawId(int rawId) {
+		canvas_rawId = rawId;
+	}
+}
@@ -17,15 +17,20 @@ package grondag.canvas.mixin;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import net.minecraft.client.world.ClientChunkManager;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.world.biome.source.BiomeArray;
 import net.minecraft.world.chunk.WorldChunk;
 
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 
 import grondag.canvas.mixinterface.WorldChunkExt;
+import grondag.canvas.terrain.SectionSnapshotCache;
 
 @Environment(EnvType.CLIENT)
 @Mixin(ClientChunkManager.class)
@@ -39,4 +44,17 @@ public class MixinClientChunkManager {
 			((WorldChunkExt) chunk).canvas_clearColorCache();
 		}
 	}
+
+	/** Reload may change every section, so region builders reading the chunk must retry */
+	@Redirect(method = "loadChunkFromPacket", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/WorldChunk;loadFromPacket(Lnet/minecraft/world/biome/source/BiomeArray;Lnet/minecraft/network/PacketByteBuf;Lnet/minecraft/nbt/CompoundTag;I)V"))
+	private void onChunkLoadFromPacket(WorldChunk chunk, BiomeArray biomes, PacketByteBuf buf, CompoundTag tag, int verticalStripBitmask) {
+		final SectionSnapshotCache<?> cache = ((WorldChunkExt) chunk).canvas_snapshotCache();
+		cache.beginWrite(SectionSnapshotCache.ALL_SECTIONS);
+
+		try {
+			chunk.loadFromPacket(biomes, buf, tag, verticalStripBitmask);
+		} finally {
+			cache.endWrite();
+		}
+	}
 }
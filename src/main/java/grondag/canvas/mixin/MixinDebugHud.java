@@ -27,6 +27,7 @@ import net.minecraft.client.gui.hud.DebugHud;
 
 import grondag.canvas.Configurator;
 import grondag.canvas.buffer.GlBufferAllocator;
+import grondag.canvas.buffer.TerrainArena;
 import grondag.canvas.buffer.TransferBufferAllocator;
 import grondag.canvas.light.LightmapHd;
 
@@ -41,6 +42,11 @@ public class MixinDebugHud {
 		}
 
 		list.add(TransferBufferAllocator.debugString());
+		list.add(TransferBufferAllocator.poolDebugString());
 		list.add(GlBufferAllocator.debugString());
+
+		if (TerrainArena.ENABLED) {
+			list.add(TerrainArena.debugString());
+		}
 	}
 }
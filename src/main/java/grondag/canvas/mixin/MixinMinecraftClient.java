@@ -32,6 +32,7 @@ import net.minecraft.util.thread.ReentrantThreadExecutor;
 import grondag.canvas.Configurator;
 import grondag.canvas.mixinterface.MinecraftClientExt;
 import grondag.canvas.render.CanvasWorldRenderer;
+import grondag.canvas.terrain.RenderRegionBuilder;
 import grondag.canvas.varia.CanvasGlHelper;
 
 @Mixin(MinecraftClient.class)
@@ -47,6 +48,11 @@ public abstract class MixinMinecraftClient extends ReentrantThreadExecutor<Runna
 		CanvasGlHelper.init();
 	}
 
+	@Inject(at = @At("RETURN"), method = "render")
+	private void afterRender(CallbackInfo info) {
+		RenderRegionBuilder.endFrame();
+	}
+
 	@Redirect(at = @At(value = "INVOKE", target = "Ljava/lang/Thread;yield()V"), method = "render", require = 1, allow = 1)
 	private void onYield() {
 		if (!Configurator.greedyRenderThread) {
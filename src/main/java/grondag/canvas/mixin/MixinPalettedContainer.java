@@ -23,8 +23,7 @@ import net.minecraft.world.chunk.Palette;
 import net.minecraft.world.chunk.PalettedContainer;
 
 import grondag.canvas.mixinterface.PalettedContainerExt;
-import grondag.canvas.terrain.ChunkPaletteCopier;
-import grondag.canvas.terrain.ChunkPaletteCopier.PaletteCopy;
+import grondag.canvas.terrain.ChunkSectionSnapshot;
 
 @Mixin(PalettedContainer.class)
 public abstract class MixinPalettedContainer<T> implements PalettedContainerExt {
@@ -34,7 +33,7 @@ public abstract class MixinPalettedContainer<T> implements PalettedContainerExt
 
 	@SuppressWarnings("unchecked")
 	@Override
-	public PaletteCopy canvas_paletteCopy() {
-		return ChunkPaletteCopier.captureCopy((Palette<BlockState>) palette, data, (BlockState)defaultValue);
+	public ChunkSectionSnapshot canvas_snapshot() {
+		return ChunkSectionSnapshot.capture((Palette<BlockState>) palette, data, (BlockState)defaultValue);
 	}
 }
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.mixin;
+
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+
+import grondag.canvas.mixinterface.WorldChunkExt;
+import grondag.canvas.terrain.SectionSnapshotCache;
+
+@Mixin(World.class)
+public class MixinWorld {
+	@Shadow @Final public boolean isClient;
+
+	// Changes to client chunks are bracketed so region builders can read them from other threads.
+	// Server chunks are never read that way.  The brackets wrap the calls into the chunk, not the
+	// chunk methods, so those methods run once and the write always ends, even if the change throws.
+
+	@Redirect(method = "setBlockState", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/WorldChunk;setBlockState(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;Z)Lnet/minecraft/block/BlockState;"))
+	private BlockState onChunkSetBlockState(WorldChunk chunk, BlockPos pos, BlockState state, boolean moved) {
+		if (!isClient) {
+			return chunk.setBlockState(pos, state, moved);
+		}
+
+		final SectionSnapshotCache<?> cache = ((WorldChunkExt) chunk).canvas_snapshotCache();
+		cache.beginWrite(pos.getY() >> 4);
+
+		try {
+			return chunk.setBlockState(pos, state, moved);
+		} finally {
+			cache.endWrite();
+		}
+	}
+
+	@Redirect(method = {"setBlockEntity", "tickBlockEntities"}, at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/WorldChunk;setBlockEntity(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/entity/BlockEntity;)V"))
+	private void onChunkSetBlockEntity(WorldChunk chunk, BlockPos pos, BlockEntity blockEntity) {
+		if (!isClient) {
+			chunk.setBlockEntity(pos, blockEntity);
+			return;
+		}
+
+		final SectionSnapshotCache<?> cache = ((WorldChunkExt) chunk).canvas_snapshotCache();
+		cache.beginWrite(SectionSnapshotCache.NO_SECTION);
+
+		try {
+			chunk.setBlockEntity(pos, blockEntity);
+		} finally {
+			cache.endWrite();
+		}
+	}
+
+	@Redirect(method = {"removeBlockEntity", "tickBlockEntities"}, at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/WorldChunk;removeBlockEntity(Lnet/minecraft/util/math/BlockPos;)V"))
+	private void onChunkRemoveBlockEntity(WorldChunk chunk, BlockPos pos) {
+		if (!isClient) {
+			chunk.removeBlockEntity(pos);
+			return;
+		}
+
+		final SectionSnapshotCache<?> cache = ((WorldChunkExt) chunk).canvas_snapshotCache();
+		cache.beginWrite(SectionSnapshotCache.NO_SECTION);
+
+		try {
+			chunk.removeBlockEntity(pos);
+		} finally {
+			cache.endWrite();
+		}
+	}
+}
@@ -25,10 +25,13 @@ import net.minecraft.world.chunk.WorldChunk;
 
 import grondag.canvas.mixinterface.WorldChunkExt;
 import grondag.canvas.terrain.ChunkColorCache;
+import grondag.canvas.terrain.ChunkSectionSnapshot;
+import grondag.canvas.terrain.SectionSnapshotCache;
 
 @Mixin(WorldChunk.class)
 public class MixinWorldChunk implements WorldChunkExt {
 	private @Nullable ChunkColorCache colorCache;
+	private final SectionSnapshotCache<ChunkSectionSnapshot> snapshotCache = new SectionSnapshotCache<>(16);
 	@Shadow private World world;
 
 	@Override
@@ -47,4 +50,9 @@ public class MixinWorldChunk implements WorldChunkExt {
 	public void canvas_clearColorCache() {
 		colorCache = null;
 	}
+
+	@Override
+	public SectionSnapshotCache<ChunkSectionSnapshot> canvas_snapshotCache() {
+		return snapshotCache;
+	}
 }
@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.mixinterface;
+
+public interface BlockStateExt {
+	/** Raw id in the block state id list, or -1 if not yet assigned */
+	int canvas_rawId();
+
+	void canvas_rawId(int rawId);
+}
@@ -14,8 +14,10 @@
  ******************************************************************************/
 package grondag.canvas.mixinterface;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-
 public interface PackedIntegerArrayExt {
-	void canvas_fastForEach(IntArrayList list);
+	long[] canvas_storageCopy();
+
+	int canvas_elementBits();
+
+	int canvas_elementsPerWord();
 }
@@ -14,8 +14,8 @@
  ******************************************************************************/
 package grondag.canvas.mixinterface;
 
-import grondag.canvas.terrain.ChunkPaletteCopier.PaletteCopy;
+import grondag.canvas.terrain.ChunkSectionSnapshot;
 
 public interface PalettedContainerExt {
-	PaletteCopy canvas_paletteCopy();
+	ChunkSectionSnapshot canvas_snapshot();
 }
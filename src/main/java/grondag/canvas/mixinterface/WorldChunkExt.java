@@ -15,9 +15,13 @@
 package grondag.canvas.mixinterface;
 
 import grondag.canvas.terrain.ChunkColorCache;
+import grondag.canvas.terrain.ChunkSectionSnapshot;
+import grondag.canvas.terrain.SectionSnapshotCache;
 
 public interface WorldChunkExt {
 	ChunkColorCache canvas_colorCache();
 
 	void canvas_clearColorCache();
+
+	SectionSnapshotCache<ChunkSectionSnapshot> canvas_snapshotCache();
 }
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.perf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+import grondag.fermion.sc.concurrency.ConcurrentPerformanceCounter;
+
+/**
+ * Queue depth and wait time for each lane of the chunk build executor.
+ * Wait time is measured from submission until a worker starts the task.
+ */
+public abstract class BuildQueueCounters {
+	private BuildQueueCounters() {}
+
+	public static final boolean ENABLED = Configurator.enablePerformanceTrace;
+
+	public static final int LANE_ITERATE = 0;
+	public static final int LANE_SORT = 1;
+	public static final int LANE_BUILD = 2;
+	public static final int LANE_COUNT = 3;
+
+	private static final String[] LANE_NAMES = {"iterate", "sort", "build"};
+
+	private static final AtomicInteger[] depth = new AtomicInteger[LANE_COUNT];
+	private static final int[] peakDepth = new int[LANE_COUNT];
+	private static final ConcurrentPerformanceCounter[] waitCounter = new ConcurrentPerformanceCounter[LANE_COUNT];
+	private static final AtomicInteger stealCount = new AtomicInteger();
+	private static final AtomicInteger taskCount = new AtomicInteger();
+
+	static {
+		for (int i = 0; i < LANE_COUNT; ++i) {
+			depth[i] = new AtomicInteger();
+			waitCounter[i] = new ConcurrentPerformanceCounter();
+		}
+	}
+
+	public static void reset() {
+		for (int i = 0; i < LANE_COUNT; ++i) {
+			waitCounter[i].clearStats();
+			peakDepth[i] = 0;
+		}
+
+		stealCount.set(0);
+	}
+
+	public static void clearDepth() {
+		for (int i = 0; i < LANE_COUNT; ++i) {
+			depth[i].set(0);
+		}
+	}
+
+	public static void submit(int lane) {
+		final int d = depth[lane].incrementAndGet();
+
+		// racy but only for reporting
+		if (d > peakDepth[lane]) {
+			peakDepth[lane] = d;
+		}
+	}
+
+	/**
+	 * Call when a worker takes a task.
+	 *
+	 * @param lane lane the task was queued in
+	 * @param submitNanos {@link System#nanoTime()} at submission
+	 * @param stolen true if the task was taken from another worker's queue
+	 */
+	public static void start(int lane, long submitNanos, boolean stolen) {
+		depth[lane].decrementAndGet();
+		waitCounter[lane].endRun(submitNanos);
+		waitCounter[lane].addCount(1);
+
+		if (stolen) {
+			stealCount.incrementAndGet();
+		}
+
+		if (taskCount.incrementAndGet() == 10000) {
+			taskCount.set(0);
+			report();
+		}
+	}
+
+	public static int depth(int lane) {
+		return depth[lane].get();
+	}
+
+	private static void report() {
+		for (int i = 0; i < LANE_COUNT; ++i) {
+			final int count = waitCounter[i].runCount();
+			CanvasMod.LOG.info(String.format("Build queue lane %s: %d tasks, avg wait = %,dns, current depth = %d, peak depth = %d", LANE_NAMES[i], count,
+					count == 0 ? 0 : waitCounter[i].runTime() / count, depth[i].get(), peakDepth[i]));
+		}
+
+		CanvasMod.LOG.info(String.format("Build queue tasks taken by work stealing: %d", stealCount.get()));
+		CanvasMod.LOG.info("");
+		reset();
+	}
+}
@@ -14,8 +14,11 @@
  ******************************************************************************/
 package grondag.canvas.perf;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import grondag.canvas.CanvasMod;
 import grondag.canvas.Configurator;
+import grondag.canvas.terrain.SectionSnapshotCache;
 import grondag.fermion.sc.concurrency.ConcurrentPerformanceCounter;
 
 public abstract class ChunkRebuildCounters {
@@ -25,12 +28,42 @@ public abstract class ChunkRebuildCounters {
 
 	private static final ConcurrentPerformanceCounter buildCounter = new ConcurrentPerformanceCounter();
 	private static final ConcurrentPerformanceCounter copyCounter = new ConcurrentPerformanceCounter();
+	private static final ConcurrentPerformanceCounter prepareCounter = new ConcurrentPerformanceCounter();
+	private static final AtomicLong uniformCount = new AtomicLong();
+	private static final AtomicLong lodRegionCount = new AtomicLong();
+	private static final AtomicLong lodQuadsBefore = new AtomicLong();
+	private static final AtomicLong lodQuadsAfter = new AtomicLong();
+	private static final AtomicLong lodDecorationCount = new AtomicLong();
 	private static final ConcurrentPerformanceCounter uploadCounter = new ConcurrentPerformanceCounter();
+	private static final AtomicLong snapshotCount = new AtomicLong();
+	private static volatile long captureRetryBase = 0;
+	private static final AtomicLong vertexUploadBytes = new AtomicLong();
+	private static final AtomicLong indexUploadBytes = new AtomicLong();
+	private static final AtomicLong stagedBytes = new AtomicLong();
+	private static final AtomicLong stagingFullCount = new AtomicLong();
+	private static final AtomicLong uploadFrameCount = new AtomicLong();
+	private static final AtomicLong uploadFrameNanos = new AtomicLong();
+	private static final AtomicLong uploadFrameMaxNanos = new AtomicLong();
 
 	public static void reset() {
 		buildCounter.clearStats();
 		copyCounter.clearStats();
+		prepareCounter.clearStats();
+		uniformCount.set(0);
+		lodRegionCount.set(0);
+		lodQuadsBefore.set(0);
+		lodQuadsAfter.set(0);
+		lodDecorationCount.set(0);
 		uploadCounter.clearStats();
+		snapshotCount.set(0);
+		captureRetryBase = SectionSnapshotCache.retryCount();
+		vertexUploadBytes.set(0);
+		indexUploadBytes.set(0);
+		stagedBytes.set(0);
+		stagingFullCount.set(0);
+		uploadFrameCount.set(0);
+		uploadFrameNanos.set(0);
+		uploadFrameMaxNanos.set(0);
 	}
 
 	private static final ThreadLocal<Long> chunkStart = ThreadLocal.withInitial(() -> 0L);
@@ -48,9 +81,25 @@ public abstract class ChunkRebuildCounters {
 
 			final int copyCount = copyCounter.runCount();
 			CanvasMod.LOG.info(String.format("World copy time per chunk for last %d regions = %,dns  total time: %fs", copyCount, copyCount == 0 ? 0 : copyCounter.runTime() / copyCount, copyCounter.runTime() / 1000000000d));
+			CanvasMod.LOG.info(String.format("Section snapshots captured for last %d regions: %,d for %,d section references, %,d reads retried", copyCount, snapshotCount.get(), copyCount * 27L, SectionSnapshotCache.retryCount() - captureRetryBase));
+
+			final int prepareCount = prepareCounter.runCount();
+			CanvasMod.LOG.info(String.format("Region prepare time per region for last %d regions = %,dns  total time: %fs, %,d with uniform interior", prepareCount, prepareCount == 0 ? 0 : prepareCounter.runTime() / prepareCount, prepareCounter.runTime() / 1000000000d, uniformCount.get()));
+
+			final long lodCount = lodRegionCount.get();
+
+			if (lodCount > 0) {
+				CanvasMod.LOG.info(String.format("Distant solid quads per region for last %d distant regions = %,d merged to %,d (%,d to %,d vertices), %,d decorations left out",
+						lodCount, lodQuadsBefore.get() / lodCount, lodQuadsAfter.get() / lodCount, lodQuadsBefore.get() * 4 / lodCount, lodQuadsAfter.get() * 4 / lodCount, lodDecorationCount.get() / lodCount));
+			}
 
 			final int uploadCount = uploadCounter.runCount();
 			CanvasMod.LOG.info(String.format("Upload time per region for last %d regions = %,dns  total time: %fs", uploadCount, uploadCount == 0 ? 0 : uploadCounter.runTime() / uploadCount, uploadCounter.runTime() / 1000000000d));
+			CanvasMod.LOG.info(String.format("Uploaded for last 2000 chunks and any resorts: %,dKB vertex data, %,dKB indices", vertexUploadBytes.get() / 1024, indexUploadBytes.get() / 1024));
+			CanvasMod.LOG.info(String.format("Staged %,dKB through staging ring, ring full %d times", stagedBytes.get() / 1024, stagingFullCount.get()));
+
+			final long frameCount = uploadFrameCount.get();
+			CanvasMod.LOG.info(String.format("Render thread upload time per frame for last %d frames with uploads = %,dns  max: %,dns", frameCount, frameCount == 0 ? 0 : uploadFrameNanos.get() / frameCount, uploadFrameMaxNanos.get()));
 			reset();
 
 			CanvasMod.LOG.info("");
@@ -68,6 +117,43 @@ public abstract class ChunkRebuildCounters {
 		copyCounter.addCount(1);
 	}
 
+	private static final ThreadLocal<Long> prepareStart = ThreadLocal.withInitial(() -> 0L);
+
+	/**
+	 * Decoding of section snapshots into a region cache and occlusion capture.
+	 */
+	public static void startPrepare() {
+		prepareStart.set(System.nanoTime());
+	}
+
+	public static void completePrepare(boolean uniformInterior) {
+		prepareCounter.endRun(prepareStart.get());
+		prepareCounter.addCount(1);
+
+		if (uniformInterior) {
+			uniformCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A chunk section was captured because it changed or was not needed before.
+	 * Sections that did not change are shared and not counted.
+	 */
+	public static void captureSnapshot() {
+		snapshotCount.incrementAndGet();
+	}
+
+	/**
+	 * Solid quad counts of a region built for distance, before and after faces were merged,
+	 * and the number of decoration blocks left out.
+	 */
+	public static void lodRegion(int quadsBefore, int quadsAfter, int decorations) {
+		lodRegionCount.incrementAndGet();
+		lodQuadsBefore.addAndGet(quadsBefore);
+		lodQuadsAfter.addAndGet(quadsAfter);
+		lodDecorationCount.addAndGet(decorations);
+	}
+
 	private static final ThreadLocal<Long> uploadStart = ThreadLocal.withInitial(() -> 0L);
 
 	public static void startUpload() {
@@ -78,4 +164,29 @@ public abstract class ChunkRebuildCounters {
 		uploadCounter.endRun(uploadStart.get());
 		uploadCounter.addCount(1);
 	}
+
+	public static void uploadVertexBytes(int bytes) {
+		vertexUploadBytes.addAndGet(bytes);
+	}
+
+	public static void uploadIndexBytes(int bytes) {
+		indexUploadBytes.addAndGet(bytes);
+	}
+
+	public static void stageBytes(int bytes) {
+		stagedBytes.addAndGet(bytes);
+	}
+
+	public static void stagingRingFull() {
+		stagingFullCount.incrementAndGet();
+	}
+
+	/**
+	 * Time the render thread spent on uploads in one frame, including staging ring fences.
+	 */
+	public static void uploadFrame(long nanos) {
+		uploadFrameCount.incrementAndGet();
+		uploadFrameNanos.addAndGet(nanos);
+		uploadFrameMaxNanos.accumulateAndGet(nanos, Math::max);
+	}
 }
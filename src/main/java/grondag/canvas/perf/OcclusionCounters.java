@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.perf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+
+/**
+ * How often terrain occlusion scenes clear and redraw the occluder raster, and how many
+ * regions draw occluders.  Scenes are counted when prepared and regions when drawn.
+ */
+public abstract class OcclusionCounters {
+	private OcclusionCounters() {}
+
+	public static final boolean ENABLED = Configurator.enablePerformanceTrace;
+
+	private static final int REPORT_INTERVAL = 1000;
+
+	// scenes are only prepared on the render thread
+	private static int sceneCount;
+	private static int redrawCount;
+	private static int reprojectCount;
+
+	// regions are drawn during iteration, which may be off thread
+	private static final AtomicInteger regionCount = new AtomicInteger();
+
+	public static void reset() {
+		sceneCount = 0;
+		redrawCount = 0;
+		reprojectCount = 0;
+		regionCount.set(0);
+	}
+
+	/**
+	 * @param redraw true if the raster was cleared for a full redraw
+	 * @param reprojected true if the raster was reprojected from a prior scene
+	 */
+	public static void scene(boolean redraw, boolean reprojected) {
+		if (redraw) {
+			++redrawCount;
+		} else if (reprojected) {
+			++reprojectCount;
+		}
+
+		if (++sceneCount == REPORT_INTERVAL) {
+			report();
+		}
+	}
+
+	public static void regionDrawn() {
+		regionCount.incrementAndGet();
+	}
+
+	private static void report() {
+		final int other = sceneCount - redrawCount - reprojectCount;
+
+		CanvasMod.LOG.info(String.format("Occlusion scenes: %d full redraw (%d%%), %d reprojected (%d%%), %d additive",
+				redrawCount, redrawCount * 100 / sceneCount, reprojectCount, reprojectCount * 100 / sceneCount, other));
+
+		CanvasMod.LOG.info(String.format("Occlusion regions drawn per scene: %d", regionCount.get() / sceneCount));
+		CanvasMod.LOG.info("");
+		reset();
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.perf;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+
+/**
+ * Draw calls, buffer binds and vertices for each terrain layer pass, to see the effect of
+ * shared buffers, multi-draw submission and face culling.  Render thread only.
+ */
+public abstract class TerrainDrawCounters {
+	private TerrainDrawCounters() {}
+
+	public static final boolean ENABLED = Configurator.enablePerformanceTrace;
+
+	private static final int REPORT_INTERVAL = 3000;
+
+	private static int passCount;
+	private static long drawCount;
+	private static long bindCount;
+	private static long delegateCount;
+	private static long vertexCount;
+	private static long culledVertexCount;
+
+	public static void reset() {
+		passCount = 0;
+		drawCount = 0;
+		bindCount = 0;
+		delegateCount = 0;
+		vertexCount = 0;
+		culledVertexCount = 0;
+	}
+
+	/**
+	 * @param draws draw calls issued
+	 * @param binds vertex buffer binds
+	 * @param delegates delegates drawn, which is the number of draw calls without multi-draw
+	 * @param vertices vertices submitted
+	 * @param culledVertices vertices skipped because their face points away from the camera
+	 */
+	public static void pass(int draws, int binds, int delegates, int vertices, int culledVertices) {
+		drawCount += draws;
+		bindCount += binds;
+		delegateCount += delegates;
+		vertexCount += vertices;
+		culledVertexCount += culledVertices;
+
+		if (++passCount == REPORT_INTERVAL) {
+			CanvasMod.LOG.info(String.format("Terrain per layer pass for last %d passes: %d draw calls, %d buffer binds, %d delegates",
+					REPORT_INTERVAL, drawCount / REPORT_INTERVAL, bindCount / REPORT_INTERVAL, delegateCount / REPORT_INTERVAL));
+			final long totalVertices = vertexCount + culledVertexCount;
+			CanvasMod.LOG.info(String.format("Terrain vertices per layer pass: %d submitted, %d skipped by face culling (%d%%)",
+					vertexCount / REPORT_INTERVAL, culledVertexCount / REPORT_INTERVAL, totalVertices == 0 ? 0 : culledVertexCount * 100 / totalVertices));
+			CanvasMod.LOG.info("");
+			reset();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.perf;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+
+/**
+ * Time spent on each BFS level of terrain iteration, split between candidate
+ * filtering (which may be parallel) and the serial occlusion pass.
+ * Only called from the thread running terrain iteration.
+ */
+public abstract class TerrainIterationCounters {
+	private TerrainIterationCounters() {}
+
+	public static final boolean ENABLED = Configurator.enablePerformanceTrace;
+
+	private static final int REPORT_INTERVAL = 200;
+
+	/** Deeper levels are reported together with the last one */
+	private static final int MAX_LEVELS = 64;
+
+	private static final long[] filterNanos = new long[MAX_LEVELS];
+	private static final long[] occludeNanos = new long[MAX_LEVELS];
+	private static final int[] regionCount = new int[MAX_LEVELS];
+	private static final int[] levelCount = new int[MAX_LEVELS];
+	private static int iterationCount;
+	private static int parallelLevelCount;
+
+	public static void reset() {
+		for (int i = 0; i < MAX_LEVELS; ++i) {
+			filterNanos[i] = 0;
+			occludeNanos[i] = 0;
+			regionCount[i] = 0;
+			levelCount[i] = 0;
+		}
+
+		iterationCount = 0;
+		parallelLevelCount = 0;
+	}
+
+	/**
+	 * @param level BFS level, starting at zero
+	 * @param regions number of regions in the level
+	 * @param parallel true if filtering was split across threads
+	 * @param filterNanos time to filter candidates
+	 * @param occludeNanos time for the serial pass
+	 */
+	public static void level(int level, int regions, boolean parallel, long filterNanos, long occludeNanos) {
+		final int i = Math.min(level, MAX_LEVELS - 1);
+		TerrainIterationCounters.filterNanos[i] += filterNanos;
+		TerrainIterationCounters.occludeNanos[i] += occludeNanos;
+		regionCount[i] += regions;
+		++levelCount[i];
+
+		if (parallel) {
+			++parallelLevelCount;
+		}
+	}
+
+	public static void iteration() {
+		if (++iterationCount == REPORT_INTERVAL) {
+			report();
+		}
+	}
+
+	private static void report() {
+		long totalFilter = 0, totalOcclude = 0;
+		int totalLevels = 0;
+
+		for (int i = 0; i < MAX_LEVELS; ++i) {
+			final int n = levelCount[i];
+
+			if (n == 0) {
+				continue;
+			}
+
+			totalFilter += filterNanos[i];
+			totalOcclude += occludeNanos[i];
+			totalLevels += n;
+
+			CanvasMod.LOG.info(String.format("Terrain iteration level %d%s: %d regions, filter = %,dns, occlude = %,dns",
+					i, i == MAX_LEVELS - 1 ? "+" : "", regionCount[i] / n, filterNanos[i] / n, occludeNanos[i] / n));
+		}
+
+		CanvasMod.LOG.info(String.format("Terrain iteration: %d iterations, avg filter = %,dns, avg occlude = %,dns, %d of %d levels filtered in parallel",
+				iterationCount, totalFilter / iterationCount, totalOcclude / iterationCount, parallelLevelCount, totalLevels));
+		CanvasMod.LOG.info("");
+		reset();
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.perf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import grondag.canvas.CanvasMod;
+import grondag.canvas.Configurator;
+
+/**
+ * How translucent resorts end: skipped because the camera crossed no quad plane,
+ * finished by an incremental sort of the prior order, or fully sorted again.
+ */
+public abstract class TranslucentSortCounters {
+	private TranslucentSortCounters() {}
+
+	public static final boolean ENABLED = Configurator.enablePerformanceTrace;
+
+	private static final int REPORT_INTERVAL = 5000;
+
+	// resorts run on chunk build threads
+	private static final AtomicInteger requestCount = new AtomicInteger();
+	private static final AtomicInteger skipCount = new AtomicInteger();
+	private static final AtomicInteger incrementalCount = new AtomicInteger();
+
+	public static void reset() {
+		requestCount.set(0);
+		skipCount.set(0);
+		incrementalCount.set(0);
+	}
+
+	public static void skipped() {
+		skipCount.incrementAndGet();
+		request();
+	}
+
+	/**
+	 * @param incremental true if the prior order only needed an incremental sort
+	 */
+	public static void sorted(boolean incremental) {
+		if (incremental) {
+			incrementalCount.incrementAndGet();
+		}
+
+		request();
+	}
+
+	private static void request() {
+		if (requestCount.incrementAndGet() == REPORT_INTERVAL) {
+			final int skip = skipCount.get();
+			final int incremental = incrementalCount.get();
+			final int full = REPORT_INTERVAL - skip - incremental;
+
+			CanvasMod.LOG.info(String.format("Translucent resorts: %d skipped (%d%%), %d incremental (%d%%), %d full (%d%%)",
+					skip, skip * 100 / REPORT_INTERVAL, incremental, incremental * 100 / REPORT_INTERVAL, full, full * 100 / REPORT_INTERVAL));
+			CanvasMod.LOG.info("");
+			reset();
+		}
+	}
+}
@@ -331,7 +331,8 @@ public class CanvasFrameBufferHacks {
 			collector.addf(0, 1f, 0.2f, 0, 0f);
 
 			drawBuffer = new VboBuffer(collector.byteSize(), MaterialVertexFormats.PROCESS_VERTEX_UV);
-			collector.toBuffer(drawBuffer.intBuffer());
+			collector.toVbo(drawBuffer);
+			collector.clear();
 			drawBuffer.upload();
 		}
 	}
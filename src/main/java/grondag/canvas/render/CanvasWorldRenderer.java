@@ -66,6 +66,7 @@ import net.minecraft.world.World;
 
 import grondag.canvas.Configurator;
 import grondag.canvas.buffer.BindStateManager;
+import grondag.canvas.buffer.StagingRing;
 import grondag.canvas.buffer.VboBuffer;
 import grondag.canvas.compat.BborHolder;
 import grondag.canvas.compat.ClothHolder;
@@ -238,7 +239,7 @@ public class CanvasWorldRenderer extends WorldRenderer {
 				lastRegionDataVersion = newRegionDataVersion;
 				terrainOccluder.prepareScene(camera, frustum, renderRegionStorage.regionVersion());
 				terrainIterator.prepare(cameraRegion, cameraBlockPos, frustum, renderDistance, shouldCullChunks);
-				regionBuilder.executor.execute(terrainIterator, -1);
+				regionBuilder.executor.executePrivileged(terrainIterator);
 			}
 		} else {
 			final int newRegionDataVersion = regionDataVersion.get();
@@ -843,11 +844,8 @@ public class CanvasWorldRenderer extends WorldRenderer {
 		if (translucentSortPositionVersion != frustum.positionVersion()) {
 			translucentSortPositionVersion = frustum.positionVersion();
 
-			int j = 0;
 			for (int regionIndex = 0; regionIndex < visibleRegionCount; regionIndex++) {
-				if (j < 15 && visibleRegions[regionIndex].scheduleSort()) {
-					++j;
-				}
+				visibleRegions[regionIndex].scheduleSort();
 			}
 		}
 
@@ -1063,6 +1061,8 @@ public class CanvasWorldRenderer extends WorldRenderer {
 		}
 		renderRegionStorage.clear();
 		terrainOccluder.invalidate();
+		terrainOccluder.releaseThreads();
+		StagingRing.shutdown();
 		visibleRegionCount = 0;
 	}
 
@@ -1104,6 +1104,11 @@ public class CanvasWorldRenderer extends WorldRenderer {
 		renderRegionStorage.clear();
 		Arrays.fill(terrainIterator.visibleRegions, null);
 
+		if (clientWorld == null) {
+			terrainOccluder.releaseThreads();
+			StagingRing.shutdown();
+		}
+
 		// Mixins mostly disable what this does
 		super.setWorld(clientWorld);
 	}
@@ -45,6 +45,8 @@ import grondag.canvas.Configurator;
 import grondag.canvas.Configurator.AoMode;
 import grondag.canvas.Configurator.DiffuseMode;
 import grondag.canvas.Configurator.FogMode;
+import grondag.canvas.material.EncodingContext;
+import grondag.canvas.material.MaterialVertexFormats;
 import grondag.canvas.texture.SpriteInfoTexture;
 import grondag.canvas.varia.CanvasGlHelper;
 
@@ -248,6 +250,11 @@ public class GlShader {
 					"#define SHADER_PASS SHADER_PASS_" + context.pass.name());
 		}
 
+		if (context.materialContext == EncodingContext.TERRAIN && context.pass != ShaderPass.TRANSLUCENT
+				&& !Configurator.hdLightmaps() && MaterialVertexFormats.TERRAIN_SOLID == MaterialVertexFormats.COMPACT_TERRAIN) {
+			result = StringUtils.replace(result, "//#define _CV_COMPACT_POSITION", "#define _CV_COMPACT_POSITION");
+		}
+
 		if(context.materialContext.isBlock) {
 			result = StringUtils.replace(result, "//#define CONTEXT_IS_BLOCK", "#define CONTEXT_IS_BLOCK");
 		}
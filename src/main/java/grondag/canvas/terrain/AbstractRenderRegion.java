@@ -18,7 +18,6 @@ import static grondag.canvas.terrain.RenderRegionAddressHelper.relativeCacheInde
 
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraft.world.chunk.ChunkSection;
 import net.minecraft.world.chunk.WorldChunk;
 
 /**
@@ -50,16 +49,6 @@ abstract class AbstractRenderRegion {
 		return relativeCacheIndex(x - originX, y - originY, z - originZ);
 	}
 
-	protected ChunkSection getSection(int x, int y, int z) {
-		// TODO: handle world border
-
-		if ((y == 0 && chunkBaseY < 0) || (y == 2 && chunkBaseY > 13)) {
-			return null;
-		}
-
-		return chunks[x | (z << 2)].getSectionArray()[chunkBaseY + y];
-	}
-
 	protected WorldChunk getChunk(int cx, int cz) {
 		final int chunkBaseX = this.chunkBaseX;
 		final int chunkBaseZ = this.chunkBaseZ;
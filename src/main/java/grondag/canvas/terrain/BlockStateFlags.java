@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.terrain;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockRenderType;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Material;
+import net.minecraft.client.render.RenderLayers;
+import net.minecraft.util.collection.IdList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.BlockView;
+import net.minecraft.world.EmptyBlockView;
+
+import grondag.canvas.mixinterface.BlockStateExt;
+import grondag.canvas.mixinterface.RenderLayerExt;
+
+/**
+ * Render properties of every block state packed in one int, in a table indexed by raw
+ * state id.  Terrain building tests these bits instead of calling through the state, block
+ * and render layer map for every block.  Rebuilt on reload because render layers depend on
+ * graphics settings.
+ *
+ * <p>Opacity of blocks with dynamic bounds depends on position, so those states have
+ * {@link #DYNAMIC_OPACITY} instead of {@link #OPAQUE_FULL_CUBE} and must be checked in the world.
+ */
+public final class BlockStateFlags {
+	private BlockStateFlags() {}
+
+	/** Render type is not invisible */
+	public static final int RENDERS_BLOCK = 1;
+	public static final int HAS_FLUID = 2;
+	public static final int VISIBLE = RENDERS_BLOCK | HAS_FLUID;
+
+	/** Opaque full cube anywhere, not set when opacity depends on position */
+	public static final int OPAQUE_FULL_CUBE = 4;
+
+	/** Block has dynamic bounds, so opacity must be checked at each position */
+	public static final int DYNAMIC_OPACITY = 8;
+
+	/** Model may be offset by position, as with flowers and grass */
+	public static final int HAS_OFFSET = 16;
+
+	/** Small plant or cobweb that distant regions may leave out */
+	public static final int DECORATION = 32;
+
+	private static final int BLEND_MODE_SHIFT = 8;
+	private static final int BLEND_MODE_MASK = 0xF;
+
+	// replaced whole on reload - raw ids do not change, so a stale table only has stale render layers
+	private static int[] flags = new int[0];
+
+	public static void reload() {
+		final IdList<BlockState> ids = Block.STATE_IDS;
+		int maxId = -1;
+
+		for (final BlockState state : ids) {
+			final int id = ids.getRawId(state);
+			((BlockStateExt) state).canvas_rawId(id);
+			maxId = Math.max(maxId, id);
+		}
+
+		final int[] result = new int[maxId + 1];
+
+		for (final BlockState state : ids) {
+			result[((BlockStateExt) state).canvas_rawId()] = compute(state);
+		}
+
+		flags = result;
+	}
+
+	public static int get(BlockState state) {
+		final int id = ((BlockStateExt) state).canvas_rawId();
+		final int[] flags = BlockStateFlags.flags;
+		return id >= 0 && id < flags.length ? flags[id] : compute(state);
+	}
+
+	/**
+	 * Flags from the state itself, as used to build the table.  Slow.
+	 */
+	public static int compute(BlockState state) {
+		int result = 0;
+
+		if (state.getRenderType() != BlockRenderType.INVISIBLE) {
+			result |= RENDERS_BLOCK;
+		}
+
+		if (!state.getFluidState().isEmpty()) {
+			result |= HAS_FLUID;
+		}
+
+		final Block block = state.getBlock();
+
+		if (block.hasDynamicBounds()) {
+			result |= DYNAMIC_OPACITY;
+		} else if (state.isOpaqueFullCube(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)) {
+			// vanilla caches this per state when bounds are not dynamic
+			result |= OPAQUE_FULL_CUBE;
+		}
+
+		if (block.getOffsetType() != Block.OffsetType.NONE) {
+			result |= HAS_OFFSET;
+		}
+
+		if (isDecoration(state.getMaterial())) {
+			result |= DECORATION;
+		}
+
+		result |= ((RenderLayerExt) RenderLayers.getBlockLayer(state)).canvas_blendModeIndex() << BLEND_MODE_SHIFT;
+
+		return result;
+	}
+
+	private static boolean isDecoration(Material material) {
+		return material == Material.PLANT || material == Material.REPLACEABLE_PLANT
+				|| material == Material.UNDERWATER_PLANT || material == Material.REPLACEABLE_UNDERWATER_PLANT
+				|| material == Material.NETHER_SHOOTS || material == Material.COBWEB;
+	}
+
+	/**
+	 * Blend mode ordinal of the block render layer.
+	 */
+	public static int blendModeIndex(int flags) {
+		return (flags >> BLEND_MODE_SHIFT) & BLEND_MODE_MASK;
+	}
+
+	/**
+	 * Same as {@link BlockState#isOpaqueFullCube(BlockView, BlockPos)} but only calls it for
+	 * states with dynamic bounds.
+	 */
+	public static boolean isOpaqueFullCube(BlockState state, int flags, BlockView world, BlockPos pos) {
+		if ((flags & OPAQUE_FULL_CUBE) != 0) {
+			return true;
+		}
+
+		return (flags & DYNAMIC_OPACITY) != 0 && state.isOpaqueFullCube(world, pos);
+	}
+}
@@ -1,5 +1,6 @@
 package grondag.canvas.terrain;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -11,8 +12,6 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
-import net.minecraft.block.Block;
-import net.minecraft.block.BlockRenderType;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntity;
 import net.minecraft.client.MinecraftClient;
@@ -21,7 +20,6 @@ import net.minecraft.client.render.block.entity.BlockEntityRenderDispatcher;
 import net.minecraft.client.render.block.entity.BlockEntityRenderer;
 import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.client.util.math.MatrixStack;
-import net.minecraft.fluid.FluidState;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3d;
@@ -34,14 +32,14 @@ import net.fabricmc.fabric.api.renderer.v1.model.ModelHelper;
 import grondag.canvas.Configurator;
 import grondag.canvas.apiimpl.rendercontext.TerrainRenderContext;
 import grondag.canvas.apiimpl.util.FaceConstants;
+import grondag.canvas.buffer.TransferBufferAllocator;
 import grondag.canvas.buffer.encoding.VertexCollectorImpl;
 import grondag.canvas.buffer.encoding.VertexCollectorList;
 import grondag.canvas.material.EncodingContext;
-import grondag.canvas.material.MaterialState;
+import grondag.canvas.material.MaterialVertexFormats;
 import grondag.canvas.perf.ChunkRebuildCounters;
 import grondag.canvas.render.CanvasFrustum;
 import grondag.canvas.render.CanvasWorldRenderer;
-import grondag.canvas.shader.ShaderPass;
 import grondag.canvas.terrain.occlusion.TerrainOccluder;
 import grondag.canvas.terrain.occlusion.region.OcclusionRegion;
 import grondag.canvas.terrain.occlusion.region.PackedBox;
@@ -80,8 +78,15 @@ public class BuiltRenderRegion {
 	public int occluderVersion;
 	public boolean occluderResult;
 
+	/** Occlusion data from which {@link #occluderBounds} were derived */
+	private int[] occluderBoundsSource;
+	private int[] occluderBounds;
+
 	private boolean isInsideRenderDistance;
 
+	/** True if the last build was simplified for distance, set by the thread that built it */
+	private volatile boolean builtAsLod = false;
+
 	public float cameraRelativeCenterX;
 	public float cameraRelativeCenterY;
 	public float cameraRelativeCenterZ;
@@ -162,6 +167,12 @@ public class BuiltRenderRegion {
 		occlusionRange = PackedBox.rangeFromSquareBlockDist(squaredCameraDistance);
 		this.squaredCameraDistance = squaredCameraDistance;
 
+		// simplified regions are rebuilt in full as the camera comes near, but not the reverse
+		if (builtAsLod && !isLodDistance(squaredCameraDistance)) {
+			builtAsLod = false;
+			markForBuild(false);
+		}
+
 		return horizontalSquaredDistance < cwr.maxRetentionDistance();
 	}
 
@@ -205,6 +216,10 @@ public class BuiltRenderRegion {
 		return origin;
 	}
 
+	boolean isClosed() {
+		return isClosed;
+	}
+
 	public void markForBuild(boolean isImportant) {
 		final boolean neededRebuild = needsRebuild;
 		needsRebuild = true;
@@ -225,11 +240,11 @@ public class BuiltRenderRegion {
 	}
 
 	public void scheduleRebuild() {
-		final ProtoRenderRegion region = ProtoRenderRegion.claim(cwr.getWorld(), origin);
+		final ProtoRenderRegion region = Configurator.offThreadWorldCapture ? null : ProtoRenderRegion.claim(cwr.getWorld(), origin);
 
 		// null region is signal to reschedule
-		if(buildState.protoRegion.getAndSet(region) == ProtoRenderRegion.IDLE) {
-			renderRegionBuilder.executor.execute(buildTask, squaredCameraDistance);
+		if(buildState.protoRegion.getAndSet(region == null ? ProtoRenderRegion.CAPTURE : region) == ProtoRenderRegion.IDLE) {
+			renderRegionBuilder.executor.executeBuild(this, buildTask);
 		}
 	}
 
@@ -242,7 +257,7 @@ public class BuiltRenderRegion {
 			if (buildState.protoRegion.compareAndSet(ProtoRenderRegion.IDLE,  ProtoRenderRegion.RESORT_ONLY)) {
 				// null means need to reschedule, otherwise was already scheduled for either
 				// resort or rebuild, or is invalid, not ready to be built.
-				renderRegionBuilder.executor.execute(buildTask, squaredCameraDistance);
+				renderRegionBuilder.executor.executeSort(this, buildTask);
 			}
 
 			return true;
@@ -257,12 +272,23 @@ public class BuiltRenderRegion {
 
 	private void rebuildOnWorkerThread(TerrainRenderContext context) {
 		final RegionBuildState runningState = buildState;
-		final ProtoRenderRegion region = runningState.protoRegion.getAndSet(ProtoRenderRegion.IDLE);
+		ProtoRenderRegion region = runningState.protoRegion.getAndSet(ProtoRenderRegion.IDLE);
 
 		if (region == null || region == ProtoRenderRegion.INVALID) {
 			return;
 		}
 
+		if (region == ProtoRenderRegion.CAPTURE) {
+			region = ProtoRenderRegion.claim(cwr.getWorld(), origin);
+
+			if (region == null) {
+				// world kept changing, try again on a later pass
+				markForBuild(false);
+				cwr.forceVisibilityUpdate();
+				return;
+			}
+		}
+
 		if (region == ProtoRenderRegion.EMPTY) {
 			final RegionData chunkData = new RegionData();
 			chunkData.complete(OcclusionRegion.EMPTY_CULL_DATA);
@@ -292,45 +318,39 @@ public class BuiltRenderRegion {
 			final RegionData regionData = buildData.get();
 			final int[] state = regionData.translucentState;
 
-			if (state != null) {
+			if (state != null && runningState.protoRegion.get() != ProtoRenderRegion.INVALID) {
 				final Vec3d cameraPos = cwr.cameraPos();
-				final VertexCollectorList collectors = context.collectors;
-				final MaterialState translucentState = MaterialState.getDefault(ShaderPass.TRANSLUCENT);
-				final VertexCollectorImpl collector = collectors.get(translucentState);
-
-				collector.loadState(translucentState, state);
+				final int vertexIntStride = MaterialVertexFormats.get(EncodingContext.TERRAIN, true).vertexStrideInts;
+				final float x, y, z;
 
 				if (Configurator.batchedChunkRender) {
-					collector.sortQuads(
-							(float)cameraPos.x - TerrainModelSpace.renderCubeOrigin(origin.getX()),
-							(float)cameraPos.y - TerrainModelSpace.renderCubeOrigin(origin.getY()),
-							(float)cameraPos.z - TerrainModelSpace.renderCubeOrigin(origin.getZ()));
+					x = (float)cameraPos.x - TerrainModelSpace.renderCubeOrigin(origin.getX());
+					y = (float)cameraPos.y - TerrainModelSpace.renderCubeOrigin(origin.getY());
+					z = (float)cameraPos.z - TerrainModelSpace.renderCubeOrigin(origin.getZ());
 				} else {
-					collector.sortQuads((float)cameraPos.x - origin.getX(), (float)cameraPos.y - origin.getY(), (float)cameraPos.z - origin.getZ());
+					x = (float)cameraPos.x - origin.getX();
+					y = (float)cameraPos.y - origin.getY();
+					z = (float)cameraPos.z - origin.getZ();
 				}
 
-				regionData.translucentState = collector.saveState(state);
+				if (regionData.needsTranslucentSort(vertexIntStride, x, y, z)) {
+					// vertex data stays in the drawable; only the draw order is uploaded
+					final ByteBuffer indices = TransferBufferAllocator.claim(state.length / vertexIntStride * 4);
+					regionData.sortTranslucent(vertexIntStride, x, y, z, indices.asIntBuffer());
 
-				if(runningState.protoRegion.get() != ProtoRenderRegion.INVALID) {
-					final UploadableChunk upload = collectors.toUploadableChunk(EncodingContext.TERRAIN, true);
-
-					if (upload != UploadableChunk.EMPTY_UPLOADABLE) {
-						renderRegionBuilder.scheduleUpload(() -> {
-							if (ChunkRebuildCounters.ENABLED) {
-								ChunkRebuildCounters.startUpload();
-							}
+					renderRegionBuilder.scheduleUpload(() -> {
+						if (ChunkRebuildCounters.ENABLED) {
+							ChunkRebuildCounters.startUpload();
+						}
 
-							translucentDrawable.close();
-							translucentDrawable = upload.produceDrawable();
+						// ignored if a rebuild has replaced the vertex data since state was read
+						translucentDrawable.resort(state, indices);
 
-							if (ChunkRebuildCounters.ENABLED) {
-								ChunkRebuildCounters.completeUpload();
-							}
-						});
-					}
+						if (ChunkRebuildCounters.ENABLED) {
+							ChunkRebuildCounters.completeUpload();
+						}
+					});
 				}
-
-				collectors.clear();
 			}
 		} else {
 			context.prepareRegion(region);
@@ -389,12 +409,33 @@ public class BuiltRenderRegion {
 		return regionData;
 	}
 
+	/**
+	 * True if regions at this distance leave out decorations and merge faces.
+	 */
+	private static boolean isLodDistance(int squaredCameraDistance) {
+		final int lodDistance = Configurator.lodDistance;
+
+		if (lodDistance == 0) {
+			return false;
+		}
+
+		final int blocks = lodDistance * 16;
+		return squaredCameraDistance > blocks * blocks;
+	}
+
 	private void buildTerrain(TerrainRenderContext context, RegionData regionData) {
 		if(ChunkRebuildCounters.ENABLED) {
 			ChunkRebuildCounters.startChunk();
 		}
 
 		final VertexCollectorList collectors = context.collectors;
+		final boolean lod = isLodDistance(squaredCameraDistance);
+		builtAsLod = lod;
+		int decorationCount = 0;
+
+		if (lod) {
+			collectors.beginLodMerge();
+		}
 
 		final BlockPos.Mutable searchPos = context.searchPos;
 		final int xOrigin = origin.getX();
@@ -421,27 +462,32 @@ public class BuiltRenderRegion {
 
 		for (int i = 0; i < RenderRegionAddressHelper.INTERIOR_CACHE_SIZE; i++) {
 			if(occlusionRegion.shouldRender(i)) {
-				final BlockState blockState = region.getLocalBlockState(i);
-				final FluidState fluidState = blockState.getFluidState();
-				final int x = i & 0xF;
-				final int y = (i >> 4) & 0xF;
-				final int z = (i >> 8) & 0xF;
-				searchPos.set(xOrigin + x, yOrigin + y, zOrigin + z);
+				final int flags = region.blockFlags(i);
+				final boolean hasFluid = (flags & BlockStateFlags.HAS_FLUID) != 0;
+				boolean hasBlock = (flags & BlockStateFlags.RENDERS_BLOCK) != 0;
 
-				final boolean hasFluid = !fluidState.isEmpty();
-				final boolean hasBlock = blockState.getRenderType() != BlockRenderType.INVISIBLE;
+				if (lod && hasBlock && (flags & BlockStateFlags.DECORATION) != 0) {
+					hasBlock = false;
+					++decorationCount;
+				}
 
 				if (hasFluid || hasBlock) {
+					final BlockState blockState = region.getLocalBlockState(i);
+					final int x = i & 0xF;
+					final int y = (i >> 4) & 0xF;
+					final int z = (i >> 8) & 0xF;
+					searchPos.set(xOrigin + x, yOrigin + y, zOrigin + z);
+
 					// PERF: allocation, speed
 					matrixStack.push();
 					matrixStack.translate(x + xModelOffset, y + yModelOffset, z + zModelOffset);
 
 					if (hasFluid) {
-						context.tesselateFluid(blockState, searchPos, false, FluidQuadSupplier.get(fluidState.getFluid()), matrixStack);
+						context.tesselateFluid(blockState, searchPos, false, FluidQuadSupplier.get(blockState.getFluidState().getFluid()), matrixStack);
 					}
 
 					if (hasBlock) {
-						if (blockState.getBlock().getOffsetType() != Block.OffsetType.NONE) {
+						if ((flags & BlockStateFlags.HAS_OFFSET) != 0) {
 							final Vec3d vec3d = blockState.getModelOffset(region, searchPos);
 
 							if (vec3d != Vec3d.ZERO) {
@@ -458,6 +504,15 @@ public class BuiltRenderRegion {
 			}
 		}
 
+		if (lod) {
+			final int mergedCount = collectors.endLodMerge();
+
+			if (ChunkRebuildCounters.ENABLED) {
+				final int quadCount = collectors.quadCount(false);
+				ChunkRebuildCounters.lodRegion(quadCount + mergedCount, quadCount, decorationCount);
+			}
+		}
+
 		regionData.endBuffering((float) (cameraPos.x - xOrigin + xModelOffset), (float) (cameraPos.y - yOrigin + yModelOffset), (float) (cameraPos.z - zOrigin + zModelOffset), collectors);
 
 		if(ChunkRebuildCounters.ENABLED) {
@@ -510,6 +565,15 @@ public class BuiltRenderRegion {
 	public void rebuildOnMainThread() {
 		final ProtoRenderRegion region = ProtoRenderRegion.claim(cwr.getWorld(), origin);
 
+		if (region == null) {
+			// only if called during a world change, so let a builder capture after it
+			if(buildState.protoRegion.getAndSet(ProtoRenderRegion.CAPTURE) == ProtoRenderRegion.IDLE) {
+				renderRegionBuilder.executor.executeBuild(this, buildTask);
+			}
+
+			return;
+		}
+
 		if (region == ProtoRenderRegion.EMPTY) {
 			final RegionData regionData = new RegionData();
 			regionData.complete(OcclusionRegion.EMPTY_CULL_DATA);
@@ -576,6 +640,21 @@ public class BuiltRenderRegion {
 		return buildData.get();
 	}
 
+	/**
+	 * World-space bounds of the occluder boxes in the given occlusion data, in the same order and
+	 * six values per box.  See {@link PackedBox#toWorldBounds(int[], int, int, int, int, int, int[])}.
+	 * Derived again only when occlusion data changes.  Only called during terrain iteration.
+	 */
+	public int[] getOccluderBounds(int[] occlusionData) {
+		if (occlusionData != occluderBoundsSource) {
+			occluderBounds = PackedBox.toWorldBounds(occlusionData, OcclusionRegion.CULL_DATA_FIRST_BOX, occlusionData.length,
+					origin.getX(), origin.getY(), origin.getZ(), occluderBounds);
+			occluderBoundsSource = occlusionData;
+		}
+
+		return occluderBounds;
+	}
+
 	public RegionData getRenderData() {
 		return renderData.get();
 	}
@@ -1,51 +1,62 @@
 package grondag.canvas.terrain;
 
-import java.util.Comparator;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
-
-import com.google.common.collect.ImmutableList;
+import java.util.function.IntConsumer;
 
 import net.minecraft.client.MinecraftClient;
 
 import grondag.canvas.apiimpl.rendercontext.TerrainRenderContext;
+import grondag.canvas.perf.BuildQueueCounters;
 import grondag.fermion.sc.Sc;
 
 /**
- * Simple executor service with ability to submit privileged tasks
- * that run before non-privileged tasks that have not yet started, plus
- * distance-sorted execution.  Privilege is indicated by distance == -1
- * and privileged tasks run in order of submission.
+ * Executor for terrain iteration, translucency resorts and region rebuilds.
+ *
+ * <p>Privileged tasks (terrain iteration) have their own lane and run in order of submission
+ * before any queued region task.  Region tasks are placed in per-worker priority queues - one lane
+ * for resorts and one for full rebuilds - so workers do not contend on a single lock.  A worker
+ * with nothing in its own queues steals from the others.
+ *
+ * <p>{@link #forkJoin(int, int, IntConsumer)} lets the caller split a loop across workers.
+ * Fork tasks go ahead of everything else, but the caller never waits for a worker to start.
+ *
+ * <p>Region priority is the current squared camera distance of the region, not the distance
+ * when the task was submitted.  Queues are re-ordered lazily after {@link #updatePriorities()}
+ * is called to signal camera movement.
  */
 public class ChunkRenderExecutor {
-	private final PriorityBlockingQueue<ChunkBuildTask> queue = new  PriorityBlockingQueue<>(1024, new Comparator<ChunkBuildTask>() {
-		@Override
-		public int compare(ChunkBuildTask o1, ChunkBuildTask o2) {
-			return Integer.compare(o1.priority, o2.priority);
-		}
-	});
+	private final ConcurrentLinkedQueue<PrivilegedTask> privilegedQueue = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<ForkJoinTask> forkQueue = new ConcurrentLinkedQueue<>();
 
 	private final int poolSize = threadCount();
 
-	@SuppressWarnings("unused")
-	private final ImmutableList<Worker> workers;
+	private final Worker[] workers;
+
+	private final AtomicInteger nextWorker = new AtomicInteger();
+
+	/** Incremented when the camera moves so queues know to refresh region distances. */
+	private volatile int priorityVersion;
 
 	public ChunkRenderExecutor() {
-		final ImmutableList.Builder<Worker> builder = ImmutableList.builder();
+		workers = new Worker[poolSize];
 
-		for(int i = 0; i < poolSize; i++)
-		{
-			final Worker w = new Worker();
-			builder.add(w);
+		for(int i = 0; i < poolSize; i++) {
+			workers[i] = new Worker(i);
+		}
 
-			final Thread thread = new Thread(
-					new Worker(),
-					"Canvas Render Thread - " + i);
+		for(int i = 0; i < poolSize; i++) {
+			final Thread thread = new Thread(workers[i], "Canvas Render Thread - " + i);
 			thread.setDaemon(true);
+			workers[i].thread = thread;
 			thread.start();
 		}
-
-		workers = builder.build();
 	}
 
 	private static int threadCount() {
@@ -58,53 +69,470 @@ public class ChunkRenderExecutor {
 		return threadCount > 1 ? threadCount : 1;
 	}
 
-	public void execute(Consumer<TerrainRenderContext> task, int squaredDistance) {
-		queue.add(new ChunkBuildTask(task, squaredDistance));
+	/**
+	 * Runs before all region tasks that have not yet started, in order of submission.
+	 */
+	public void executePrivileged(Consumer<TerrainRenderContext> task) {
+		privilegedQueue.offer(new PrivilegedTask(task));
+
+		if (BuildQueueCounters.ENABLED) {
+			BuildQueueCounters.submit(BuildQueueCounters.LANE_ITERATE);
+		}
+
+		signalWork();
+	}
+
+	public void executeSort(BuiltRenderRegion region, Consumer<TerrainRenderContext> task) {
+		nextWorker().sortQueue.add(new ChunkBuildTask(region, task));
+
+		if (BuildQueueCounters.ENABLED) {
+			BuildQueueCounters.submit(BuildQueueCounters.LANE_SORT);
+		}
+
+		signalWork();
+	}
+
+	public void executeBuild(BuiltRenderRegion region, Consumer<TerrainRenderContext> task) {
+		nextWorker().buildQueue.add(new ChunkBuildTask(region, task));
+
+		if (BuildQueueCounters.ENABLED) {
+			BuildQueueCounters.submit(BuildQueueCounters.LANE_BUILD);
+		}
+
+		signalWork();
+	}
+
+	/**
+	 * Calls action for each index from 0 to count - 1, on the calling thread and on any workers that
+	 * become free before all indices are claimed.  Returns when every index has been processed.
+	 * Indices are claimed in batches, so action must be safe to call concurrently for different indices.
+	 *
+	 * <p>The calling thread does all the work if no worker is free, so this is safe to call from a
+	 * worker or from a thread that does not belong to this executor.
+	 *
+	 * <p>If action throws on any thread, indices not yet started are skipped and the first exception
+	 * is rethrown here once no thread is still running action.
+	 *
+	 * @param count number of indices
+	 * @param batchSize number of indices claimed at a time
+	 * @param action called once for each index
+	 */
+	public void forkJoin(int count, int batchSize, IntConsumer action) {
+		final int batchCount = (count + batchSize - 1) / batchSize;
+
+		if (batchCount <= 1 || poolSize == 1) {
+			for (int i = 0; i < count; ++i) {
+				action.accept(i);
+			}
+
+			return;
+		}
+
+		final ForkJoinTask task = new ForkJoinTask(count, batchSize, action);
+		final int helperCount = Math.min(batchCount, poolSize) - 1;
+
+		for (int i = 0; i < helperCount; ++i) {
+			forkQueue.offer(task);
+			signalWork();
+		}
+
+		try {
+			task.run();
+		} finally {
+			// workers may still be using state the caller clears when it unwinds
+			task.await();
+		}
+
+		final Throwable failure = task.failure.get();
+
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	/**
+	 * Call when camera distances of regions have been updated.  Queued tasks
+	 * will be reordered by the new distances before the next task is taken.
+	 */
+	public void updatePriorities() {
+		++priorityVersion;
+	}
+
+	private Worker nextWorker() {
+		return workers[(nextWorker.getAndIncrement() & 0x7FFFFFFF) % poolSize];
+	}
+
+	private void signalWork() {
+		for (final Worker w : workers) {
+			if (w.parked.compareAndSet(true, false)) {
+				LockSupport.unpark(w.thread);
+				return;
+			}
+		}
 	}
 
-	private class ChunkBuildTask {
+	private static class PrivilegedTask {
 		final Consumer<TerrainRenderContext> task;
+		final long submitNanos = BuildQueueCounters.ENABLED ? System.nanoTime() : 0;
 
-		/** Normally squared distance. Use -1 for privileged execution */
-		final int priority;
+		PrivilegedTask(Consumer<TerrainRenderContext> task) {
+			this.task = task;
+		}
+	}
+
+	private static class ForkJoinTask {
+		final int count;
+		final int batchSize;
+		final IntConsumer action;
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger remaining;
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Thread waiter = Thread.currentThread();
+
+		ForkJoinTask(int count, int batchSize, IntConsumer action) {
+			this.count = count;
+			this.batchSize = batchSize;
+			this.action = action;
+			remaining = new AtomicInteger(count);
+		}
+
+		/** Claims and runs batches until none are left.  Workers that arrive late find nothing to do. */
+		void run() {
+			final int count = this.count;
+			final int batchSize = this.batchSize;
+			int start;
+
+			while ((start = next.getAndAdd(batchSize)) < count) {
+				final int end = Math.min(count, start + batchSize);
+
+				try {
+					// once any batch fails the result is discarded, so skip the rest
+					if (failure.get() == null) {
+						for (int i = start; i < end; ++i) {
+							action.accept(i);
+						}
+					}
+				} catch (final Throwable e) {
+					// rethrown by the caller
+					failure.compareAndSet(null, e);
+				} finally {
+					// count even on failure so the caller can't hang
+					if (remaining.addAndGet(start - end) == 0) {
+						LockSupport.unpark(waiter);
+					}
+				}
+			}
+		}
+
+		void await() {
+			while (remaining.get() != 0) {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	private static class ChunkBuildTask {
+		final BuiltRenderRegion region;
+		final Consumer<TerrainRenderContext> task;
+		final long submitNanos = BuildQueueCounters.ENABLED ? System.nanoTime() : 0;
 
-		ChunkBuildTask(Consumer<TerrainRenderContext> task, int priority) {
+		/** Squared camera distance of region as of last refresh */
+		int priority;
+
+		ChunkBuildTask(BuiltRenderRegion region, Consumer<TerrainRenderContext> task) {
+			this.region = region;
 			this.task = task;
-			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Binary min-heap of region tasks keyed on squared camera distance.
+	 * Owned by one worker but other workers may steal from it.
+	 */
+	private static class TaskQueue {
+		private final ReentrantLock lock = new ReentrantLock();
+		private ChunkBuildTask[] heap = new ChunkBuildTask[64];
+		private volatile int size;
+		private int version;
+
+		void add(ChunkBuildTask task) {
+			task.priority = task.region.squaredCameraDistance;
+			lock.lock();
+
+			try {
+				final int n = size;
+
+				if (n == heap.length) {
+					heap = Arrays.copyOf(heap, n * 2);
+				}
+
+				heap[n] = task;
+				siftUp(n);
+				size = n + 1;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		ChunkBuildTask poll(int priorityVersion, boolean isSteal) {
+			if (size == 0) {
+				return null;
+			}
+
+			final ReentrantLock lock = this.lock;
+
+			if (isSteal) {
+				// don't wait on a busy victim - try another
+				if (!lock.tryLock()) {
+					return null;
+				}
+			} else {
+				lock.lock();
+			}
+
+			try {
+				final int n = size;
+
+				if (n == 0) {
+					return null;
+				}
+
+				if (version != priorityVersion) {
+					version = priorityVersion;
+					reprioritize(n);
+				}
+
+				final ChunkBuildTask[] heap = this.heap;
+				final ChunkBuildTask result = heap[0];
+				final int last = n - 1;
+				heap[0] = heap[last];
+				heap[last] = null;
+				size = last;
+
+				if (last > 1) {
+					siftDown(0, last);
+				}
+
+				return result;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			lock.lock();
+
+			try {
+				Arrays.fill(heap, 0, size, null);
+				size = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void reprioritize(int n) {
+			final ChunkBuildTask[] heap = this.heap;
+
+			for (int i = 0; i < n; ++i) {
+				final ChunkBuildTask t = heap[i];
+				t.priority = t.region.squaredCameraDistance;
+			}
+
+			for (int i = (n >>> 1) - 1; i >= 0; --i) {
+				siftDown(i, n);
+			}
+		}
+
+		private void siftUp(int index) {
+			final ChunkBuildTask[] heap = this.heap;
+			final ChunkBuildTask t = heap[index];
+
+			while (index > 0) {
+				final int parent = (index - 1) >>> 1;
+				final ChunkBuildTask p = heap[parent];
+
+				if (p.priority <= t.priority) {
+					break;
+				}
+
+				heap[index] = p;
+				index = parent;
+			}
+
+			heap[index] = t;
+		}
+
+		private void siftDown(int index, int n) {
+			final ChunkBuildTask[] heap = this.heap;
+			final ChunkBuildTask t = heap[index];
+			final int half = n >>> 1;
+
+			while (index < half) {
+				int child = (index << 1) + 1;
+				ChunkBuildTask c = heap[child];
+				final int right = child + 1;
+
+				if (right < n && heap[right].priority < c.priority) {
+					child = right;
+					c = heap[child];
+				}
+
+				if (t.priority <= c.priority) {
+					break;
+				}
+
+				heap[index] = c;
+				index = child;
+			}
+
+			heap[index] = t;
 		}
 	}
 
 	public void clear() {
-		queue.clear();
+		privilegedQueue.clear();
+		forkQueue.clear();
 
 		for (final Worker w : workers) {
+			w.sortQueue.clear();
+			w.buildQueue.clear();
 			w.context.close();
 			w.context = new TerrainRenderContext();
 		}
+
+		if (BuildQueueCounters.ENABLED) {
+			BuildQueueCounters.clearDepth();
+		}
 	}
 
 	public boolean isEmpty() {
-		return queue.isEmpty();
+		if (!privilegedQueue.isEmpty()) {
+			return false;
+		}
+
+		for (final Worker w : workers) {
+			if (!w.sortQueue.isEmpty() || !w.buildQueue.isEmpty()) {
+				return false;
+			}
+		}
+
+		return true;
 	}
 
 	private class Worker implements Runnable {
+		private final int index;
+		private final TaskQueue sortQueue = new TaskQueue();
+		private final TaskQueue buildQueue = new TaskQueue();
+		private final AtomicBoolean parked = new AtomicBoolean();
+		private Thread thread;
 		private TerrainRenderContext context = new TerrainRenderContext();
 
+		Worker(int index) {
+			this.index = index;
+		}
+
 		@Override
 		public void run()  {
 			while(true) {
 				try {
-					final ChunkBuildTask t = queue.take();
-
-					if(t != null) {
-						t.task.accept(context);
+					if (!runNext()) {
+						idle();
 					}
-				} catch (final InterruptedException e)  {
-					// NOOP
 				} catch (final Exception e){
 					Sc.LOG.error("Unhandled error during rendering. Impact unknown.", e);
 				}
 			}
 		}
+
+		private boolean runNext() {
+			final ForkJoinTask f = forkQueue.poll();
+
+			if (f != null) {
+				f.run();
+				return true;
+			}
+
+			final PrivilegedTask p = privilegedQueue.poll();
+
+			if (p != null) {
+				if (BuildQueueCounters.ENABLED) {
+					BuildQueueCounters.start(BuildQueueCounters.LANE_ITERATE, p.submitNanos, false);
+				}
+
+				p.task.accept(context);
+				return true;
+			}
+
+			final int version = priorityVersion;
+
+			// resorts are cheap and visible, so they go before rebuilds
+			if (runFrom(sortQueue, version, BuildQueueCounters.LANE_SORT, false) || runFrom(buildQueue, version, BuildQueueCounters.LANE_BUILD, false)) {
+				return true;
+			}
+
+			final Worker[] workers = ChunkRenderExecutor.this.workers;
+			final int limit = workers.length;
+
+			for (int i = 1; i < limit; ++i) {
+				final Worker victim = workers[(index + i) % limit];
+
+				if (runFrom(victim.sortQueue, version, BuildQueueCounters.LANE_SORT, true) || runFrom(victim.buildQueue, version, BuildQueueCounters.LANE_BUILD, true)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private boolean runFrom(TaskQueue queue, int version, int lane, boolean isSteal) {
+			final ChunkBuildTask t = queue.poll(version, isSteal);
+
+			if (t == null) {
+				return false;
+			}
+
+			if (BuildQueueCounters.ENABLED) {
+				BuildQueueCounters.start(lane, t.submitNanos, isSteal);
+			}
+
+			t.task.accept(context);
+			return true;
+		}
+
+		private boolean hasWork() {
+			if (!privilegedQueue.isEmpty() || !forkQueue.isEmpty()) {
+				return true;
+			}
+
+			for (final Worker w : workers) {
+				if (!w.sortQueue.isEmpty() || !w.buildQueue.isEmpty()) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private void idle() {
+			parked.set(true);
+
+			// recheck after publishing parked state so a concurrent submit can't be missed
+			if (hasWork()) {
+				parked.set(false);
+				return;
+			}
+
+			// timeout is a safety net - submitters unpark us explicitly
+			LockSupport.parkNanos(this, 50_000_000L);
+			parked.set(false);
+		}
 	}
 }
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.terrain;
+
+import static grondag.canvas.terrain.RenderRegionAddressHelper.interiorIndex;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.collection.PackedIntegerArray;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.Palette;
+import net.minecraft.world.chunk.WorldChunk;
+
+import grondag.canvas.mixinterface.PackedIntegerArrayExt;
+import grondag.canvas.mixinterface.PalettedContainerExt;
+import grondag.canvas.mixinterface.WorldChunkExt;
+import grondag.canvas.perf.ChunkRebuildCounters;
+
+/**
+ * Immutable copy of the block states in a chunk section.  Captured the first time a section
+ * is needed after it changes, then shared by every region build that reads the section,
+ * including neighbors, until the next change.  Chunks hold the current snapshot of each
+ * section in a {@link SectionSnapshotCache}, which versions sections as blocks are set
+ * or the chunk is reloaded from a packet.
+ *
+ * <p>Capture only copies the packed storage and small palettes.  Decoding happens during
+ * region builds, off the render thread.
+ */
+public final class ChunkSectionSnapshot {
+	private static final BlockState AIR_STATE = Blocks.AIR.getDefaultState();
+
+	/** Palettes with more index bits than this are global and immutable so are not copied */
+	private static final int MAX_LOCAL_PALETTE_BITS = 8;
+
+	public static final ChunkSectionSnapshot AIR = new ChunkSectionSnapshot(AIR_STATE);
+
+	/** Non-null when every block in the section is the same */
+	private final BlockState filler;
+	private final long[] storage;
+	private final int elementBits;
+	private final int elementsPerWord;
+	private final int mask;
+	private final BlockState[] localPalette;
+	private final Palette<BlockState> globalPalette;
+	private final BlockState emptyVal;
+
+	private ChunkSectionSnapshot(BlockState filler) {
+		this.filler = filler;
+		storage = null;
+		elementBits = 0;
+		elementsPerWord = 0;
+		mask = 0;
+		localPalette = null;
+		globalPalette = null;
+		emptyVal = filler;
+	}
+
+	private ChunkSectionSnapshot(Palette<BlockState> palette, PackedIntegerArray data, BlockState emptyVal) {
+		final PackedIntegerArrayExt ext = (PackedIntegerArrayExt) data;
+		filler = null;
+		storage = ext.canvas_storageCopy();
+		elementBits = ext.canvas_elementBits();
+		elementsPerWord = ext.canvas_elementsPerWord();
+		mask = (1 << elementBits) - 1;
+		this.emptyVal = emptyVal;
+
+		if (elementBits <= MAX_LOCAL_PALETTE_BITS) {
+			final int size = 1 << elementBits;
+			localPalette = new BlockState[size];
+
+			for (int i = 0; i < size; ++i) {
+				final BlockState state = palette.getByIndex(i);
+				localPalette[i] = state == null ? emptyVal : state;
+			}
+
+			globalPalette = null;
+		} else {
+			localPalette = null;
+			globalPalette = palette;
+		}
+	}
+
+	/**
+	 * @param index in vanilla section order: x | z << 4 | y << 8
+	 */
+	public BlockState get(int index) {
+		if (filler != null) {
+			return filler;
+		}
+
+		final int word = index / elementsPerWord;
+		final int shift = (index - word * elementsPerWord) * elementBits;
+		return lookup((int) (storage[word] >>> shift) & mask);
+	}
+
+	/**
+	 * Assumes values 0-15
+	 */
+	public BlockState get(int x, int y, int z) {
+		return get(x | (z << 4) | (y << 8));
+	}
+
+	private BlockState lookup(int paletteIndex) {
+		if (localPalette != null) {
+			return localPalette[paletteIndex];
+		}
+
+		final BlockState result = globalPalette.getByIndex(paletteIndex);
+		return result == null ? emptyVal : result;
+	}
+
+	/**
+	 * Decodes all states into a region cache as region palette indexes, indexed by
+	 * {@link RenderRegionAddressHelper#interiorIndex(int, int, int)}.  Each entry of the
+	 * section palette is looked up in the region palette once.
+	 *
+	 * @return true if every block is the same state
+	 */
+	boolean copyInterior(RegionPalette regionPalette, int[] target) {
+		if (filler != null) {
+			Arrays.fill(target, 0, 4096, regionPalette.indexOf(filler));
+			return true;
+		}
+
+		final int[] remap;
+
+		if (localPalette != null) {
+			final int size = localPalette.length;
+			remap = new int[size];
+
+			for (int i = 0; i < size; ++i) {
+				remap[i] = regionPalette.indexOf(localPalette[i]);
+			}
+		} else {
+			remap = null;
+		}
+
+		final long[] storage = this.storage;
+		final int elementBits = this.elementBits;
+		final int elementsPerWord = this.elementsPerWord;
+		final int wordLimit = storage.length;
+		int i = 0;
+
+		for (int wordIndex = 0; wordIndex < wordLimit; ++wordIndex) {
+			long l = storage[wordIndex];
+
+			for (int j = 0; j < elementsPerWord; ++j) {
+				final int paletteIndex = (int) l & mask;
+				target[interiorIndex(i & 0xF, i >> 8, (i >> 4) & 0xF)] = remap == null ? regionPalette.indexOf(lookup(paletteIndex)) : remap[paletteIndex];
+				l >>>= elementBits;
+
+				if (++i == 4096) {
+					return false;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Current snapshot of a section, captured if the section changed since the last call.
+	 * Sections outside the chunk are air.  Safe from any thread.
+	 *
+	 * @return null if the section kept changing during capture
+	 */
+	public static @Nullable ChunkSectionSnapshot get(WorldChunk chunk, int sectionIndex) {
+		if (chunk == null || sectionIndex < 0) {
+			return AIR;
+		}
+
+		final ChunkSection[] sections = chunk.getSectionArray();
+
+		if (sections == null || sectionIndex >= sections.length) {
+			return AIR;
+		}
+
+		return ((WorldChunkExt) chunk).canvas_snapshotCache().get(sectionIndex, i -> capture(sections[i]));
+	}
+
+	private static ChunkSectionSnapshot capture(ChunkSection section) {
+		if (ChunkRebuildCounters.ENABLED) {
+			ChunkRebuildCounters.captureSnapshot();
+		}
+
+		if (section == null) {
+			return AIR;
+		}
+
+		if (section.isEmpty()) {
+			final BlockState filler = section.getBlockState(0, 0, 0);
+			return filler == AIR_STATE ? AIR : new ChunkSectionSnapshot(filler);
+		}
+
+		return ((PalettedContainerExt) section.getContainer()).canvas_snapshot();
+	}
+
+	/**
+	 * Callback from {@link PalettedContainerExt#canvas_snapshot()}
+	 */
+	public static ChunkSectionSnapshot capture(Palette<BlockState> palette, PackedIntegerArray data, BlockState emptyVal) {
+		if (palette == null || data == null) {
+			return emptyVal == null || emptyVal == AIR_STATE ? AIR : new ChunkSectionSnapshot(emptyVal);
+		}
+
+		final ChunkSectionSnapshot result = new ChunkSectionSnapshot(palette, data, emptyVal);
+		final int uniformIndex = result.uniformPaletteIndex();
+
+		if (uniformIndex == -1) {
+			return result;
+		}
+
+		// common for stone and water, and then needs no storage or decoding
+		final BlockState uniform = result.lookup(uniformIndex);
+		return uniform == AIR_STATE ? AIR : new ChunkSectionSnapshot(uniform);
+	}
+
+	/**
+	 * Palette index of every block if all are the same, or -1.
+	 */
+	private int uniformPaletteIndex() {
+		final long first = storage[0];
+		final int value = (int) first & mask;
+		long expected = 0;
+
+		for (int j = 0; j < elementsPerWord; ++j) {
+			expected |= (long) value << (j * elementBits);
+		}
+
+		final int fullWords = 4096 / elementsPerWord;
+
+		for (int w = 0; w < fullWords; ++w) {
+			if (storage[w] != expected) {
+				return -1;
+			}
+		}
+
+		final int remainder = 4096 - fullWords * elementsPerWord;
+
+		if (remainder > 0) {
+			final long tailMask = (1L << (remainder * elementBits)) - 1;
+
+			if ((storage[fullWords] & tailMask) != (expected & tailMask)) {
+				return -1;
+			}
+		}
+
+		return value;
+	}
+}
@@ -0,0 +1,366 @@
+package grondag.canvas.terrain;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Long-keyed open-addressing map for region and chunk reference lookup.
+ *
+ * <p>Reads never lock or wait.  Inserts claim a slot with CAS and only wait if another
+ * thread is constructing the value for the same key, so the mapping function runs
+ * at most once per key.  Removed entries leave their key in place with a tombstone value
+ * that can be reused if the same key is added again.
+ *
+ * <p>Tombstones and growth are handled by migrating to a new table.  Migration runs on
+ * whichever thread pushes the table past half full and freezes slots one at a time, so
+ * other threads keep reading and writing and are redirected to the new table only for slots
+ * already moved.
+ *
+ * <p>Keys must never equal {@code Long.MIN_VALUE} or {@code Long.MIN_VALUE + 1}.  Neither can
+ * result from packing a block or chunk position inside the world border.
+ */
+class ConcurrentLong2ObjectMap<T> {
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/** Empty slot that can no longer accept keys because its table is being migrated */
+	private static final long FROZEN = Long.MIN_VALUE + 1;
+
+	private static final Object TOMBSTONE = new Object();
+
+	/** Value was copied to the next table - look there instead */
+	private static final Object MOVED = new Object();
+
+	private final int minCapacity;
+	private final Consumer<T> clearHandler;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/** Held during migration, prune and clear so that only one of them can run at a time */
+	private final AtomicBoolean isExclusive = new AtomicBoolean();
+
+	private volatile Table root;
+
+	ConcurrentLong2ObjectMap(int expectedSize, Consumer<T> clearHandler) {
+		minCapacity = HashCommon.arraySize(expectedSize, 0.25f);
+		this.clearHandler = clearHandler;
+		root = new Table(minCapacity);
+	}
+
+	private static class Table {
+		final int mask;
+		final AtomicLongArray keys;
+		final AtomicReferenceArray<Object> values;
+
+		/** Count of slots that have ever held a key, including tombstones */
+		final AtomicInteger used = new AtomicInteger();
+
+		/** Set before any slot is frozen or moved */
+		volatile Table next;
+
+		Table(int capacity) {
+			mask = capacity - 1;
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicReferenceArray<>(capacity);
+
+			for (int i = 0; i < capacity; ++i) {
+				keys.lazySet(i, EMPTY);
+			}
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		/**
+		 * Only called by migrating thread.  No other thread can reach this
+		 * key in this table until the old slot is marked as moved.
+		 */
+		int putMigrated(long k, Object v) {
+			int i = (int) HashCommon.mix(k) & mask;
+
+			while (true) {
+				final long key = keys.get(i);
+
+				if (key == k) {
+					values.set(i, v);
+					return i;
+				} else if (key == EMPTY && keys.compareAndSet(i, EMPTY, k)) {
+					used.incrementAndGet();
+					values.set(i, v);
+					return i;
+				} else if (key != EMPTY) {
+					i = (i + 1) & mask;
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(long k) {
+		Table t = root;
+
+		search: while (true) {
+			final AtomicLongArray keys = t.keys;
+			final int mask = t.mask;
+			int i = (int) HashCommon.mix(k) & mask;
+
+			for (int probes = 0; probes <= mask; ++probes) {
+				final long key = keys.get(i);
+
+				if (key == k) {
+					final Object v = t.values.get(i);
+
+					if (v == MOVED) {
+						t = t.next;
+						continue search;
+					}
+
+					return v == TOMBSTONE ? null : (T) v;
+				} else if (key == EMPTY) {
+					return null;
+				} else if (key == FROZEN) {
+					t = t.next;
+					continue search;
+				}
+
+				i = (i + 1) & mask;
+			}
+
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public T computeIfAbsent(long k, LongFunction<? extends T> mappingFunction) {
+		Table t = root;
+
+		search: while (true) {
+			final AtomicLongArray keys = t.keys;
+			final AtomicReferenceArray<Object> values = t.values;
+			final int mask = t.mask;
+			int i = (int) HashCommon.mix(k) & mask;
+			int probes = 0;
+
+			while (probes <= mask) {
+				final long key = keys.get(i);
+
+				if (key == EMPTY) {
+					if (keys.compareAndSet(i, EMPTY, k)) {
+						final T result = construct(values, i, k, mappingFunction);
+
+						if (t.used.incrementAndGet() > (t.capacity() >> 1)) {
+							tryMigrate(t);
+						}
+
+						return result;
+					}
+
+					// lost the race - examine same slot again
+					continue;
+				} else if (key == k) {
+					final Object v = values.get(i);
+
+					if (v == null) {
+						// another thread is constructing the value
+						Thread.yield();
+					} else if (v == MOVED) {
+						t = t.next;
+						continue search;
+					} else if (v == TOMBSTONE) {
+						if (values.compareAndSet(i, TOMBSTONE, null)) {
+							return construct(values, i, k, mappingFunction);
+						}
+					} else {
+						return (T) v;
+					}
+
+					continue;
+				} else if (key == FROZEN) {
+					t = t.next;
+					continue search;
+				}
+
+				i = (i + 1) & mask;
+				++probes;
+			}
+
+			// table is full - should be unusual
+			tryMigrate(t);
+			Thread.yield();
+			final Table next = t.next;
+			t = next == null ? root : next;
+		}
+	}
+
+	/**
+	 * Slot value must be null (reserved) on entry.
+	 */
+	private T construct(AtomicReferenceArray<Object> values, int index, long k, LongFunction<? extends T> mappingFunction) {
+		T result = null;
+
+		try {
+			result = mappingFunction.apply(k);
+		} finally {
+			// don't leave other threads waiting on a reserved slot if mapping failed
+			if (result == null) {
+				values.set(index, TOMBSTONE);
+			} else {
+				values.set(index, result);
+				size.incrementAndGet();
+			}
+		}
+
+		return result;
+	}
+
+	private void tryMigrate(Table t) {
+		if (t == root && t.next == null && isExclusive.compareAndSet(false, true)) {
+			try {
+				if (t == root && t.next == null) {
+					migrate(t);
+				}
+			} finally {
+				isExclusive.set(false);
+			}
+		}
+	}
+
+	private void migrate(Table old) {
+		final Table next = new Table(Math.max(minCapacity, HashCommon.arraySize(size.get() + 1, 0.25f)));
+		old.next = next;
+
+		final AtomicLongArray keys = old.keys;
+		final AtomicReferenceArray<Object> values = old.values;
+		final int limit = old.capacity();
+
+		for (int i = 0; i < limit; ++i) {
+			while (true) {
+				final long key = keys.get(i);
+
+				if (key == EMPTY) {
+					if (keys.compareAndSet(i, EMPTY, FROZEN)) {
+						break;
+					} else {
+						continue;
+					}
+				}
+
+				final Object v = values.get(i);
+
+				if (v == null) {
+					// wait for construction to finish
+					Thread.yield();
+				} else if (v == TOMBSTONE) {
+					if (values.compareAndSet(i, TOMBSTONE, MOVED)) {
+						break;
+					}
+				} else {
+					final int newIndex = next.putMigrated(key, v);
+
+					if (values.compareAndSet(i, v, MOVED)) {
+						break;
+					}
+
+					// value changed since we read it - undo and retry
+					next.values.set(newIndex, TOMBSTONE);
+				}
+			}
+		}
+
+		root = next;
+	}
+
+	private void acquireExclusive() {
+		while (!isExclusive.compareAndSet(false, true)) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Removes all entries for which the predicate returns true.  Readers and
+	 * writers are not blocked.  Must only be called from one thread at a time.
+	 */
+	@SuppressWarnings("unchecked")
+	public void prune(Predicate<T> pruner) {
+		acquireExclusive();
+
+		try {
+			final Table t = root;
+			final AtomicReferenceArray<Object> values = t.values;
+			final int limit = t.capacity();
+
+			for (int i = 0; i < limit; ++i) {
+				final Object v = values.get(i);
+
+				if (v != null && v != TOMBSTONE && pruner.test((T) v) && values.compareAndSet(i, v, TOMBSTONE)) {
+					size.decrementAndGet();
+				}
+			}
+		} finally {
+			isExclusive.set(false);
+		}
+	}
+
+	/**
+	 * Removes all entries and passes each removed value to the clear handler.  Readers
+	 * and writers are not blocked.  Like migration, the old table is frozen slot by slot so
+	 * that values inserted concurrently either reach the handler or land in the new table.
+	 */
+	@SuppressWarnings("unchecked")
+	public void clear() {
+		acquireExclusive();
+
+		try {
+			final Table old = root;
+			final Table next = new Table(minCapacity);
+			old.next = next;
+
+			final AtomicLongArray keys = old.keys;
+			final AtomicReferenceArray<Object> values = old.values;
+			final int limit = old.capacity();
+
+			for (int i = 0; i < limit; ++i) {
+				while (true) {
+					final long key = keys.get(i);
+
+					if (key == EMPTY) {
+						if (keys.compareAndSet(i, EMPTY, FROZEN)) {
+							break;
+						} else {
+							continue;
+						}
+					}
+
+					final Object v = values.get(i);
+
+					if (v == null) {
+						// wait for construction to finish
+						Thread.yield();
+					} else if (v == TOMBSTONE) {
+						if (values.compareAndSet(i, TOMBSTONE, MOVED)) {
+							break;
+						}
+					} else if (values.compareAndSet(i, v, MOVED)) {
+						size.decrementAndGet();
+						clearHandler.accept((T) v);
+						break;
+					}
+				}
+			}
+
+			root = next;
+		} finally {
+			isExclusive.set(false);
+		}
+	}
+}
@@ -14,11 +14,18 @@
  ******************************************************************************/
 package grondag.canvas.terrain;
 
-import static grondag.canvas.terrain.RenderRegionAddressHelper.EXTERIOR_CACHE_SIZE;
+import static grondag.canvas.terrain.ProtoRenderRegion.sectionIndex;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.INTERIOR_CACHE_SIZE;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.TOTAL_CACHE_SIZE;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.cacheIndexToXyz5;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.interiorIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localCornerIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localXEdgeIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localXfaceIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localYEdgeIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localYfaceIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localZEdgeIndex;
+import static grondag.canvas.terrain.RenderRegionAddressHelper.localZfaceIndex;
 
 import java.util.Arrays;
 
@@ -40,7 +47,7 @@ import net.minecraft.world.level.ColorResolver;
 import net.fabricmc.fabric.api.rendering.data.v1.RenderAttachedBlockView;
 
 import grondag.canvas.apiimpl.rendercontext.TerrainRenderContext;
-import grondag.canvas.terrain.ChunkPaletteCopier.PaletteCopy;
+import grondag.canvas.perf.ChunkRebuildCounters;
 import grondag.canvas.terrain.occlusion.region.OcclusionRegion;
 
 public class FastRenderRegion extends AbstractRenderRegion implements RenderAttachedBlockView {
@@ -49,7 +56,11 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 	protected final Object[] renderData = new Object[INTERIOR_CACHE_SIZE];
 	public final BlockEntity[] blockEntities = new BlockEntity[INTERIOR_CACHE_SIZE];
 
-	private final BlockState[] states = new BlockState[TOTAL_CACHE_SIZE];
+	/** Distinct states in the region, with per-state flags for the checks made on every block */
+	private final RegionPalette palette = new RegionPalette();
+	/** Index of each block state in {@link #palette} */
+	private final int[] stateIndexes = new int[TOTAL_CACHE_SIZE];
+	private boolean interiorUniform;
 	// PERF: pack for reduced memory, better LOC
 	private final int[] aoCache = new int[TOTAL_CACHE_SIZE];
 	private final int[] lightCache = new int[TOTAL_CACHE_SIZE];
@@ -62,6 +73,10 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 	}
 
 	public void prepare(ProtoRenderRegion protoRegion) {
+		if (ChunkRebuildCounters.ENABLED) {
+			ChunkRebuildCounters.startPrepare();
+		}
+
 		System.arraycopy(protoRegion.chunks, 0, chunks, 0, 16);
 		System.arraycopy(EMPTY_BLOCK_ENTITIES, 0, blockEntities, 0, INTERIOR_CACHE_SIZE);
 		System.arraycopy(EMPTY_RENDER_DATA, 0, renderData, 0, INTERIOR_CACHE_SIZE);
@@ -78,23 +93,98 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 		chunkBaseY = protoRegion.chunkBaseY;
 		chunkBaseZ = protoRegion.chunkBaseZ;
 
-		final PaletteCopy pc  = protoRegion.takePaletteCopy();
+		final ChunkSectionSnapshot[] sections = protoRegion.sections;
+		palette.clear();
+		interiorUniform = sections[sectionIndex(1, 1, 1)].copyInterior(palette, stateIndexes);
+		copyCorners(sections);
+		copyEdges(sections);
+		copyFaces(sections);
 
-		for (int x = 0; x < 16; x++) {
-			for (int y = 0; y < 16; y++) {
-				for (int z = 0; z < 16; z++) {
-					states[interiorIndex(x, y, z)] = pc.apply(x | (y << 8) | (z << 4));
-				}
-			}
+		copyBeData(protoRegion);
+
+		occlusion.prepare();
+
+		if (ChunkRebuildCounters.ENABLED) {
+			ChunkRebuildCounters.completePrepare(interiorUniform);
 		}
+	}
 
-		pc.release();
+	private void copyFaces(ChunkSectionSnapshot[] sections) {
+		final int[] stateIndexes = this.stateIndexes;
+		final RegionPalette palette = this.palette;
+		final ChunkSectionSnapshot lowX = sections[sectionIndex(0, 1, 1)];
+		final ChunkSectionSnapshot highX = sections[sectionIndex(2, 1, 1)];
+		final ChunkSectionSnapshot lowZ = sections[sectionIndex(1, 1, 0)];
+		final ChunkSectionSnapshot highZ = sections[sectionIndex(1, 1, 2)];
+		final ChunkSectionSnapshot lowY = sections[sectionIndex(1, 0, 1)];
+		final ChunkSectionSnapshot highY = sections[sectionIndex(1, 2, 1)];
+
+		for (int i = 0; i < 16; i++) {
+			for (int j = 0; j < 16; j++) {
+				stateIndexes[localXfaceIndex(false, i, j)] = palette.indexOf(lowX.get(15, i, j));
+				stateIndexes[localXfaceIndex(true, i, j)] = palette.indexOf(highX.get(0, i, j));
+
+				stateIndexes[localZfaceIndex(i, j, false)] = palette.indexOf(lowZ.get(i, j, 15));
+				stateIndexes[localZfaceIndex(i, j, true)] = palette.indexOf(highZ.get(i, j, 0));
+
+				stateIndexes[localYfaceIndex(i, false, j)] = palette.indexOf(lowY.get(i, 15, j));
+				stateIndexes[localYfaceIndex(i, true, j)] = palette.indexOf(highY.get(i, 0, j));
+			}
+		}
+	}
 
-		System.arraycopy(protoRegion.states, 0, states, INTERIOR_CACHE_SIZE, EXTERIOR_CACHE_SIZE);
+	private void copyEdges(ChunkSectionSnapshot[] sections) {
+		final int[] stateIndexes = this.stateIndexes;
+		final RegionPalette palette = this.palette;
+		final ChunkSectionSnapshot aaZ = sections[sectionIndex(0, 0, 1)];
+		final ChunkSectionSnapshot abZ = sections[sectionIndex(0, 2, 1)];
+		final ChunkSectionSnapshot baZ = sections[sectionIndex(2, 0, 1)];
+		final ChunkSectionSnapshot bbZ = sections[sectionIndex(2, 2, 1)];
+
+		final ChunkSectionSnapshot aYa = sections[sectionIndex(0, 1, 0)];
+		final ChunkSectionSnapshot aYb = sections[sectionIndex(0, 1, 2)];
+		final ChunkSectionSnapshot bYa = sections[sectionIndex(2, 1, 0)];
+		final ChunkSectionSnapshot bYb = sections[sectionIndex(2, 1, 2)];
+
+		final ChunkSectionSnapshot Xaa = sections[sectionIndex(1, 0, 0)];
+		final ChunkSectionSnapshot Xab = sections[sectionIndex(1, 0, 2)];
+		final ChunkSectionSnapshot Xba = sections[sectionIndex(1, 2, 0)];
+		final ChunkSectionSnapshot Xbb = sections[sectionIndex(1, 2, 2)];
+
+		for(int i = 0; i < 16; i++) {
+			stateIndexes[localZEdgeIndex(false, false, i)] = palette.indexOf(aaZ.get(15, 15, i));
+			stateIndexes[localZEdgeIndex(false, true, i)] = palette.indexOf(abZ.get(15, 0, i));
+			stateIndexes[localZEdgeIndex(true, false, i)] = palette.indexOf(baZ.get(0, 15, i));
+			stateIndexes[localZEdgeIndex(true, true, i)] = palette.indexOf(bbZ.get(0, 0, i));
+
+			stateIndexes[localYEdgeIndex(false, i, false)] = palette.indexOf(aYa.get(15, i, 15));
+			stateIndexes[localYEdgeIndex(false, i, true)] = palette.indexOf(aYb.get(15, i, 0));
+			stateIndexes[localYEdgeIndex(true, i, false)] = palette.indexOf(bYa.get(0, i, 15));
+			stateIndexes[localYEdgeIndex(true, i, true)] = palette.indexOf(bYb.get(0, i, 0));
+
+			stateIndexes[localXEdgeIndex(i, false, false)] = palette.indexOf(Xaa.get(i, 15, 15));
+			stateIndexes[localXEdgeIndex(i, false, true)] = palette.indexOf(Xab.get(i, 15, 0));
+			stateIndexes[localXEdgeIndex(i, true, false)] = palette.indexOf(Xba.get(i, 0, 15));
+			stateIndexes[localXEdgeIndex(i, true, true)] = palette.indexOf(Xbb.get(i, 0, 0));
+		}
+	}
 
-		copyBeData(protoRegion);
+	private void copyCorners(ChunkSectionSnapshot[] sections) {
+		final int[] stateIndexes = this.stateIndexes;
+		final RegionPalette palette = this.palette;
+		stateIndexes[localCornerIndex(false, false, false)] = palette.indexOf(cornerState(sections, 0, 0, 0));
+		stateIndexes[localCornerIndex(false, false, true)] = palette.indexOf(cornerState(sections, 0, 0, 2));
+		stateIndexes[localCornerIndex(false, true, false)] = palette.indexOf(cornerState(sections, 0, 2, 0));
+		stateIndexes[localCornerIndex(false, true, true)] = palette.indexOf(cornerState(sections, 0, 2, 2));
+
+		stateIndexes[localCornerIndex(true, false, false)] = palette.indexOf(cornerState(sections, 2, 0, 0));
+		stateIndexes[localCornerIndex(true, false, true)] = palette.indexOf(cornerState(sections, 2, 0, 2));
+		stateIndexes[localCornerIndex(true, true, false)] = palette.indexOf(cornerState(sections, 2, 2, 0));
+		stateIndexes[localCornerIndex(true, true, true)] = palette.indexOf(cornerState(sections, 2, 2, 2));
+	}
 
-		occlusion.prepare();
+	private static BlockState cornerState(ChunkSectionSnapshot[] sections, int x, int y, int z) {
+		return sections[sectionIndex(x, y, z)].get(x == 0 ? 15 : 0, y == 0 ? 15 : 0, z == 0 ? 15 : 0);
 	}
 
 	private void copyBeData(ProtoRenderRegion protoRegion) {
@@ -129,7 +219,7 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 			return world.getBlockState(pos);
 		}
 
-		return states[i];
+		return palette.state(stateIndexes[i]);
 	}
 
 	public BlockState getBlockState(int x, int y, int z) {
@@ -139,14 +229,21 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 			return world.getBlockState(searchPos.set(x, y, z));
 		}
 
-		return states[i];
+		return palette.state(stateIndexes[i]);
 	}
 
 	/**
 	 * Assumes values 0-15
 	 */
 	public BlockState getLocalBlockState(int interiorIndex) {
-		return states[interiorIndex];
+		return palette.state(stateIndexes[interiorIndex]);
+	}
+
+	/**
+	 * {@link BlockStateFlags} of the block at a cache index.
+	 */
+	public int blockFlags(int cacheIndex) {
+		return palette.flags(stateIndexes[cacheIndex]);
 	}
 
 	@Override
@@ -178,7 +275,7 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 		int result = lightCache[cacheIndex];
 
 		if (result == Integer.MAX_VALUE) {
-			final BlockState state = states[cacheIndex];
+			final BlockState state = palette.state(stateIndexes[cacheIndex]);
 			final int packedXyz5 = cacheIndexToXyz5(cacheIndex);
 			final int x = (packedXyz5 & 31) - 1 + originX;
 			final int y = ((packedXyz5 >> 5) & 31) - 1 + originY;
@@ -212,7 +309,7 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 		int result = aoCache[cacheIndex];
 
 		if (result == Integer.MAX_VALUE) {
-			final BlockState state = states[cacheIndex];
+			final BlockState state = palette.state(stateIndexes[cacheIndex]);
 
 			if(state.getLuminance() == 0) {
 				final int packedXyz5 = cacheIndexToXyz5(cacheIndex);
@@ -252,13 +349,25 @@ public class FastRenderRegion extends AbstractRenderRegion implements RenderAtta
 
 	public final OcclusionRegion occlusion = new OcclusionRegion() {
 		@Override
-		protected BlockState blockStateAtIndex(int index) {
-			return states[index];
+		protected boolean isVisibleAtIndex(int index) {
+			return (blockFlags(index) & BlockStateFlags.VISIBLE) != 0;
+		}
+
+		@Override
+		protected boolean closedAtRelativePos(int index, int x, int y, int z) {
+			final int stateIndex = stateIndexes[index];
+			final int flags = palette.flags(stateIndex);
+
+			if ((flags & BlockStateFlags.DYNAMIC_OPACITY) == 0) {
+				return (flags & BlockStateFlags.OPAQUE_FULL_CUBE) != 0;
+			}
+
+			return palette.state(stateIndex).isOpaqueFullCube(world, searchPos.set(originX + x, originY + y, originZ + z));
 		}
 
 		@Override
-		protected boolean closedAtRelativePos(BlockState blockState, int x, int y, int z) {
-			return blockState.isOpaqueFullCube(world, searchPos.set(originX + x, originY + y, originZ + z));
+		protected boolean isInteriorUniform() {
+			return interiorUniform && (blockFlags(0) & BlockStateFlags.DYNAMIC_OPACITY) == 0;
 		}
 	};
 
@@ -14,46 +14,42 @@
  ******************************************************************************/
 package grondag.canvas.terrain;
 
-import static grondag.canvas.terrain.RenderRegionAddressHelper.AIR;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.EXTERIOR_CACHE_SIZE;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.INTERIOR_CACHE_SIZE;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.interiorIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localCornerIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localXEdgeIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localXfaceIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localYEdgeIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localYfaceIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localZEdgeIndex;
-import static grondag.canvas.terrain.RenderRegionAddressHelper.localZfaceIndex;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 
+import javax.annotation.Nullable;
+
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.shorts.ShortArrayList;
 
-import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntity;
 import net.minecraft.client.world.ClientWorld;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.world.chunk.ChunkSection;
 import net.minecraft.world.chunk.WorldChunk;
 
 import net.fabricmc.fabric.api.rendering.data.v1.RenderAttachmentBlockEntity;
 
+import grondag.canvas.mixinterface.WorldChunkExt;
 import grondag.canvas.perf.ChunkRebuildCounters;
-import grondag.canvas.terrain.ChunkPaletteCopier.PaletteCopy;
 
+/**
+ * Captures what a region build needs from the world, on the render thread or, with
+ * off-thread world capture, on the builder thread.  Block states are not copied here:
+ * the main section and its 26 neighbors are held as shared {@link ChunkSectionSnapshot}
+ * instances and decoded by the build.
+ */
 public class ProtoRenderRegion extends AbstractRenderRegion {
-	final BlockState[] states = new BlockState[EXTERIOR_CACHE_SIZE];
+	/** Main section and neighbors, indexed by {@link #sectionIndex(int, int, int)} */
+	final ChunkSectionSnapshot[] sections = new ChunkSectionSnapshot[27];
 
 	final ShortArrayList renderDataPos = new ShortArrayList();
 	final ObjectArrayList<Object> renderData = new ObjectArrayList<>();
 	final ShortArrayList blockEntityPos = new ShortArrayList();
 	public final ObjectArrayList<BlockEntity> blockEntities = new ObjectArrayList<>();
 
-	PaletteCopy mainSectionCopy;
-
 	private ProtoRenderRegion prepare(ClientWorld world, BlockPos origin) {
 		if(ChunkRebuildCounters.ENABLED) {
 			ChunkRebuildCounters.startCopy();
@@ -78,15 +74,17 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 		this.chunkBaseZ = chunkBaseZ;
 
 		final WorldChunk mainChunk = world.getChunk(chunkBaseX + 1, chunkBaseZ + 1);
-		mainSectionCopy = ChunkPaletteCopier.captureCopy(mainChunk, 1 + chunkBaseY);
+		final ChunkSectionSnapshot mainSection = ChunkSectionSnapshot.get(mainChunk, 1 + chunkBaseY);
 
-		final ProtoRenderRegion result;
+		ProtoRenderRegion result;
 
-		if(mainSectionCopy == ChunkPaletteCopier.AIR_COPY) {
+		if (mainSection == null) {
+			release();
+			result = null;
+		} else if(mainSection == ChunkSectionSnapshot.AIR) {
 			release();
 			result = EMPTY;
 		} else {
-			captureBlockEntities(mainChunk);
 			chunks[1 | (1 << 2)] = mainChunk;
 			chunks[0 | (0 << 2)] = world.getChunk(chunkBaseX + 0, chunkBaseZ + 0);
 			chunks[0 | (1 << 2)] = world.getChunk(chunkBaseX + 0, chunkBaseZ + 1);
@@ -97,11 +95,12 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 			chunks[2 | (1 << 2)] = world.getChunk(chunkBaseX + 2, chunkBaseZ + 1);
 			chunks[2 | (2 << 2)] = world.getChunk(chunkBaseX + 2, chunkBaseZ + 2);
 
-			captureCorners();
-			captureEdges();
-			captureFaces();
-
 			result = this;
+
+			if (!captureSections() || !captureBlockEntities(mainChunk)) {
+				release();
+				result = null;
+			}
 		}
 
 		if(ChunkRebuildCounters.ENABLED) {
@@ -111,14 +110,46 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 		return result;
 	}
 
-	PaletteCopy takePaletteCopy() {
-		final PaletteCopy result = mainSectionCopy;
-		mainSectionCopy = null;
-		return result;
+	static int sectionIndex(int x, int y, int z) {
+		return x + y * 3 + z * 9;
+	}
+
+	/**
+	 * @return false if a section kept changing during capture
+	 */
+	private boolean captureSections() {
+		final int chunkBaseY = this.chunkBaseY;
 
+		for (int x = 0; x < 3; x++) {
+			for (int z = 0; z < 3; z++) {
+				final WorldChunk chunk = chunks[x | (z << 2)];
+
+				for (int y = 0; y < 3; y++) {
+					final ChunkSectionSnapshot section = ChunkSectionSnapshot.get(chunk, chunkBaseY + y);
+
+					if (section == null) {
+						return false;
+					}
+
+					sections[sectionIndex(x, y, z)] = section;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return false if block entities kept changing during capture
+	 */
+	private boolean captureBlockEntities(WorldChunk mainChunk) {
+		return ((WorldChunkExt) mainChunk).canvas_snapshotCache().read(() -> {
+			scanBlockEntities(mainChunk);
+			return Boolean.TRUE;
+		}) != null;
 	}
 
-	private void captureBlockEntities(WorldChunk mainChunk) {
+	private void scanBlockEntities(WorldChunk mainChunk) {
 		renderDataPos.clear();
 		renderData.clear();
 		blockEntityPos.clear();
@@ -148,84 +179,8 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 		}
 	}
 
-	private void captureFaces() {
-		final ChunkSection lowX = getSection(0, 1, 1);
-		final ChunkSection highX = getSection(2, 1, 1);
-		final ChunkSection lowZ = getSection(1, 1, 0);
-		final ChunkSection highZ = getSection(1, 1, 2);
-		final ChunkSection lowY = getSection(1, 0, 1);
-		final ChunkSection highY = getSection(1, 2, 1);
-
-		for (int i = 0; i < 16; i++) {
-			for (int j = 0; j < 16; j++) {
-				states[localXfaceIndex(false, i, j) - INTERIOR_CACHE_SIZE] = lowX == null ? AIR : lowX.getBlockState(15, i, j);
-				states[localXfaceIndex(true, i, j) - INTERIOR_CACHE_SIZE] = highX == null ? AIR : highX.getBlockState(0, i, j);
-
-				states[localZfaceIndex(i, j, false) - INTERIOR_CACHE_SIZE] = lowZ == null ? AIR : lowZ.getBlockState(i, j, 15);
-				states[localZfaceIndex(i, j, true) - INTERIOR_CACHE_SIZE] = highZ == null ? AIR : highZ.getBlockState(i, j, 0);
-
-				states[localYfaceIndex(i, false, j) - INTERIOR_CACHE_SIZE] = lowY == null ? AIR : lowY.getBlockState(i, 15, j);
-				states[localYfaceIndex(i, true, j) - INTERIOR_CACHE_SIZE] = highY == null ? AIR : highY.getBlockState(i, 0, j);
-			}
-		}
-	}
-
-	private void captureEdges() {
-		final ChunkSection aaZ = getSection(0, 0, 1);
-		final ChunkSection abZ = getSection(0, 2, 1);
-		final ChunkSection baZ = getSection(2, 0, 1);
-		final ChunkSection bbZ = getSection(2, 2, 1);
-
-		final ChunkSection aYa = getSection(0, 1, 0);
-		final ChunkSection aYb = getSection(0, 1, 2);
-		final ChunkSection bYa = getSection(2, 1, 0);
-		final ChunkSection bYb = getSection(2, 1, 2);
-
-		final ChunkSection Xaa = getSection(1, 0, 0);
-		final ChunkSection Xab = getSection(1, 0, 2);
-		final ChunkSection Xba = getSection(1, 2, 0);
-		final ChunkSection Xbb = getSection(1, 2, 2);
-
-		for(int i = 0; i < 16; i++) {
-			states[localZEdgeIndex(false, false, i) - INTERIOR_CACHE_SIZE] = aaZ == null ? AIR : aaZ.getBlockState(15, 15, i);
-			states[localZEdgeIndex(false, true, i) - INTERIOR_CACHE_SIZE] = abZ == null ? AIR : abZ.getBlockState(15, 0, i);
-			states[localZEdgeIndex(true, false, i) - INTERIOR_CACHE_SIZE] = baZ == null ? AIR : baZ.getBlockState(0, 15, i);
-			states[localZEdgeIndex(true, true, i) - INTERIOR_CACHE_SIZE] = bbZ == null ? AIR : bbZ.getBlockState(0, 0, i);
-
-			states[localYEdgeIndex(false, i, false) - INTERIOR_CACHE_SIZE] = aYa == null ? AIR : aYa.getBlockState(15, i, 15);
-			states[localYEdgeIndex(false, i, true) - INTERIOR_CACHE_SIZE] = aYb == null ? AIR : aYb.getBlockState(15, i, 0);
-			states[localYEdgeIndex(true, i, false) - INTERIOR_CACHE_SIZE] = bYa == null ? AIR : bYa.getBlockState(0, i, 15);
-			states[localYEdgeIndex(true, i, true) - INTERIOR_CACHE_SIZE] = bYb == null ? AIR : bYb.getBlockState(0, i, 0);
-
-			states[localXEdgeIndex(i, false, false) - INTERIOR_CACHE_SIZE] = Xaa == null ? AIR : Xaa.getBlockState(i, 15, 15);
-			states[localXEdgeIndex(i, false, true) - INTERIOR_CACHE_SIZE] = Xab == null ? AIR : Xab.getBlockState(i, 15, 0);
-			states[localXEdgeIndex(i, true, false) - INTERIOR_CACHE_SIZE] = Xba == null ? AIR : Xba.getBlockState(i, 0, 15);
-			states[localXEdgeIndex(i, true, true) - INTERIOR_CACHE_SIZE] = Xbb == null ? AIR : Xbb.getBlockState(i, 0, 0);
-		}
-	}
-
-	private void captureCorners() {
-		states[localCornerIndex(false, false, false) - INTERIOR_CACHE_SIZE] = captureCornerState(0, 0, 0);
-		states[localCornerIndex(false, false, true) - INTERIOR_CACHE_SIZE] = captureCornerState(0, 0, 2);
-		states[localCornerIndex(false, true, false) - INTERIOR_CACHE_SIZE] = captureCornerState(0, 2, 0);
-		states[localCornerIndex(false, true, true) - INTERIOR_CACHE_SIZE] = captureCornerState(0, 2, 2);
-
-		states[localCornerIndex(true, false, false) - INTERIOR_CACHE_SIZE] = captureCornerState(2, 0, 0);
-		states[localCornerIndex(true, false, true) - INTERIOR_CACHE_SIZE] = captureCornerState(2, 0, 2);
-		states[localCornerIndex(true, true, false) - INTERIOR_CACHE_SIZE] = captureCornerState(2, 2, 0);
-		states[localCornerIndex(true, true, true) - INTERIOR_CACHE_SIZE] = captureCornerState(2, 2, 2);
-	}
-
-	private BlockState captureCornerState(int x, int y, int z) {
-		final ChunkSection section = getSection(x, y, z);
-		return section == null ? AIR : section.getBlockState(x == 0 ? 15 : 0, y == 0 ? 15 : 0, z == 0 ? 15 : 0);
-	}
-
 	public void release() {
-		if (mainSectionCopy != null) {
-			mainSectionCopy.release();
-			mainSectionCopy = null;
-		}
+		Arrays.fill(sections, null);
 
 		for (int x = 0; x < 3; x++) {
 			for (int z = 0; z < 3; z++) {
@@ -241,7 +196,10 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 
 	private static final ArrayBlockingQueue<ProtoRenderRegion> POOL = new ArrayBlockingQueue<>(256);
 
-	public static ProtoRenderRegion claim(ClientWorld world, BlockPos origin) {
+	/**
+	 * @return null if the world kept changing during capture, only likely off the render thread
+	 */
+	public static @Nullable ProtoRenderRegion claim(ClientWorld world, BlockPos origin) {
 		final ProtoRenderRegion result = POOL.poll();
 		return (result == null ? new ProtoRenderRegion() : result).prepare(world, origin);
 	}
@@ -281,4 +239,9 @@ public class ProtoRenderRegion extends AbstractRenderRegion {
 	 */
 	public static final ProtoRenderRegion EMPTY = new DummyRegion();
 
+	/**
+	 * Signals that the builder should capture the world itself.
+	 */
+	public static final ProtoRenderRegion CAPTURE = new DummyRegion();
+
 }
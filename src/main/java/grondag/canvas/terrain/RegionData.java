@@ -1,5 +1,6 @@
 package grondag.canvas.terrain;
 
+import java.nio.IntBuffer;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -11,9 +12,11 @@ import net.minecraft.block.entity.BlockEntity;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 
+import grondag.canvas.buffer.encoding.QuadPlanes;
 import grondag.canvas.buffer.encoding.VertexCollectorImpl;
 import grondag.canvas.buffer.encoding.VertexCollectorList;
 import grondag.canvas.material.MaterialState;
+import grondag.canvas.perf.TranslucentSortCounters;
 import grondag.canvas.shader.ShaderPass;
 
 @Environment(EnvType.CLIENT)
@@ -25,6 +28,17 @@ public class RegionData {
 
 	@Nullable int[] translucentState;
 
+	// Translucent sort state is only used by the thread building or sorting the region
+
+	/** Quad order of the last translucent sort */
+	private int[] translucentOrder;
+
+	/** Planes of translucent quads, found on first resort */
+	private QuadPlanes translucentPlanes;
+
+	/** Camera position of the last translucent sort, relative to vertex origin */
+	private float sortX, sortY, sortZ;
+
 	public List<BlockEntity> getBlockEntities() {
 		return blockEntities;
 	}
@@ -33,8 +47,50 @@ public class RegionData {
 		final VertexCollectorImpl buffer = buffers.getIfExists(MaterialState.getDefault(ShaderPass.TRANSLUCENT));
 
 		if (buffer != null) {
-			buffer.sortQuads(x, y, z);
 			translucentState = buffer.saveState(translucentState);
+
+			if (translucentState != null) {
+				// vertex order is kept; drawing order goes in the index buffer
+				buffer.sortQuads(translucentState, x, y, z);
+				translucentOrder = buffer.saveSortOrder(translucentOrder);
+				sortX = x;
+				sortY = y;
+				sortZ = z;
+			}
+		}
+	}
+
+	/**
+	 * False if the camera has not crossed the plane of any translucent quad since the last
+	 * sort, in which case no quad can have moved in front of another and the order is still valid.
+	 */
+	boolean needsTranslucentSort(int vertexIntStride, float x, float y, float z) {
+		if (translucentPlanes == null) {
+			translucentPlanes = QuadPlanes.of(translucentState, vertexIntStride);
+		}
+
+		if (translucentPlanes.crossed(sortX, sortY, sortZ, x, y, z)) {
+			return true;
+		}
+
+		if (TranslucentSortCounters.ENABLED) {
+			TranslucentSortCounters.skipped();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sorts translucent quads starting from the last order and writes element indices.
+	 */
+	void sortTranslucent(int vertexIntStride, float x, float y, float z, IntBuffer indices) {
+		final boolean incremental = VertexCollectorImpl.resortIndices(translucentState, vertexIntStride, x, y, z, translucentOrder, indices);
+		sortX = x;
+		sortY = y;
+		sortZ = z;
+
+		if (TranslucentSortCounters.ENABLED) {
+			TranslucentSortCounters.sorted(incremental);
 		}
 	}
 
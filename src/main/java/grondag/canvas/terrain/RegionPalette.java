@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.terrain;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import net.minecraft.block.BlockState;
+
+/**
+ * Distinct block states of the region being built.  Region caches hold indexes into this
+ * palette, and the {@link BlockStateFlags} a build checks for every block are copied once
+ * per state here, so per-block checks are lookups in a small region-local table.
+ */
+class RegionPalette {
+	private final Reference2IntOpenHashMap<BlockState> indexes = new Reference2IntOpenHashMap<>();
+	private BlockState[] states = new BlockState[64];
+	private int[] flags = new int[64];
+	private int size = 0;
+
+	RegionPalette() {
+		indexes.defaultReturnValue(-1);
+	}
+
+	void clear() {
+		indexes.clear();
+		Arrays.fill(states, 0, size, null);
+		size = 0;
+	}
+
+	int indexOf(BlockState state) {
+		int result = indexes.getInt(state);
+
+		if (result == -1) {
+			result = size++;
+
+			if (result == states.length) {
+				states = Arrays.copyOf(states, result * 2);
+				flags = Arrays.copyOf(flags, result * 2);
+			}
+
+			states[result] = state;
+			flags[result] = BlockStateFlags.get(state);
+			indexes.put(state, result);
+		}
+
+		return result;
+	}
+
+	BlockState state(int index) {
+		return states[index];
+	}
+
+	int flags(int index) {
+		return flags[index];
+	}
+}
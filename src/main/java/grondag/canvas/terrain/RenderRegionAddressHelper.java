@@ -16,8 +16,6 @@ package grondag.canvas.terrain;
 
 import java.util.Arrays;
 
-import net.minecraft.block.BlockState;
-import net.minecraft.block.Blocks;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3i;
@@ -285,8 +283,6 @@ public abstract class RenderRegionAddressHelper {
 		return signedXyzOffset5(vec.getX(), vec.getY(), vec.getZ());
 	}
 
-	protected static final BlockState AIR = Blocks.AIR.getDefaultState();
-
 	public static final int INTERIOR_CACHE_SIZE = 4096;
 	public static final int FACE_CACHE_START = INTERIOR_CACHE_SIZE;
 	public static final int FACE_CACHE_SIZE = 256 * 6;
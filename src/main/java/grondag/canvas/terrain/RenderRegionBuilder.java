@@ -5,7 +5,12 @@ import java.util.Queue;
 import com.google.common.collect.Queues;
 import com.mojang.blaze3d.systems.RenderSystem;
 
+import grondag.canvas.Configurator;
 import grondag.canvas.apiimpl.rendercontext.TerrainRenderContext;
+import grondag.canvas.buffer.GlBufferAllocator;
+import grondag.canvas.buffer.StagingRing;
+import grondag.canvas.buffer.TerrainArena;
+import grondag.canvas.perf.ChunkRebuildCounters;
 
 public class RenderRegionBuilder {
 	private final Queue<Runnable> uploadQueue = Queues.newConcurrentLinkedQueue();
@@ -27,21 +32,48 @@ public class RenderRegionBuilder {
 		return String.format("not available");
 	}
 
+	/**
+	 * Runs scheduled uploads until the queue is empty or the configured time per frame
+	 * is used. Remaining uploads run next frame.
+	 */
 	public boolean upload() {
 		assert RenderSystem.isOnRenderThread();
 
+		final long start = System.nanoTime();
+		final long limit = Configurator.maxUploadMillisPerFrame == 0 ? Long.MAX_VALUE : start + Configurator.maxUploadMillisPerFrame * 1000000L;
+
 		Runnable task = uploadQueue.poll();
 
 		final boolean didRun = task != null;
 
 		while (task != null) {
 			task.run();
-			task = uploadQueue.poll();
+			task = System.nanoTime() < limit ? uploadQueue.poll() : null;
+		}
+
+		if (ChunkRebuildCounters.ENABLED && didRun) {
+			ChunkRebuildCounters.uploadFrame(System.nanoTime() - start);
 		}
 
 		return didRun;
 	}
 
+	/**
+	 * Deletes released buffers and reclaims upload space.  Called once per frame from the
+	 * render loop, including frames with no world or no uploads, so released buffers and
+	 * staging space never wait on the next upload.
+	 */
+	public static void endFrame() {
+		assert RenderSystem.isOnRenderThread();
+
+		if (TerrainArena.ENABLED) {
+			TerrainArena.endFrame();
+		}
+
+		StagingRing.endFrame();
+		GlBufferAllocator.flushReleases();
+	}
+
 	public void reset() {
 		executor.clear();
 		mainThreadContext.close();
@@ -0,0 +1,90 @@
+package grondag.canvas.terrain;
+
+import java.util.function.IntUnaryOperator;
+
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Dense, camera-centred index of render regions addressed by chunk coordinates.
+ * X and Z wrap toroidally so that regions within the ring radius of the camera
+ * each have a unique slot and lookup needs no hashing.
+ *
+ * <p>Slots are never explicitly cleared.  A slot is overwritten when the camera moves
+ * far enough that another position maps to it, and lookups confirm the region origin,
+ * so stale entries simply miss.  Ownership and lifecycle of regions remain with the
+ * region map in {@link RenderRegionStorage}, which also handles lookups outside the ring.
+ *
+ * <p>Reads and writes are not synchronized. References are written atomically and region
+ * origins are final, so the worst outcome of a race is a miss that falls back to the map.
+ */
+class RenderRegionRing {
+	final int radius;
+	private final int diameter;
+	private final IntUnaryOperator mod;
+	private final BuiltRenderRegion[] regions;
+
+	private volatile int cameraChunkX;
+	private volatile int cameraChunkZ;
+
+	RenderRegionRing(int radius) {
+		this.radius = radius;
+		diameter = radius * 2 + 1;
+		mod = FastFloorMod.get(radius);
+		regions = new BuiltRenderRegion[diameter * diameter * 16];
+	}
+
+	static int radiusFor(int renderDistance) {
+		// retention distance is two chunks beyond render distance
+		final int r = renderDistance + 2;
+		return r < 4 ? 4 : r > 32 ? 32 : r;
+	}
+
+	void setCameraChunk(int chunkX, int chunkZ) {
+		cameraChunkX = chunkX;
+		cameraChunkZ = chunkZ;
+	}
+
+	private int index(int x, int y, int z) {
+		return ((mod.applyAsInt(x >> 4) * diameter + mod.applyAsInt(z >> 4)) << 4) | (y >> 4);
+	}
+
+	private boolean isInRing(int x, int z) {
+		final int dx = (x >> 4) - cameraChunkX;
+		final int dz = (z >> 4) - cameraChunkZ;
+		final int r = radius;
+		return dx >= -r && dx <= r && dz >= -r && dz <= r;
+	}
+
+	/**
+	 * Block coordinates.  Returns null if the ring doesn't hold an open
+	 * region at that position or if the position is outside world height.
+	 */
+	BuiltRenderRegion get(int x, int y, int z) {
+		if ((y & 0xFFFFFF00) != 0) {
+			return null;
+		}
+
+		final BuiltRenderRegion result = regions[index(x, y, z)];
+
+		if (result == null || result.isClosed()) {
+			return null;
+		}
+
+		final BlockPos origin = result.getOrigin();
+		return origin.getX() == (x & 0xFFFFFFF0) && origin.getZ() == (z & 0xFFFFFFF0) && origin.getY() == (y & 0xFFFFFFF0) ? result : null;
+	}
+
+	/**
+	 * Stores the region if it is within the ring radius of the camera.
+	 * Regions outside the radius would alias with nearer positions.
+	 */
+	void put(BuiltRenderRegion region) {
+		final BlockPos origin = region.getOrigin();
+		final int x = origin.getX();
+		final int z = origin.getZ();
+
+		if (isInRing(x, z)) {
+			regions[index(x, origin.getY(), z)] = region;
+		}
+	}
+}
@@ -2,19 +2,19 @@ package grondag.canvas.terrain;
 
 import java.util.function.Predicate;
 
-import it.unimi.dsi.fastutil.Hash;
-
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 
 import grondag.canvas.render.CanvasWorldRenderer;
 
 public class RenderRegionStorage {
 	// Hat tip to JellySquid for the suggestion of using a hashmap
-	// PERF: lock-free implementation
-	private final HackedLong2ObjectMap<BuiltRenderRegion> regionMap = new HackedLong2ObjectMap<>(8192, Hash.VERY_FAST_LOAD_FACTOR, r -> r.close());
-	private final HackedLong2ObjectMap<RegionChunkReference> chunkRefMap = new HackedLong2ObjectMap<>(2048, Hash.VERY_FAST_LOAD_FACTOR, r -> {});
+	// Map owns region lifecycle - ring is the fast path for lookups near the camera
+	private final ConcurrentLong2ObjectMap<BuiltRenderRegion> regionMap = new ConcurrentLong2ObjectMap<>(8192, r -> r.close());
+	private final ConcurrentLong2ObjectMap<RegionChunkReference> chunkRefMap = new ConcurrentLong2ObjectMap<>(2048, r -> {});
+	private volatile RenderRegionRing ring = new RenderRegionRing(RenderRegionRing.radiusFor(0));
 	private int positionVersion;
 	private final CanvasWorldRenderer cwr;
 
@@ -30,13 +30,14 @@ public class RenderRegionStorage {
 	}
 
 	public void clear() {
+		ring = new RenderRegionRing(ring.radius);
 		regionMap.clear();
 		chunkRefMap.clear();
 	}
 
 	public void scheduleRebuild(int x, int y, int z, boolean urgent) {
 		if ((y & 0xFFFFFF00) == 0) {
-			final BuiltRenderRegion region = regionMap.get(BlockPos.asLong(x & 0xFFFFFFF0, y & 0xFFFFFFF0, z & 0xFFFFFFF0));
+			final BuiltRenderRegion region = getRegionIfExists(x, y, z);
 
 			if (region != null) {
 				region.markForBuild(urgent);
@@ -67,8 +68,21 @@ public class RenderRegionStorage {
 
 		this.positionVersion = positionVersion;
 
+		final int ringRadius = RenderRegionRing.radiusFor(renderDistance);
+		RenderRegionRing ring = this.ring;
+
+		if (ring.radius != ringRadius) {
+			ring = new RenderRegionRing(ringRadius);
+			this.ring = ring;
+		}
+
+		ring.setCameraChunk(MathHelper.floor(cameraPos.x) >> 4, MathHelper.floor(cameraPos.z) >> 4);
+
 		regionMap.prune(REGION_PRUNER);
 		chunkRefMap.prune(CHUNK_REF_PRUNER);
+
+		// region distances are now current - queued builds should reflect them
+		cwr.regionBuilder().executor.updatePriorities();
 	}
 
 	public int regionCount() {
@@ -88,7 +102,15 @@ public class RenderRegionStorage {
 	}
 
 	public BuiltRenderRegion getOrCreateRegion(int x, int y, int z) {
-		return getOrCreateRegion(BlockPos.asLong(x & 0xFFFFFFF0, y & 0xFFFFFFF0, z & 0xFFFFFFF0));
+		final RenderRegionRing ring = this.ring;
+		BuiltRenderRegion result = ring.get(x, y, z);
+
+		if (result == null) {
+			result = getOrCreateRegion(BlockPos.asLong(x & 0xFFFFFFF0, y & 0xFFFFFFF0, z & 0xFFFFFFF0));
+			ring.put(result);
+		}
+
+		return result;
 	}
 
 	public BuiltRenderRegion getOrCreateRegion(BlockPos pos) {
@@ -100,7 +122,18 @@ public class RenderRegionStorage {
 	}
 
 	public BuiltRenderRegion getRegionIfExists(int x, int y, int z) {
-		return regionMap.get(BlockPos.asLong(x & 0xFFFFFFF0, y & 0xFFFFFFF0, z & 0xFFFFFFF0));
+		final RenderRegionRing ring = this.ring;
+		BuiltRenderRegion result = ring.get(x, y, z);
+
+		if (result == null) {
+			result = regionMap.get(BlockPos.asLong(x & 0xFFFFFFF0, y & 0xFFFFFFF0, z & 0xFFFFFFF0));
+
+			if (result != null) {
+				ring.put(result);
+			}
+		}
+
+		return result;
 	}
 
 	public boolean wasSeen(int x, int y, int z) {
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package grondag.canvas.terrain;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Current snapshot of each section of a chunk, and the version checks that let any thread
+ * read the chunk while one writer thread changes it.
+ *
+ * <p>The writer brackets every change with {@link #beginWrite(int)} and {@link #endWrite()}.
+ * That bumps the version of the changed section and holds a write stamp, so readers never
+ * block it.  Readers run optimistically and retry if a write overlapped.  Anything a
+ * reader sees during a failed attempt is thrown away, including exceptions.  After
+ * {@link #MAX_ATTEMPTS} failures the read gives up and returns null so the caller can
+ * try again later.
+ *
+ * <p>A cached snapshot is reused while its section version is unchanged, so sections
+ * that did not change are captured once and shared.
+ */
+public class SectionSnapshotCache<T> {
+	/** Section index for changes that affect no section, like block entities */
+	public static final int NO_SECTION = -1;
+
+	/** Section index for changes that may affect all sections, like a chunk reload */
+	public static final int ALL_SECTIONS = -2;
+
+	static final int MAX_ATTEMPTS = 32;
+
+	private static final AtomicLong RETRY_COUNT = new AtomicLong();
+
+	private static class Entry<T> {
+		private final T value;
+		private final int version;
+
+		private Entry(T value, int version) {
+			this.value = value;
+			this.version = version;
+		}
+	}
+
+	private final StampedLock lock = new StampedLock();
+	private final AtomicIntegerArray versions;
+	private final AtomicReferenceArray<Entry<T>> entries;
+
+	// only touched by the writer thread
+	private int writeDepth = 0;
+	private long writeStamp = 0;
+
+	public SectionSnapshotCache(int sectionCount) {
+		versions = new AtomicIntegerArray(sectionCount);
+		entries = new AtomicReferenceArray<>(sectionCount);
+	}
+
+	/**
+	 * Call from the writer thread before changing the chunk.  Calls may nest.
+	 *
+	 * @param sectionIndex section that may change, or {@link #NO_SECTION} or {@link #ALL_SECTIONS}
+	 */
+	public void beginWrite(int sectionIndex) {
+		if (writeDepth++ == 0) {
+			writeStamp = lock.writeLock();
+		}
+
+		if (sectionIndex == ALL_SECTIONS) {
+			final int limit = versions.length();
+
+			for (int i = 0; i < limit; ++i) {
+				versions.incrementAndGet(i);
+			}
+		} else if (sectionIndex >= 0 && sectionIndex < versions.length()) {
+			versions.incrementAndGet(sectionIndex);
+		}
+	}
+
+	/**
+	 * Call from the writer thread after each change started with {@link #beginWrite(int)}.
+	 */
+	public void endWrite() {
+		assert writeDepth > 0;
+
+		if (--writeDepth == 0) {
+			lock.unlockWrite(writeStamp);
+		}
+	}
+
+	/**
+	 * Snapshot of a section as of one moment, captured if the section changed since the last
+	 * capture.  Safe from any thread.
+	 *
+	 * @param capture reads the section, may see it mid-change and may throw if so
+	 * @return null if every attempt overlapped a change
+	 */
+	public @Nullable T get(int sectionIndex, IntFunction<T> capture) {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+			final long stamp = lock.tryOptimisticRead();
+
+			if (stamp == 0) {
+				retry();
+				continue;
+			}
+
+			final int version = versions.get(sectionIndex);
+			final Entry<T> entry = entries.get(sectionIndex);
+
+			if (entry != null && entry.version == version) {
+				return entry.value;
+			}
+
+			final T value;
+
+			try {
+				value = capture.apply(sectionIndex);
+			} catch (final RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+
+				retry();
+				continue;
+			}
+
+			if (lock.validate(stamp)) {
+				// a newer entry may be replaced by an older one here, but a stale entry never matches a newer version
+				entries.set(sectionIndex, new Entry<>(value, version));
+				return value;
+			}
+
+			retry();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Runs a read of other chunk data until it completes without overlapping a change.
+	 * The reader may run more than once and must not have side effects that a later run
+	 * does not replace.  Safe from any thread.
+	 *
+	 * @param reader may see the chunk mid-change and may throw if so
+	 * @return null if every attempt overlapped a change
+	 */
+	public @Nullable <R> R read(Supplier<R> reader) {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+			final long stamp = lock.tryOptimisticRead();
+
+			if (stamp == 0) {
+				retry();
+				continue;
+			}
+
+			final R result;
+
+			try {
+				result = reader.get();
+			} catch (final RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+
+				retry();
+				continue;
+			}
+
+			if (lock.validate(stamp)) {
+				return result;
+			}
+
+			retry();
+		}
+
+		return null;
+	}
+
+	private static void retry() {
+		RETRY_COUNT.incrementAndGet();
+		Thread.yield();
+	}
+
+	/** Reads retried because of a concurrent change, since startup */
+	public static long retryCount() {
+		return RETRY_COUNT.get();
+	}
+}
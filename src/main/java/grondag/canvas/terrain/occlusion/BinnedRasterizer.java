@@ -0,0 +1,314 @@
+package grondag.canvas.terrain.occlusion;
+
+import static grondag.canvas.terrain.occlusion.Constants.ALL_TILE_GROUPS;
+import static grondag.canvas.terrain.occlusion.Constants.IDX_VERTEX_DATA;
+import static grondag.canvas.terrain.occlusion.Constants.MAX_PIXEL_Y;
+import static grondag.canvas.terrain.occlusion.Constants.PRECISE_HEIGHT;
+import static grondag.canvas.terrain.occlusion.Constants.PRECISION_BITS;
+import static grondag.canvas.terrain.occlusion.Constants.PROJECTED_VERTEX_STRIDE;
+import static grondag.canvas.terrain.occlusion.Constants.PV_PY;
+import static grondag.canvas.terrain.occlusion.Constants.SCANT_PRECISE_PIXEL_CENTER;
+import static grondag.canvas.terrain.occlusion.Constants.TILE_GROUP_COUNT;
+import static grondag.canvas.terrain.occlusion.Constants.TILE_GROUP_PIXEL_SHIFT;
+import static grondag.canvas.terrain.occlusion.Constants.V000;
+import static grondag.canvas.terrain.occlusion.Constants.V001;
+import static grondag.canvas.terrain.occlusion.Constants.V010;
+import static grondag.canvas.terrain.occlusion.Constants.V011;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import grondag.canvas.CanvasMod;
+
+/**
+ * Defers occluder quads and draws them in parallel.
+ *
+ * <p>Quads are recorded with their projected vertices and the set of tile groups
+ * (horizontal bands of tile rows) they may touch.  On {@link #flush()} each thread
+ * draws only the groups assigned to it, so no two threads ever write the same tile.
+ * Coverage is a bitwise OR per tile and so the result is identical to drawing the same
+ * quads in the same order on a single thread.
+ *
+ * <p>Not thread-safe: {@link #add(Rasterizer, int, int, int, int)} and {@link #flush()}
+ * must be called from one thread at a time.  Helper threads are shared by all instances,
+ * started on first use and only active during flush.  If another instance is using them
+ * the flush draws on the calling thread.  {@link #shutdown()} stops them.
+ */
+class BinnedRasterizer {
+	/** Below this many quads the handoff to helper threads costs more than it saves */
+	static final int MIN_PARALLEL_QUADS = 64;
+
+	private static final int QUAD_VERTEX_LENGTH = PROJECTED_VERTEX_STRIDE * 4;
+	private static final int QUAD_GROUPS = QUAD_VERTEX_LENGTH;
+	private static final int QUAD_STRIDE = QUAD_GROUPS + 1;
+
+	private final int threadCount;
+	private final Rasterizer owner;
+	private final Rasterizer[] rasters;
+	private final int[] groupMasks;
+
+	private int[] quads = new int[QUAD_STRIDE * 1024];
+	private int quadCount = 0;
+
+	/** Generation of the parallel flush using this instance, checked by helpers that wake late */
+	private int flushGeneration;
+
+	/** Held while helpers draw for an instance, and while the pool is started or stopped */
+	private static final ReentrantLock POOL_LOCK = new ReentrantLock();
+	private static final AtomicInteger PENDING = new AtomicInteger();
+
+	/** Helper for share n is at index n - 1 */
+	private static Thread[] poolThreads = new Thread[0];
+	private static volatile int poolEpoch;
+	private static volatile BinnedRasterizer activeBinner;
+	private static volatile int generation;
+	private static volatile Thread waiter;
+
+	BinnedRasterizer(Rasterizer owner, int threadCount) {
+		threadCount = Math.max(1, Math.min(TILE_GROUP_COUNT, threadCount));
+		this.threadCount = threadCount;
+		this.owner = owner;
+		rasters = new Rasterizer[threadCount];
+		groupMasks = new int[threadCount];
+
+		for (int i = 0; i < threadCount; ++i) {
+			rasters[i] = new Rasterizer(owner);
+		}
+
+		// interleave groups so that the horizon band isn't all given to one thread
+		for (int group = 0; group < TILE_GROUP_COUNT; ++group) {
+			groupMasks[group % threadCount] |= 1 << group;
+		}
+
+	}
+
+	static int defaultThreadCount() {
+		return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	int threadCount() {
+		return threadCount;
+	}
+
+	int quadCount() {
+		return quadCount;
+	}
+
+	/**
+	 * Records a quad using vertex data already set up in the source rasterizer.
+	 */
+	void add(Rasterizer source, int v0, int v1, int v2, int v3) {
+		final int[] data = source.data;
+		int groups = ALL_TILE_GROUPS;
+
+		// Clipped vertices can move bounds anywhere so those quads go to every group.
+		if ((source.needsNearClip(v0) | source.needsNearClip(v1) | source.needsNearClip(v2) | source.needsNearClip(v3)) == 0) {
+			final int y0 = data[v0 + PV_PY + IDX_VERTEX_DATA];
+			final int y1 = data[v1 + PV_PY + IDX_VERTEX_DATA];
+			final int y2 = data[v2 + PV_PY + IDX_VERTEX_DATA];
+			final int y3 = data[v3 + PV_PY + IDX_VERTEX_DATA];
+			final int minY = Math.min(Math.min(y0, y1), Math.min(y2, y3));
+			final int maxY = Math.max(Math.max(y0, y1), Math.max(y2, y3));
+
+			// off screen - would not be drawn
+			if (maxY <= 0 || minY >= PRECISE_HEIGHT) {
+				return;
+			}
+
+			final int minGroup = pixelGroup(minY);
+			final int maxGroup = pixelGroup(maxY);
+			groups = (ALL_TILE_GROUPS << minGroup) & (ALL_TILE_GROUPS >> (TILE_GROUP_COUNT - 1 - maxGroup));
+		}
+
+		int[] quads = this.quads;
+		final int base = quadCount * QUAD_STRIDE;
+
+		if (base + QUAD_STRIDE > quads.length) {
+			quads = Arrays.copyOf(quads, quads.length * 2);
+			this.quads = quads;
+		}
+
+		System.arraycopy(data, v0 + IDX_VERTEX_DATA, quads, base + V000, PROJECTED_VERTEX_STRIDE);
+		System.arraycopy(data, v1 + IDX_VERTEX_DATA, quads, base + V001, PROJECTED_VERTEX_STRIDE);
+		System.arraycopy(data, v2 + IDX_VERTEX_DATA, quads, base + V010, PROJECTED_VERTEX_STRIDE);
+		System.arraycopy(data, v3 + IDX_VERTEX_DATA, quads, base + V011, PROJECTED_VERTEX_STRIDE);
+		quads[base + QUAD_GROUPS] = groups;
+		++quadCount;
+	}
+
+	private static int pixelGroup(int preciseY) {
+		int y = (preciseY + SCANT_PRECISE_PIXEL_CENTER) >> PRECISION_BITS;
+
+		if (y < 0) {
+			y = 0;
+		} else if (y > MAX_PIXEL_Y) {
+			y = MAX_PIXEL_Y;
+		}
+
+		return y >> TILE_GROUP_PIXEL_SHIFT;
+	}
+
+	/**
+	 * Draws all recorded quads and returns when the coverage buffer is complete.
+	 */
+	void flush() {
+		final int quadCount = this.quadCount;
+
+		if (quadCount == 0) {
+			return;
+		}
+
+		for (final Rasterizer r : rasters) {
+			r.depthEnabled = owner.depthEnabled;
+		}
+
+		if (threadCount == 1 || quadCount < MIN_PARALLEL_QUADS || !POOL_LOCK.tryLock()) {
+			draw(rasters[0], ALL_TILE_GROUPS);
+		} else {
+			try {
+				drawParallel();
+			} finally {
+				POOL_LOCK.unlock();
+			}
+		}
+
+		this.quadCount = 0;
+	}
+
+	/** Call while holding {@link #POOL_LOCK} */
+	private void drawParallel() {
+		final int helperCount = threadCount - 1;
+		final Thread[] helpers = startHelpers(helperCount);
+		final int g = generation + 1;
+
+		flushGeneration = g;
+		waiter = Thread.currentThread();
+		PENDING.set(helperCount);
+		activeBinner = this;
+
+		// volatile write publishes recorded quads to helpers
+		generation = g;
+
+		for (int i = 0; i < helperCount; ++i) {
+			LockSupport.unpark(helpers[i]);
+		}
+
+		try {
+			draw(rasters[0], groupMasks[0]);
+		} finally {
+			// helpers must be done with this instance even if the caller failed
+			while (PENDING.get() != 0) {
+				LockSupport.park(this);
+			}
+
+			activeBinner = null;
+			waiter = null;
+		}
+	}
+
+	/** Call while holding {@link #POOL_LOCK} */
+	private static Thread[] startHelpers(int count) {
+		Thread[] threads = poolThreads;
+		final int oldCount = threads.length;
+
+		if (oldCount < count) {
+			threads = Arrays.copyOf(threads, count);
+			final int epoch = poolEpoch;
+			final int seen = generation;
+
+			for (int i = oldCount; i < count; ++i) {
+				final int share = i + 1;
+				final Thread thread = new Thread(() -> runHelper(share, epoch, seen), "Canvas Occlusion Raster - " + share);
+				thread.setDaemon(true);
+				threads[i] = thread;
+				thread.start();
+			}
+
+			poolThreads = threads;
+		}
+
+		return threads;
+	}
+
+	/**
+	 * Stops the shared helper threads, waiting for any flush in progress.  They start
+	 * again when next needed.
+	 */
+	static void shutdown() {
+		POOL_LOCK.lock();
+
+		try {
+			++poolEpoch;
+
+			for (final Thread t : poolThreads) {
+				LockSupport.unpark(t);
+			}
+
+			poolThreads = new Thread[0];
+		} finally {
+			POOL_LOCK.unlock();
+		}
+	}
+
+	void clear() {
+		quadCount = 0;
+	}
+
+	private void draw(Rasterizer raster, int groupMask) {
+		final int[] quads = this.quads;
+		final int[] data = raster.data;
+		final int limit = quadCount * QUAD_STRIDE;
+
+		for (int base = 0; base < limit; base += QUAD_STRIDE) {
+			final int quadGroups = quads[base + QUAD_GROUPS];
+			final int groups = quadGroups & groupMask;
+
+			if (groups != 0) {
+				System.arraycopy(quads, base, data, IDX_VERTEX_DATA, QUAD_VERTEX_LENGTH);
+
+				// no need to restrict the tile walk if this thread owns every group the quad can reach
+				if (groups == quadGroups) {
+					raster.drawQuad(V000, V001, V010, V011);
+				} else {
+					raster.drawQuad(V000, V001, V010, V011, groups);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param epoch pool epoch when thread was created - thread exits when it changes
+	 * @param seen generation when thread was created - if read on the helper thread it could miss the first flush
+	 */
+	private static void runHelper(int share, int epoch, int seen) {
+		while (poolEpoch == epoch) {
+			final int g = generation;
+
+			if (g == seen) {
+				LockSupport.park(POOL_LOCK);
+				continue;
+			}
+
+			seen = g;
+			final BinnedRasterizer binner = activeBinner;
+
+			// fewer shares than helpers, woke after that flush ended and another may have started, or pool was stopped
+			if (binner == null || binner.flushGeneration != g || share >= binner.threadCount || poolEpoch != epoch) {
+				continue;
+			}
+
+			// errors are logged and the thread keeps going, because later flushes count on every helper
+			try {
+				binner.draw(binner.rasters[share], binner.groupMasks[share]);
+			} catch (final Throwable e) {
+				CanvasMod.LOG.error("Unhandled error during occlusion raster. Impact unknown.", e);
+			} finally {
+				if (PENDING.decrementAndGet() == 0) {
+					LockSupport.unpark(waiter);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package grondag.canvas.terrain.occlusion;
+
+import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_BITS;
+import static grondag.canvas.terrain.occlusion.Constants.DOWN;
+import static grondag.canvas.terrain.occlusion.Constants.EAST;
+import static grondag.canvas.terrain.occlusion.Constants.NORTH;
+import static grondag.canvas.terrain.occlusion.Constants.PROJECTED_VERTEX_STRIDE;
+import static grondag.canvas.terrain.occlusion.Constants.SOUTH;
+import static grondag.canvas.terrain.occlusion.Constants.UP;
+import static grondag.canvas.terrain.occlusion.Constants.V000;
+import static grondag.canvas.terrain.occlusion.Constants.V001;
+import static grondag.canvas.terrain.occlusion.Constants.V010;
+import static grondag.canvas.terrain.occlusion.Constants.V011;
+import static grondag.canvas.terrain.occlusion.Constants.V100;
+import static grondag.canvas.terrain.occlusion.Constants.V101;
+import static grondag.canvas.terrain.occlusion.Constants.V110;
+import static grondag.canvas.terrain.occlusion.Constants.V111;
+import static grondag.canvas.terrain.occlusion.Constants.WEST;
+
+import grondag.canvas.terrain.occlusion.region.PackedBox;
+
+/**
+ * Occluder faces of region boxes as data, so that drawing a box is a table lookup
+ * followed by a loop instead of a call through one of 27 specialized lambdas.
+ */
+abstract class BoxFaces {
+	private BoxFaces() {}
+
+	/**
+	 * Does not rely on winding order but instead the distance from
+	 * plane with known facing to camera position.
+	 *
+	 * @param packedBox box in region coordinates
+	 * @param offsetX region origin minus camera position, in camera precision
+	 * @param offsetY region origin minus camera position, in camera precision
+	 * @param offsetZ region origin minus camera position, in camera precision
+	 * @return face flags of the faces that can be seen
+	 */
+	static int outcome(int packedBox, int offsetX, int offsetY, int offsetZ) {
+		int outcome = 0;
+
+		// if camera below top face can't be seen
+		if (offsetY < -(PackedBox.y1(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= UP;
+		} else if (offsetY > -(PackedBox.y0(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= DOWN;
+		}
+
+		if (offsetX < -(PackedBox.x1(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= EAST;
+		} else if (offsetX > -(PackedBox.x0(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= WEST;
+		}
+
+		if (offsetZ < -(PackedBox.z1(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= SOUTH;
+		} else if (offsetZ > -(PackedBox.z0(packedBox) << CAMERA_PRECISION_BITS)) {
+			outcome |= NORTH;
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Same as {@link #outcome(int, int, int, int)} for box bounds in world coordinates.
+	 *
+	 * @param bounds six values per box, as from {@link PackedBox#toWorldBounds(int[], int, int, int, int, int, int[])}
+	 * @param index index of the first value of the box
+	 * @param viewX camera position, in camera precision
+	 * @param viewY camera position, in camera precision
+	 * @param viewZ camera position, in camera precision
+	 * @return face flags of the faces that can be seen
+	 */
+	static int worldOutcome(int[] bounds, int index, long viewX, long viewY, long viewZ) {
+		int outcome = 0;
+
+		if (((long) bounds[index + 4] << CAMERA_PRECISION_BITS) < viewY) {
+			outcome |= UP;
+		} else if (((long) bounds[index + 1] << CAMERA_PRECISION_BITS) > viewY) {
+			outcome |= DOWN;
+		}
+
+		if (((long) bounds[index + 3] << CAMERA_PRECISION_BITS) < viewX) {
+			outcome |= EAST;
+		} else if (((long) bounds[index] << CAMERA_PRECISION_BITS) > viewX) {
+			outcome |= WEST;
+		}
+
+		if (((long) bounds[index + 5] << CAMERA_PRECISION_BITS) < viewZ) {
+			outcome |= SOUTH;
+		} else if (((long) bounds[index + 2] << CAMERA_PRECISION_BITS) > viewZ) {
+			outcome |= NORTH;
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Faces drawn for each outcome, as vertex indices four per quad and in draw order.
+	 * Vertex indices match the box corners set up by {@link Rasterizer#setupBoxCorner(int, int)}.
+	 */
+	static final int[][] DRAW_QUADS = new int[128][];
+
+	/** Bit flags of the box corners used by faces of each outcome, same order as vertex indices */
+	static final int[] DRAW_CORNERS = new int[128];
+
+	static {
+		DRAW_QUADS[0] = new int[0];
+		DRAW_QUADS[UP] = new int[] {V110, V010, V011, V111};
+		DRAW_QUADS[DOWN] = new int[] {V000, V100, V101, V001};
+		DRAW_QUADS[EAST] = new int[] {V101, V100, V110, V111};
+		DRAW_QUADS[WEST] = new int[] {V000, V001, V011, V010};
+		DRAW_QUADS[NORTH] = new int[] {V100, V000, V010, V110};
+		DRAW_QUADS[SOUTH] = new int[] {V001, V101, V111, V011};
+
+		// NB: Split across two quads to give more evenly-sized test regions vs potentially one big and one very small
+		DRAW_QUADS[UP | EAST] = new int[] {
+				V010, V011, V111, V101,
+				V101, V100, V110, V010};
+
+		DRAW_QUADS[UP | WEST] = new int[] {
+				V111, V110, V010, V000,
+				V000, V001, V011, V111};
+
+		DRAW_QUADS[UP | NORTH] = new int[] {
+				V011, V111, V110, V100,
+				V100, V000, V010, V011};
+
+		DRAW_QUADS[UP | SOUTH] = new int[] {
+				V110, V010, V011, V001,
+				V001, V101, V111, V110};
+
+		DRAW_QUADS[DOWN | EAST] = new int[] {
+				V001, V000, V100, V110,
+				V110, V111, V101, V001};
+
+		DRAW_QUADS[DOWN | WEST] = new int[] {
+				V100, V101, V001, V011,
+				V011, V010, V000, V100};
+
+		DRAW_QUADS[DOWN | NORTH] = new int[] {
+				V101, V001, V000, V010,
+				V010, V110, V100, V101};
+
+		DRAW_QUADS[DOWN | SOUTH] = new int[] {
+				V000, V100, V101, V111,
+				V111, V011, V001, V000};
+
+		DRAW_QUADS[NORTH | EAST] = new int[] {
+				V000, V010, V110, V111,
+				V111, V101, V100, V000};
+
+		DRAW_QUADS[NORTH | WEST] = new int[] {
+				V110, V100, V000, V001,
+				V001, V011, V010, V110};
+
+		DRAW_QUADS[SOUTH | EAST] = new int[] {
+				V011, V001, V101, V100,
+				V100, V110, V111, V011};
+
+		DRAW_QUADS[SOUTH | WEST] = new int[] {
+				V101, V111, V011, V010,
+				V010, V000, V001, V101};
+
+		DRAW_QUADS[UP | EAST | NORTH] = new int[] {
+				V011, V111, V101, V100,
+				V100, V000, V010, V011};
+
+		DRAW_QUADS[UP | WEST | NORTH] = new int[] {
+				V111, V110, V100, V000,
+				V000, V001, V011, V111};
+
+		DRAW_QUADS[UP | EAST | SOUTH] = new int[] {
+				V010, V011, V001, V101,
+				V101, V100, V110, V010};
+
+		DRAW_QUADS[UP | WEST | SOUTH] = new int[] {
+				V110, V010, V000, V001,
+				V001, V101, V111, V110};
+
+		DRAW_QUADS[DOWN | EAST | NORTH] = new int[] {
+				V001, V000, V010, V110,
+				V110, V111, V101, V001};
+
+		DRAW_QUADS[DOWN | WEST | NORTH] = new int[] {
+				V101, V001, V011, V010,
+				V010, V110, V100, V101};
+
+		DRAW_QUADS[DOWN | EAST | SOUTH] = new int[] {
+				V000, V100, V110, V111,
+				V111, V011, V001, V000};
+
+		DRAW_QUADS[DOWN | WEST | SOUTH] = new int[] {
+				V100, V101, V111, V011,
+				V011, V010, V000, V100};
+
+		for (int outcome = 0; outcome < 128; ++outcome) {
+			final int[] quads = DRAW_QUADS[outcome];
+
+			if (quads != null) {
+				for (final int v : quads) {
+					DRAW_CORNERS[outcome] |= 1 << (v / PROJECTED_VERTEX_STRIDE);
+				}
+			}
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package grondag.canvas.terrain.occlusion;
 
+import java.util.Arrays;
+
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.MathHelper;
 
@@ -58,7 +60,43 @@ public class Constants {
 
 	static final int TILE_COUNT = TILE_WIDTH * TILE_HEIGHT;
 
+	// horizontal bands of tile rows used to divide work in binned rasterization
+	static final int TILE_GROUP_ROWS = 8;
+	static final int TILE_GROUP_PIXEL_SHIFT = TILE_AXIS_SHIFT + Integer.bitCount(TILE_GROUP_ROWS - 1);
+	static final int TILE_GROUP_PIXEL_HEIGHT = 1 << TILE_GROUP_PIXEL_SHIFT;
+	static final int TILE_GROUP_COUNT = TILE_HEIGHT / TILE_GROUP_ROWS;
+	static final int ALL_TILE_GROUPS = (1 << TILE_GROUP_COUNT) - 1;
+
+	// Blocks of 8x8 tiles are contiguous in the tile array, so block index is tile index >> 6
+	// and the low six bits of the tile index are its position within the block.
+	static final int BLOCK_WIDTH = TILE_WIDTH / 8;
+	static final int BLOCK_HEIGHT = TILE_HEIGHT / 8;
+	static final int BLOCK_COUNT = BLOCK_WIDTH * BLOCK_HEIGHT;
+	static final int BLOCK_TILE_SHIFT = TILE_AXIS_SHIFT * 2;
+	static final int ALL_BLOCKS_IN_ROW = (1 << BLOCK_WIDTH) - 1;
+
 	static final long[] EMPTY_BITS = new long[TILE_COUNT];
+	static final long[] EMPTY_BLOCK_BITS = new long[BLOCK_COUNT];
+	static final int[] EMPTY_BLOCK_ROW_BITS = new int[BLOCK_HEIGHT];
+
+	static final float[] EMPTY_MIN_DEPTH = new float[TILE_COUNT];
+	static final float[] EMPTY_TILE_MAX_DEPTH = new float[TILE_COUNT];
+	static final float[] EMPTY_BLOCK_MAX_DEPTH = new float[BLOCK_COUNT];
+
+	static final int REPROJECTION_CORNER_COUNT = (TILE_WIDTH + 1) * (TILE_HEIGHT + 1);
+
+	/** Pixels added to each side of reprojected tile bounds to absorb rounding */
+	static final float REPROJECTION_PAD = 0.5f;
+
+	/** Scale applied to reprojected depth ranges to absorb rounding */
+	static final float REPROJECTION_DEPTH_MARGIN = 1.001f;
+
+	/** Tile corners with w at or below this in the source view are treated as behind the camera */
+	static final double MIN_REPROJECTION_W = 1e-4;
+
+	static {
+		Arrays.fill(EMPTY_MIN_DEPTH, Float.MAX_VALUE);
+	}
 
 	static final int CAMERA_PRECISION_BITS = 12;
 	static final int CAMERA_PRECISION_UNITY = 1 << CAMERA_PRECISION_BITS;
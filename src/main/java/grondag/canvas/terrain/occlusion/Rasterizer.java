@@ -9,6 +9,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import grondag.canvas.CanvasMod;
 import grondag.canvas.Configurator;
+import grondag.canvas.terrain.occlusion.region.PackedBox;
 
 
 // Some elements are adapted from content found at
@@ -17,12 +18,99 @@ import grondag.canvas.Configurator;
 class Rasterizer  {
 	final Matrix4L mvpMatrix = new Matrix4L();
 	final int[] data = new int[DATA_LENGTH];
-	final long[] tiles = new long[TILE_COUNT];
+	final long[] tiles;
+
+	/**
+	 * One bit per tile, set when all pixels in the tile are covered.
+	 * Each element is a block of 8x8 tiles, indexed and ordered like pixels in a tile.
+	 */
+	final long[] fullTiles;
+
+	/**
+	 * One element per row of blocks.  Bits are set when all tiles in the block are covered.
+	 * Rows of blocks align with tile groups so that binned threads never share an element.
+	 */
+	final int[] fullBlockRows;
+
+	/**
+	 * Nearest and farthest depth (clip-space w) of occluders that added coverage to each tile.
+	 * Only maintained when {@link #depthEnabled} is true.  Covered pixels in a tile are known
+	 * to be hidden only for geometry at or beyond the tile's max depth, which makes occlusion
+	 * correct even when occluders are not drawn in near-to-far order.
+	 */
+	final float[] tileMinDepth;
+	final float[] tileMaxDepth;
+
+	/** Greatest tile max depth in each block of 8x8 tiles, for coarse tests */
+	final float[] blockMaxDepth;
+
+	boolean depthEnabled = false;
+
+	/** Depth range of the quad being drawn or tested, set only when depth is enabled */
+	private float quadNearDepth;
+	private float quadFarDepth;
+
+	Rasterizer() {
+		tiles = new long[TILE_COUNT];
+		fullTiles = new long[BLOCK_COUNT];
+		fullBlockRows = new int[BLOCK_HEIGHT];
+		tileMinDepth = new float[TILE_COUNT];
+		tileMaxDepth = new float[TILE_COUNT];
+		blockMaxDepth = new float[BLOCK_COUNT];
+		System.arraycopy(EMPTY_MIN_DEPTH, 0, tileMinDepth, 0, TILE_COUNT);
+	}
+
+	/**
+	 * For binned rasterization, where several instances draw
+	 * disjoint tile rows of the same coverage buffer.
+	 */
+	Rasterizer(Rasterizer owner) {
+		tiles = owner.tiles;
+		fullTiles = owner.fullTiles;
+		fullBlockRows = owner.fullBlockRows;
+		tileMinDepth = owner.tileMinDepth;
+		tileMaxDepth = owner.tileMaxDepth;
+		blockMaxDepth = owner.blockMaxDepth;
+	}
 
 	final void copyFrom(Rasterizer source) {
 		mvpMatrix.copyFrom(source.mvpMatrix);
 		System.arraycopy(source.data, 0, data, 0, DATA_LENGTH);
 		System.arraycopy(source.tiles, 0, tiles, 0, TILE_COUNT);
+		System.arraycopy(source.fullTiles, 0, fullTiles, 0, BLOCK_COUNT);
+		System.arraycopy(source.fullBlockRows, 0, fullBlockRows, 0, BLOCK_HEIGHT);
+		System.arraycopy(source.tileMinDepth, 0, tileMinDepth, 0, TILE_COUNT);
+		System.arraycopy(source.tileMaxDepth, 0, tileMaxDepth, 0, TILE_COUNT);
+		System.arraycopy(source.blockMaxDepth, 0, blockMaxDepth, 0, BLOCK_COUNT);
+		depthEnabled = source.depthEnabled;
+	}
+
+	final void clear() {
+		System.arraycopy(EMPTY_BITS, 0, tiles, 0, TILE_COUNT);
+		System.arraycopy(EMPTY_BLOCK_BITS, 0, fullTiles, 0, BLOCK_COUNT);
+		System.arraycopy(EMPTY_BLOCK_ROW_BITS, 0, fullBlockRows, 0, BLOCK_HEIGHT);
+
+		if (depthEnabled) {
+			System.arraycopy(EMPTY_MIN_DEPTH, 0, tileMinDepth, 0, TILE_COUNT);
+			System.arraycopy(EMPTY_TILE_MAX_DEPTH, 0, tileMaxDepth, 0, TILE_COUNT);
+			System.arraycopy(EMPTY_BLOCK_MAX_DEPTH, 0, blockMaxDepth, 0, BLOCK_COUNT);
+		}
+	}
+
+	/**
+	 * Captures depth range of the quad from clip-space w of its vertices.
+	 * Vertices behind the near plane put the near depth at the camera.
+	 */
+	private void prepareDepth(int v0, int v1, int v2, int v3) {
+		final int[] data = this.data;
+		final float w0 = Float.intBitsToFloat(data[v0 + PV_W + IDX_VERTEX_DATA]);
+		final float w1 = Float.intBitsToFloat(data[v1 + PV_W + IDX_VERTEX_DATA]);
+		final float w2 = Float.intBitsToFloat(data[v2 + PV_W + IDX_VERTEX_DATA]);
+		final float w3 = Float.intBitsToFloat(data[v3 + PV_W + IDX_VERTEX_DATA]);
+		final float near = Math.min(Math.min(w0, w1), Math.min(w2, w3));
+
+		quadNearDepth = near > 0 ? near : 0;
+		quadFarDepth = Math.max(Math.max(w0, w1), Math.max(w2, w3));
 	}
 
 	final void drawQuad(int v0, int v1, int v2, int v3) {
@@ -37,10 +125,71 @@ class Rasterizer  {
 			return;
 		}
 
+		if (depthEnabled) {
+			prepareDepth(v0, v1, v2, v3);
+		}
+
 		drawQuad();
 	}
 
+	/**
+	 * Same result as {@link #drawQuad(int, int, int, int)} for tiles in the given
+	 * groups and leaves all other tiles untouched.  Groups are bands of
+	 * {@link Constants#TILE_GROUP_ROWS} tile rows, lowest group in the low bit.
+	 */
+	final void drawQuad(int v0, int v1, int v2, int v3, int groupMask) {
+		final int boundsResult  = prepareBounds(v0, v1, v2, v3);
+
+		if (boundsResult == BOUNDS_OUTSIDE_OR_TOO_SMALL) {
+			return;
+		}
+
+		final int[] data = this.data;
+
+		if((data[IDX_MIN_PIX_X] == data[IDX_MAX_PIX_X] && data[IDX_MIN_PIX_Y] == data[IDX_MAX_PIX_Y])) {
+			return;
+		}
+
+		if (depthEnabled) {
+			prepareDepth(v0, v1, v2, v3);
+		}
+
+		final int minTileOriginX = data[IDX_MIN_TILE_ORIGIN_X];
+		final int minTileOriginY = data[IDX_TILE_ORIGIN_Y];
+		final int maxTileOriginY = data[IDX_MAX_TILE_ORIGIN_Y];
+
+		// only groups the quad overlaps
+		groupMask &= (ALL_TILE_GROUPS << (minTileOriginY >> TILE_GROUP_PIXEL_SHIFT));
+		groupMask &= ALL_TILE_GROUPS >> (TILE_GROUP_COUNT - 1 - (maxTileOriginY >> TILE_GROUP_PIXEL_SHIFT));
+
+		while (groupMask != 0) {
+			final int group = Integer.numberOfTrailingZeros(groupMask);
+			groupMask &= groupMask - 1;
+
+			final int groupMinY = group << TILE_GROUP_PIXEL_SHIFT;
+			final int groupMaxY = groupMinY + TILE_GROUP_PIXEL_HEIGHT - TILE_PIXEL_DIAMETER;
+			final int y0 = minTileOriginY > groupMinY ? minTileOriginY : groupMinY;
+
+			// events are already populated for all rows so only the tile walk changes
+			data[IDX_MAX_TILE_ORIGIN_Y] = maxTileOriginY < groupMaxY ? maxTileOriginY : groupMaxY;
+			data[IDX_TILE_ORIGIN_X] = minTileOriginX;
+			data[IDX_TILE_ORIGIN_Y] = y0;
+			data[IDX_TILE_INDEX] = tileIndex(minTileOriginX >> TILE_AXIS_SHIFT, y0 >> TILE_AXIS_SHIFT);
+
+			drawQuad();
+		}
+	}
+
 	boolean testQuad(int v0, int v1, int v2, int v3) {
+		if (depthEnabled) {
+			prepareDepth(v0, v1, v2, v3);
+		}
+
+		// most distant quads are hidden - avoid setting up edges when coarse coverage can show it
+		if (isQuadBoundsCovered(v0, v1, v2, v3)) {
+			return false;
+		}
+
 		final int boundsResult  = prepareBounds(v0, v1, v2, v3);
 
 		if (boundsResult == BOUNDS_OUTSIDE_OR_TOO_SMALL) {
@@ -50,7 +199,7 @@ class Rasterizer  {
 		if((data[IDX_MIN_PIX_X] == data[IDX_MAX_PIX_X] && data[IDX_MIN_PIX_Y] == data[IDX_MAX_PIX_Y])) {
 			final int px = data[IDX_MIN_PIX_X];
 			final int py = data[IDX_MIN_PIX_Y];
-			return px >= 0 && py >= 0 && px < PIXEL_WIDTH && py < PIXEL_HEIGHT && testPixel(px, py);
+			return px >= 0 && py >= 0 && px < PIXEL_WIDTH && py < PIXEL_HEIGHT && (testPixel(px, py) || isDepthAhead(Indexer.lowIndexFromPixelXY(px, py)));
 		} else {
 			return testQuad();
 		}
@@ -94,8 +243,22 @@ class Rasterizer  {
 		}
 	}
 
+	/**
+	 * True if depth is enabled and the quad being tested may be in front of
+	 * some occluder in the tile, in which case tile coverage can't hide it.
+	 */
+	private boolean isDepthAhead(int tileIndex) {
+		return depthEnabled && tileMaxDepth[tileIndex] > quadNearDepth;
+	}
+
 	boolean testQuadInner() {
-		final long word = tiles[data[IDX_TILE_INDEX]];
+		final int tileIndex = data[IDX_TILE_INDEX];
+
+		if (isDepthAhead(tileIndex)) {
+			return computeTileCoverage() != 0;
+		}
+
+		final long word = tiles[tileIndex];
 
 		// nothing to test if fully occluded
 		if  (word == -1L) {
@@ -152,9 +315,332 @@ class Rasterizer  {
 
 		// nothing to do if fully occluded
 		if  (word != -1L) {
-			word |= computeTileCoverage();
+			final long coverage = computeTileCoverage();
+
+			if (depthEnabled && (coverage & ~word) != 0) {
+				updateTileDepth(tileIndex, coverage == -1L);
+			}
+
+			word |= coverage;
 			tiles[tileIndex] = word;
+
+			if (word == -1L) {
+				markTileFull(tileIndex);
+			}
+		}
+	}
+
+	/**
+	 * Call only when the current quad adds coverage to the tile.
+	 * @param fillsTile true if the quad alone covers every pixel in the tile
+	 */
+	private void updateTileDepth(int tileIndex, boolean fillsTile) {
+		final float far = quadFarDepth;
+
+		if (quadNearDepth < tileMinDepth[tileIndex]) {
+			tileMinDepth[tileIndex] = quadNearDepth;
+		}
+
+		// If the quad covers every pixel then no pixel is hidden by anything farther than the quad.
+		// Pixels it newly covers are hidden only by the quad, so the quad also sets the bound.
+		if (fillsTile) {
+			tileMaxDepth[tileIndex] = far;
+		} else if (far > tileMaxDepth[tileIndex]) {
+			tileMaxDepth[tileIndex] = far;
+		}
+
+		final int blockIndex = tileIndex >> BLOCK_TILE_SHIFT;
+
+		if (tileMaxDepth[tileIndex] > blockMaxDepth[blockIndex]) {
+			blockMaxDepth[blockIndex] = tileMaxDepth[tileIndex];
+		}
+	}
+
+	private void markTileFull(int tileIndex) {
+		final int blockIndex = tileIndex >> BLOCK_TILE_SHIFT;
+		final long blockBits = fullTiles[blockIndex] | (1L << (tileIndex & 63));
+		fullTiles[blockIndex] = blockBits;
+
+		if (blockBits == -1L) {
+			fullBlockRows[blockIndex / BLOCK_WIDTH] |= 1 << (blockIndex & (BLOCK_WIDTH - 1));
+		}
+	}
+
+	/**
+	 * True if the screen-space bounding rectangle of an unclipped quad contains only fully
+	 * covered tiles, or is entirely off screen.  False when vertices need clipping or any
+	 * tile in bounds has open pixels.  Relies only on vertex setup and so is much
+	 * cheaper than {@link #prepareBounds(int, int, int, int)}.
+	 */
+	boolean isQuadBoundsCovered(int v0, int v1, int v2, int v3) {
+		if ((needsNearClip(v0) | needsNearClip(v1) | needsNearClip(v2) | needsNearClip(v3)) != 0) {
+			return false;
+		}
+
+		final int[] data = this.data;
+		final int x0 = data[v0 + PV_PX + IDX_VERTEX_DATA];
+		final int y0 = data[v0 + PV_PY + IDX_VERTEX_DATA];
+		final int x1 = data[v1 + PV_PX + IDX_VERTEX_DATA];
+		final int y1 = data[v1 + PV_PY + IDX_VERTEX_DATA];
+		final int x2 = data[v2 + PV_PX + IDX_VERTEX_DATA];
+		final int y2 = data[v2 + PV_PY + IDX_VERTEX_DATA];
+		final int x3 = data[v3 + PV_PX + IDX_VERTEX_DATA];
+		final int y3 = data[v3 + PV_PY + IDX_VERTEX_DATA];
+
+		int minX = Math.min(Math.min(x0, x1), Math.min(x2, x3));
+		int maxX = Math.max(Math.max(x0, x1), Math.max(x2, x3));
+		int minY = Math.min(Math.min(y0, y1), Math.min(y2, y3));
+		int maxY = Math.max(Math.max(y0, y1), Math.max(y2, y3));
+
+		// same bounds and clamping as prepareBounds0000
+		if (maxY <= 0 || minY >= PRECISE_HEIGHT || maxX <= 0 || minX >= PRECISE_WIDTH) {
+			return true;
+		}
+
+		if (minX < 0) minX = 0;
+		if (minY < 0) minY = 0;
+		if (maxX > PRECISE_WIDTH_CLAMP) maxX = PRECISE_WIDTH_CLAMP;
+		if (maxY > PRECISE_HEIGHT_CLAMP) maxY = PRECISE_HEIGHT_CLAMP;
+
+		if (minX > maxX) minX = maxX;
+		if (minY > maxY) minY = maxY;
+
+		final int minTileX = (minX + SCANT_PRECISE_PIXEL_CENTER) >> (PRECISION_BITS + TILE_AXIS_SHIFT);
+		final int minTileY = (minY + SCANT_PRECISE_PIXEL_CENTER) >> (PRECISION_BITS + TILE_AXIS_SHIFT);
+		final int maxTileX = (maxX + SCANT_PRECISE_PIXEL_CENTER) >> (PRECISION_BITS + TILE_AXIS_SHIFT);
+		final int maxTileY = (maxY + SCANT_PRECISE_PIXEL_CENTER) >> (PRECISION_BITS + TILE_AXIS_SHIFT);
+
+		return isTileRectFull(minTileX, minTileY, maxTileX, maxTileY) && (!depthEnabled || isBlockRectBehind(minTileX, minTileY, maxTileX, maxTileY, quadNearDepth));
+	}
+
+	/**
+	 * Tile coordinates, inclusive.  True if all occluders in blocks that
+	 * contain the rectangle are at or nearer than the given depth.
+	 */
+	boolean isBlockRectBehind(int minTileX, int minTileY, int maxTileX, int maxTileY, float depth) {
+		final int minBlockX = minTileX >> TILE_AXIS_SHIFT;
+		final int maxBlockX = maxTileX >> TILE_AXIS_SHIFT;
+		final int maxBlockY = maxTileY >> TILE_AXIS_SHIFT;
+
+		for (int by = minTileY >> TILE_AXIS_SHIFT; by <= maxBlockY; ++by) {
+			for (int bx = minBlockX; bx <= maxBlockX; ++bx) {
+				if (blockMaxDepth[by * BLOCK_WIDTH + bx] > depth) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tile coordinates, inclusive.  True if every tile in the rectangle is fully covered.
+	 */
+	boolean isTileRectFull(int minTileX, int minTileY, int maxTileX, int maxTileY) {
+		final int minBlockX = minTileX >> TILE_AXIS_SHIFT;
+		final int maxBlockX = maxTileX >> TILE_AXIS_SHIFT;
+		final int minBlockY = minTileY >> TILE_AXIS_SHIFT;
+		final int maxBlockY = maxTileY >> TILE_AXIS_SHIFT;
+		final int blockRowMask = (ALL_BLOCKS_IN_ROW << minBlockX) & (ALL_BLOCKS_IN_ROW >> (BLOCK_WIDTH - 1 - maxBlockX));
+
+		for (int by = minBlockY; by <= maxBlockY; ++by) {
+			final int fullBlocks = fullBlockRows[by];
+
+			if ((fullBlocks & blockRowMask) == blockRowMask) {
+				continue;
+			}
+
+			// tile rows within this block row
+			final int ty0 = by == minBlockY ? (minTileY & TILE_PIXEL_INDEX_MASK) : 0;
+			final int ty1 = by == maxBlockY ? (maxTileY & TILE_PIXEL_INDEX_MASK) : TILE_PIXEL_INDEX_MASK;
+			final long rowsMask = (-1L << (ty0 << TILE_AXIS_SHIFT)) & (-1L >>> ((TILE_PIXEL_INDEX_MASK - ty1) << TILE_AXIS_SHIFT));
+
+			for (int bx = minBlockX; bx <= maxBlockX; ++bx) {
+				if ((fullBlocks & (1 << bx)) != 0) {
+					continue;
+				}
+
+				final int tx0 = bx == minBlockX ? (minTileX & TILE_PIXEL_INDEX_MASK) : 0;
+				final int tx1 = bx == maxBlockX ? (maxTileX & TILE_PIXEL_INDEX_MASK) : TILE_PIXEL_INDEX_MASK;
+				final long columnsMask = ((0xFFL << tx0) & (0xFFL >> (TILE_PIXEL_INDEX_MASK - tx1))) * 0x0101010101010101L;
+				final long mask = rowsMask & columnsMask;
+
+				if ((fullTiles[by * BLOCK_WIDTH + bx] & mask) != mask) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/** Source view pixel coordinates and clip-space w at each tile corner, for reprojection */
+	private float[] cornerX;
+	private float[] cornerY;
+	private float[] cornerW;
+
+	/**
+	 * Replaces contents with coverage from a raster drawn from the same camera position
+	 * with a different view rotation.  Only tiles that fall entirely within fully covered
+	 * tiles of the source become covered, so the result never hides anything the source
+	 * did not.  Depth is carried with each tile and scaled for the change in view direction.
+	 *
+	 * <p>Only correct when depth is enabled.  Without depth, reprojected coverage from far
+	 * occluders would hide near geometry tested before its own occluders are drawn.
+	 *
+	 * @param source raster drawn in the source view
+	 * @param sourceView projection and rotation of the source view, without camera translation
+	 * @param view projection and rotation of this view, without camera translation
+	 */
+	void reprojectFrom(Rasterizer source, Matrix4L sourceView, Matrix4L view) {
+		clear();
+
+		// Rows x, y and w of each view map a camera-relative direction to clip space.
+		// Composing the source rows with the inverse of this view's rows maps a point (x, y, 1)
+		// in normalized device coordinates of this view to clip coordinates in the source view.
+		final double b00 = view.a00f(), b01 = view.a01f(), b02 = view.a02f();
+		final double b10 = view.a10f(), b11 = view.a11f(), b12 = view.a12f();
+		final double b20 = view.a30f(), b21 = view.a31f(), b22 = view.a32f();
+
+		final double det = b00 * (b11 * b22 - b12 * b21) - b01 * (b10 * b22 - b12 * b20) + b02 * (b10 * b21 - b11 * b20);
+
+		if (Math.abs(det) < 1e-12) {
+			return;
+		}
+
+		final double id = 1.0 / det;
+		final double i00 = (b11 * b22 - b12 * b21) * id, i01 = (b02 * b21 - b01 * b22) * id, i02 = (b01 * b12 - b02 * b11) * id;
+		final double i10 = (b12 * b20 - b10 * b22) * id, i11 = (b00 * b22 - b02 * b20) * id, i12 = (b02 * b10 - b00 * b12) * id;
+		final double i20 = (b10 * b21 - b11 * b20) * id, i21 = (b01 * b20 - b00 * b21) * id, i22 = (b00 * b11 - b01 * b10) * id;
+
+		final double a00 = sourceView.a00f(), a01 = sourceView.a01f(), a02 = sourceView.a02f();
+		final double a10 = sourceView.a10f(), a11 = sourceView.a11f(), a12 = sourceView.a12f();
+		final double a20 = sourceView.a30f(), a21 = sourceView.a31f(), a22 = sourceView.a32f();
+
+		final double h00 = a00 * i00 + a01 * i10 + a02 * i20, h01 = a00 * i01 + a01 * i11 + a02 * i21, h02 = a00 * i02 + a01 * i12 + a02 * i22;
+		final double h10 = a10 * i00 + a11 * i10 + a12 * i20, h11 = a10 * i01 + a11 * i11 + a12 * i21, h12 = a10 * i02 + a11 * i12 + a12 * i22;
+		final double h20 = a20 * i00 + a21 * i10 + a22 * i20, h21 = a20 * i01 + a21 * i11 + a22 * i21, h22 = a20 * i02 + a21 * i12 + a22 * i22;
+
+		if (cornerX == null) {
+			cornerX = new float[REPROJECTION_CORNER_COUNT];
+			cornerY = new float[REPROJECTION_CORNER_COUNT];
+			cornerW = new float[REPROJECTION_CORNER_COUNT];
+		}
+
+		final float[] cornerX = this.cornerX;
+		final float[] cornerY = this.cornerY;
+		final float[] cornerW = this.cornerW;
+		int c = 0;
+
+		for (int gy = 0; gy <= TILE_HEIGHT; ++gy) {
+			final double y = gy * 2.0 / TILE_HEIGHT - 1.0;
+
+			for (int gx = 0; gx <= TILE_WIDTH; ++gx) {
+				final double x = gx * 2.0 / TILE_WIDTH - 1.0;
+				final double w = h20 * x + h21 * y + h22;
+
+				if (w > MIN_REPROJECTION_W) {
+					cornerX[c] = (float) ((h00 * x + h01 * y + h02) / w * HALF_PIXEL_WIDTH + HALF_PIXEL_WIDTH);
+					cornerY[c] = (float) ((h10 * x + h11 * y + h12) / w * HALF_PIXEL_HEIGHT + HALF_PIXEL_HEIGHT);
+				} else {
+					// behind the source camera - tiles with this corner are never covered
+					cornerX[c] = -1;
+					cornerY[c] = -1;
+				}
+
+				cornerW[c++] = (float) w;
+			}
+		}
+
+		final int rowStride = TILE_WIDTH + 1;
+
+		for (int ty = 0; ty < TILE_HEIGHT; ++ty) {
+			for (int tx = 0; tx < TILE_WIDTH; ++tx) {
+				final int c0 = ty * rowStride + tx;
+				final int c1 = c0 + 1;
+				final int c2 = c0 + rowStride;
+				final int c3 = c2 + 1;
+
+				// the source view sees each tile as a convex quad bounded by its corners
+				final float minX = Math.min(Math.min(cornerX[c0], cornerX[c1]), Math.min(cornerX[c2], cornerX[c3])) - REPROJECTION_PAD;
+				final float minY = Math.min(Math.min(cornerY[c0], cornerY[c1]), Math.min(cornerY[c2], cornerY[c3])) - REPROJECTION_PAD;
+				final float maxX = Math.max(Math.max(cornerX[c0], cornerX[c1]), Math.max(cornerX[c2], cornerX[c3])) + REPROJECTION_PAD;
+				final float maxY = Math.max(Math.max(cornerY[c0], cornerY[c1]), Math.max(cornerY[c2], cornerY[c3])) + REPROJECTION_PAD;
+
+				if (minX < 0 || minY < 0 || maxX >= PIXEL_WIDTH || maxY >= PIXEL_HEIGHT) {
+					continue;
+				}
+
+				final int minTileX = (int) minX >> TILE_AXIS_SHIFT;
+				final int minTileY = (int) minY >> TILE_AXIS_SHIFT;
+				final int maxTileX = (int) maxX >> TILE_AXIS_SHIFT;
+				final int maxTileY = (int) maxY >> TILE_AXIS_SHIFT;
+
+				if (!source.isTileRectFull(minTileX, minTileY, maxTileX, maxTileY)) {
+					continue;
+				}
+
+				final int tileIndex = tileIndex(tx, ty);
+				tiles[tileIndex] = -1L;
+				markTileFull(tileIndex);
+
+				if (depthEnabled) {
+					float sourceMin = Float.MAX_VALUE;
+					float sourceMax = 0;
+
+					for (int sy = minTileY; sy <= maxTileY; ++sy) {
+						for (int sx = minTileX; sx <= maxTileX; ++sx) {
+							final int sourceIndex = tileIndex(sx, sy);
+							sourceMin = Math.min(sourceMin, source.tileMinDepth[sourceIndex]);
+							sourceMax = Math.max(sourceMax, source.tileMaxDepth[sourceIndex]);
+						}
+					}
+
+					// Depth along a ray scales by the ratio of w in the two views, which is 1 / w at each corner.
+					// The ratio is monotonic across the tile and so bounded by its corners.
+					final float minW = Math.min(Math.min(cornerW[c0], cornerW[c1]), Math.min(cornerW[c2], cornerW[c3]));
+					final float maxW = Math.max(Math.max(cornerW[c0], cornerW[c1]), Math.max(cornerW[c2], cornerW[c3]));
+					final float maxDepth = sourceMax / minW * REPROJECTION_DEPTH_MARGIN;
+
+					tileMinDepth[tileIndex] = sourceMin / maxW / REPROJECTION_DEPTH_MARGIN;
+					tileMaxDepth[tileIndex] = maxDepth;
+
+					final int blockIndex = tileIndex >> BLOCK_TILE_SHIFT;
+
+					if (maxDepth > blockMaxDepth[blockIndex]) {
+						blockMaxDepth[blockIndex] = maxDepth;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Uses region-relative coordinates like {@link #setupVertex(int, int, int, int)}.
+	 * True if every corner of the box is in front of the camera and within the raster.
+	 */
+	boolean isBoxOnScreen(int x0, int y0, int z0, int x1, int y1, int z1) {
+		setupVertex(V000, x0, y0, z0);
+		setupVertex(V001, x0, y0, z1);
+		setupVertex(V010, x0, y1, z0);
+		setupVertex(V011, x0, y1, z1);
+		setupVertex(V100, x1, y0, z0);
+		setupVertex(V101, x1, y0, z1);
+		setupVertex(V110, x1, y1, z0);
+		setupVertex(V111, x1, y1, z1);
+
+		return isVertexOnScreen(V000) && isVertexOnScreen(V001) && isVertexOnScreen(V010) && isVertexOnScreen(V011)
+				&& isVertexOnScreen(V100) && isVertexOnScreen(V101) && isVertexOnScreen(V110) && isVertexOnScreen(V111);
+	}
+
+	private boolean isVertexOnScreen(int v) {
+		if (needsNearClip(v) != 0) {
+			return false;
 		}
+
+		final int px = data[v + PV_PX + IDX_VERTEX_DATA];
+		final int py = data[v + PV_PY + IDX_VERTEX_DATA];
+		return px >= 0 && py >= 0 && px <= PRECISE_WIDTH && py <= PRECISE_HEIGHT;
 	}
 
 	void printMask8x8(long mask) {
@@ -1933,16 +2419,22 @@ class Rasterizer  {
 	//	}
 
 	void setupVertex(final int baseIndex, final int x, final int y, final int z) {
-		final int[] data = this.data;
 		final Matrix4L mvpMatrix = this.mvpMatrix;
 
-		final float tx = mvpMatrix.transformVec4X(x, y, z) * Matrix4L.FLOAT_CONVERSION;
-		final float ty = mvpMatrix.transformVec4Y(x, y, z) * Matrix4L.FLOAT_CONVERSION;
-		final float w = mvpMatrix.transformVec4W(x, y, z) * Matrix4L.FLOAT_CONVERSION;
+		setupVertex(baseIndex,
+				mvpMatrix.transformVec4X(x, y, z) * Matrix4L.FLOAT_CONVERSION,
+				mvpMatrix.transformVec4Y(x, y, z) * Matrix4L.FLOAT_CONVERSION,
+				mvpMatrix.transformVec4Z(x, y, z) * Matrix4L.FLOAT_CONVERSION,
+				mvpMatrix.transformVec4W(x, y, z) * Matrix4L.FLOAT_CONVERSION);
+	}
+
+	/** Clip-space inputs */
+	private void setupVertex(final int baseIndex, final float tx, final float ty, final float tz, final float w) {
+		final int[] data = this.data;
 
 		data[baseIndex + PV_X + IDX_VERTEX_DATA] = Float.floatToRawIntBits(tx);
 		data[baseIndex + PV_Y + IDX_VERTEX_DATA] = Float.floatToRawIntBits(ty);
-		data[baseIndex + PV_Z + IDX_VERTEX_DATA] = Float.floatToRawIntBits(mvpMatrix.transformVec4Z(x, y, z) * Matrix4L.FLOAT_CONVERSION);
+		data[baseIndex + PV_Z + IDX_VERTEX_DATA] = Float.floatToRawIntBits(tz);
 		data[baseIndex + PV_W + IDX_VERTEX_DATA] = Float.floatToRawIntBits(w);
 
 		if (w != 0)  {
@@ -1955,6 +2447,150 @@ class Rasterizer  {
 		}
 	}
 
+	/** Capacity of box batch arrays, in boxes */
+	private int batchCapacity = 0;
+
+	/** Box bounds in region coordinates, one element per box */
+	private int[] batchX0, batchY0, batchZ0, batchX1, batchY1, batchZ1;
+
+	/** Terms of one matrix row for each box bound, one element per box */
+	private long[] termX0, termY0, termZ0, termX1, termY1, termZ1;
+
+	/** Clip-space corner coordinates, indexed by corner * batchCapacity + box */
+	private float[] cornerClipX, cornerClipY, cornerClipZ, cornerClipW;
+
+	/**
+	 * Transforms every corner of the boxes in a range of packed boxes, as found in region
+	 * occlusion data, into clip space.  Follow with {@link #setupBoxCorner(int, int)}
+	 * for the corners that are needed.
+	 *
+	 * <p>Boxes are axis-aligned, so each matrix row is the sum of an x, a y and a z term,
+	 * and each term has only two values per box.  Terms are computed once per box and then
+	 * summed for each of the eight corners.  Data is held as a structure of arrays and the loops
+	 * have no branches or calls so that the JIT can unroll and vectorize them.
+	 * Integer sums are exact, so results match {@link #setupVertex(int, int, int, int)}.
+	 *
+	 * @param boxes packed boxes
+	 * @param start index of first box
+	 * @param end index after last box
+	 */
+	void setupBoxBatch(int[] boxes, int start, int end) {
+		final int count = end - start;
+
+		if (count > batchCapacity) {
+			allocateBatch(count);
+		}
+
+		final int[] x0 = batchX0, y0 = batchY0, z0 = batchZ0, x1 = batchX1, y1 = batchY1, z1 = batchZ1;
+
+		for (int i = 0; i < count; ++i) {
+			final int box = boxes[start + i];
+			x0[i] = PackedBox.x0(box);
+			y0[i] = PackedBox.y0(box);
+			z0[i] = PackedBox.z0(box);
+			x1[i] = PackedBox.x1(box);
+			y1[i] = PackedBox.y1(box);
+			z1[i] = PackedBox.z1(box);
+		}
+
+		transformBatch(count);
+	}
+
+	/**
+	 * Same as {@link #setupBoxBatch(int[], int, int)} but for box bounds already unpacked, as by
+	 * {@link PackedBox#toWorldBounds(int[], int, int, int, int, int, int[])}.
+	 * Bounds are in whatever space the MVP matrix expects - usually world space.
+	 *
+	 * @param bounds six values per box
+	 * @param count number of boxes, starting with the first
+	 */
+	void setupBoundsBatch(int[] bounds, int count) {
+		if (count > batchCapacity) {
+			allocateBatch(count);
+		}
+
+		final int[] x0 = batchX0, y0 = batchY0, z0 = batchZ0, x1 = batchX1, y1 = batchY1, z1 = batchZ1;
+
+		for (int i = 0, j = 0; i < count; ++i, j += PackedBox.WORLD_BOUNDS_STRIDE) {
+			x0[i] = bounds[j];
+			y0[i] = bounds[j + 1];
+			z0[i] = bounds[j + 2];
+			x1[i] = bounds[j + 3];
+			y1[i] = bounds[j + 4];
+			z1[i] = bounds[j + 5];
+		}
+
+		transformBatch(count);
+	}
+
+	private void transformBatch(int count) {
+		final Matrix4L m = mvpMatrix;
+		transformBatchRow(count, m.a00(), m.a01(), m.a02(), m.a03(), cornerClipX);
+		transformBatchRow(count, m.a10(), m.a11(), m.a12(), m.a13(), cornerClipY);
+		transformBatchRow(count, m.a20(), m.a21(), m.a22(), m.a23(), cornerClipZ);
+		transformBatchRow(count, m.a30(), m.a31(), m.a32(), m.a33(), cornerClipW);
+	}
+
+	private void transformBatchRow(int count, long ax, long ay, long az, long a, float[] out) {
+		final int[] x0 = batchX0, y0 = batchY0, z0 = batchZ0, x1 = batchX1, y1 = batchY1, z1 = batchZ1;
+		final long[] tx0 = termX0, ty0 = termY0, tz0 = termZ0, tx1 = termX1, ty1 = termY1, tz1 = termZ1;
+
+		for (int i = 0; i < count; ++i) {
+			// constant goes with x so that corners need only two adds
+			tx0[i] = ax * x0[i] + a;
+			tx1[i] = ax * x1[i] + a;
+			ty0[i] = ay * y0[i];
+			ty1[i] = ay * y1[i];
+			tz0[i] = az * z0[i];
+			tz1[i] = az * z1[i];
+		}
+
+		final int capacity = batchCapacity;
+		final float f = Matrix4L.FLOAT_CONVERSION;
+
+		// corner index bits are x, y, z from high to low, same as vertex constants
+		for (int i = 0, j = 0; i < count; ++i, ++j) out[j] = (tx0[i] + ty0[i] + tz0[i]) * f;
+		for (int i = 0, j = capacity; i < count; ++i, ++j) out[j] = (tx0[i] + ty0[i] + tz1[i]) * f;
+		for (int i = 0, j = capacity * 2; i < count; ++i, ++j) out[j] = (tx0[i] + ty1[i] + tz0[i]) * f;
+		for (int i = 0, j = capacity * 3; i < count; ++i, ++j) out[j] = (tx0[i] + ty1[i] + tz1[i]) * f;
+		for (int i = 0, j = capacity * 4; i < count; ++i, ++j) out[j] = (tx1[i] + ty0[i] + tz0[i]) * f;
+		for (int i = 0, j = capacity * 5; i < count; ++i, ++j) out[j] = (tx1[i] + ty0[i] + tz1[i]) * f;
+		for (int i = 0, j = capacity * 6; i < count; ++i, ++j) out[j] = (tx1[i] + ty1[i] + tz0[i]) * f;
+		for (int i = 0, j = capacity * 7; i < count; ++i, ++j) out[j] = (tx1[i] + ty1[i] + tz1[i]) * f;
+	}
+
+	private void allocateBatch(int count) {
+		final int capacity = Math.max(count, batchCapacity * 2);
+		batchCapacity = capacity;
+		batchX0 = new int[capacity];
+		batchY0 = new int[capacity];
+		batchZ0 = new int[capacity];
+		batchX1 = new int[capacity];
+		batchY1 = new int[capacity];
+		batchZ1 = new int[capacity];
+		termX0 = new long[capacity];
+		termY0 = new long[capacity];
+		termZ0 = new long[capacity];
+		termX1 = new long[capacity];
+		termY1 = new long[capacity];
+		termZ1 = new long[capacity];
+		cornerClipX = new float[capacity * 8];
+		cornerClipY = new float[capacity * 8];
+		cornerClipZ = new float[capacity * 8];
+		cornerClipW = new float[capacity * 8];
+	}
+
+	/**
+	 * Sets up the vertex for one corner of a box transformed by {@link #setupBoxBatch(int[], int, int)}.
+	 *
+	 * @param box index of box relative to start of batch
+	 * @param corner 0-7, with bits for x, y, z from high to low.  Vertex is stored at the matching vertex constant.
+	 */
+	void setupBoxCorner(int box, int corner) {
+		final int i = corner * batchCapacity + box;
+		setupVertex(corner * PROJECTED_VERTEX_STRIDE, cornerClipX[i], cornerClipY[i], cornerClipZ[i], cornerClipW[i]);
+	}
+
 	int needsNearClip(final int baseIndex) {
 		final int[] data = this.data;
 		final float w = Float.intBitsToFloat(data[baseIndex + PV_W + IDX_VERTEX_DATA]);
@@ -2179,7 +2815,13 @@ class Rasterizer  {
 	}
 
 	void drawPixel(int x, int y) {
-		tiles[Indexer.lowIndexFromPixelXY(x, y)] |= (1L << (Indexer.pixelIndex(x, y)));
+		final int tileIndex = Indexer.lowIndexFromPixelXY(x, y);
+		final long word = tiles[tileIndex] | (1L << (Indexer.pixelIndex(x, y)));
+		tiles[tileIndex] = word;
+
+		if (word == -1L) {
+			markTileFull(tileIndex);
+		}
 	}
 
 	long nextRasterOutputTime;
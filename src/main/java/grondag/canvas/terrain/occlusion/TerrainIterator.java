@@ -2,6 +2,7 @@ package grondag.canvas.terrain.occlusion;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import javax.annotation.Nullable;
 
@@ -10,10 +11,13 @@ import net.minecraft.util.math.Vec3i;
 
 import grondag.canvas.Configurator;
 import grondag.canvas.apiimpl.rendercontext.TerrainRenderContext;
+import grondag.canvas.perf.TerrainIterationCounters;
 import grondag.canvas.render.CanvasFrustum;
 import grondag.canvas.render.CanvasWorldRenderer;
 import grondag.canvas.terrain.BuiltRenderRegion;
+import grondag.canvas.terrain.ChunkRenderExecutor;
 import grondag.canvas.terrain.RegionData;
+import grondag.canvas.terrain.RenderRegionBuilder;
 import grondag.canvas.terrain.RenderRegionStorage;
 import grondag.canvas.terrain.occlusion.region.OcclusionRegion;
 import grondag.fermion.sc.unordered.SimpleUnorderedArrayList;
@@ -26,6 +30,22 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 	private final RenderRegionStorage renderRegionStorage;
 	public final SimpleUnorderedArrayList<BuiltRenderRegion> updateRegions = new SimpleUnorderedArrayList<>();
 	private final TerrainOccluder terrainOccluder;
+	private final CanvasWorldRenderer cwr;
+
+	/** Levels smaller than this are filtered on one thread - handoff would cost more than it saves */
+	private static final int MIN_PARALLEL_REGIONS = 256;
+	private static final int PARALLEL_BATCH_SIZE = 64;
+
+	/** Marks regions rejected by filtering, distinct from null occlusion data */
+	private static final int[] REJECTED = new int[0];
+
+	/**
+	 * Occlusion data of each region in the level being filtered, at the same index,
+	 * or {@link #REJECTED} if region is outside the frustum or should not be built.
+	 */
+	private int[][] levelVisData = new int[4096][];
+	private SimpleUnorderedArrayList<BuiltRenderRegion> filterLevel;
+	private final IntConsumer filterAction = this::filterRegion;
 
 	private BuiltRenderRegion cameraRegion;
 	private BlockPos cameraBlockPos;
@@ -45,6 +65,7 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 	public TerrainIterator(CanvasWorldRenderer cwr) {
 		renderRegionStorage = cwr.regionStorage();
 		terrainOccluder = cwr.terrainOccluder;
+		this.cwr = cwr;
 	}
 
 	public void prepare(@Nullable BuiltRenderRegion cameraRegion,  BlockPos cameraBlockPos, CanvasFrustum frustum, int renderDistance, boolean chunkCullingEnabled)  {
@@ -78,6 +99,7 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 		final CanvasFrustum frustum = this.frustum;
 		final RenderRegionStorage regionStorage = renderRegionStorage;
 		final boolean redrawOccluder = terrainOccluder.needsRedraw();
+		final boolean reprojected = terrainOccluder.isReprojected();
 		final int occluderVersion = terrainOccluder.version();
 		final BuiltRenderRegion[] visibleRegions = this.visibleRegions;
 		int visibleRegionCount = 0;
@@ -113,9 +135,8 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 			if (visData != OcclusionRegion.EMPTY_CULL_DATA && visData != null) {
 				visibleRegions[visibleRegionCount++] = cameraRegion;
 
-				if (redrawOccluder || cameraRegion.occluderVersion != occluderVersion) {
-					terrainOccluder.prepareRegion(cameraRegion.getOrigin(), cameraRegion.occlusionRange);
-					terrainOccluder.occlude(visData);
+				if (redrawOccluder || reprojected || cameraRegion.occluderVersion != occluderVersion) {
+					terrainOccluder.occlude(cameraRegion, visData);
 				}
 			}
 
@@ -126,120 +147,153 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 
 		assert !currentLevel.isEmpty();
 
+		terrainOccluder.completeLevel();
+
+		final RenderRegionBuilder regionBuilder = cwr.regionBuilder();
+		final ChunkRenderExecutor executor = Configurator.parallelTerrainIteration && regionBuilder != null ? regionBuilder.executor : null;
+		int level = 0;
 
 		// PERF: look for ways to improve branch prediction
-		while (!cancelled) {
-			if (currentLevel.isEmpty()) {
-				if(nextLevel.isEmpty()) {
+		while (!cancelled && !currentLevel.isEmpty()) {
+			final long startNanos = TerrainIterationCounters.ENABLED ? System.nanoTime() : 0;
+			final int levelSize = currentLevel.size();
+			final boolean parallel = filterLevel(currentLevel, levelSize, executor);
+			final long filterNanos = TerrainIterationCounters.ENABLED ? System.nanoTime() : 0;
+			final int[][] levelVisData = this.levelVisData;
+
+			// Same order as removing from the end of the list, so output does not depend on threading.
+			// Occluder draw is order-sensitive and stays on this thread.
+			for (int index = levelSize - 1; index >= 0; --index) {
+				if (cancelled) {
 					break;
-				} else {
-					final SimpleUnorderedArrayList<BuiltRenderRegion> swapLevel = currentLevel;
-					currentLevel  = nextLevel;
-					nextLevel = swapLevel;
-					nextLevel.clear();
 				}
-			}
 
-			final BuiltRenderRegion builtRegion = currentLevel.removeLast();
-
-			// don't visit if not in frustum
-			if(!builtRegion.isInFrustum(frustum)) {
-				continue;
-			}
+				final int[] visData = levelVisData[index];
+				levelVisData[index] = null;
 
-			// don't visit if region is outside near distance and doesn't have all 4 neighbors loaded
-			// also checks for outside of render distance
-			if (!builtRegion.shouldBuild()) {
-				continue;
-			}
+				// not in frustum, or outside near distance without all 4 neighbors loaded, or outside render distance
+				if (visData == REJECTED) {
+					continue;
+				}
 
-			final RegionData regionData = builtRegion.getBuildData();
-			final int[] visData =  regionData.getOcclusionData();
+				final BuiltRenderRegion builtRegion = currentLevel.get(index);
 
-			if (visData == null) {
-				updateRegions.add(builtRegion);
-				continue;
-			}
+				if (visData == null) {
+					updateRegions.add(builtRegion);
+					continue;
+				}
 
-			if (builtRegion.needsRebuild()) {
-				updateRegions.add(builtRegion);
-			}
+				if (builtRegion.needsRebuild()) {
+					updateRegions.add(builtRegion);
+				}
 
-			// for empty regions, check neighbors if visible but don't add to visible set
-			if (visData == OcclusionRegion.EMPTY_CULL_DATA) {
-				if (Configurator.cullEntityRender) {
-					if (builtRegion.occluderVersion == occluderVersion) {
-						// reuse prior test results
-						if (builtRegion.occluderResult) {
-							builtRegion.enqueueUnvistedNeighbors(nextLevel);
+				// for empty regions, check neighbors if visible but don't add to visible set
+				if (visData == OcclusionRegion.EMPTY_CULL_DATA) {
+					if (Configurator.cullEntityRender) {
+						if (builtRegion.occluderVersion == occluderVersion) {
+							// reuse prior test results
+							if (builtRegion.occluderResult) {
+								builtRegion.enqueueUnvistedNeighbors(nextLevel);
+							}
+						} else {
+							builtRegion.occluderVersion = occluderVersion;
+
+							if (!chunkCullingEnabled || builtRegion.isNear() || terrainOccluder.isEmptyRegionVisible(builtRegion.getOrigin())) {
+								builtRegion.enqueueUnvistedNeighbors(nextLevel);
+								builtRegion.occluderResult = true;
+							} else {
+								builtRegion.occluderResult = false;
+							}
 						}
 					} else {
+						builtRegion.enqueueUnvistedNeighbors(nextLevel);
 						builtRegion.occluderVersion = occluderVersion;
-
-						if (!chunkCullingEnabled || builtRegion.isNear() || terrainOccluder.isEmptyRegionVisible(builtRegion.getOrigin())) {
-							builtRegion.enqueueUnvistedNeighbors(nextLevel);
-							builtRegion.occluderResult = true;
-						} else {
-							builtRegion.occluderResult = false;
-						}
+						builtRegion.occluderResult = false;
 					}
-				} else {
-					builtRegion.enqueueUnvistedNeighbors(nextLevel);
-					builtRegion.occluderVersion = occluderVersion;
-					builtRegion.occluderResult = false;
-				}
-
-				continue;
-			}
-
-			if (!chunkCullingEnabled || builtRegion.isNear()) {
-				builtRegion.enqueueUnvistedNeighbors(nextLevel);
-				visibleRegions[visibleRegionCount++] = builtRegion;
 
-				if (redrawOccluder || builtRegion.occluderVersion != occluderVersion) {
-					terrainOccluder.prepareRegion(builtRegion.getOrigin(), builtRegion.occlusionRange);
-					terrainOccluder.occlude(visData);
+					continue;
 				}
 
-				builtRegion.occluderVersion = occluderVersion;
-				builtRegion.occluderResult = true;
-			} else if (builtRegion.occluderVersion == occluderVersion) {
-				// reuse prior test results
-				if (builtRegion.occluderResult) {
+				if (!chunkCullingEnabled || builtRegion.isNear()) {
 					builtRegion.enqueueUnvistedNeighbors(nextLevel);
 					visibleRegions[visibleRegionCount++] = builtRegion;
 
-					// will already have been drawn if occluder view version hasn't changed
-					if (redrawOccluder) {
+					if (redrawOccluder || builtRegion.occluderVersion != occluderVersion) {
+						terrainOccluder.occlude(builtRegion, visData);
+					} else if (reprojected) {
 						terrainOccluder.prepareRegion(builtRegion.getOrigin(), builtRegion.occlusionRange);
-						terrainOccluder.occlude(visData);
+
+						if (terrainOccluder.hasFootprintChanged(visData[OcclusionRegion.CULL_DATA_REGION_BOUNDS])) {
+							terrainOccluder.occlude(builtRegion, visData);
+						}
 					}
-				}
-			} else {
-				terrainOccluder.prepareRegion(builtRegion.getOrigin(), builtRegion.occlusionRange);
 
-				if (terrainOccluder.isBoxVisible(visData[OcclusionRegion.CULL_DATA_REGION_BOUNDS])) {
-					builtRegion.enqueueUnvistedNeighbors(nextLevel);
-					visibleRegions[visibleRegionCount++] = builtRegion;
 					builtRegion.occluderVersion = occluderVersion;
 					builtRegion.occluderResult = true;
-
-					// these must always be drawn - will be additive if view hasn't changed
-					terrainOccluder.occlude(visData);
+				} else if (builtRegion.occluderVersion == occluderVersion) {
+					// reuse prior test results
+					if (builtRegion.occluderResult) {
+						builtRegion.enqueueUnvistedNeighbors(nextLevel);
+						visibleRegions[visibleRegionCount++] = builtRegion;
+
+						// will already have been drawn if occluder view version hasn't changed
+						if (redrawOccluder) {
+							terrainOccluder.occlude(builtRegion, visData);
+						} else if (reprojected) {
+							// reprojection keeps occluders only for regions that were entirely on screen before and after
+							terrainOccluder.prepareRegion(builtRegion.getOrigin(), builtRegion.occlusionRange);
+
+							if (terrainOccluder.hasFootprintChanged(visData[OcclusionRegion.CULL_DATA_REGION_BOUNDS])) {
+								terrainOccluder.occlude(builtRegion, visData);
+							}
+						}
+					}
 				} else {
-					// note that we don't update occluder version in this case
-					// casues some chunks not to render if set - reason doesn't seem clear but
-					// didn't actually contribute any information to occluder and should not be tied to it
-					builtRegion.occluderResult = false;
+					terrainOccluder.prepareRegion(builtRegion.getOrigin(), builtRegion.occlusionRange);
+
+					if (terrainOccluder.isBoxVisible(visData[OcclusionRegion.CULL_DATA_REGION_BOUNDS])) {
+						builtRegion.enqueueUnvistedNeighbors(nextLevel);
+						visibleRegions[visibleRegionCount++] = builtRegion;
+						builtRegion.occluderVersion = occluderVersion;
+						builtRegion.occluderResult = true;
+
+						// these must always be drawn - will be additive if view hasn't changed
+						terrainOccluder.occlude(builtRegion, visData);
+					} else {
+						// note that we don't update occluder version in this case
+						// casues some chunks not to render if set - reason doesn't seem clear but
+						// didn't actually contribute any information to occluder and should not be tied to it
+						builtRegion.occluderResult = false;
+					}
 				}
 			}
+
+			terrainOccluder.completeLevel();
+
+			if (TerrainIterationCounters.ENABLED) {
+				TerrainIterationCounters.level(level, levelSize, parallel, filterNanos - startNanos, System.nanoTime() - filterNanos);
+			}
+
+			final SimpleUnorderedArrayList<BuiltRenderRegion> swapLevel = currentLevel;
+			currentLevel = nextLevel;
+			nextLevel = swapLevel;
+			nextLevel.clear();
+			++level;
 		}
 
+		terrainOccluder.completeLevel();
+
 		if (cancelled) {
 			state.set(IDLE);
 			this.visibleRegionCount = 0;
 		} else {
 			assert state.get() == RUNNING;
+			terrainOccluder.completeScene();
+
+			if (TerrainIterationCounters.ENABLED) {
+				TerrainIterationCounters.iteration();
+			}
+
 			state.set(COMPLETE);
 			this.visibleRegionCount = visibleRegionCount;
 
@@ -248,4 +302,41 @@ public class TerrainIterator implements  Consumer<TerrainRenderContext> {
 			}
 		}
 	}
+
+	/**
+	 * Finds regions in the level that are in the frustum and should be built, and reads their
+	 * occlusion data.  These are independent for each region so large levels are split across
+	 * build workers.  Results go to {@link #levelVisData} at the same index as the region.
+	 *
+	 * @return true if filtering was split across threads
+	 */
+	private boolean filterLevel(SimpleUnorderedArrayList<BuiltRenderRegion> level, int size, @Nullable ChunkRenderExecutor executor) {
+		if (levelVisData.length < size) {
+			levelVisData = new int[Math.max(size, levelVisData.length * 2)][];
+		}
+
+		filterLevel = level;
+
+		final boolean parallel = executor != null && size >= MIN_PARALLEL_REGIONS;
+
+		try {
+			if (parallel) {
+				executor.forkJoin(size, PARALLEL_BATCH_SIZE, filterAction);
+			} else {
+				for (int i = 0; i < size; ++i) {
+					filterRegion(i);
+				}
+			}
+		} finally {
+			filterLevel = null;
+		}
+
+		return parallel;
+	}
+
+	/** Each region is in a level only once, so per-region state such as the frustum result can be updated safely */
+	private void filterRegion(int index) {
+		final BuiltRenderRegion region = filterLevel.get(index);
+		levelVisData[index] = region.isInFrustum(frustum) && region.shouldBuild() ? region.getBuildData().getOcclusionData() : REJECTED;
+	}
 }
@@ -4,12 +4,10 @@ import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_BITS;
 import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_UNITY;
 import static grondag.canvas.terrain.occlusion.Constants.DOWN;
 import static grondag.canvas.terrain.occlusion.Constants.EAST;
-import static grondag.canvas.terrain.occlusion.Constants.EMPTY_BITS;
 import static grondag.canvas.terrain.occlusion.Constants.NORTH;
 import static grondag.canvas.terrain.occlusion.Constants.PIXEL_HEIGHT;
 import static grondag.canvas.terrain.occlusion.Constants.PIXEL_WIDTH;
 import static grondag.canvas.terrain.occlusion.Constants.SOUTH;
-import static grondag.canvas.terrain.occlusion.Constants.TILE_COUNT;
 import static grondag.canvas.terrain.occlusion.Constants.UP;
 import static grondag.canvas.terrain.occlusion.Constants.V000;
 import static grondag.canvas.terrain.occlusion.Constants.V001;
@@ -32,14 +30,22 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 
 import grondag.canvas.CanvasMod;
-import grondag.canvas.mixinterface.Matrix4fExt;
+import grondag.canvas.Configurator;
+import grondag.canvas.perf.OcclusionCounters;
 import grondag.canvas.render.CanvasFrustum;
 import grondag.canvas.terrain.BuiltRenderRegion;
+import grondag.canvas.terrain.occlusion.region.OcclusionRegion;
 import grondag.canvas.terrain.occlusion.region.PackedBox;
 
 public class TerrainOccluder {
 	private final Matrix4L baseMvpMatrix = new Matrix4L();
 
+	/** Base MVP translated so that it transforms world coordinates, for occluder bounds cached by regions */
+	private final Matrix4L worldMvpMatrix = new Matrix4L();
+
+	/** True when raster MVP is the world MVP, so that drawing consecutive regions needs no matrix setup */
+	private boolean isWorldMvp = false;
+
 	private final Rasterizer raster = new Rasterizer();
 
 	private long viewX;
@@ -60,9 +66,48 @@ public class TerrainOccluder {
 	private boolean forceRedraw = false;
 	private boolean needsRedraw = false;
 
+	/** When true, occluder quads are deferred and drawn in parallel at the end of each BFS level */
+	private boolean isBinned = false;
+	private BinnedRasterizer binner = null;
+
+	/** Rotation between the keyframe and current view beyond which the scene is fully redrawn */
+	private static final float MAX_REPROJECTION_DEGREES = 15;
+	private static final float MIN_REPROJECTION_COS = (float) Math.cos(Math.toRadians(MAX_REPROJECTION_DEGREES));
+
+	/** Larger eye offsets in the projection matrix, as from view bobbing, prevent reprojection */
+	private static final float MAX_PROJECTION_OFFSET = 1e-4f;
+
+	private final Matrix4L projectionMatrix = new Matrix4L();
+	private final Matrix4L modelMatrix = new Matrix4L();
+
+	/** When true, rotation-only view changes reproject the keyframe instead of clearing the raster */
+	private boolean isReprojectionEnabled = false;
+
+	/**
+	 * True when raster contents started from a reprojected keyframe.  Regions whose occluders
+	 * could not be carried over must be redrawn - see {@link #hasFootprintChanged(int)}.
+	 */
+	private boolean isReprojected = false;
+
+	/** Occluder version when the current scene was prepared */
+	private int sceneOccluderVersion;
+
+	/** Raster and view of the most recent complete scene that was drawn without reprojection */
+	private Rasterizer keyframeRaster = null;
+	private final Matrix4L keyframeMvpMatrix = new Matrix4L();
+	private final Matrix4L keyframeProjectionMatrix = new Matrix4L();
+	private final Matrix4L keyframeModelMatrix = new Matrix4L();
+	private long keyframeViewX;
+	private long keyframeViewY;
+	private long keyframeViewZ;
+	private int keyframeOccluderVersion;
+	private boolean hasKeyframe = false;
+
 	public void copyFrom(TerrainOccluder source) {
 		baseMvpMatrix.copyFrom(source.baseMvpMatrix);
+		worldMvpMatrix.copyFrom(source.worldMvpMatrix);
 		raster.copyFrom(source.raster);
+		isWorldMvp = false;
 		viewX = source.viewX;
 		viewY = source.viewY;
 		viewZ = source.viewZ;
@@ -109,8 +154,17 @@ public class TerrainOccluder {
 		forceRedraw = true;
 	}
 
+	/**
+	 * Stops helper threads of the parallel raster.  They start again if still enabled.
+	 * Call on reload and when the world is closed.
+	 */
+	public void releaseThreads() {
+		BinnedRasterizer.shutdown();
+	}
+
 	public void prepareRegion(BlockPos origin, int occlusionRange) {
 		this.occlusionRange = occlusionRange;
+		isWorldMvp = false;
 
 		// PERF: could perhaps reuse CameraRelativeCenter values in BuildRenderRegion that are used by Frustum
 		offsetX = (int) ((origin.getX() << CAMERA_PRECISION_BITS) - viewX);
@@ -171,49 +225,183 @@ public class TerrainOccluder {
 		final int viewVersion = frustum.viewVersion();
 		final int positionVersion = frustum.positionVersion();
 
+		isBinned = Configurator.parallelOcclusionRaster;
+
+		if (isBinned) {
+			if (binner == null) {
+				binner = new BinnedRasterizer(raster, BinnedRasterizer.defaultThreadCount());
+			} else {
+				// discard anything left by a cancelled iteration
+				binner.clear();
+			}
+		}
+
+		isReprojectionEnabled = Configurator.occlusionReprojection;
+
+		if (!isReprojectionEnabled) {
+			hasKeyframe = false;
+		}
+
+		// reprojected coverage is only safe to test against when occluder depth is known
+		final boolean depthEnabled = Configurator.depthAwareOcclusion || isReprojectionEnabled;
+
+		if (raster.depthEnabled != depthEnabled) {
+			// depth is reset by the clear that follows
+			raster.depthEnabled = depthEnabled;
+			invalidate();
+		}
+
 		if (this.viewVersion != viewVersion) {
 			final Matrix4L baseMvpMatrix = this.baseMvpMatrix;
-			final Matrix4L tempMatrix = raster.mvpMatrix;
-			final Matrix4fExt projectionMatrix = frustum.projectionMatrix();
-			final Matrix4fExt modelMatrix = frustum.modelMatrix();
-
-			baseMvpMatrix.loadIdentity();
+			final Matrix4L projectionMatrix = this.projectionMatrix;
+			final Matrix4L modelMatrix = this.modelMatrix;
 
-			tempMatrix.copyFrom(projectionMatrix);
-			baseMvpMatrix.multiply(tempMatrix);
+			projectionMatrix.copyFrom(frustum.projectionMatrix());
+			modelMatrix.copyFrom(frustum.modelMatrix());
 
-			tempMatrix.copyFrom(modelMatrix);
-			baseMvpMatrix.multiply(tempMatrix);
+			baseMvpMatrix.loadIdentity();
+			baseMvpMatrix.multiply(projectionMatrix);
+			baseMvpMatrix.multiply(modelMatrix);
 
 			final Vec3d vec3d = camera.getPos();
 			viewX = Math.round(vec3d.getX() * CAMERA_PRECISION_UNITY);
 			viewY = Math.round(vec3d.getY() * CAMERA_PRECISION_UNITY);
 			viewZ = Math.round(vec3d.getZ() * CAMERA_PRECISION_UNITY);
+
+			// long math keeps this exact far from world origin
+			worldMvpMatrix.copyFrom(baseMvpMatrix);
+			worldMvpMatrix.translate(-viewX, -viewY, -viewZ, CAMERA_PRECISION_BITS);
+			isWorldMvp = false;
 		}
 
 		if (forceRedraw) {
 			this.viewVersion = viewVersion;
 			this.positionVersion = positionVersion;
 			this.regionVersion = regionVersion;
-			System.arraycopy(EMPTY_BITS, 0, raster.tiles, 0, TILE_COUNT);
+			raster.clear();
 			forceRedraw = false;
 			needsRedraw = true;
+			isReprojected = false;
+			hasKeyframe = false;
 		} else if (this.positionVersion != positionVersion || this.regionVersion != regionVersion) {
 			occluderVersion.incrementAndGet();
 			this.viewVersion = viewVersion;
 			this.positionVersion = positionVersion;
 			this.regionVersion = regionVersion;
-			System.arraycopy(EMPTY_BITS, 0, raster.tiles, 0, TILE_COUNT);
+			raster.clear();
 			needsRedraw = true;
+			isReprojected = false;
+			hasKeyframe = false;
 		} else if (this.viewVersion != viewVersion) {
 			this.viewVersion = viewVersion;
-			System.arraycopy(EMPTY_BITS, 0, raster.tiles, 0, TILE_COUNT);
-			needsRedraw = true;
+
+			if (canReproject()) {
+				raster.reprojectFrom(keyframeRaster, keyframeMvpMatrix, baseMvpMatrix);
+				needsRedraw = false;
+				isReprojected = true;
+			} else {
+				raster.clear();
+				needsRedraw = true;
+				isReprojected = false;
+			}
 		} else {
 			needsRedraw = false;
 		}
 
+		sceneOccluderVersion = occluderVersion.get();
+
+		if (OcclusionCounters.ENABLED) {
+			OcclusionCounters.scene(needsRedraw, isReprojected);
+		}
+	}
+
+	/**
+	 * True if the keyframe was drawn from the current camera position, with the
+	 * same projection and occluders, and the view has not rotated too far from it.
+	 */
+	private boolean canReproject() {
+		if (!isReprojectionEnabled || !hasKeyframe || keyframeOccluderVersion != occluderVersion.get()) {
+			return false;
+		}
+
+		if (keyframeViewX != viewX || keyframeViewY != viewY || keyframeViewZ != viewZ) {
+			return false;
+		}
+
+		final Matrix4L p = projectionMatrix;
+
+		if (!keyframeProjectionMatrix.matches(p) || Math.abs(p.a03f()) > MAX_PROJECTION_OFFSET
+				|| Math.abs(p.a13f()) > MAX_PROJECTION_OFFSET || Math.abs(p.a33f()) > MAX_PROJECTION_OFFSET) {
+			return false;
+		}
+
+		// trace of the rotation between views gives the cosine of the rotation angle
+		final Matrix4L k = keyframeModelMatrix;
+		final Matrix4L m = modelMatrix;
 
+		final float trace = k.a00f() * m.a00f() + k.a01f() * m.a01f() + k.a02f() * m.a02f()
+				+ k.a10f() * m.a10f() + k.a11f() * m.a11f() + k.a12f() * m.a12f()
+				+ k.a20f() * m.a20f() + k.a21f() * m.a21f() + k.a22f() * m.a22f();
+
+		return (trace - 1) * 0.5f >= MIN_REPROJECTION_COS;
+	}
+
+	/**
+	 * Call when iteration completes without cancellation.  Keeps the scene as the
+	 * source for reprojection unless it was itself reprojected.
+	 */
+	public void completeScene() {
+		if (isReprojectionEnabled && !isReprojected) {
+			if (keyframeRaster == null) {
+				keyframeRaster = new Rasterizer();
+			}
+
+			keyframeRaster.copyFrom(raster);
+			keyframeMvpMatrix.copyFrom(baseMvpMatrix);
+			keyframeProjectionMatrix.copyFrom(projectionMatrix);
+			keyframeModelMatrix.copyFrom(modelMatrix);
+			keyframeViewX = viewX;
+			keyframeViewY = viewY;
+			keyframeViewZ = viewZ;
+			keyframeOccluderVersion = sceneOccluderVersion;
+			hasKeyframe = true;
+		}
+	}
+
+	/**
+	 * When true, visible regions with current test results must still be drawn
+	 * if {@link #hasFootprintChanged(int)} is true for their bounds.
+	 */
+	public boolean isReprojected() {
+		return isReprojected;
+	}
+
+	/**
+	 * Call after {@link #prepareRegion(BlockPos, int)} when the scene is reprojected.
+	 * True if reprojection may not have carried over the region's occluders because
+	 * its bounds are not entirely on screen in both the keyframe and current view.
+	 */
+	public boolean hasFootprintChanged(int packedBox) {
+		final int x0  = PackedBox.x0(packedBox);
+		final int y0  = PackedBox.y0(packedBox);
+		final int z0  = PackedBox.z0(packedBox);
+		final int x1  = PackedBox.x1(packedBox);
+		final int y1  = PackedBox.y1(packedBox);
+		final int z1  = PackedBox.z1(packedBox);
+
+		if (!raster.isBoxOnScreen(x0, y0, z0, x1, y1, z1)) {
+			return true;
+		}
+
+		// camera position is the same in both views so region offsets still apply
+		final Matrix4L mvpMatrix = raster.mvpMatrix;
+		mvpMatrix.copyFrom(keyframeMvpMatrix);
+		mvpMatrix.translate(offsetX, offsetY, offsetZ, CAMERA_PRECISION_BITS);
+		final boolean result = !raster.isBoxOnScreen(x0, y0, z0, x1, y1, z1);
+
+		mvpMatrix.copyFrom(baseMvpMatrix);
+		mvpMatrix.translate(offsetX, offsetY, offsetZ, CAMERA_PRECISION_BITS);
+		return result;
 	}
 
 	public boolean needsRedraw() {
@@ -266,57 +454,81 @@ public class TerrainOccluder {
 	}
 
 	/**
-	 * Does not rely on winding order but instead the distance from
-	 * plane with known facing to camera position.
+	 * @param bounds world-space box bounds set up in raster as the current batch
+	 * @param batchIndex index of box in the batch
 	 */
-	private void occludeInner(int packedBox) {
-		final int x0  = PackedBox.x0(packedBox);
-		final int y0  = PackedBox.y0(packedBox);
-		final int z0  = PackedBox.z0(packedBox);
-		final int x1  = PackedBox.x1(packedBox);
-		final int y1  = PackedBox.y1(packedBox);
-		final int z1  = PackedBox.z1(packedBox);
+	private void occludeInner(int[] bounds, int batchIndex) {
+		final int outcome = BoxFaces.worldOutcome(bounds, batchIndex * PackedBox.WORLD_BOUNDS_STRIDE, viewX, viewY, viewZ);
+		final Rasterizer raster = this.raster;
+		int corners = BoxFaces.DRAW_CORNERS[outcome];
+
+		while (corners != 0) {
+			raster.setupBoxCorner(batchIndex, Integer.numberOfTrailingZeros(corners));
+			corners &= corners - 1;
+		}
 
-		final int offsetX = this.offsetX;
-		final int offsetY = this.offsetY;
-		final int offsetZ = this.offsetZ;
+		final int[] quads = BoxFaces.DRAW_QUADS[outcome];
 
-		int outcome = 0;
+		for (int i = 0; i < quads.length; i += 4) {
+			drawQuad(quads[i], quads[i + 1], quads[i + 2], quads[i + 3]);
+		}
+	}
 
-		// if camera below top face can't be seen
-		if (offsetY < -(y1 << CAMERA_PRECISION_BITS)) {
-			outcome |= UP;
-		} else if (offsetY > -(y0 << CAMERA_PRECISION_BITS)) {
-			outcome |= DOWN;
+	/**
+	 * Call after each BFS distance level and at the end of iteration.
+	 * When parallel raster is enabled, occluders drawn during the level are deferred
+	 * until this call, so box tests see only occluders from prior levels.
+	 */
+	public void completeLevel() {
+		if (isBinned) {
+			binner.flush();
 		}
+	}
 
-		if (offsetX < -(x1 << CAMERA_PRECISION_BITS)) {
-			outcome |= EAST;
-		} else if (offsetX > -(x0 << CAMERA_PRECISION_BITS)) {
-			outcome |= WEST;
+	private void drawQuad(int v0, int v1, int v2, int v3) {
+		if (isBinned) {
+			binner.add(raster, v0, v1, v2, v3);
+		} else {
+			raster.drawQuad(v0, v1, v2, v3);
 		}
+	}
 
-		if (offsetZ < -(z1 << CAMERA_PRECISION_BITS)) {
-			outcome |= SOUTH;
-		} else if (offsetZ > -(z0 << CAMERA_PRECISION_BITS)) {
-			outcome |= NORTH;
+	/**
+	 * Draws occluders of a region that are within its occlusion range.  Does not need
+	 * {@link #prepareRegion(BlockPos, int)} because the region caches box bounds in world
+	 * space, so consecutive regions are drawn with no per-region matrix setup.
+	 *
+	 * @param region region to draw
+	 * @param visData occlusion data of the region, as retrieved for the current iteration
+	 */
+	public void occlude(BuiltRenderRegion region, int[] visData) {
+		final int occlusionRange = region.occlusionRange;
+		final int limit = visData.length;
+
+		if (OcclusionCounters.ENABLED) {
+			OcclusionCounters.regionDrawn();
 		}
 
-		boxDraws[outcome].apply(x0, y0, z0, x1, y1, z1);
-	}
+		// boxes are sorted by range, so find the last box in range and transform them all together
+		int end = OcclusionRegion.CULL_DATA_FIRST_BOX;
 
-	public void occlude(int[] visData) {
-		final int occlusionRange = this.occlusionRange;
-		final int limit= visData.length;
+		while (end < limit && occlusionRange <= PackedBox.range(visData[end])) {
+			++end;
+		}
 
-		if (limit > 1) {
-			for (int i = 1; i < limit; i++) {
-				final int box  = visData[i];
-				if (occlusionRange > PackedBox.range(box)) {
-					break;
-				}
+		final int count = end - OcclusionRegion.CULL_DATA_FIRST_BOX;
+
+		if (count > 0) {
+			if (!isWorldMvp) {
+				raster.mvpMatrix.copyFrom(worldMvpMatrix);
+				isWorldMvp = true;
+			}
+
+			final int[] bounds = region.getOccluderBounds(visData);
+			raster.setupBoundsBatch(bounds, count);
 
-				occludeInner(box);
+			for (int i = 0; i < count; i++) {
+				occludeInner(bounds, i);
 			}
 		}
 	}
@@ -400,12 +612,7 @@ public class TerrainOccluder {
 		boolean apply(int x0, int y0, int z0, int x1, int y1, int z1);
 	}
 
-	@FunctionalInterface interface BoxDraw {
-		void apply(int x0, int y0, int z0, int x1, int y1, int z1);
-	}
-
 	private final BoxTest[] boxTests = new BoxTest[128];
-	private final BoxDraw[] boxDraws = new BoxDraw[128];
 
 	{
 		boxTests[0] = (x0, y0, z0, x1, y1, z1) -> {
@@ -684,283 +891,5 @@ public class TerrainOccluder {
 			return raster.testQuad(V100, V101, V111, V011) ||
 					raster.testQuad(V011, V010, V000, V100);
 		};
-
-		////
-
-		boxDraws[0] = (x0, y0, z0, x1, y1, z1) -> {
-			// NOOP
-		};
-
-		boxDraws[UP] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V110, V010, V011, V111);
-		};
-
-		boxDraws[DOWN] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.drawQuad(V000, V100, V101, V001);
-		};
-
-		boxDraws[EAST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V101, V100, V110, V111);
-		};
-
-		boxDraws[WEST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.drawQuad(V000, V001, V011, V010);
-		};
-
-		boxDraws[NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.drawQuad(V100, V000, V010, V110);
-		};
-
-		boxDraws[SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V001, V101, V111, V011);
-		};
-
-		// NB: Split across two quads to give more evenly-sized test regions vs potentially one big and one very small
-		boxDraws[UP | EAST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V010, V011, V111, V101); raster.drawQuad(V101, V100, V110, V010);
-		};
-
-		boxDraws[UP | WEST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V111, V110, V010, V000);
-			raster.drawQuad(V000, V001, V011, V111);
-		};
-
-		boxDraws[UP | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V011, V111, V110, V100);
-			raster.drawQuad(V100, V000, V010, V011);
-		};
-
-		boxDraws[UP | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V110, V010, V011, V001);
-			raster.drawQuad(V001, V101, V111, V110);
-		};
-
-		boxDraws[DOWN | EAST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V001, V000, V100, V110);
-			raster.drawQuad(V110, V111, V101, V001);
-		};
-
-		boxDraws[DOWN | WEST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.drawQuad(V100, V101, V001, V011);
-			raster.drawQuad(V011, V010, V000, V100);
-		};
-
-		boxDraws[DOWN | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.drawQuad(V101, V001, V000, V010);
-			raster.drawQuad(V010, V110, V100, V101);
-		};
-
-		boxDraws[DOWN | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V000, V100, V101, V111);
-			raster.drawQuad(V111, V011, V001, V000);
-		};
-
-		boxDraws[NORTH | EAST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V000, V010, V110, V111);
-			raster.drawQuad(V111, V101, V100, V000);
-		};
-
-		boxDraws[NORTH | WEST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.drawQuad(V110, V100, V000, V001);
-			raster.drawQuad(V001, V011, V010, V110);
-		};
-
-		boxDraws[SOUTH | EAST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V011, V001, V101, V100);
-			raster.drawQuad(V100, V110, V111, V011);
-		};
-
-		boxDraws[SOUTH | WEST] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V101, V111, V011, V010);
-			raster.drawQuad(V010, V000, V001, V101);
-		};
-
-		// NB: When three faces are visible, omit nearest vertex and draw two quads instead of three.
-
-		boxDraws[UP | EAST | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V011, V111, V101, V100 );
-			raster.drawQuad(V100, V000, V010, V011);
-		};
-
-		boxDraws[UP | WEST | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V111, V110, V100, V000);
-			raster.drawQuad(V000, V001, V011, V111);
-
-
-		};
-
-		boxDraws[UP | EAST | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.drawQuad(V010, V011, V001, V101);
-			raster.drawQuad(V101, V100, V110, V010);
-		};
-
-		boxDraws[UP | WEST | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V110, V010, V000, V001);
-			raster.drawQuad(V001, V101, V111, V110);
-		};
-
-		boxDraws[DOWN | EAST | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V001, V000, V010, V110);
-			raster.drawQuad(V110, V111, V101, V001);
-		};
-
-		boxDraws[DOWN | WEST | NORTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.drawQuad(V101, V001, V011, V010);
-			raster.drawQuad(V010, V110, V100, V101);
-		};
-
-		boxDraws[DOWN | EAST | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V001, x0, y0, z1);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V110, x1, y1, z0);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V000, V100, V110, V111);
-			raster.drawQuad(V111, V011, V001, V000);
-		};
-
-		boxDraws[DOWN | WEST | SOUTH] = (x0, y0, z0, x1, y1, z1) -> {
-			raster.setupVertex(V000, x0, y0, z0);
-			raster.setupVertex(V010, x0, y1, z0);
-			raster.setupVertex(V011, x0, y1, z1);
-			raster.setupVertex(V100, x1, y0, z0);
-			raster.setupVertex(V101, x1, y0, z1);
-			raster.setupVertex(V111, x1, y1, z1);
-			raster.drawQuad(V100, V101, V111, V011);
-			raster.drawQuad(V011, V010, V000, V100);
-		};
 	}
-}
\ No newline at end of file
+}
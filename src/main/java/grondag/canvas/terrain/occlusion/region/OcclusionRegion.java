@@ -26,12 +26,11 @@ import static grondag.canvas.terrain.RenderRegionAddressHelper.localYfaceIndex;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.localZEdgeIndex;
 import static grondag.canvas.terrain.RenderRegionAddressHelper.localZfaceIndex;
 
+import java.util.Arrays;
+
 import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 
-import net.minecraft.block.BlockRenderType;
-import net.minecraft.block.BlockState;
-
 public abstract class OcclusionRegion {
 	private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
 	private final long[] bits = new long[WORD_COUNT];
@@ -55,8 +54,14 @@ public abstract class OcclusionRegion {
 		captureInterior();
 	}
 
-	protected abstract BlockState blockStateAtIndex(int index);
-	protected abstract boolean closedAtRelativePos(BlockState blockState, int x, int y, int z);
+	/** True if the block at the cache index renders anything, including fluid */
+	protected abstract boolean isVisibleAtIndex(int index);
+
+	/** True if the block at the cache index is an opaque full cube at the given position relative to the region origin */
+	protected abstract boolean closedAtRelativePos(int index, int x, int y, int z);
+
+	/** True if every interior block is the same state and its opacity does not depend on position */
+	protected abstract boolean isInteriorUniform();
 
 	public boolean isClosed(int index) {
 		return (bits[(index >> 6)] & (1L << (index & 63))) != 0;
@@ -81,26 +86,32 @@ public abstract class OcclusionRegion {
 	}
 
 	private void captureInteriorVisbility(int index, int x, int y, int z) {
-		final BlockState blockState = blockStateAtIndex(index);
-
-		// TODO: remove or make configurable
-		//		final boolean isHack = blockState.getBlock() == Blocks.WHITE_STAINED_GLASS;
-
-		if(blockState.getRenderType() != BlockRenderType.INVISIBLE || !blockState.getFluidState().isEmpty()) {
-			//			setVisibility(index, true, closedAtRelativePos(blockState, x, y, z) || isHack);
-			setVisibility(index, true, closedAtRelativePos(blockState, x, y, z));
+		if(isVisibleAtIndex(index)) {
+			setVisibility(index, true, closedAtRelativePos(index, x, y, z));
 		}
 	}
 
 	private void captureExteriorVisbility(int index, int x, int y, int z) {
-		final BlockState blockState = blockStateAtIndex(index);
-
-		if((blockState.getRenderType() != BlockRenderType.INVISIBLE || !blockState.getFluidState().isEmpty()) && closedAtRelativePos(blockState, x, y, z)) {
+		if(isVisibleAtIndex(index) && closedAtRelativePos(index, x, y, z)) {
 			setVisibility(index, false, true);
 		}
 	}
 
 	private void captureInterior() {
+		if (isInteriorUniform()) {
+			// all air, stone or water - set whole words from the first block
+			if (isVisibleAtIndex(0)) {
+				Arrays.fill(bits, RENDERABLE_OFFSET, RENDERABLE_OFFSET + INTERIOR_CACHE_WORDS, -1L);
+
+				if (closedAtRelativePos(0, 0, 0, 0)) {
+					Arrays.fill(bits, 0, INTERIOR_CACHE_WORDS, -1L);
+					openCount = 0;
+				}
+			}
+
+			return;
+		}
+
 		for(int i = 0; i < INTERIOR_CACHE_SIZE; i++) {
 			captureInteriorVisbility(i, i & 0xF, (i >> 4) & 0xF, (i >> 8) & 0xF);
 		}
@@ -66,6 +66,36 @@ public abstract class PackedBox {
 		return ((packed >>> SHIFT_Z1) & 31);
 	}
 
+	/** Number of values for each box in the output of {@link #toWorldBounds(int[], int, int, int, int, int, int[])} */
+	public static final int WORLD_BOUNDS_STRIDE = 6;
+
+	/**
+	 * Unpacks a range of boxes into world coordinates, six values per box
+	 * in the order x0, y0, z0, x1, y1, z1.
+	 *
+	 * @param bounds array to hold output, may be null
+	 * @return bounds array, newly allocated if the given array was null or too small
+	 */
+	public static int[] toWorldBounds(int[] boxes, int start, int end, int originX, int originY, int originZ, int[] bounds) {
+		final int length = (end - start) * WORLD_BOUNDS_STRIDE;
+
+		if (bounds == null || bounds.length < length) {
+			bounds = new int[length];
+		}
+
+		for (int i = start, j = 0; i < end; ++i, j += WORLD_BOUNDS_STRIDE) {
+			final int packed = boxes[i];
+			bounds[j] = originX + x0(packed);
+			bounds[j + 1] = originY + y0(packed);
+			bounds[j + 2] = originZ + z0(packed);
+			bounds[j + 3] = originX + x1(packed);
+			bounds[j + 4] = originY + y1(packed);
+			bounds[j + 5] = originZ + z1(packed);
+		}
+
+		return bounds;
+	}
+
 	public static String toString(int packed) {
 		return "(" + x0(packed) + ", " + y0(packed) + ", " + z0(packed) + "), ("
 				+ x1(packed) + ", " + y1(packed) + ", " + z1(packed) + ")";
@@ -16,10 +16,13 @@
 
 package grondag.canvas.terrain.render;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
 
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
+import grondag.canvas.buffer.IndexBuffer;
+import grondag.canvas.buffer.TerrainArena;
+import grondag.canvas.buffer.TransferBufferAllocator;
 import grondag.canvas.buffer.VboBuffer;
 import grondag.canvas.buffer.encoding.VertexCollectorImpl;
 import grondag.canvas.buffer.encoding.VertexCollectorList;
@@ -35,6 +38,35 @@ public abstract class DrawableChunk {
 
 	abstract public ObjectArrayList<DrawableDelegate> delegates(ShaderPass pass);
 
+	/**
+	 * Called from client thread before first use.
+	 */
+	public void upload() {
+		vboBuffer.upload();
+	}
+
+	public void bind() {
+		vboBuffer.bind();
+	}
+
+	/**
+	 * Buffer bound by {@link #bind()}. Drawables with the same buffer can draw after one bind.
+	 */
+	public VboBuffer drawBuffer() {
+		return vboBuffer;
+	}
+
+	/**
+	 * Replaces the draw order of translucent quads if this drawable was built from the
+	 * given saved state.  Indices are released in any case. Called from client thread.
+	 *
+	 * @return true if indices were uploaded
+	 */
+	public boolean resort(int[] sortState, ByteBuffer indices) {
+		TransferBufferAllocator.release(indices);
+		return false;
+	}
+
 	/**
 	 * Called when buffer content is no longer current and will not be rendered.
 	 */
@@ -58,12 +90,12 @@ public abstract class DrawableChunk {
 		private ObjectArrayList<DrawableDelegate> solid;
 		private ObjectArrayList<DrawableDelegate> decal;
 
+		/** Location in a shared buffer, or null if vertex data is in this drawable's own buffer */
+		private TerrainArena.Slice slice;
+
 		public Solid(VertexCollectorList collectorList, VboBuffer vboBuffer) {
 			super(vboBuffer);
 
-			final IntBuffer intBuffer = vboBuffer.intBuffer();
-			intBuffer.position(0);
-
 			final int limit = collectorList.solidCount();
 			int position = 0;
 
@@ -75,8 +107,8 @@ public abstract class DrawableChunk {
 
 				if (collector.materialState().shaderPass == ShaderPass.SOLID) {
 					final int vertexCount = collector.vertexCount();
-					collector.toBuffer(intBuffer);
-					solid.add(DrawableDelegate.claim(collector.materialState(), position, vertexCount));
+					collector.toVbo(vboBuffer);
+					solid.add(DrawableDelegate.claim(collector.materialState(), position, vertexCount, collector.faceId()));
 					position += vertexCount;
 				}
 			}
@@ -97,8 +129,8 @@ public abstract class DrawableChunk {
 
 				if (collector.materialState().shaderPass == ShaderPass.DECAL) {
 					final int vertexCount = collector.vertexCount();
-					collector.toBuffer(intBuffer);
-					decal.add(DrawableDelegate.claim(collector.materialState(), position, vertexCount));
+					collector.toVbo(vboBuffer);
+					decal.add(DrawableDelegate.claim(collector.materialState(), position, vertexCount, collector.faceId()));
 					position += vertexCount;
 				}
 			}
@@ -121,10 +153,52 @@ public abstract class DrawableChunk {
 			}
 		}
 
+		@Override
+		public void upload() {
+			if (TerrainArena.ENABLED) {
+				slice = TerrainArena.claim(vboBuffer, this::moveVertices);
+			}
+
+			if (slice == null) {
+				super.upload();
+			} else {
+				moveVertices(slice.firstVertex());
+			}
+		}
+
+		private void moveVertices(int vertexDelta) {
+			if (solid != null) {
+				solid.forEach(d -> d.moveVertices(vertexDelta));
+			}
+
+			if (decal != null) {
+				decal.forEach(d -> d.moveVertices(vertexDelta));
+			}
+		}
+
+		@Override
+		public void bind() {
+			if (slice == null) {
+				super.bind();
+			} else {
+				slice.bind();
+			}
+		}
+
+		@Override
+		public VboBuffer drawBuffer() {
+			return slice == null ? vboBuffer : slice.buffer();
+		}
+
 		@Override
 		protected void closeInner() {
 			assert solid != null || decal != null;
 
+			if (slice != null) {
+				slice.release();
+				slice = null;
+			}
+
 			if (solid != null) {
 				clearDelegateList(solid);
 				solid = null;
@@ -139,18 +213,25 @@ public abstract class DrawableChunk {
 
 	private static class Translucent extends DrawableChunk {
 		private ObjectArrayList<DrawableDelegate> delegates;
+		private final IndexBuffer indexBuffer;
+
+		/** Identifies the vertex data in this drawable so stale resorts can be ignored */
+		private final int[] sortState;
 
 		public Translucent(VertexCollectorList collectorList, VboBuffer vboBuffer) {
 			super(vboBuffer);
 
-			final IntBuffer intBuffer = vboBuffer.intBuffer();
-			intBuffer.position(0);
-
 			final VertexCollectorImpl collector = collectorList.getTranslucent();
-			collector.toBuffer(intBuffer);
+			final int vertexCount = collector.vertexCount();
+			indexBuffer = new IndexBuffer(vertexCount * 4);
+			collector.toIndexBuffer(indexBuffer.intBuffer());
+			sortState = collector.sortSource();
+
+			// may leave collector empty, so must come last
+			collector.toVbo(vboBuffer);
 
 			final ObjectArrayList<DrawableDelegate> delegates = DelegateLists.getReadyDelegateList();
-			delegates.add(DrawableDelegate.claim(collector.materialState(), 0, collector.vertexCount()));
+			delegates.add(DrawableDelegate.claimIndexed(collector.materialState(), vertexCount));
 			this.delegates = delegates;
 		}
 
@@ -160,11 +241,34 @@ public abstract class DrawableChunk {
 			return delegates;
 		}
 
+		@Override
+		public void upload() {
+			super.upload();
+			indexBuffer.upload();
+		}
+
+		@Override
+		public void bind() {
+			super.bind();
+			indexBuffer.bind();
+		}
+
+		@Override
+		public boolean resort(int[] sortState, ByteBuffer indices) {
+			if (isClosed || sortState != this.sortState) {
+				return super.resort(sortState, indices);
+			}
+
+			indexBuffer.upload(indices);
+			return true;
+		}
+
 		@Override
 		protected void closeInner() {
 			assert delegates != null;
 			clearDelegateList(delegates);
 			delegates = null;
+			indexBuffer.close();
 		}
 	}
 
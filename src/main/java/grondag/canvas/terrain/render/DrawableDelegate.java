@@ -23,12 +23,21 @@ import org.lwjgl.opengl.GL11;
 import com.mojang.blaze3d.platform.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
 
+import net.fabricmc.fabric.api.renderer.v1.model.ModelHelper;
+
 import grondag.canvas.material.MaterialState;
 
 public class DrawableDelegate {
 	private static final ArrayBlockingQueue<DrawableDelegate> store = new ArrayBlockingQueue<>(4096);
 
 	public static DrawableDelegate claim(MaterialState renderState, int vertexOffset, int vertexCount) {
+		return claim(renderState, vertexOffset, vertexCount, ModelHelper.NULL_FACE_ID);
+	}
+
+	/**
+	 * @param faceId face all quads point toward, or {@link ModelHelper#NULL_FACE_ID} if mixed
+	 */
+	public static DrawableDelegate claim(MaterialState renderState, int vertexOffset, int vertexCount, int faceId) {
 		DrawableDelegate result = store.poll();
 
 		if (result == null) {
@@ -38,13 +47,26 @@ public class DrawableDelegate {
 		result.materialState = renderState;
 		result.vertexOffset = vertexOffset;
 		result.vertexCount = vertexCount;
+		result.faceId = faceId;
+		result.isIndexed = false;
 		result.isReleased = false;
 		return result;
 	}
 
+	/**
+	 * Delegate that draws vertices in the order of the bound element index buffer.
+	 */
+	public static DrawableDelegate claimIndexed(MaterialState renderState, int indexCount) {
+		final DrawableDelegate result = claim(renderState, 0, indexCount);
+		result.isIndexed = true;
+		return result;
+	}
+
 	private MaterialState materialState;
 	private int vertexOffset;
 	private int vertexCount;
+	private int faceId;
+	private boolean isIndexed = false;
 	private boolean isReleased = false;
 
 	private DrawableDelegate() {
@@ -60,12 +82,16 @@ public class DrawableDelegate {
 
 	/**
 	 * Assumes pipeline has already been activated and buffer has already been bound
-	 * via {@link #bind()}
+	 * via {@link DrawableChunk#bind()}
 	 */
 	public void draw() {
 		assert !isReleased;
 
-		GlStateManager.drawArrays(GL11.GL_QUADS, vertexOffset, vertexCount);
+		if (isIndexed) {
+			GL11.glDrawElements(GL11.GL_QUADS, vertexCount, GL11.GL_UNSIGNED_INT, 0L);
+		} else {
+			GlStateManager.drawArrays(GL11.GL_QUADS, vertexOffset, vertexCount);
+		}
 	}
 
 	public void release() {
@@ -78,7 +104,25 @@ public class DrawableDelegate {
 		}
 	}
 
+	/**
+	 * For drawables that start at a different vertex of a shared buffer.
+	 */
+	void moveVertices(int vertexDelta) {
+		vertexOffset += vertexDelta;
+	}
+
+	int vertexOffset() {
+		return vertexOffset;
+	}
+
 	public int vertexCount() {
 		return vertexCount;
 	}
+
+	/**
+	 * Face all quads point toward, or {@link ModelHelper#NULL_FACE_ID} if mixed.
+	 */
+	public int faceId() {
+		return faceId;
+	}
 }
@@ -9,12 +9,18 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.util.math.MatrixStack;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+
+import net.fabricmc.fabric.api.renderer.v1.model.ModelHelper;
 
 import grondag.canvas.Configurator;
 import grondag.canvas.apiimpl.MaterialConditionImpl;
+import grondag.canvas.buffer.IndexBuffer;
+import grondag.canvas.buffer.VboBuffer;
 import grondag.canvas.light.LightmapHdTexture;
 import grondag.canvas.material.EncodingContext;
 import grondag.canvas.material.MaterialVertexFormat;
+import grondag.canvas.perf.TerrainDrawCounters;
 import grondag.canvas.render.DrawHandler;
 import grondag.canvas.render.DrawHandlers;
 import grondag.canvas.shader.MaterialShaderManager;
@@ -29,6 +35,10 @@ public class TerrainLayerRenderer {
 	private final Runnable sortTask;
 	private final boolean isTranslucent;
 	private final ShaderContext shaderContext;
+	private final TerrainMultiDraw multiDraw = new TerrainMultiDraw();
+
+	/** Blocks by which models may extend past their region, for face culling */
+	private static final int FACE_MARGIN = 1;
 
 	public TerrainLayerRenderer(String layerName, ShaderContext shaderContext, @Nullable Runnable translucentSortTask) {
 		profileString = "render_" + layerName;
@@ -58,12 +68,20 @@ public class TerrainLayerRenderer {
 		}
 
 		long lastRelativeOrigin = -1;
+		VboBuffer lastDrawBuffer = null;
 
 		final DrawHandler h = DrawHandlers.get(EncodingContext.TERRAIN, shaderContext.pass);
 		final MaterialVertexFormat format = h.format;
 		h.setup();
 
+		if (!isTranslucent && Configurator.terrainMultiDraw && Configurator.batchedChunkRender) {
+			renderMulti(visibleRegions, visibleRegionCount, format, frameIndex, matrixStack, x, y, z);
+			mc.getProfiler().pop();
+			return;
+		}
+
 		int ox = 0, oy = 0, oz = 0;
+		int drawCount = 0, bindCount = 0, delegateCount = 0, vertexCount = 0, culledVertexCount = 0;
 
 		for (int regionIndex = startIndex; regionIndex != endIndex; regionIndex += step) {
 			final BuiltRenderRegion builtRegion = visibleRegions[regionIndex];
@@ -79,7 +97,7 @@ public class TerrainLayerRenderer {
 
 				if (delegates != null) {
 					final BlockPos modelOrigin = builtRegion.getOrigin();
-
+					final int faceFlags = visibleFaceFlags(modelOrigin, x, y, z);
 
 					if (Configurator.batchedChunkRender) {
 						final long newRelativeOrigin = TerrainModelSpace.getPackedOrigin(modelOrigin);
@@ -115,17 +133,32 @@ public class TerrainLayerRenderer {
 						RenderSystem.multMatrix(matrixStack.peek().getModel());
 					}
 
-					drawable.vboBuffer.bind();
+					final VboBuffer drawBuffer = drawable.drawBuffer();
+
+					if (drawBuffer != lastDrawBuffer) {
+						drawable.bind();
+						lastDrawBuffer = drawBuffer;
+						++bindCount;
+					}
 
 					final int limit = delegates.size();
+					delegateCount += limit;
 
 					for(int i = 0; i < limit; ++i) {
 						final DrawableDelegate d = delegates.get(i);
+
+						if ((faceFlags & (1 << d.faceId())) == 0) {
+							culledVertexCount += d.vertexCount();
+							continue;
+						}
+
 						final MaterialConditionImpl condition = d.materialState().condition;
 
 						if(!condition.affectBlocks || condition.compute(frameIndex)) {
 							d.materialState().shader.activate(shaderContext, format, ox, oy, oz);
 							d.draw();
+							++drawCount;
+							vertexCount += d.vertexCount();
 						}
 					}
 
@@ -142,6 +175,94 @@ public class TerrainLayerRenderer {
 			matrixStack.pop();
 		}
 
+		if (isTranslucent) {
+			IndexBuffer.unbind();
+		}
+
+		if (TerrainDrawCounters.ENABLED) {
+			TerrainDrawCounters.pass(drawCount, bindCount, delegateCount, vertexCount, culledVertexCount);
+		}
+
 		mc.getProfiler().pop();
 	}
+
+	private void renderMulti(final BuiltRenderRegion[] visibleRegions, final int visibleRegionCount, MaterialVertexFormat format, int frameIndex, MatrixStack matrixStack, double x, double y, double z) {
+		final ShaderPass pass = shaderContext.pass;
+		int delegateCount = 0, vertexCount = 0, culledVertexCount = 0;
+		multiDraw.clearCounts();
+
+		for (int regionIndex = 0; regionIndex < visibleRegionCount; ++regionIndex) {
+			final BuiltRenderRegion builtRegion = visibleRegions[regionIndex];
+
+			if (builtRegion == null) {
+				continue;
+			}
+
+			final DrawableChunk drawable = builtRegion.solidDrawable();
+
+			if (!drawable.isClosed()) {
+				final ObjectArrayList<DrawableDelegate> delegates = drawable.delegates(pass);
+
+				if (delegates != null) {
+					final BlockPos modelOrigin = builtRegion.getOrigin();
+					final int faceFlags = visibleFaceFlags(modelOrigin, x, y, z);
+					final long packedOrigin = TerrainModelSpace.getPackedOrigin(modelOrigin);
+					final int delegateLimit = delegates.size();
+					int start = 0;
+
+					while ((start = multiDraw.add(packedOrigin, drawable.drawBuffer(), delegates, start, faceFlags)) < delegateLimit) {
+						// batch is full
+						multiDraw.draw(shaderContext, format, frameIndex, matrixStack, x, y, z);
+					}
+
+					if (TerrainDrawCounters.ENABLED) {
+						final int limit = delegates.size();
+						delegateCount += limit;
+
+						for (int i = 0; i < limit; ++i) {
+							final DrawableDelegate d = delegates.get(i);
+
+							if ((faceFlags & (1 << d.faceId())) == 0) {
+								culledVertexCount += d.vertexCount();
+							} else {
+								vertexCount += d.vertexCount();
+							}
+						}
+					}
+				}
+			}
+		}
+
+		multiDraw.draw(shaderContext, format, frameIndex, matrixStack, x, y, z);
+
+		if (TerrainDrawCounters.ENABLED) {
+			TerrainDrawCounters.pass(multiDraw.drawCount(), multiDraw.bindCount(), delegateCount, vertexCount, culledVertexCount);
+		}
+	}
+
+	/**
+	 * Faces of quads in a region that may point toward the camera, as bits indexed by face id,
+	 * with the bit for {@link ModelHelper#NULL_FACE_ID} always set.  Quads partitioned by face
+	 * lie on a plane inside their block, so within the region bounds, but offset models can
+	 * move them a little, so the region is padded.
+	 */
+	private static int visibleFaceFlags(BlockPos origin, double x, double y, double z) {
+		final int x0 = origin.getX() - FACE_MARGIN;
+		final int y0 = origin.getY() - FACE_MARGIN;
+		final int z0 = origin.getZ() - FACE_MARGIN;
+		final int x1 = origin.getX() + 16 + FACE_MARGIN;
+		final int y1 = origin.getY() + 16 + FACE_MARGIN;
+		final int z1 = origin.getZ() + 16 + FACE_MARGIN;
+
+		int result = 1 << ModelHelper.NULL_FACE_ID;
+
+		if (y < y1) result |= 1 << ModelHelper.toFaceIndex(Direction.DOWN);
+		if (y > y0) result |= 1 << ModelHelper.toFaceIndex(Direction.UP);
+		if (z < z1) result |= 1 << ModelHelper.toFaceIndex(Direction.NORTH);
+		if (z > z0) result |= 1 << ModelHelper.toFaceIndex(Direction.SOUTH);
+		if (x < x1) result |= 1 << ModelHelper.toFaceIndex(Direction.WEST);
+		if (x > x0) result |= 1 << ModelHelper.toFaceIndex(Direction.EAST);
+
+		return result;
+	}
 }
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2019, 2020 grondag
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+
+package grondag.canvas.terrain.render;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+
+import net.minecraft.client.util.math.MatrixStack;
+
+import grondag.canvas.buffer.VboBuffer;
+import grondag.canvas.material.MaterialState;
+import grondag.canvas.material.MaterialVertexFormat;
+import grondag.canvas.shader.ShaderContext;
+import grondag.canvas.terrain.TerrainModelSpace;
+
+/**
+ * Collects the delegates of all visible regions in a solid pass and draws them with one
+ * {@code glMultiDrawArrays} call for each render cube, vertex buffer and material, instead
+ * of one draw call per delegate.  Regions in the same {@link TerrainModelSpace} cube share
+ * a model matrix, and with shared terrain buffers most of them also share a vertex buffer.
+ *
+ * <p>Draw order is not kept, so only for passes that do not depend on it.
+ *
+ * <p>Cubes, buffers and materials are numbered in the order first added, and a batch holds
+ * at most {@link #MAX_CUBES}, {@link #MAX_BUFFERS}, {@link #MAX_MATERIALS} and
+ * {@link #MAX_ENTRIES} of each so they fit in the sort key.  When a batch is full
+ * {@link #add} stops and the caller draws the batch before adding the rest.
+ */
+class TerrainMultiDraw {
+	// sort key: cube, buffer, material, then entry, with the sign bit unused
+	private static final int ENTRY_BITS = 24;
+	private static final int MATERIAL_BITS = 15;
+	private static final int BUFFER_BITS = 17;
+	private static final int CUBE_BITS = 7;
+	private static final int MATERIAL_SHIFT = ENTRY_BITS;
+	private static final int BUFFER_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+	private static final int CUBE_SHIFT = BUFFER_SHIFT + BUFFER_BITS;
+	private static final long ENTRY_MASK = (1L << ENTRY_BITS) - 1;
+
+	static final int MAX_ENTRIES = 1 << ENTRY_BITS;
+	static final int MAX_MATERIALS = 1 << MATERIAL_BITS;
+	static final int MAX_BUFFERS = 1 << BUFFER_BITS;
+	static final int MAX_CUBES = 1 << CUBE_BITS;
+
+	static {
+		assert CUBE_SHIFT + CUBE_BITS == 63;
+	}
+
+	private long[] keys = new long[4096];
+	private int[] firsts = new int[4096];
+	private int[] counts = new int[4096];
+	private int entryCount = 0;
+
+	private final Long2IntOpenHashMap cubeIndex = new Long2IntOpenHashMap();
+	private final LongArrayList cubes = new LongArrayList();
+	private final Reference2IntOpenHashMap<VboBuffer> bufferIndex = new Reference2IntOpenHashMap<>();
+	private final ObjectArrayList<VboBuffer> buffers = new ObjectArrayList<>();
+	private final Reference2IntOpenHashMap<MaterialState> materialIndex = new Reference2IntOpenHashMap<>();
+	private final ObjectArrayList<MaterialState> materials = new ObjectArrayList<>();
+
+	private IntBuffer firstBuffer = BufferUtils.createIntBuffer(4096);
+	private IntBuffer countBuffer = BufferUtils.createIntBuffer(4096);
+
+	private int drawCount;
+	private int bindCount;
+
+	TerrainMultiDraw() {
+		cubeIndex.defaultReturnValue(-1);
+		bufferIndex.defaultReturnValue(-1);
+		materialIndex.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Adds delegates starting at {@code start} until all are added or the batch is full.
+	 *
+	 * @param faceFlags bits indexed by face id, delegates with a face not in this set are skipped
+	 * @return index of the first delegate not added, {@code delegates.size()} if all were added.
+	 * If less, the batch is full and must be drawn before adding the rest.
+	 */
+	int add(long packedCubeOrigin, VboBuffer buffer, ObjectArrayList<DrawableDelegate> delegates, int start, int faceFlags) {
+		int cube = cubeIndex.get(packedCubeOrigin);
+
+		if (cube == -1) {
+			if (cubes.size() == MAX_CUBES) {
+				return start;
+			}
+
+			cube = cubes.size();
+			cubes.add(packedCubeOrigin);
+			cubeIndex.put(packedCubeOrigin, cube);
+		}
+
+		int bufferOrdinal = bufferIndex.getInt(buffer);
+
+		if (bufferOrdinal == -1) {
+			if (buffers.size() == MAX_BUFFERS) {
+				return start;
+			}
+
+			bufferOrdinal = buffers.size();
+			buffers.add(buffer);
+			bufferIndex.put(buffer, bufferOrdinal);
+		}
+
+		final long groupBits = ((long) cube << CUBE_SHIFT) | ((long) bufferOrdinal << BUFFER_SHIFT);
+		final int limit = delegates.size();
+		ensureCapacity(Math.min(MAX_ENTRIES, entryCount + limit - start));
+
+		for (int i = start; i < limit; ++i) {
+			final DrawableDelegate d = delegates.get(i);
+
+			if ((faceFlags & (1 << d.faceId())) == 0) {
+				continue;
+			}
+
+			if (entryCount == MAX_ENTRIES) {
+				return i;
+			}
+
+			final MaterialState materialState = d.materialState();
+			int material = materialIndex.getInt(materialState);
+
+			if (material == -1) {
+				if (materials.size() == MAX_MATERIALS) {
+					return i;
+				}
+
+				material = materials.size();
+				materials.add(materialState);
+				materialIndex.put(materialState, material);
+			}
+
+			final int entry = entryCount++;
+			firsts[entry] = d.vertexOffset();
+			counts[entry] = d.vertexCount();
+			keys[entry] = groupBits | ((long) material << MATERIAL_SHIFT) | entry;
+		}
+
+		return limit;
+	}
+
+	private void ensureCapacity(int size) {
+		if (size > keys.length) {
+			final int newSize = Integer.highestOneBit(size - 1) << 1;
+			keys = Arrays.copyOf(keys, newSize);
+			firsts = Arrays.copyOf(firsts, newSize);
+			counts = Arrays.copyOf(counts, newSize);
+			firstBuffer = BufferUtils.createIntBuffer(newSize);
+			countBuffer = BufferUtils.createIntBuffer(newSize);
+		}
+	}
+
+	/**
+	 * Draws everything added since the last call and clears.  Adds to draw and bind counts.
+	 */
+	void draw(ShaderContext shaderContext, MaterialVertexFormat format, int frameIndex, MatrixStack matrixStack, double x, double y, double z) {
+		final long[] keys = this.keys;
+		final int entryCount = this.entryCount;
+		Arrays.sort(keys, 0, entryCount);
+
+		int lastCube = -1;
+		int lastBuffer = -1;
+		int ox = 0, oy = 0, oz = 0;
+		int i = 0;
+
+		while (i < entryCount) {
+			final long group = keys[i] >>> ENTRY_BITS;
+			final int cube = (int) (group >>> (CUBE_SHIFT - ENTRY_BITS));
+			final int buffer = (int) (group >>> (BUFFER_SHIFT - ENTRY_BITS)) & (MAX_BUFFERS - 1);
+			final MaterialState materialState = materials.get((int) group & (MAX_MATERIALS - 1));
+
+			final IntBuffer firstBuffer = this.firstBuffer;
+			final IntBuffer countBuffer = this.countBuffer;
+			firstBuffer.clear();
+			countBuffer.clear();
+
+			while (i < entryCount && (keys[i] >>> ENTRY_BITS) == group) {
+				final int entry = (int) (keys[i++] & ENTRY_MASK);
+				firstBuffer.put(firsts[entry]);
+				countBuffer.put(counts[entry]);
+			}
+
+			if (materialState.condition.affectBlocks && !materialState.condition.compute(frameIndex)) {
+				continue;
+			}
+
+			if (cube != lastCube) {
+				if (lastCube != -1) {
+					RenderSystem.popMatrix();
+					matrixStack.pop();
+				}
+
+				lastCube = cube;
+				final long packedOrigin = cubes.getLong(cube);
+				ox = TerrainModelSpace.getPackedKeyOriginX(packedOrigin);
+				oy = TerrainModelSpace.getPackedKeyOriginY(packedOrigin);
+				oz = TerrainModelSpace.getPackedKeyOriginZ(packedOrigin);
+
+				matrixStack.push();
+				matrixStack.translate(ox - x, oy - y, oz - z);
+				RenderSystem.pushMatrix();
+				RenderSystem.loadIdentity();
+				RenderSystem.multMatrix(matrixStack.peek().getModel());
+			}
+
+			if (buffer != lastBuffer) {
+				lastBuffer = buffer;
+				buffers.get(buffer).bind();
+				++bindCount;
+			}
+
+			materialState.shader.activate(shaderContext, format, ox, oy, oz);
+			firstBuffer.flip();
+			countBuffer.flip();
+			GL14.glMultiDrawArrays(GL11.GL_QUADS, firstBuffer, countBuffer);
+			++drawCount;
+		}
+
+		if (lastCube != -1) {
+			RenderSystem.popMatrix();
+			matrixStack.pop();
+		}
+
+		clear();
+	}
+
+	private void clear() {
+		entryCount = 0;
+		cubeIndex.clear();
+		cubes.clear();
+		bufferIndex.clear();
+		buffers.clear();
+		materialIndex.clear();
+		materials.clear();
+	}
+
+	/** Call at the start of a pass that may draw more than one batch */
+	void clearCounts() {
+		drawCount = 0;
+		bindCount = 0;
+	}
+
+	/** Draw calls since {@link #clearCounts()}, for counters */
+	int drawCount() {
+		return drawCount;
+	}
+
+	/** Buffer binds since {@link #clearCounts()}, for counters */
+	int bindCount() {
+		return bindCount;
+	}
+}
@@ -38,7 +38,7 @@ public class UploadableChunk {
 	 * Will be called from client thread - is where flush/unmap needs to happen.
 	 */
 	public DrawableChunk produceDrawable() {
-		vboBuffer.upload();
+		drawable.upload();
 		return drawable;
 	}
 
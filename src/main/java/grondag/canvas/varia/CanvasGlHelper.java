@@ -38,6 +38,8 @@ public class CanvasGlHelper {
 	static private boolean vaoEnabled = false;
 	static private boolean useVaoArb = false;
 	static private boolean useGpuShader4 = false;
+	static private boolean useBufferStorage = false;
+	static private boolean useCopyBuffer = false;
 
 	public static void init() {
 		final GLCapabilities caps = GL.getCapabilities();
@@ -45,6 +47,8 @@ public class CanvasGlHelper {
 		vaoEnabled = caps.GL_ARB_vertex_array_object || caps.OpenGL30;
 		useVaoArb = !caps.OpenGL30 && caps.GL_ARB_vertex_array_object;
 		useGpuShader4 = caps.GL_EXT_gpu_shader4;
+		useBufferStorage = caps.OpenGL44;
+		useCopyBuffer = caps.OpenGL31;
 
 		if(Configurator.logMachineInfo) {
 			logMachineInfo(caps);
@@ -60,17 +64,26 @@ public class CanvasGlHelper {
 		log.info(String.format(" CPU: %s", GLX._getCpuInfo()));
 		log.info(String.format(" GPU: %s  %s", GLX._getCapsString(), GLX._getLWJGLVersion()));
 		log.info(String.format(" OpenGL: %s", GLX.getOpenGLVersionString()));
-		log.info(String.format(" GpuShader4: %s  VboArb: %s  VaoEnabled: %s  VaoArb: %s",
+		log.info(String.format(" GpuShader4: %s  VboArb: %s  VaoEnabled: %s  VaoArb: %s  BufferStorage: %s",
 				useGpuShader4 ? "Y" : "N",
 						useVboArb ? "Y" : "N",
 								vaoEnabled ? "Y" : "N",
-										useVaoArb ? "Y" : "N"));
+										useVaoArb ? "Y" : "N",
+												useBufferStorage ? "Y" : "N"));
 		log.info(" (This message can be disabled by configuring logMachineInfo = false.)");
 		log.info("========================================================================");
 	}
 
 	static private int attributeEnabledCount = 0;
 
+	public static boolean useBufferStorage() {
+		return useBufferStorage;
+	}
+
+	public static boolean useCopyBuffer() {
+		return useCopyBuffer;
+	}
+
 	public static boolean useGpuShader4() {
 		return useGpuShader4;
 	}
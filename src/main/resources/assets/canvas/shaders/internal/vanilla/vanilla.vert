@@ -22,7 +22,7 @@ attribute vec2 in_material;
 
 void main() {
 	frx_VertexData data = frx_VertexData(
-		gl_Vertex,
+		_cv_vertexPosition(),
 		in_uv,
 		in_color,
 		in_normal_ao.xyz,
@@ -8,6 +8,20 @@
 #define _CV_ATLAS_WIDTH 1024.0
 #define _CV_ATLAS_HEIGHT 1024.0
 
+// Enabled for solid terrain with the compact vertex format. Position is 16-bit fixed point
+// relative to the middle of the render cube - must match CompactTerrainEncoding.
+//#define _CV_COMPACT_POSITION
+#define _CV_COMPACT_POSITION_SCALE 0.0078125
+#define _CV_COMPACT_POSITION_OFFSET 128.0
+
+vec4 _cv_vertexPosition() {
+#ifdef _CV_COMPACT_POSITION
+	return vec4(gl_Vertex.xyz * _CV_COMPACT_POSITION_SCALE + _CV_COMPACT_POSITION_OFFSET, 1.0);
+#else
+	return gl_Vertex;
+#endif
+}
+
 vec2 _cv_textureCoord(vec2 coordIn, int matrixIndex) {
 	vec4 temp = gl_TextureMatrix[matrixIndex] * coordIn.xyxy;
 	return temp.xy;
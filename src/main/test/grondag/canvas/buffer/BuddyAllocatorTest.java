@@ -0,0 +1,102 @@
+package grondag.canvas.buffer;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Allocates and frees region-sized ranges at random, checking that ranges never overlap,
+ * that space is packed low, and that freeing everything merges back to one block.
+ * Prints fragmentation along the way.
+ */
+class BuddyAllocatorTest {
+	static final int CAPACITY = 0x2000000;
+	static final int MIN_BLOCK = 1024;
+
+	final BuddyAllocator allocator = new BuddyAllocator(CAPACITY, MIN_BLOCK);
+	final BitSet used = new BitSet(CAPACITY / MIN_BLOCK);
+	final IntArrayList offsets = new IntArrayList();
+	final IntArrayList sizes = new IntArrayList();
+	final Random random = new Random(42);
+
+	@Test
+	void test() {
+		assert allocator.allocate(0) == -1;
+		assert allocator.allocate(CAPACITY + 1) == -1;
+
+		// lowest block first, and buddies merge
+		assert allocator.allocate(MIN_BLOCK) == 0;
+		assert allocator.allocate(MIN_BLOCK + 1) == MIN_BLOCK * 2;
+		assert allocator.allocate(MIN_BLOCK) == MIN_BLOCK;
+		allocator.free(0);
+		allocator.free(MIN_BLOCK);
+		allocator.free(MIN_BLOCK * 2);
+		assert allocator.largestFreeBlock() == CAPACITY;
+		assert allocator.allocationCount() == 0;
+
+		for (int round = 0; round < 20; ++round) {
+			// grow to mostly full
+			while (allocate()) {
+				// keep going
+			}
+
+			// free a random share, as regions are rebuilt or unloaded
+			for (int i = offsets.size() - 1; i >= 0; --i) {
+				if (random.nextInt(3) == 0) {
+					free(i);
+				}
+			}
+
+			System.out.println(String.format("Round %d: %d allocations, %dMB used, largest free %dKB, external frag %.2f, internal frag %.2f",
+					round, allocator.allocationCount(), allocator.allocatedBytes() / 0x100000, allocator.largestFreeBlock() / 1024,
+					allocator.externalFragmentation(), allocator.internalFragmentation()));
+
+			assert allocator.internalFragmentation() < 0.5f;
+		}
+
+		while (!offsets.isEmpty()) {
+			free(offsets.size() - 1);
+		}
+
+		assert allocator.allocatedBytes() == 0;
+		assert allocator.requestedBytes() == 0;
+		assert allocator.largestFreeBlock() == CAPACITY;
+		assert allocator.externalFragmentation() == 0;
+	}
+
+	/** Sizes like solid region vertex data: mostly tens of KB, some large */
+	boolean allocate() {
+		final int bytes = random.nextInt(8) == 0 ? 100000 + random.nextInt(400000) : 1000 + random.nextInt(60000);
+		final int offset = allocator.allocate(bytes);
+
+		if (offset < 0) {
+			return false;
+		}
+
+		assert offset % MIN_BLOCK == 0;
+		assert offset + bytes <= CAPACITY;
+
+		final int first = offset / MIN_BLOCK;
+		final int end = (offset + bytes + MIN_BLOCK - 1) / MIN_BLOCK;
+		assert used.nextSetBit(first) == -1 || used.nextSetBit(first) >= end : "Overlapping allocation";
+		used.set(first, end);
+		offsets.add(offset);
+		sizes.add(bytes);
+		return true;
+	}
+
+	void free(int index) {
+		final int offset = offsets.getInt(index);
+		final int bytes = sizes.getInt(index);
+		allocator.free(offset);
+		used.clear(offset / MIN_BLOCK, (offset + bytes + MIN_BLOCK - 1) / MIN_BLOCK);
+
+		final int last = offsets.size() - 1;
+		offsets.set(index, offsets.getInt(last));
+		sizes.set(index, sizes.getInt(last));
+		offsets.removeInt(last);
+		sizes.removeInt(last);
+	}
+}
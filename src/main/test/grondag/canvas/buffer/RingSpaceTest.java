@@ -0,0 +1,74 @@
+package grondag.canvas.buffer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks staging ring space accounting with fences that signal only when told to,
+ * standing in for the GPU.
+ */
+class RingSpaceTest {
+	final LongOpenHashSet signaled = new LongOpenHashSet();
+	final RingSpace space = new RingSpace(4096);
+
+	@Test
+	void test() {
+		// claims are aligned and in order
+		assert space.claim(100) == 0;
+		assert space.claim(64) == 128;
+		assert space.usedBytes() == 192;
+
+		// nothing reused before the fence signals
+		assert space.fence(1);
+		assert !space.fence(2);
+		space.retire(signaled::contains);
+		assert space.usedBytes() == 192;
+
+		// fill to the end, then wrap is refused while the first frame is in flight
+		assert space.claim(3840) == 192;
+		assert space.claim(128) == -1;
+		assert space.fence(3);
+
+		signaled.add(1);
+		space.retire(signaled::contains);
+		assert space.usedBytes() == 3840;
+		assert space.fenceCount() == 1;
+
+		// freed space at the start is reused, after skipping what is left at the end
+		assert space.claim(192) == 0;
+		assert space.usedBytes() == 4096;
+		assert space.claim(64) == -1;
+
+		// later fences do not free space before earlier ones
+		assert space.fence(4);
+		signaled.add(4);
+		space.retire(signaled::contains);
+		assert space.fenceCount() == 2;
+		assert space.usedBytes() == 4096;
+
+		signaled.add(3);
+		space.retire(signaled::contains);
+		assert space.fenceCount() == 0;
+		assert space.usedBytes() == 0;
+
+		// a claim that does not fit before the end skips it, and the skipped space is held until the fence
+		space.clear(f -> {});
+		assert space.claim(3000) == 0;
+		assert space.fence(5);
+		assert space.claim(2000) == -1;
+
+		signaled.add(5);
+		space.retire(signaled::contains);
+		assert space.claim(2000) == 0;
+		assert space.usedBytes() == 2048 + 4096 - 3008;
+
+		assert space.fence(6);
+		signaled.add(6);
+		space.retire(signaled::contains);
+		assert space.usedBytes() == 0;
+
+		// larger than the ring never fits
+		space.clear(f -> {});
+		assert space.claim(8192) == -1;
+	}
+}
@@ -0,0 +1,107 @@
+package grondag.canvas.buffer.encoding;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips terrain quads through compact repacking.  Positions must come back within half
+ * a fixed-point step anywhere in a render cube, including models that extend past its edges,
+ * and all other vertex data must be unchanged.  Prints the largest position error seen.
+ */
+class CompactTerrainEncodingTest {
+	static final int QUAD_COUNT = 100000;
+	static final int SOURCE_QUAD_INTS = CompactTerrainEncoding.SOURCE_STRIDE * 4;
+	static final int TARGET_QUAD_INTS = CompactTerrainEncoding.TARGET_STRIDE * 4;
+	// half a step, plus float error in the source coordinates
+	static final float MAX_ERROR = 0.5f / CompactTerrainEncoding.POSITION_SCALE + 0.0001f;
+
+	final Random random = new Random(42);
+	final int[] quad = new int[SOURCE_QUAD_INTS];
+	final int[] source = new int[SOURCE_QUAD_INTS];
+
+	@Test
+	void test() {
+		float maxError = 0;
+
+		for (int q = 0; q < QUAD_COUNT; ++q) {
+			makeQuad();
+			System.arraycopy(quad, 0, source, 0, SOURCE_QUAD_INTS);
+
+			assert CompactTerrainEncoding.pack(quad, SOURCE_QUAD_INTS) == TARGET_QUAD_INTS;
+
+			for (int v = 0; v < 4; ++v) {
+				final int s = v * CompactTerrainEncoding.SOURCE_STRIDE;
+				final int t = v * CompactTerrainEncoding.TARGET_STRIDE;
+
+				maxError = Math.max(maxError, error(source[s], quad[t], false));
+				maxError = Math.max(maxError, error(source[s + 1], quad[t], true));
+				maxError = Math.max(maxError, error(source[s + 2], quad[t + 1], false));
+
+				assert (quad[t + 1] >>> 16) == source[s + 7] : "Sprite changed";
+				assert quad[t + 2] == source[s + 3] : "Color changed";
+				assert quad[t + 3] == source[s + 4] : "UV changed";
+				assert quad[t + 4] == source[s + 5] : "Light changed";
+				assert quad[t + 5] == source[s + 6] : "Normal changed";
+			}
+		}
+
+		System.out.println(String.format("Largest position error %.6f blocks, limit %.6f", maxError, MAX_ERROR));
+		assert maxError <= MAX_ERROR;
+
+		// whole blocks and sixteenths are exact
+		Arrays.fill(quad, 0);
+		quad[0] = Float.floatToRawIntBits(0f);
+		quad[1] = Float.floatToRawIntBits(256f);
+		quad[2] = Float.floatToRawIntBits(37.0625f);
+		CompactTerrainEncoding.pack(quad, CompactTerrainEncoding.SOURCE_STRIDE);
+		assert CompactTerrainEncoding.position(quad[0], false) == 0f;
+		assert CompactTerrainEncoding.position(quad[0], true) == 256f;
+		assert CompactTerrainEncoding.position(quad[1], false) == 37.0625f;
+
+		// out of range clamps rather than wrapping to the other side of the cube
+		Arrays.fill(quad, 0);
+		quad[0] = Float.floatToRawIntBits(-1000f);
+		quad[1] = Float.floatToRawIntBits(1000f);
+		quad[2] = Float.floatToRawIntBits(128f);
+		CompactTerrainEncoding.pack(quad, CompactTerrainEncoding.SOURCE_STRIDE);
+		assert CompactTerrainEncoding.position(quad[0], false) < 0f;
+		assert CompactTerrainEncoding.position(quad[0], true) > 256f;
+	}
+
+	static float error(int floatBits, int packed, boolean high) {
+		return Math.abs(Float.intBitsToFloat(floatBits) - CompactTerrainEncoding.position(packed, high));
+	}
+
+	/**
+	 * Block-sized quad in the vanilla layout somewhere in a render cube.  Some are on the
+	 * sixteenth-block model grid, some are arbitrary as from rotated elements or random
+	 * offsets, and some blocks are at the edges with models hanging outside the cube.
+	 */
+	void makeQuad() {
+		final boolean onGrid = random.nextBoolean();
+		final int bx = random.nextInt(8) == 0 ? (random.nextBoolean() ? 0 : 255) : random.nextInt(256);
+		final int by = random.nextInt(256);
+		final int bz = random.nextInt(256);
+		final int color = random.nextInt();
+		final int sprite = random.nextInt(0x10000);
+
+		for (int v = 0; v < 4; ++v) {
+			final int i = v * CompactTerrainEncoding.SOURCE_STRIDE;
+			quad[i] = Float.floatToRawIntBits(bx + modelCoordinate(onGrid));
+			quad[i + 1] = Float.floatToRawIntBits(by + modelCoordinate(onGrid));
+			quad[i + 2] = Float.floatToRawIntBits(bz + modelCoordinate(onGrid));
+			quad[i + 3] = color;
+			quad[i + 4] = random.nextInt();
+			quad[i + 5] = random.nextInt();
+			quad[i + 6] = random.nextInt();
+			quad[i + 7] = sprite;
+		}
+	}
+
+	/** Models may extend one block past their own on any side */
+	float modelCoordinate(boolean onGrid) {
+		return onGrid ? (random.nextInt(49) - 16) / 16f : random.nextFloat() * 3 - 1;
+	}
+}
@@ -0,0 +1,205 @@
+package grondag.canvas.buffer.encoding;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Merges random patches of block faces on every axis, mixed with quads that must pass
+ * through: partial faces, uneven light and faces off the block grid.  Every original face
+ * must be covered exactly once by an output quad with the same vertex data at the same
+ * corners, merged quads may not exceed the span limit, and other quads must come out
+ * unchanged.  Prints how many quads merging removed.
+ */
+class LodQuadMergerTest {
+	static final int SIZE = 16;
+	static final int VS = LodQuadMerger.VERTEX_STRIDE;
+	static final int QS = LodQuadMerger.QUAD_STRIDE;
+
+	final Random random = new Random(42);
+	final LodQuadMerger merger = new LodQuadMerger();
+
+	/** Expected data of the face at each cell, or null, indexed by axis, plane and cell */
+	final int[][][][] expected = new int[3][SIZE + 1][SIZE * SIZE][];
+	final int[][][] covered = new int[3][SIZE + 1][SIZE * SIZE];
+
+	int passCount = 0;
+	int passSeen = 0;
+	int faceCount = 0;
+	int outputCount = 0;
+
+	@Test
+	void test() {
+		final int[] data = new int[QS * 4];
+		int length = 0;
+
+		for (int n = 0; n < 5000; ++n) {
+			final int kind = random.nextInt(10);
+
+			if (kind == 0) {
+				makePassThrough(data, length);
+				++passCount;
+			} else if (!makeFace(data, length)) {
+				continue;
+			}
+
+			length += QS;
+
+			if (length == data.length) {
+				offer(data, length);
+				length = 0;
+			}
+		}
+
+		offer(data, length);
+
+		final int removed = merger.flush(this::accept);
+
+		for (int axis = 0; axis < 3; ++axis) {
+			for (int plane = 0; plane <= SIZE; ++plane) {
+				for (int cell = 0; cell < SIZE * SIZE; ++cell) {
+					final int expect = expected[axis][plane][cell] == null ? 0 : 1;
+					assert covered[axis][plane][cell] == expect : "Face covered " + covered[axis][plane][cell] + " times";
+				}
+			}
+		}
+
+		assert passSeen == passCount : "Pass-through quad held";
+		assert outputCount == faceCount - removed;
+		System.out.println(String.format("%,d faces merged to %,d quads", faceCount, outputCount));
+		assert outputCount < faceCount / 2;
+	}
+
+	void offer(int[] data, int length) {
+		final int remaining = merger.offer(data, length);
+
+		for (int q = 0; q < remaining; q += QS) {
+			assert data[q + 7] == -1 : "Mergeable face passed through";
+			++passSeen;
+		}
+	}
+
+	/**
+	 * Full face from a few sprites and lights so neighbors often match, sometimes
+	 * repeated exactly in the same place.
+	 */
+	boolean makeFace(int[] data, int q) {
+		final int axis = random.nextInt(3);
+		final int plane = random.nextInt(4) * 5;
+		// patches of the same sprite
+		final int a = random.nextInt(SIZE);
+		final int b = random.nextInt(SIZE);
+		final int cell = a + b * SIZE;
+
+		if (expected[axis][plane][cell] != null) {
+			return false;
+		}
+
+		final int sprite = (a / 5 + b / 3) & 1;
+		final int light = (a + plane) / 7;
+		final int axisA = axis == 0 ? 1 : 0;
+		final int axisB = axis == 2 ? 1 : 2;
+		// same corner order for a given axis so faces on a plane can merge
+		final int rotation = axis;
+
+		for (int v = 0; v < 4; ++v) {
+			final int corner = (v + rotation) & 3;
+			final int ca = corner == 1 || corner == 2 ? 1 : 0;
+			final int cb = corner >= 2 ? 1 : 0;
+			final int i = q + v * VS;
+			data[i + axis] = Float.floatToRawIntBits(plane);
+			data[i + axisA] = Float.floatToRawIntBits(a + ca);
+			data[i + axisB] = Float.floatToRawIntBits(b + cb);
+			data[i + 3] = 0xFFFFFFFF;
+			data[i + 4] = (ca * 0xFFFF) | ((cb * 0xFFFF) << 16);
+			data[i + 5] = light;
+			data[i + 6] = axis;
+			data[i + 7] = sprite;
+		}
+
+		expected[axis][plane][cell] = Arrays.copyOfRange(data, q, q + QS);
+		++faceCount;
+		return true;
+	}
+
+	/** Quads that look close to full faces but are not, marked with sprite -1 */
+	void makePassThrough(int[] data, int q) {
+		makeFaceData(data, q);
+
+		switch (random.nextInt(3)) {
+		case 0:
+			// half a block
+			data[q + VS + 1] = Float.floatToRawIntBits(Float.intBitsToFloat(data[q + VS + 1]) - 0.5f);
+			data[q + VS * 2 + 1] = Float.floatToRawIntBits(Float.intBitsToFloat(data[q + VS * 2 + 1]) - 0.5f);
+			break;
+		case 1:
+			// smooth light
+			data[q + VS + 5] = 99;
+			break;
+		default:
+			// slab top
+			for (int v = 0; v < 4; ++v) {
+				data[q + v * VS + 2] = Float.floatToRawIntBits(3.5f);
+			}
+		}
+	}
+
+	void makeFaceData(int[] data, int q) {
+		// z axis face, corners in the z = 3 plane, y near the top
+		for (int v = 0; v < 4; ++v) {
+			final int ca = v == 1 || v == 2 ? 1 : 0;
+			final int cb = v >= 2 ? 1 : 0;
+			final int i = q + v * VS;
+			data[i] = Float.floatToRawIntBits(4 + ca);
+			data[i + 1] = Float.floatToRawIntBits(5 + cb);
+			data[i + 2] = Float.floatToRawIntBits(3);
+			data[i + 3] = 0xFFFFFFFF;
+			data[i + 4] = 0;
+			data[i + 5] = 0;
+			data[i + 6] = 2;
+			data[i + 7] = -1;
+		}
+	}
+
+	void accept(int[] data, int length) {
+		assert length == QS;
+		++outputCount;
+
+		final int axis = data[6];
+		final int axisA = axis == 0 ? 1 : 0;
+		final int axisB = axis == 2 ? 1 : 2;
+		final int plane = (int) Float.intBitsToFloat(data[axis]);
+		float minA = Float.MAX_VALUE, maxA = -Float.MAX_VALUE, minB = Float.MAX_VALUE, maxB = -Float.MAX_VALUE;
+
+		for (int v = 0; v < 4; ++v) {
+			assert Float.intBitsToFloat(data[v * VS + axis]) == plane : "Merged quad not planar";
+			minA = Math.min(minA, Float.intBitsToFloat(data[v * VS + axisA]));
+			maxA = Math.max(maxA, Float.intBitsToFloat(data[v * VS + axisA]));
+			minB = Math.min(minB, Float.intBitsToFloat(data[v * VS + axisB]));
+			maxB = Math.max(maxB, Float.intBitsToFloat(data[v * VS + axisB]));
+		}
+
+		assert maxA - minA <= LodQuadMerger.MAX_SPAN && maxB - minB <= LodQuadMerger.MAX_SPAN : "Merged quad too large";
+
+		for (int b = (int) minB; b < maxB; ++b) {
+			for (int a = (int) minA; a < maxA; ++a) {
+				final int cell = a + b * SIZE;
+				final int[] face = expected[axis][plane][cell];
+				assert face != null : "Merged quad covers a missing face";
+				++covered[axis][plane][cell];
+
+				// same vertex data at the same corners
+				for (int v = 0; v < 4; ++v) {
+					for (int j = 3; j < VS; ++j) {
+						assert data[v * VS + j] == face[v * VS + j] : "Vertex data changed";
+					}
+
+					final boolean highA = Float.intBitsToFloat(data[v * VS + axisA]) == maxA;
+					final boolean faceHighA = Float.intBitsToFloat(face[v * VS + axisA]) == a + 1;
+					assert highA == faceHighA : "Vertex moved to another corner";
+				}
+			}
+		}
+	}
+}
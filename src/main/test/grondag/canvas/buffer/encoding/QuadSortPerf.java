@@ -0,0 +1,364 @@
+package grondag.canvas.buffer.encoding;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares translucent resorting as done before {@link QuadSorter}, with double distances,
+ * quick sort that swaps vertex data and a copy of the collector in and out, against float keys,
+ * a radix sorted index and one gather pass, and against writing only element indices.  Checks that
+ * output is in order, that indices are an eighth of the vertex bytes, and prints time per region.
+ *
+ * <p>Then walks the camera in small steps and resorts each region from its prior order,
+ * skipping regions where no quad plane was crossed, as done for camera-driven resorts.
+ *
+ * <p>Regions are mostly water: a surface with both windings, as fluids render it, plus shoreline
+ * and waterfall sides and some stained glass.
+ */
+class QuadSortPerf {
+	static final int REGION_COUNT = 256;
+	static final int PASSES = 20;
+
+	// same as VANILLA_BLOCKS_AND_ITEMS
+	static final int VERTEX_INT_STRIDE = 8;
+	static final int QUAD_INT_STRIDE = VERTEX_INT_STRIDE * 4;
+
+	final int[][] regions = new int[REGION_COUNT][];
+	final float[] cameras = new float[REGION_COUNT * 3];
+
+	final QuadSorter sorter = new QuadSorter();
+	int[] target = new int[4096];
+	IntBuffer indices = IntBuffer.allocate(4096);
+
+	// old sort state
+	int[] collector = new int[4096];
+	double[] perQuadDistance = new double[512];
+	final int[] quadSwap = new int[QUAD_INT_STRIDE];
+
+	final IntComparator comparator = (a, b) -> Double.compare(perQuadDistance[b], perQuadDistance[a]);
+
+	final Swapper swapper = (a, b) -> {
+		final double distSwap = perQuadDistance[a];
+		perQuadDistance[a] = perQuadDistance[b];
+		perQuadDistance[b] = distSwap;
+
+		System.arraycopy(collector, a * QUAD_INT_STRIDE, quadSwap, 0, QUAD_INT_STRIDE);
+		System.arraycopy(collector, b * QUAD_INT_STRIDE, collector, a * QUAD_INT_STRIDE, QUAD_INT_STRIDE);
+		System.arraycopy(quadSwap, 0, collector, b * QUAD_INT_STRIDE, QUAD_INT_STRIDE);
+	};
+
+	@Test
+	void test() {
+		buildRegions(new Random(42));
+
+		int quadCount = 0;
+
+		for (final int[] r : regions) {
+			quadCount += r.length / QUAD_INT_STRIDE;
+		}
+
+		System.out.println(String.format("Translucent regions: %d, avg quads = %d", REGION_COUNT, quadCount / REGION_COUNT));
+
+		for (int i = 0; i < REGION_COUNT; ++i) {
+			check(i);
+		}
+
+		for (int run = 0; run < 3; ++run) {
+			long start = System.nanoTime();
+
+			for (int p = 0; p < PASSES; ++p) {
+				for (int i = 0; i < REGION_COUNT; ++i) {
+					sortOld(i);
+				}
+			}
+
+			System.out.println(String.format("Quick sort with swaps: %,d ns per region", (System.nanoTime() - start) / PASSES / REGION_COUNT));
+
+			start = System.nanoTime();
+
+			for (int p = 0; p < PASSES; ++p) {
+				for (int i = 0; i < REGION_COUNT; ++i) {
+					sortNew(i);
+				}
+			}
+
+			System.out.println(String.format("Radix sort with gather: %,d ns per region", (System.nanoTime() - start) / PASSES / REGION_COUNT));
+
+			start = System.nanoTime();
+
+			for (int p = 0; p < PASSES; ++p) {
+				for (int i = 0; i < REGION_COUNT; ++i) {
+					sortIndices(i);
+				}
+			}
+
+			System.out.println(String.format("Radix sort to indices: %,d ns per region", (System.nanoTime() - start) / PASSES / REGION_COUNT));
+		}
+
+		walk(new Random(9));
+	}
+
+	/**
+	 * Moves each region's camera a little more than a block, as between resorts, and
+	 * compares resorting from the prior order with a full sort every step.
+	 */
+	void walk(Random r) {
+		final QuadPlanes[] planes = new QuadPlanes[REGION_COUNT];
+		final int[][] orders = new int[REGION_COUNT][];
+		final float[] sortPos = cameras.clone();
+		final float[] pos = cameras.clone();
+
+		for (int i = 0; i < REGION_COUNT; ++i) {
+			final int[] source = regions[i];
+			final int quadCount = source.length / QUAD_INT_STRIDE;
+			planes[i] = QuadPlanes.of(source, VERTEX_INT_STRIDE);
+			orders[i] = Arrays.copyOf(sorter.sort(source, quadCount, VERTEX_INT_STRIDE, pos[i * 3], pos[i * 3 + 1], pos[i * 3 + 2]), quadCount);
+		}
+
+		final int steps = 50;
+		final IntBuffer scratch = IntBuffer.allocate(indices.capacity());
+		int skipped = 0, incremental = 0, full = 0;
+		long resortNanos = 0, fullNanos = 0;
+
+		for (int step = 0; step < steps; ++step) {
+			for (int i = 0; i < REGION_COUNT; ++i) {
+				final int[] source = regions[i];
+				final int quadCount = source.length / QUAD_INT_STRIDE;
+				final int p = i * 3;
+				pos[p] += r.nextFloat() * 1.4f - 0.7f;
+				pos[p + 1] += r.nextFloat() * 0.6f - 0.3f;
+				pos[p + 2] += r.nextFloat() * 1.4f - 0.7f;
+
+				long start = System.nanoTime();
+				scratch.clear();
+				QuadSorter.putIndices(sorter.sort(source, quadCount, VERTEX_INT_STRIDE, pos[p], pos[p + 1], pos[p + 2]), quadCount, scratch);
+				fullNanos += System.nanoTime() - start;
+
+				final float[] expected = new float[quadCount];
+
+				for (int q = 0; q < quadCount; ++q) {
+					expected[q] = sorter.sortedDistance(q);
+				}
+
+				start = System.nanoTime();
+
+				if (planes[i].crossed(sortPos[p], sortPos[p + 1], sortPos[p + 2], pos[p], pos[p + 1], pos[p + 2])) {
+					if (sorter.resort(source, quadCount, VERTEX_INT_STRIDE, pos[p], pos[p + 1], pos[p + 2], orders[i])) {
+						++incremental;
+					} else {
+						++full;
+					}
+
+					scratch.clear();
+					QuadSorter.putIndices(orders[i], quadCount, scratch);
+					resortNanos += System.nanoTime() - start;
+					sortPos[p] = pos[p];
+					sortPos[p + 1] = pos[p + 1];
+					sortPos[p + 2] = pos[p + 2];
+
+					for (int q = 0; q < quadCount; ++q) {
+						assert sorter.sortedDistance(q) == expected[q] : "Resort order does not match full sort";
+					}
+				} else {
+					resortNanos += System.nanoTime() - start;
+					++skipped;
+				}
+			}
+		}
+
+		final int total = steps * REGION_COUNT;
+		System.out.println(String.format("Camera walk: %d skipped, %d incremental, %d full of %d resorts", skipped, incremental, full, total));
+		System.out.println(String.format("Full sort every step: %,d ns per region", fullNanos / total));
+		System.out.println(String.format("Skip or resort from prior order: %,d ns per region", resortNanos / total));
+	}
+
+	void check(int regionIndex) {
+		final int[] source = regions[regionIndex];
+		final int quadCount = source.length / QUAD_INT_STRIDE;
+		sortIndices(regionIndex);
+		assert indices.position() * 4 * 8 == source.length * 4 : "Index bytes are not an eighth of vertex bytes";
+
+		final int[] indexedIds = new int[quadCount];
+
+		for (int q = 0; q < quadCount; ++q) {
+			final int v = indices.get(q * 4);
+			assert (v & 3) == 0 && indices.get(q * 4 + 3) == v + 3 : "Indices do not address whole quads";
+			indexedIds[q] = source[v * VERTEX_INT_STRIDE + VERTEX_INT_STRIDE - 1];
+		}
+
+		sortNew(regionIndex);
+
+		for (int q = 0; q < quadCount; ++q) {
+			assert indexedIds[q] == target[q * QUAD_INT_STRIDE + VERTEX_INT_STRIDE - 1] : "Indices do not match gathered order";
+		}
+
+		sortOld(regionIndex);
+
+		final boolean[] seen = new boolean[quadCount];
+		float last = Float.MAX_VALUE;
+
+		for (int q = 0; q < quadCount; ++q) {
+			// quad id is in the last int of each vertex
+			final int id = target[q * QUAD_INT_STRIDE + VERTEX_INT_STRIDE - 1];
+			assert !seen[id] : "Quad output more than once";
+			seen[id] = true;
+
+			final float dist = sorter.sortedDistance(q);
+			assert dist <= last : "Quads not sorted farthest first";
+			last = dist;
+
+			final double oldDist = perQuadDistance[q];
+			assert Math.abs(dist - oldDist) <= 1e-3 * Math.max(1, oldDist) : "Sorted distances differ from quick sort";
+		}
+	}
+
+	void sortOld(int regionIndex) {
+		final int[] source = regions[regionIndex];
+		final int quadCount = source.length / QUAD_INT_STRIDE;
+		final double x = cameras[regionIndex * 3];
+		final double y = cameras[regionIndex * 3 + 1];
+		final double z = cameras[regionIndex * 3 + 2];
+
+		// loadState
+		System.arraycopy(source, 0, collector, 0, source.length);
+
+		for (int q = 0; q < quadCount; ++q) {
+			int i = q * QUAD_INT_STRIDE;
+			double dx = 0, dy = 0, dz = 0;
+
+			for (int v = 0; v < 4; ++v) {
+				dx += Float.intBitsToFloat(collector[i]);
+				dy += Float.intBitsToFloat(collector[i + 1]);
+				dz += Float.intBitsToFloat(collector[i + 2]);
+				i += VERTEX_INT_STRIDE;
+			}
+
+			dx = dx * 0.25 - x;
+			dy = dy * 0.25 - y;
+			dz = dz * 0.25 - z;
+			perQuadDistance[q] = dx * dx + dy * dy + dz * dz;
+		}
+
+		it.unimi.dsi.fastutil.Arrays.quickSort(0, quadCount, comparator, swapper);
+
+		// saveState
+		System.arraycopy(collector, 0, source, 0, source.length);
+	}
+
+	void sortNew(int regionIndex) {
+		final int[] source = regions[regionIndex];
+		final int quadCount = source.length / QUAD_INT_STRIDE;
+		final int[] order = sorter.sort(source, quadCount, VERTEX_INT_STRIDE, cameras[regionIndex * 3], cameras[regionIndex * 3 + 1], cameras[regionIndex * 3 + 2]);
+
+		for (int q = 0; q < quadCount; ++q) {
+			System.arraycopy(source, order[q] * QUAD_INT_STRIDE, target, q * QUAD_INT_STRIDE, QUAD_INT_STRIDE);
+		}
+	}
+
+	void sortIndices(int regionIndex) {
+		final int[] source = regions[regionIndex];
+		final int quadCount = source.length / QUAD_INT_STRIDE;
+		final int[] order = sorter.sort(source, quadCount, VERTEX_INT_STRIDE, cameras[regionIndex * 3], cameras[regionIndex * 3 + 1], cameras[regionIndex * 3 + 2]);
+		indices.clear();
+		QuadSorter.putIndices(order, quadCount, indices);
+	}
+
+	void buildRegions(Random r) {
+		final int[] data = new int[QUAD_INT_STRIDE * 4096];
+
+		for (int i = 0; i < REGION_COUNT; ++i) {
+			int quads = 0;
+
+			// ocean or lake surface, seen from above and below
+			final float surface = 1 + r.nextInt(14) + 0.875f;
+
+			for (int x = 0; x < 16; ++x) {
+				for (int z = 0; z < 16; ++z) {
+					if (r.nextInt(8) != 0) {
+						quads = addQuad(data, quads, x, surface, z, x + 1, surface, z + 1);
+						quads = addQuad(data, quads, x, surface, z + 1, x + 1, surface, z);
+					}
+				}
+			}
+
+			// shorelines and waterfalls
+			for (int n = r.nextInt(96); n > 0; --n) {
+				final int x = r.nextInt(16);
+				final int y = r.nextInt(16);
+				final int z = r.nextInt(16);
+
+				if (r.nextBoolean()) {
+					quads = addQuad(data, quads, x, y, z, x, y + 1, z + 1);
+				} else {
+					quads = addQuad(data, quads, x, y, z, x + 1, y + 1, z);
+				}
+			}
+
+			// stained glass and ice
+			if (r.nextInt(4) == 0) {
+				for (int n = r.nextInt(24); n > 0; --n) {
+					final int x = r.nextInt(16);
+					final int y = r.nextInt(16);
+					final int z = r.nextInt(16);
+					quads = addQuad(data, quads, x, y + 1, z, x + 1, y + 1, z + 1);
+					quads = addQuad(data, quads, x, y, z, x + 1, y, z + 1);
+					quads = addQuad(data, quads, x, y, z, x, y + 1, z + 1);
+					quads = addQuad(data, quads, x + 1, y, z, x + 1, y + 1, z + 1);
+					quads = addQuad(data, quads, x, y, z, x + 1, y + 1, z);
+					quads = addQuad(data, quads, x, y, z + 1, x + 1, y + 1, z + 1);
+				}
+			}
+
+			final int[] region = new int[quads * QUAD_INT_STRIDE];
+			System.arraycopy(data, 0, region, 0, region.length);
+			regions[i] = region;
+
+			// camera within a few regions
+			cameras[i * 3] = r.nextFloat() * 96 - 40;
+			cameras[i * 3 + 1] = r.nextFloat() * 48 - 16;
+			cameras[i * 3 + 2] = r.nextFloat() * 96 - 40;
+
+			if (region.length > target.length) {
+				target = new int[region.length];
+				collector = new int[region.length];
+				indices = IntBuffer.allocate(quads * 4);
+			}
+
+			if (quads > perQuadDistance.length) {
+				perQuadDistance = new double[quads];
+			}
+		}
+	}
+
+	/** Axis-aligned quad between two corners, with its index in the last int of each vertex */
+	static int addQuad(int[] data, int quad, float x0, float y0, float z0, float x1, float y1, float z1) {
+		final int i = quad * QUAD_INT_STRIDE;
+		addVertex(data, i, quad, x0, y0, z0);
+
+		if (x0 == x1) {
+			addVertex(data, i + VERTEX_INT_STRIDE, quad, x0, y1, z0);
+			addVertex(data, i + VERTEX_INT_STRIDE * 3, quad, x0, y0, z1);
+		} else if (y0 == y1) {
+			addVertex(data, i + VERTEX_INT_STRIDE, quad, x1, y0, z0);
+			addVertex(data, i + VERTEX_INT_STRIDE * 3, quad, x0, y0, z1);
+		} else {
+			addVertex(data, i + VERTEX_INT_STRIDE, quad, x1, y0, z0);
+			addVertex(data, i + VERTEX_INT_STRIDE * 3, quad, x0, y1, z0);
+		}
+
+		addVertex(data, i + VERTEX_INT_STRIDE * 2, quad, x1, y1, z1);
+		return quad + 1;
+	}
+
+	static void addVertex(int[] data, int i, int quad, float x, float y, float z) {
+		data[i] = Float.floatToRawIntBits(x);
+		data[i + 1] = Float.floatToRawIntBits(y);
+		data[i + 2] = Float.floatToRawIntBits(z);
+		data[i + VERTEX_INT_STRIDE - 1] = quad;
+	}
+}
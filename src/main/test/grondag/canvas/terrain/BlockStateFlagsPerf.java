@@ -0,0 +1,128 @@
+package grondag.canvas.terrain;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraft.Bootstrap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockRenderType;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Material;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.render.RenderLayers;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EmptyBlockView;
+
+/**
+ * Compares a flag table indexed by raw state id, as in {@link BlockStateFlags}, with the
+ * calls it replaces, on random states so neither path gets one hot cache line.  Both paths
+ * must give the same flags, which also keeps the JIT from dropping either loop.
+ *
+ * <p>Mixins are not applied here, so raw ids are looked up before timing, as the id cached on
+ * each state would be, and the render layer is compared instead of its blend mode.
+ */
+class BlockStateFlagsPerf {
+	static final int SAMPLE_COUNT = 1 << 18;
+	static final int ROUNDS = 20;
+	static final int WARMUP_ROUNDS = 10;
+
+	@Test
+	void test() {
+		Bootstrap.initialize();
+
+		final ArrayList<BlockState> states = new ArrayList<>();
+		int maxId = -1;
+
+		for (final BlockState state : Block.STATE_IDS) {
+			states.add(state);
+			maxId = Math.max(maxId, Block.STATE_IDS.getRawId(state));
+		}
+
+		final int[] table = new int[maxId + 1];
+
+		for (final BlockState state : states) {
+			table[Block.STATE_IDS.getRawId(state)] = compute(state);
+		}
+
+		final Random random = new Random(42);
+		final BlockState[] samples = new BlockState[SAMPLE_COUNT];
+		final int[] sampleIds = new int[SAMPLE_COUNT];
+
+		for (int i = 0; i < SAMPLE_COUNT; ++i) {
+			samples[i] = states.get(random.nextInt(states.size()));
+			sampleIds[i] = Block.STATE_IDS.getRawId(samples[i]);
+		}
+
+		long computeNanos = 0;
+		long lookupNanos = 0;
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			long computeSum = 0;
+			long lookupSum = 0;
+
+			final long start = System.nanoTime();
+
+			for (int i = 0; i < SAMPLE_COUNT; ++i) {
+				computeSum += compute(samples[i]);
+			}
+
+			final long mid = System.nanoTime();
+
+			for (int i = 0; i < SAMPLE_COUNT; ++i) {
+				lookupSum += table[sampleIds[i]];
+			}
+
+			final long end = System.nanoTime();
+			assert computeSum == lookupSum;
+
+			if (round >= WARMUP_ROUNDS) {
+				computeNanos += mid - start;
+				lookupNanos += end - mid;
+			}
+		}
+
+		final double count = (double) SAMPLE_COUNT * (ROUNDS - WARMUP_ROUNDS);
+		System.out.println(String.format("Block state flags for %,d states: table lookup %.2fns, virtual calls %.2fns per state", states.size(), lookupNanos / count, computeNanos / count));
+	}
+
+	/** Same calls as {@link BlockStateFlags#compute(BlockState)} */
+	static int compute(BlockState state) {
+		int result = 0;
+
+		if (state.getRenderType() != BlockRenderType.INVISIBLE) {
+			result |= BlockStateFlags.RENDERS_BLOCK;
+		}
+
+		if (!state.getFluidState().isEmpty()) {
+			result |= BlockStateFlags.HAS_FLUID;
+		}
+
+		final Block block = state.getBlock();
+
+		if (block.hasDynamicBounds()) {
+			result |= BlockStateFlags.DYNAMIC_OPACITY;
+		} else if (state.isOpaqueFullCube(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)) {
+			result |= BlockStateFlags.OPAQUE_FULL_CUBE;
+		}
+
+		if (block.getOffsetType() != Block.OffsetType.NONE) {
+			result |= BlockStateFlags.HAS_OFFSET;
+		}
+
+		final Material material = state.getMaterial();
+
+		if (material == Material.PLANT || material == Material.REPLACEABLE_PLANT
+				|| material == Material.UNDERWATER_PLANT || material == Material.REPLACEABLE_UNDERWATER_PLANT
+				|| material == Material.NETHER_SHOOTS || material == Material.COBWEB) {
+			result |= BlockStateFlags.DECORATION;
+		}
+
+		if (RenderLayers.getBlockLayer(state) != RenderLayer.getSolid()) {
+			result |= 1 << 8;
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,109 @@
+package grondag.canvas.terrain;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Writer threads insert keys, some with slow construction, while the test thread clears
+ * and prunes the map.  Every value created must be released exactly once, by the clear
+ * handler or by prune, and none may be left in the map after a final clear.
+ */
+class ConcurrentLong2ObjectMapTest {
+	static final int WRITER_COUNT = 4;
+	static final int KEY_COUNT = 20000;
+	static final int CLEAR_COUNT = 2000;
+
+	static class Value {
+		final AtomicBoolean released = new AtomicBoolean();
+	}
+
+	final AtomicInteger createdCount = new AtomicInteger();
+	final AtomicInteger releasedCount = new AtomicInteger();
+	final AtomicReference<Throwable> failure = new AtomicReference<>();
+	final ConcurrentLong2ObjectMap<Value> map = new ConcurrentLong2ObjectMap<>(256, this::release);
+	volatile boolean done = false;
+
+	@Test
+	void test() throws InterruptedException {
+		final Thread[] writers = new Thread[WRITER_COUNT];
+
+		for (int i = 0; i < WRITER_COUNT; ++i) {
+			final long seed = i;
+			writers[i] = new Thread(() -> write(seed), "Canvas test writer " + i);
+			writers[i].start();
+		}
+
+		final Random random = new Random(42);
+
+		for (int n = 0; n < CLEAR_COUNT; ++n) {
+			if ((n & 3) == 0) {
+				map.prune(v -> {
+					if (random.nextInt(4) == 0) {
+						release(v);
+						return true;
+					}
+
+					return false;
+				});
+			} else {
+				map.clear();
+			}
+
+			Thread.yield();
+		}
+
+		done = true;
+
+		for (final Thread writer : writers) {
+			writer.join();
+		}
+
+		if (failure.get() != null) {
+			throw new AssertionError("Writer failed", failure.get());
+		}
+
+		map.clear();
+
+		System.out.println(String.format("%,d values created, %,d released", createdCount.get(), releasedCount.get()));
+		assert releasedCount.get() == createdCount.get() : "Values lost by clear";
+		assert map.size() == 0;
+
+		for (long k = 1; k < KEY_COUNT; ++k) {
+			assert map.get(k) == null;
+		}
+	}
+
+	void release(Value v) {
+		assert v.released.compareAndSet(false, true) : "Value released twice";
+		releasedCount.incrementAndGet();
+	}
+
+	void write(long seed) {
+		final Random random = new Random(seed);
+
+		try {
+			while (!done) {
+				final long k = 1 + random.nextInt(KEY_COUNT - 1);
+				final boolean slow = random.nextInt(16) == 0;
+
+				final Value v = map.computeIfAbsent(k, key -> {
+					// gives clear a chance to see the slot reserved
+					if (slow) {
+						Thread.yield();
+					}
+
+					createdCount.incrementAndGet();
+					return new Value();
+				});
+
+				assert v != null;
+			}
+		} catch (final Throwable e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+}
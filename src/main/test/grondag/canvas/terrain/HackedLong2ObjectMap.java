@@ -7,6 +7,10 @@ import java.util.function.Predicate;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 
+/**
+ * Region map used before {@link ConcurrentLong2ObjectMap}: a fastutil map behind one
+ * stamped lock.  Kept only as the baseline for {@link RegionMapPerf}.
+ */
 class HackedLong2ObjectMap<T> extends Long2ObjectOpenHashMap<T> {
 	private final StampedLock lock = new StampedLock();
 	private final Consumer<T> clearHandler;
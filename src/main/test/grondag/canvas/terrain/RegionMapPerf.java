@@ -0,0 +1,147 @@
+package grondag.canvas.terrain;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import it.unimi.dsi.fastutil.Hash;
+import org.junit.jupiter.api.Test;
+
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Compares region map implementations with mixed reader and writer threads.
+ * Key space mimics a 32-chunk render distance box around a moving camera.
+ */
+class RegionMapPerf {
+	static final int OPS_PER_THREAD = 2000000;
+	static final int RADIUS = 32;
+	static final int PRUNE_INTERVAL_NANOS = 2000000;
+
+	interface RegionMap {
+		Object get(long k);
+		Object computeIfAbsent(long k, LongFunction<Object> func);
+		void prune(int cameraX);
+	}
+
+	static class HackedMap implements RegionMap {
+		final HackedLong2ObjectMap<Object> map = new HackedLong2ObjectMap<>(8192, Hash.VERY_FAST_LOAD_FACTOR, r -> {});
+
+		@Override
+		public Object get(long k) {
+			return map.get(k);
+		}
+
+		@Override
+		public Object computeIfAbsent(long k, LongFunction<Object> func) {
+			return map.computeIfAbsent(k, func);
+		}
+
+		@Override
+		public void prune(int cameraX) {
+			map.prune(o -> Math.abs(BlockPos.unpackLongX((Long) o) - cameraX) > (RADIUS + 2) * 16);
+		}
+	}
+
+	static class ConcurrentMap implements RegionMap {
+		final ConcurrentLong2ObjectMap<Object> map = new ConcurrentLong2ObjectMap<>(8192, r -> {});
+
+		@Override
+		public Object get(long k) {
+			return map.get(k);
+		}
+
+		@Override
+		public Object computeIfAbsent(long k, LongFunction<Object> func) {
+			return map.computeIfAbsent(k, func);
+		}
+
+		@Override
+		public void prune(int cameraX) {
+			map.prune(o -> Math.abs(BlockPos.unpackLongX((Long) o) - cameraX) > (RADIUS + 2) * 16);
+		}
+	}
+
+	@Test
+	void test() throws InterruptedException {
+		final int[][] mixes = {{1, 1}, {4, 1}, {8, 2}, {14, 1}, {2, 8}};
+
+		for (int pass = 0; pass < 2; ++pass) {
+			for (final int[] mix : mixes) {
+				run("Hacked", new HackedMap(), mix[0], mix[1]);
+				run("Concurrent", new ConcurrentMap(), mix[0], mix[1]);
+			}
+		}
+	}
+
+	static void run(String label, RegionMap map, int readers, int writers) throws InterruptedException {
+		final AtomicLong sink = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(readers + writers);
+		final LongFunction<Object> func = k -> Long.valueOf(k);
+		final int[] cameraX = new int[1];
+
+		for (int t = 0; t < readers + writers; ++t) {
+			final boolean isWriter = t < writers;
+			final long seed = t;
+
+			final Thread thread = new Thread(() -> {
+				final Random r = new Random(seed);
+				long s = 0;
+
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+
+				for (int i = 0; i < OPS_PER_THREAD; ++i) {
+					final int x = cameraX[0] + ((r.nextInt(RADIUS * 2 + 1) - RADIUS) << 4);
+					final int y = r.nextInt(16) << 4;
+					final int z = (r.nextInt(RADIUS * 2 + 1) - RADIUS) << 4;
+					final long k = BlockPos.asLong(x, y, z);
+					final Object o = isWriter ? map.computeIfAbsent(k, func) : map.get(k);
+
+					if (o != null) {
+						++s;
+					}
+				}
+
+				sink.addAndGet(s);
+				done.countDown();
+			});
+
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		final long n = System.nanoTime();
+		start.countDown();
+
+		// render thread moves camera and prunes while workers run
+		long nextPrune = n + PRUNE_INTERVAL_NANOS;
+		long pruneTime = 0;
+		int pruneCount = 0;
+
+		while (done.getCount() > 0) {
+			final long now = System.nanoTime();
+
+			if (now >= nextPrune) {
+				cameraX[0] += 16;
+				map.prune(cameraX[0]);
+				pruneTime += System.nanoTime() - now;
+				++pruneCount;
+				nextPrune = now + PRUNE_INTERVAL_NANOS;
+			} else {
+				Thread.yield();
+			}
+		}
+
+		final long elapsed = System.nanoTime() - n;
+		final long ops = (long) OPS_PER_THREAD * (readers + writers);
+
+		System.out.println(String.format("%s readers=%d writers=%d: %,d ns per op per thread, %,d prunes averaging %,d ns  (sink %d)",
+				label, readers, writers, elapsed * (readers + writers) / ops, pruneCount, pruneCount == 0 ? 0 : pruneTime / pruneCount, sink.get()));
+	}
+}
@@ -0,0 +1,196 @@
+package grondag.canvas.terrain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * One writer thread changes sections and a block entity map while builder threads capture
+ * them, as with off-thread world capture.  Every section holds one value in all positions
+ * and the writer fills it slowly, sometimes through a replaced or truncated array, so an
+ * inconsistent capture shows up as mixed values or an exception.  Captures must always be
+ * consistent, never go back in time, and be shared while a section is unchanged.
+ * Prints how many captures were retried or gave up.
+ */
+class SectionSnapshotCacheTest {
+	static final int SECTION_COUNT = 16;
+	static final int SECTION_SIZE = 4096;
+	static final int READER_COUNT = 4;
+	static final int WRITE_COUNT = 20000;
+	static final int BLOCK_ENTITY_COUNT = 32;
+
+	final SectionSnapshotCache<int[]> cache = new SectionSnapshotCache<>(SECTION_COUNT);
+	final int[][] sections = new int[SECTION_COUNT][SECTION_SIZE];
+	final HashMap<Integer, Integer> blockEntities = new HashMap<>();
+
+	final AtomicReference<Throwable> failure = new AtomicReference<>();
+	final AtomicInteger captureCount = new AtomicInteger();
+	final AtomicInteger failedCount = new AtomicInteger();
+	volatile boolean done = false;
+
+	@Test
+	void test() throws InterruptedException {
+		for (int i = 0; i < BLOCK_ENTITY_COUNT; ++i) {
+			blockEntities.put(i, i * 2);
+		}
+
+		final long retryStart = SectionSnapshotCache.retryCount();
+		final Thread[] readers = new Thread[READER_COUNT];
+
+		for (int i = 0; i < READER_COUNT; ++i) {
+			final long seed = i;
+			readers[i] = new Thread(() -> read(seed), "Canvas test builder " + i);
+			readers[i].start();
+		}
+
+		write();
+		done = true;
+
+		for (final Thread reader : readers) {
+			reader.join();
+		}
+
+		if (failure.get() != null) {
+			throw new AssertionError("Builder capture failed", failure.get());
+		}
+
+		System.out.println(String.format("%,d captures, %,d retries, %,d gave up", captureCount.get(), SectionSnapshotCache.retryCount() - retryStart, failedCount.get()));
+		assert captureCount.get() > failedCount.get();
+
+		// unchanged sections are captured once and shared
+		for (int s = 0; s < SECTION_COUNT; ++s) {
+			final int[] first = cache.get(s, this::capture);
+			assert first != null && first[0] == sections[s][0];
+			assert cache.get(s, i -> {
+				throw new AssertionError("Unchanged section captured again");
+			}) == first;
+		}
+
+		// a change is seen by the next capture
+		cache.beginWrite(3);
+		fill(3, sections[3][0] + 1);
+		cache.endWrite();
+		assert cache.get(3, this::capture)[0] == sections[3][0];
+	}
+
+	void write() {
+		final Random random = new Random(42);
+		int blockEntityKey = BLOCK_ENTITY_COUNT;
+
+		for (int n = 0; n < WRITE_COUNT; ++n) {
+			final int kind = random.nextInt(16);
+
+			if (kind == 0) {
+				// block entities: remove one and add one, always the same count
+				cache.beginWrite(SectionSnapshotCache.NO_SECTION);
+				blockEntities.remove(blockEntityKey - BLOCK_ENTITY_COUNT);
+				blockEntities.put(blockEntityKey, blockEntityKey * 2);
+				++blockEntityKey;
+				cache.endWrite();
+			} else if (kind == 1) {
+				// chunk reload
+				cache.beginWrite(SectionSnapshotCache.ALL_SECTIONS);
+
+				for (int s = 0; s < SECTION_COUNT; ++s) {
+					fill(s, sections[s][0] + 1);
+				}
+
+				cache.endWrite();
+			} else {
+				final int s = random.nextInt(SECTION_COUNT);
+				cache.beginWrite(s);
+
+				if (kind == 2) {
+					// container replaced, readers may see an array too small to read
+					final int[] old = sections[s];
+					sections[s] = new int[1];
+					Thread.yield();
+					sections[s] = old;
+				}
+
+				// nested change, as when setting a block also sets a block entity
+				cache.beginWrite(SectionSnapshotCache.NO_SECTION);
+				fill(s, sections[s][0] + 1);
+				cache.endWrite();
+
+				cache.endWrite();
+			}
+
+			// the main thread changes the world in bursts between other work
+			if ((n & 7) == 0) {
+				LockSupport.parkNanos(20000);
+			}
+		}
+	}
+
+	void fill(int sectionIndex, int value) {
+		final int[] section = sections[sectionIndex];
+
+		for (int i = 0; i < SECTION_SIZE; ++i) {
+			section[i] = value;
+
+			// give readers a chance to see a partial fill
+			if (i == SECTION_SIZE / 2) {
+				Thread.yield();
+			}
+		}
+	}
+
+	int[] capture(int sectionIndex) {
+		final int[] section = sections[sectionIndex];
+		final int[] result = new int[SECTION_SIZE];
+
+		for (int i = 0; i < SECTION_SIZE; ++i) {
+			result[i] = section[i];
+		}
+
+		return result;
+	}
+
+	void read(long seed) {
+		final Random random = new Random(seed);
+		final int[] lastSeen = new int[SECTION_COUNT];
+
+		try {
+			while (!done) {
+				final int s = random.nextInt(SECTION_COUNT);
+				captureCount.incrementAndGet();
+
+				if (random.nextInt(8) == 0) {
+					final ArrayList<Integer> keys = cache.read(() -> new ArrayList<>(blockEntities.keySet()));
+
+					if (keys == null) {
+						failedCount.incrementAndGet();
+					} else {
+						assert keys.size() == BLOCK_ENTITY_COUNT : "Inconsistent block entities";
+					}
+
+					continue;
+				}
+
+				final int[] snapshot = cache.get(s, this::capture);
+
+				if (snapshot == null) {
+					failedCount.incrementAndGet();
+					continue;
+				}
+
+				final int value = snapshot[0];
+
+				for (int i = 1; i < SECTION_SIZE; ++i) {
+					assert snapshot[i] == value : "Inconsistent section";
+				}
+
+				assert value >= lastSeen[s] : "Section went back in time";
+				lastSeen[s] = value;
+			}
+		} catch (final Throwable e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+}
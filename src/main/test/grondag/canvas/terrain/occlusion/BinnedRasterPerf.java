@@ -0,0 +1,283 @@
+package grondag.canvas.terrain.occlusion;
+
+import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_BITS;
+import static grondag.canvas.terrain.occlusion.Constants.V000;
+import static grondag.canvas.terrain.occlusion.Constants.V001;
+import static grondag.canvas.terrain.occlusion.Constants.V010;
+import static grondag.canvas.terrain.occlusion.Constants.V011;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+import grondag.canvas.mixinterface.Matrix4fExt;
+
+/**
+ * Replays an occluder quad stream through the serial rasterizer and
+ * through {@link BinnedRasterizer} at several thread counts.  Checks that
+ * the coverage buffers match and prints time per full redraw.
+ *
+ * <p>Stream is a synthetic landscape of terrain columns and scattered boxes
+ * around a camera looking slightly down, grouped into BFS levels by chunk distance.
+ */
+class BinnedRasterPerf {
+	static final int RADIUS = 16;
+	static final int PASSES = 200;
+
+	// region index followed by x, y, z for each of four vertices
+	static final int QUAD_STRIDE = 13;
+
+	final Matrix4L[] regionMatrix = new Matrix4L[(RADIUS * 2 + 1) * (RADIUS * 2 + 1) * 5];
+	final IntArrayList quads = new IntArrayList();
+
+	/** Index of first quad of each level, with last entry equal to quad count */
+	final IntArrayList levels = new IntArrayList();
+
+	@Test
+	void test() {
+		buildScene(new Random(42));
+
+		final int quadCount = quads.size() / QUAD_STRIDE;
+		System.out.println(String.format("Occluder stream: %,d quads in %d levels", quadCount, levels.size() - 1));
+
+		final Rasterizer serial = new Rasterizer();
+		replaySerial(serial);
+
+		final int maxThreads = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final Rasterizer source = new Rasterizer();
+			final BinnedRasterizer binner = new BinnedRasterizer(source, threads);
+			replayBinned(source, binner);
+			assert Arrays.equals(serial.tiles, source.tiles) : "Binned output does not match serial output";
+			assert Arrays.equals(serial.fullTiles, source.fullTiles) : "Binned coarse coverage does not match serial output";
+			assert Arrays.equals(serial.fullBlockRows, source.fullBlockRows) : "Binned coarse coverage does not match serial output";
+		}
+
+		for (int run = 0; run < 2; ++run) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				replaySerial(serial);
+			}
+
+			System.out.println(String.format("Serial: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				final Rasterizer source = new Rasterizer();
+				final BinnedRasterizer binner = new BinnedRasterizer(source, threads);
+				start = System.nanoTime();
+
+				for (int i = 0; i < PASSES; ++i) {
+					replayBinned(source, binner);
+				}
+
+				System.out.println(String.format("Binned, %d threads: %,d ns per redraw", threads, (System.nanoTime() - start) / PASSES));
+			}
+		}
+
+		BinnedRasterizer.shutdown();
+	}
+
+	void replaySerial(Rasterizer raster) {
+		raster.clear();
+		final int limit = quads.size();
+
+		for (int i = 0; i < limit; i += QUAD_STRIDE) {
+			setupQuad(raster, i);
+			raster.drawQuad(V000, V001, V010, V011);
+		}
+	}
+
+	void replayBinned(Rasterizer raster, BinnedRasterizer binner) {
+		raster.clear();
+		final int levelCount = levels.size() - 1;
+
+		for (int level = 0; level < levelCount; ++level) {
+			final int limit = levels.getInt(level + 1) * QUAD_STRIDE;
+
+			for (int i = levels.getInt(level) * QUAD_STRIDE; i < limit; i += QUAD_STRIDE) {
+				setupQuad(raster, i);
+				binner.add(raster, V000, V001, V010, V011);
+			}
+
+			binner.flush();
+		}
+	}
+
+	void setupQuad(Rasterizer raster, int index) {
+		final int[] q = quads.elements();
+		raster.mvpMatrix.copyFrom(regionMatrix[q[index]]);
+		raster.setupVertex(V000, q[index + 1], q[index + 2], q[index + 3]);
+		raster.setupVertex(V001, q[index + 4], q[index + 5], q[index + 6]);
+		raster.setupVertex(V010, q[index + 7], q[index + 8], q[index + 9]);
+		raster.setupVertex(V011, q[index + 10], q[index + 11], q[index + 12]);
+	}
+
+	void buildScene(Random r) {
+		final Matrix4L base = new Matrix4L();
+		final Matrix4L temp = new Matrix4L();
+		base.loadIdentity();
+		temp.copyFrom(TestMatrix.perspective(70, 2f, 0.05f, RADIUS * 64));
+		base.multiply(temp);
+		temp.copyFrom(TestMatrix.rotation(15, 30));
+		base.multiply(temp);
+
+		// camera near middle of region 0, 0, 0 at y = 72
+		final long viewX = 8L << CAMERA_PRECISION_BITS;
+		final long viewY = 72L << CAMERA_PRECISION_BITS;
+		final long viewZ = 9L << CAMERA_PRECISION_BITS;
+
+		final int[] height = new int[(RADIUS * 2 + 1) * (RADIUS * 2 + 1)];
+
+		for (int i = 0; i < height.length; ++i) {
+			height[i] = 56 + r.nextInt(12);
+		}
+
+		levels.add(0);
+
+		for (int level = 0; level <= RADIUS; ++level) {
+			for (int cx = -level; cx <= level; ++cx) {
+				for (int cz = -level; cz <= level; ++cz) {
+					if (Math.max(Math.abs(cx), Math.abs(cz)) != level) {
+						continue;
+					}
+
+					final int h = height[(cx + RADIUS) * (RADIUS * 2 + 1) + cz + RADIUS];
+
+					for (int cy = 0; cy < 5; ++cy) {
+						final int regionIndex = ((cx + RADIUS) * (RADIUS * 2 + 1) + cz + RADIUS) * 5 + cy;
+						final Matrix4L m = new Matrix4L();
+						m.copyFrom(base);
+						m.translate(((cx << 4) << CAMERA_PRECISION_BITS) - viewX, ((cy << 4) << CAMERA_PRECISION_BITS) - viewY, ((cz << 4) << CAMERA_PRECISION_BITS) - viewZ, CAMERA_PRECISION_BITS);
+						regionMatrix[regionIndex] = m;
+
+						final int floorY = cy << 4;
+
+						// terrain column
+						if (h > floorY) {
+							addBox(regionIndex, 0, 0, 0, 16, Math.min(16, h - floorY), 16, cx, cy, cz);
+						}
+
+						// trees and such just above the surface
+						if (h >= floorY && h < floorY + 16) {
+							final int y0 = h - floorY;
+
+							for (int i = r.nextInt(4); i > 0; --i) {
+								final int x0 = r.nextInt(14);
+								final int z0 = r.nextInt(14);
+								addBox(regionIndex, x0, y0, z0, x0 + 1 + r.nextInt(2), Math.min(16, y0 + 2 + r.nextInt(6)), z0 + 1 + r.nextInt(2), cx, cy, cz);
+							}
+						}
+					}
+				}
+			}
+
+			levels.add(quads.size() / QUAD_STRIDE);
+		}
+	}
+
+	/** Adds faces that face camera, same vertex order as {@link TerrainOccluder} */
+	void addBox(int region, int x0, int y0, int z0, int x1, int y1, int z1, int cx, int cy, int cz) {
+		// camera position relative to region origin
+		final int camX = 8 - (cx << 4);
+		final int camY = 72 - (cy << 4);
+		final int camZ = 9 - (cz << 4);
+
+		if (camY > y1) {
+			addQuad(region, x1, y1, z0, x0, y1, z0, x0, y1, z1, x1, y1, z1);
+		} else if (camY < y0) {
+			addQuad(region, x0, y0, z0, x1, y0, z0, x1, y0, z1, x0, y0, z1);
+		}
+
+		if (camX > x1) {
+			addQuad(region, x1, y0, z1, x1, y0, z0, x1, y1, z0, x1, y1, z1);
+		} else if (camX < x0) {
+			addQuad(region, x0, y0, z0, x0, y0, z1, x0, y1, z1, x0, y1, z0);
+		}
+
+		if (camZ < z0) {
+			addQuad(region, x1, y0, z0, x0, y0, z0, x0, y1, z0, x1, y1, z0);
+		} else if (camZ > z1) {
+			addQuad(region, x0, y0, z1, x1, y0, z1, x1, y1, z1, x0, y1, z1);
+		}
+	}
+
+	void addQuad(int region, int... vertices) {
+		quads.add(region);
+
+		for (final int v : vertices) {
+			quads.add(v);
+		}
+	}
+
+	static class TestMatrix implements Matrix4fExt {
+		final float[] m = new float[16];
+
+		static TestMatrix perspective(float fovDegrees, float aspect, float near, float far) {
+			final TestMatrix result = new TestMatrix();
+			final float f = (float) (1.0 / Math.tan(Math.toRadians(fovDegrees) * 0.5));
+			result.m[0] = f / aspect;
+			result.m[5] = f;
+			result.m[10] = (far + near) / (near - far);
+			result.m[11] = 2 * far * near / (near - far);
+			result.m[14] = -1;
+			return result;
+		}
+
+		/** Pitch down then yaw, both in degrees */
+		static TestMatrix rotation(float pitchDegrees, float yawDegrees) {
+			final double p = Math.toRadians(pitchDegrees);
+			final double y = Math.toRadians(yawDegrees);
+			final float cp = (float) Math.cos(p), sp = (float) Math.sin(p);
+			final float cy = (float) Math.cos(y), sy = (float) Math.sin(y);
+			final TestMatrix result = new TestMatrix();
+			result.m[0] = cy;
+			result.m[2] = sy;
+			result.m[4] = sp * sy;
+			result.m[5] = cp;
+			result.m[6] = -sp * cy;
+			result.m[8] = -cp * sy;
+			result.m[9] = sp;
+			result.m[10] = cp * cy;
+			result.m[15] = 1;
+			return result;
+		}
+
+		@Override public float a00() { return m[0]; }
+		@Override public float a01() { return m[1]; }
+		@Override public float a02() { return m[2]; }
+		@Override public float a03() { return m[3]; }
+		@Override public float a10() { return m[4]; }
+		@Override public float a11() { return m[5]; }
+		@Override public float a12() { return m[6]; }
+		@Override public float a13() { return m[7]; }
+		@Override public float a20() { return m[8]; }
+		@Override public float a21() { return m[9]; }
+		@Override public float a22() { return m[10]; }
+		@Override public float a23() { return m[11]; }
+		@Override public float a30() { return m[12]; }
+		@Override public float a31() { return m[13]; }
+		@Override public float a32() { return m[14]; }
+		@Override public float a33() { return m[15]; }
+
+		@Override public void a00(float val) { m[0] = val; }
+		@Override public void a01(float val) { m[1] = val; }
+		@Override public void a02(float val) { m[2] = val; }
+		@Override public void a03(float val) { m[3] = val; }
+		@Override public void a10(float val) { m[4] = val; }
+		@Override public void a11(float val) { m[5] = val; }
+		@Override public void a12(float val) { m[6] = val; }
+		@Override public void a13(float val) { m[7] = val; }
+		@Override public void a20(float val) { m[8] = val; }
+		@Override public void a21(float val) { m[9] = val; }
+		@Override public void a22(float val) { m[10] = val; }
+		@Override public void a23(float val) { m[11] = val; }
+		@Override public void a30(float val) { m[12] = val; }
+		@Override public void a31(float val) { m[13] = val; }
+		@Override public void a32(float val) { m[14] = val; }
+		@Override public void a33(float val) { m[15] = val; }
+	}
+}
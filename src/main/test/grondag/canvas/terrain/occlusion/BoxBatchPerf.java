@@ -0,0 +1,322 @@
+package grondag.canvas.terrain.occlusion;
+
+import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_BITS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+import grondag.canvas.terrain.occlusion.BinnedRasterPerf.TestMatrix;
+import grondag.canvas.terrain.occlusion.region.AreaFinder;
+import grondag.canvas.terrain.occlusion.region.BoxFinder;
+import grondag.canvas.terrain.occlusion.region.PackedBox;
+
+/**
+ * Draws region occluder boxes with one vertex transform per corner, as before
+ * {@link Rasterizer#setupBoxBatch(int[], int, int)}, and with the batch transform.
+ * Checks that the rasters match and prints time per full redraw.
+ *
+ * <p>Box lists come from {@link BoxFinder} run on the fill patterns of BoxFinderTest
+ * and on terrain-like fills of solid ground, caves and scattered blocks.
+ */
+class BoxBatchPerf {
+	static final int RADIUS = 12;
+	static final int PASSES = 200;
+
+	// camera near middle of region 0, 4, 0
+	static final int CAMERA_X = 8;
+	static final int CAMERA_Y = 72;
+	static final int CAMERA_Z = 9;
+
+	final long[] words = new long[4096];
+	final BoxFinder finder = new BoxFinder(new AreaFinder());
+
+	final ArrayList<Matrix4L> regionMatrix = new ArrayList<>();
+	final IntArrayList offsets = new IntArrayList();
+
+	/** Same layout as region occlusion data: region bounds followed by boxes sorted by range */
+	final ArrayList<int[]> regionBoxes = new ArrayList<>();
+
+	@Test
+	void test() {
+		buildScene(new Random(42));
+
+		int boxCount = 0;
+
+		for (final int[] boxes : regionBoxes) {
+			boxCount += boxes.length - 1;
+		}
+
+		System.out.println(String.format("Occluder scene: %,d regions, %,d boxes", regionBoxes.size(), boxCount));
+
+		final Rasterizer scalar = new Rasterizer();
+		final Rasterizer batch = new Rasterizer();
+
+		for (int depth = 0; depth < 2; ++depth) {
+			scalar.depthEnabled = depth == 1;
+			batch.depthEnabled = depth == 1;
+			drawScalar(scalar);
+			drawBatch(batch);
+			assert Arrays.equals(scalar.tiles, batch.tiles) : "Batch output does not match scalar output";
+			assert Arrays.equals(scalar.fullTiles, batch.fullTiles) : "Batch coarse coverage does not match scalar output";
+			assert Arrays.equals(scalar.fullBlockRows, batch.fullBlockRows) : "Batch coarse coverage does not match scalar output";
+
+			if (depth == 1) {
+				assert Arrays.equals(scalar.tileMinDepth, batch.tileMinDepth) : "Batch depth does not match scalar output";
+				assert Arrays.equals(scalar.tileMaxDepth, batch.tileMaxDepth) : "Batch depth does not match scalar output";
+			}
+		}
+
+		scalar.depthEnabled = false;
+		batch.depthEnabled = false;
+
+		for (int run = 0; run < 2; ++run) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawScalar(scalar);
+			}
+
+			System.out.println(String.format("Scalar: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawBatch(batch);
+			}
+
+			System.out.println(String.format("Batch: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			// transform alone, to separate it from rasterization
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				transformScalar(scalar);
+			}
+
+			System.out.println(String.format("Scalar transform only: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				transformBatch(batch);
+			}
+
+			System.out.println(String.format("Batch transform only: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+		}
+	}
+
+	void drawScalar(Rasterizer raster) {
+		raster.clear();
+		final int regionCount = regionBoxes.size();
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] boxes = regionBoxes.get(r);
+			raster.mvpMatrix.copyFrom(regionMatrix.get(r));
+			final int offsetX = offsets.getInt(r * 3);
+			final int offsetY = offsets.getInt(r * 3 + 1);
+			final int offsetZ = offsets.getInt(r * 3 + 2);
+
+			for (int i = 1; i < boxes.length; ++i) {
+				final int box = boxes[i];
+				final int outcome = BoxFaces.outcome(box, offsetX, offsetY, offsetZ);
+				setupCorners(raster, box, BoxFaces.DRAW_CORNERS[outcome]);
+				drawQuads(raster, BoxFaces.DRAW_QUADS[outcome]);
+			}
+		}
+	}
+
+	void drawBatch(Rasterizer raster) {
+		raster.clear();
+		final int regionCount = regionBoxes.size();
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] boxes = regionBoxes.get(r);
+			raster.mvpMatrix.copyFrom(regionMatrix.get(r));
+			final int offsetX = offsets.getInt(r * 3);
+			final int offsetY = offsets.getInt(r * 3 + 1);
+			final int offsetZ = offsets.getInt(r * 3 + 2);
+			raster.setupBoxBatch(boxes, 1, boxes.length);
+
+			for (int i = 1; i < boxes.length; ++i) {
+				final int outcome = BoxFaces.outcome(boxes[i], offsetX, offsetY, offsetZ);
+				int corners = BoxFaces.DRAW_CORNERS[outcome];
+
+				while (corners != 0) {
+					raster.setupBoxCorner(i - 1, Integer.numberOfTrailingZeros(corners));
+					corners &= corners - 1;
+				}
+
+				drawQuads(raster, BoxFaces.DRAW_QUADS[outcome]);
+			}
+		}
+	}
+
+	void transformScalar(Rasterizer raster) {
+		final int regionCount = regionBoxes.size();
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] boxes = regionBoxes.get(r);
+			raster.mvpMatrix.copyFrom(regionMatrix.get(r));
+
+			for (int i = 1; i < boxes.length; ++i) {
+				setupCorners(raster, boxes[i], 0xFF);
+			}
+		}
+	}
+
+	void transformBatch(Rasterizer raster) {
+		final int regionCount = regionBoxes.size();
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] boxes = regionBoxes.get(r);
+			raster.mvpMatrix.copyFrom(regionMatrix.get(r));
+			raster.setupBoxBatch(boxes, 1, boxes.length);
+
+			for (int i = 1; i < boxes.length; ++i) {
+				for (int corner = 0; corner < 8; ++corner) {
+					raster.setupBoxCorner(i - 1, corner);
+				}
+			}
+		}
+	}
+
+	static void setupCorners(Rasterizer raster, int box, int corners) {
+		while (corners != 0) {
+			final int corner = Integer.numberOfTrailingZeros(corners);
+			final int x = (corner & 4) == 0 ? PackedBox.x0(box) : PackedBox.x1(box);
+			final int y = (corner & 2) == 0 ? PackedBox.y0(box) : PackedBox.y1(box);
+			final int z = (corner & 1) == 0 ? PackedBox.z0(box) : PackedBox.z1(box);
+			raster.setupVertex(corner * Constants.PROJECTED_VERTEX_STRIDE, x, y, z);
+			corners &= corners - 1;
+		}
+	}
+
+	static void drawQuads(Rasterizer raster, int[] quads) {
+		for (int i = 0; i < quads.length; i += 4) {
+			raster.drawQuad(quads[i], quads[i + 1], quads[i + 2], quads[i + 3]);
+		}
+	}
+
+	void buildScene(Random r) {
+		final Matrix4L base = new Matrix4L();
+		final Matrix4L temp = new Matrix4L();
+		base.loadIdentity();
+		temp.copyFrom(TestMatrix.perspective(70, 2f, 0.05f, RADIUS * 64));
+		base.multiply(temp);
+		temp.copyFrom(TestMatrix.rotation(15, 30));
+		base.multiply(temp);
+
+		final long viewX = (long) CAMERA_X << CAMERA_PRECISION_BITS;
+		final long viewY = (long) CAMERA_Y << CAMERA_PRECISION_BITS;
+		final long viewZ = (long) CAMERA_Z << CAMERA_PRECISION_BITS;
+
+		// near to far, like BFS order
+		for (int level = 0; level <= RADIUS; ++level) {
+			for (int cx = -level; cx <= level; ++cx) {
+				for (int cz = -level; cz <= level; ++cz) {
+					if (Math.max(Math.abs(cx), Math.abs(cz)) != level) {
+						continue;
+					}
+
+					final int height = 56 + r.nextInt(12);
+
+					for (int cy = 0; cy < 5; ++cy) {
+						if (level == 0 && cy == 4) {
+							// camera region
+							continue;
+						}
+
+						Arrays.fill(words, 0);
+
+						switch (r.nextInt(8)) {
+						case 0:
+							// patterns from BoxFinderTest
+							fill(0, 0, 0, 9, 9, 9);
+							fill(8, 8, 8, 16, 16, 16);
+							break;
+						case 1:
+							fill(0, 0, 0, 3, 3, 3);
+							break;
+						default:
+							fillTerrain(r, height - (cy << 4));
+						}
+
+						addRegion(base, cx, cy, cz, viewX, viewY, viewZ);
+					}
+				}
+			}
+		}
+	}
+
+	void fillTerrain(Random r, int height) {
+		if (height > 0) {
+			fill(0, 0, 0, 16, Math.min(16, height), 16);
+
+			// caves and ore pockets
+			for (int i = r.nextInt(6); i > 0; --i) {
+				final int x = r.nextInt(12);
+				final int y = r.nextInt(12);
+				final int z = r.nextInt(12);
+				clear(x, y, z, x + 1 + r.nextInt(4), y + 1 + r.nextInt(4), z + 1 + r.nextInt(4));
+			}
+		}
+
+		// trees, walls and other scattered solids above the surface
+		if (height >= 0 && height < 15) {
+			for (int i = r.nextInt(8); i > 0; --i) {
+				final int x = r.nextInt(14);
+				final int z = r.nextInt(14);
+				fill(x, height, z, x + 1 + r.nextInt(2), Math.min(16, height + 1 + r.nextInt(6)), z + 1 + r.nextInt(2));
+			}
+		}
+	}
+
+	void addRegion(Matrix4L base, int cx, int cy, int cz, long viewX, long viewY, long viewZ) {
+		finder.findBoxes(words, 0);
+		final IntArrayList found = finder.boxes;
+		final int[] boxes = new int[found.size() + 1];
+
+		for (int i = 0; i < found.size(); ++i) {
+			boxes[i + 1] = found.getInt(i);
+		}
+
+		final Matrix4L m = new Matrix4L();
+		m.copyFrom(base);
+		final long originX = (long) (cx << 4) << CAMERA_PRECISION_BITS;
+		final long originY = (long) (cy << 4) << CAMERA_PRECISION_BITS;
+		final long originZ = (long) (cz << 4) << CAMERA_PRECISION_BITS;
+		m.translate(originX - viewX, originY - viewY, originZ - viewZ, CAMERA_PRECISION_BITS);
+
+		regionMatrix.add(m);
+		regionBoxes.add(boxes);
+		offsets.add((int) (originX - viewX));
+		offsets.add((int) (originY - viewY));
+		offsets.add((int) (originZ - viewZ));
+	}
+
+	void fill(int x0, int y0, int z0, int x1, int y1, int z1) {
+		for (int x = x0; x < x1; x++) {
+			for (int y = y0; y < y1; y++) {
+				for (int z = z0; z < z1; z++) {
+					final int index = x | (y << 4) | (z << 8);
+					words[index >> 6] |= (1L << (index & 63));
+				}
+			}
+		}
+	}
+
+	void clear(int x0, int y0, int z0, int x1, int y1, int z1) {
+		for (int x = x0; x < x1; x++) {
+			for (int y = y0; y < y1; y++) {
+				for (int z = z0; z < z1; z++) {
+					final int index = x | (y << 4) | (z << 8);
+					words[index >> 6] &= ~(1L << (index & 63));
+				}
+			}
+		}
+	}
+}
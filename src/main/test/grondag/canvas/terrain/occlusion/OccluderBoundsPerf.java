@@ -0,0 +1,270 @@
+package grondag.canvas.terrain.occlusion;
+
+import static grondag.canvas.terrain.occlusion.Constants.CAMERA_PRECISION_BITS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+import grondag.canvas.terrain.occlusion.BinnedRasterPerf.TestMatrix;
+import grondag.canvas.terrain.occlusion.region.AreaFinder;
+import grondag.canvas.terrain.occlusion.region.BoxFinder;
+import grondag.canvas.terrain.occlusion.region.PackedBox;
+
+/**
+ * Compares full occluder redraw with a matrix set up for each region from packed boxes,
+ * as done before regions cached world-space bounds, and with cached bounds and one world
+ * matrix per scene.  Runs at 16 and 32 chunk render distance, well away from world origin.
+ *
+ * <p>Bounds are cached before timing, as they would be after the first scene.  Region-relative
+ * and world-space matrices round differently in the last bit, so a few edge tiles may differ.
+ */
+class OccluderBoundsPerf {
+	static final int PASSES = 20;
+	static final int TEMPLATE_COUNT = 64;
+
+	static final int CAMERA_X = 100008;
+	static final int CAMERA_Y = 72;
+	static final int CAMERA_Z = -200009;
+
+	final long viewX = (long) CAMERA_X << CAMERA_PRECISION_BITS;
+	final long viewY = (long) CAMERA_Y << CAMERA_PRECISION_BITS;
+	final long viewZ = (long) CAMERA_Z << CAMERA_PRECISION_BITS;
+
+	final Matrix4L baseMvp = new Matrix4L();
+	final Matrix4L worldMvp = new Matrix4L();
+
+	/** Packed boxes of each region, starting at index 1 as in region occlusion data */
+	final ArrayList<int[]> regionBoxes = new ArrayList<>();
+	final ArrayList<int[]> regionBounds = new ArrayList<>();
+	final IntArrayList origins = new IntArrayList();
+
+	@Test
+	void test() {
+		final Matrix4L temp = new Matrix4L();
+		baseMvp.loadIdentity();
+		temp.copyFrom(TestMatrix.perspective(70, 2f, 0.05f, 32 * 64));
+		baseMvp.multiply(temp);
+		temp.copyFrom(TestMatrix.rotation(15, 30));
+		baseMvp.multiply(temp);
+
+		worldMvp.copyFrom(baseMvp);
+		worldMvp.translate(-viewX, -viewY, -viewZ, CAMERA_PRECISION_BITS);
+
+		final int[][] templates = buildTemplates(new Random(42));
+
+		for (final int radius : new int[] {16, 32}) {
+			buildScene(new Random(7), templates, radius);
+			run(radius);
+		}
+	}
+
+	void run(int radius) {
+		int boxCount = 0;
+
+		for (final int[] boxes : regionBoxes) {
+			boxCount += boxes.length - 1;
+		}
+
+		System.out.println(String.format("Render distance %d: %,d regions, %,d boxes", radius, regionBoxes.size(), boxCount));
+
+		final Rasterizer relative = new Rasterizer();
+		final Rasterizer world = new Rasterizer();
+		drawRelative(relative, true);
+		drawWorld(world, true);
+
+		int diff = 0;
+
+		for (int i = 0; i < relative.tiles.length; ++i) {
+			diff += Long.bitCount(relative.tiles[i] ^ world.tiles[i]);
+		}
+
+		System.out.println(String.format("Pixels that differ: %,d of %,d", diff, relative.tiles.length * 64));
+		assert diff * 1000 < relative.tiles.length * 64 : "Cached bounds output does not match region output";
+
+		for (int run = 0; run < 2; ++run) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawRelative(relative, true);
+			}
+
+			System.out.println(String.format("Per-region matrix: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawWorld(world, true);
+			}
+
+			System.out.println(String.format("Cached bounds: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			// setup only, to separate it from rasterization
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawRelative(relative, false);
+			}
+
+			System.out.println(String.format("Per-region matrix setup only: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+
+			start = System.nanoTime();
+
+			for (int i = 0; i < PASSES; ++i) {
+				drawWorld(world, false);
+			}
+
+			System.out.println(String.format("Cached bounds setup only: %,d ns per redraw", (System.nanoTime() - start) / PASSES));
+		}
+	}
+
+	void drawRelative(Rasterizer raster, boolean draw) {
+		raster.clear();
+		final int regionCount = regionBoxes.size();
+		final Matrix4L mvp = raster.mvpMatrix;
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] boxes = regionBoxes.get(r);
+			final int offsetX = (int) (((long) origins.getInt(r * 3) << CAMERA_PRECISION_BITS) - viewX);
+			final int offsetY = (int) (((long) origins.getInt(r * 3 + 1) << CAMERA_PRECISION_BITS) - viewY);
+			final int offsetZ = (int) (((long) origins.getInt(r * 3 + 2) << CAMERA_PRECISION_BITS) - viewZ);
+			mvp.copyFrom(baseMvp);
+			mvp.translate(offsetX, offsetY, offsetZ, CAMERA_PRECISION_BITS);
+			raster.setupBoxBatch(boxes, 1, boxes.length);
+
+			for (int i = 1; i < boxes.length; ++i) {
+				drawBox(raster, i - 1, BoxFaces.outcome(boxes[i], offsetX, offsetY, offsetZ), draw);
+			}
+		}
+	}
+
+	void drawWorld(Rasterizer raster, boolean draw) {
+		raster.clear();
+		final int regionCount = regionBounds.size();
+		raster.mvpMatrix.copyFrom(worldMvp);
+
+		for (int r = 0; r < regionCount; ++r) {
+			final int[] bounds = regionBounds.get(r);
+			final int count = regionBoxes.get(r).length - 1;
+			raster.setupBoundsBatch(bounds, count);
+
+			for (int i = 0; i < count; ++i) {
+				drawBox(raster, i, BoxFaces.worldOutcome(bounds, i * PackedBox.WORLD_BOUNDS_STRIDE, viewX, viewY, viewZ), draw);
+			}
+		}
+	}
+
+	static void drawBox(Rasterizer raster, int batchIndex, int outcome, boolean draw) {
+		int corners = BoxFaces.DRAW_CORNERS[outcome];
+
+		while (corners != 0) {
+			raster.setupBoxCorner(batchIndex, Integer.numberOfTrailingZeros(corners));
+			corners &= corners - 1;
+		}
+
+		if (draw) {
+			final int[] quads = BoxFaces.DRAW_QUADS[outcome];
+
+			for (int i = 0; i < quads.length; i += 4) {
+				raster.drawQuad(quads[i], quads[i + 1], quads[i + 2], quads[i + 3]);
+			}
+		}
+	}
+
+	void buildScene(Random r, int[][] templates, int radius) {
+		regionBoxes.clear();
+		regionBounds.clear();
+		origins.clear();
+
+		final int cameraChunkX = CAMERA_X >> 4;
+		final int cameraChunkZ = CAMERA_Z >> 4;
+
+		// near to far, like BFS order
+		for (int level = 0; level <= radius; ++level) {
+			for (int cx = -level; cx <= level; ++cx) {
+				for (int cz = -level; cz <= level; ++cz) {
+					if (Math.max(Math.abs(cx), Math.abs(cz)) != level) {
+						continue;
+					}
+
+					for (int cy = 0; cy < 5; ++cy) {
+						if (level == 0 && cy == 4) {
+							// camera region
+							continue;
+						}
+
+						final int[] boxes = templates[r.nextInt(TEMPLATE_COUNT)];
+						final int originX = (cameraChunkX + cx) << 4;
+						final int originY = cy << 4;
+						final int originZ = (cameraChunkZ + cz) << 4;
+						regionBoxes.add(boxes);
+						regionBounds.add(PackedBox.toWorldBounds(boxes, 1, boxes.length, originX, originY, originZ, null));
+						origins.add(originX);
+						origins.add(originY);
+						origins.add(originZ);
+					}
+				}
+			}
+		}
+	}
+
+	static int[][] buildTemplates(Random r) {
+		final long[] words = new long[4096];
+		final BoxFinder finder = new BoxFinder(new AreaFinder());
+		final int[][] result = new int[TEMPLATE_COUNT][];
+
+		for (int t = 0; t < TEMPLATE_COUNT; ++t) {
+			Arrays.fill(words, 0);
+			final int height = r.nextInt(20);
+			fill(words, 0, 0, 0, 16, Math.min(16, height), 16, true);
+
+			// caves and ore pockets
+			for (int i = r.nextInt(6); i > 0; --i) {
+				final int x = r.nextInt(12);
+				final int y = r.nextInt(12);
+				final int z = r.nextInt(12);
+				fill(words, x, y, z, x + 1 + r.nextInt(4), y + 1 + r.nextInt(4), z + 1 + r.nextInt(4), false);
+			}
+
+			// scattered solids above the surface
+			if (height < 15) {
+				for (int i = r.nextInt(8); i > 0; --i) {
+					final int x = r.nextInt(14);
+					final int z = r.nextInt(14);
+					fill(words, x, height, z, x + 1 + r.nextInt(2), Math.min(16, height + 1 + r.nextInt(6)), z + 1 + r.nextInt(2), true);
+				}
+			}
+
+			finder.findBoxes(words, 0);
+			final IntArrayList found = finder.boxes;
+			final int[] boxes = new int[found.size() + 1];
+
+			for (int i = 0; i < found.size(); ++i) {
+				boxes[i + 1] = found.getInt(i);
+			}
+
+			result[t] = boxes;
+		}
+
+		return result;
+	}
+
+	static void fill(long[] words, int x0, int y0, int z0, int x1, int y1, int z1, boolean set) {
+		for (int x = x0; x < x1; x++) {
+			for (int y = y0; y < y1; y++) {
+				for (int z = z0; z < z1; z++) {
+					final int index = x | (y << 4) | (z << 8);
+
+					if (set) {
+						words[index >> 6] |= (1L << (index & 63));
+					} else {
+						words[index >> 6] &= ~(1L << (index & 63));
+					}
+				}
+			}
+		}
+	}
+}